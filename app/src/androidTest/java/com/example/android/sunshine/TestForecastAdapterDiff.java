@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utils.PollingCheck;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link ForecastAdapter} only binds the days that changed when a new forecast is
+ * swapped in, and compares the number of binds and the time spent on the main thread with
+ * rebinding every row. The results are written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastAdapterDiff {
+
+    private static final String TAG = TestForecastAdapterDiff.class.getSimpleName();
+
+    private static final int DAY_COUNT = 14;
+
+    private static final int CHANGED_DAY = 3;
+
+    private static final int ITERATIONS = 50;
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+
+    private final Context mContext = new ContextThemeWrapper(
+            InstrumentationRegistry.getTargetContext(), R.style.AppTheme_Forecast);
+
+    private CountingForecastAdapter mAdapter;
+    private RecyclerView mRecyclerView;
+
+    @Before
+    public void setUp() {
+        final Context context = mContext;
+        final ForecastSnapshot forecast = createForecast(0);
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter = new CountingForecastAdapter(context);
+                mRecyclerView = new RecyclerView(context);
+                mRecyclerView.setLayoutManager(new LinearLayoutManager(context));
+                mRecyclerView.setAdapter(mAdapter);
+                mAdapter.swapForecast(forecast);
+                layOut();
+            }
+        });
+    }
+
+    @Test
+    public void testOnlyTheChangedDayIsBound() {
+        int boundBefore = mAdapter.mBindCount;
+
+        swapAndWaitForUpdate(createForecast(1));
+
+        assertEquals("Only the day that changed should be bound again",
+                1, mAdapter.mBindCount - boundBefore);
+        assertEquals(DAY_COUNT, mAdapter.getItemCount());
+    }
+
+    @Test
+    public void benchmarkSyncChangingOneDay() {
+        long fullRebindNanos = 0;
+        int fullRebindBinds = 0;
+        long diffNanos = 0;
+        int diffBinds = 0;
+
+        for (int i = 1; i <= ITERATIONS; i++) {
+            final long[] elapsedNanos = new long[1];
+            int boundBefore = mAdapter.mBindCount;
+
+            /* What swapping the forecast used to do */
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    mAdapter.notifyDataSetChanged();
+                    layOut();
+                    elapsedNanos[0] = System.nanoTime() - start;
+                }
+            });
+            fullRebindNanos += elapsedNanos[0];
+            fullRebindBinds += mAdapter.mBindCount - boundBefore;
+
+            /* ForecastLoader builds the forecast in the background */
+            ForecastSnapshot forecast = createForecast(i);
+            boundBefore = mAdapter.mBindCount;
+            diffNanos += swapAndWaitForUpdate(forecast);
+            diffBinds += mAdapter.mBindCount - boundBefore;
+        }
+
+        assertTrue("Comparing the forecasts should bind fewer rows",
+                diffBinds < fullRebindBinds);
+
+        Log.i(TAG, "A sync changing 1 of " + DAY_COUNT + " days, "
+                + mRecyclerView.getChildCount() + " on screen, average of " + ITERATIONS + ":"
+                + "\n  rebinding every row: " + fullRebindBinds / ITERATIONS + " binds, "
+                + TimeUnit.NANOSECONDS.toMicros(fullRebindNanos / ITERATIONS)
+                + " us on the main thread"
+                + "\n  comparing forecasts: " + diffBinds / ITERATIONS + " binds, "
+                + TimeUnit.NANOSECONDS.toMicros(diffNanos / ITERATIONS)
+                + " us on the main thread");
+    }
+
+    /**
+     * Swaps the forecast in, waits for the comparison to be dispatched and lays the list out.
+     *
+     * @return The time spent on the main thread to swap the forecast and lay the list out
+     */
+    private long swapAndWaitForUpdate(final ForecastSnapshot forecast) {
+        final long[] elapsedNanos = new long[1];
+        final int updatesBefore = mAdapter.mUpdateCount;
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                mAdapter.swapForecast(forecast);
+                elapsedNanos[0] = System.nanoTime() - start;
+            }
+        });
+
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return mAdapter.mUpdateCount != updatesBefore;
+            }
+        }.run();
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                layOut();
+                elapsedNanos[0] += System.nanoTime() - start;
+            }
+        });
+
+        return elapsedNanos[0];
+    }
+
+    private void layOut() {
+        mRecyclerView.measure(
+                View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(1920, View.MeasureSpec.EXACTLY));
+        mRecyclerView.layout(0, 0, 1080, 1920);
+    }
+
+    /**
+     * Creates a forecast starting today, in which the high temperature of {@link #CHANGED_DAY}
+     * depends on the version, so that each version differs from the previous one by one day.
+     */
+    private ForecastSnapshot createForecast(int version) {
+        MatrixCursor cursor = new MatrixCursor(MainActivity.MAIN_FORECAST_PROJECTION);
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        for (int i = 0; i < DAY_COUNT; i++) {
+            double high = i == CHANGED_DAY ? 20 + version % 10 : 20;
+            cursor.addRow(new Object[]{
+                    today + i * SunshineDateUtils.DAY_IN_MILLIS, high, 10.0, 800});
+        }
+        ForecastSnapshot forecast = ForecastSnapshot.of(mContext, cursor,
+                mContext.getResources().getBoolean(R.bool.use_today_layout));
+        cursor.close();
+        return forecast;
+    }
+
+    /**
+     * Counts the rows it binds and the updates dispatched to it.
+     */
+    private static class CountingForecastAdapter extends ForecastAdapter {
+
+        int mBindCount;
+        volatile int mUpdateCount;
+
+        CountingForecastAdapter(Context context) {
+            super(context, new ForecastAdapterOnClickHandler() {
+                @Override
+                public void onClick(long date) {
+                }
+            });
+
+            registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    mUpdateCount++;
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    mUpdateCount++;
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    mUpdateCount++;
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    mUpdateCount++;
+                }
+            });
+        }
+
+        @Override
+        public void onBindViewHolder(ForecastAdapterViewHolder holder, int position) {
+            mBindCount++;
+            super.onBindViewHolder(holder, position);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.app.Instrumentation;
+import android.database.MatrixCursor;
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SdkSuppress;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utils.PollingCheck;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Flings the forecast list of {@link MainActivity} up and down through a forecast as long as
+ * those of 50 locations together, and writes the frame times to logcat under the tag of this
+ * class, along with the time it took to format the rows in the background, which binding them
+ * used to take on the main thread.
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = Build.VERSION_CODES.JELLY_BEAN)
+public class TestForecastListFling {
+
+    private static final String TAG = TestForecastListFling.class.getSimpleName();
+
+    private static final int ROW_COUNT = 50 * 14;
+
+    private static final int FLING_COUNT = 6;
+
+    private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+
+    @Rule
+    public final ActivityTestRule<MainActivity> mActivityRule =
+            new ActivityTestRule<>(MainActivity.class);
+
+    private final List<Long> mFrameIntervals = new ArrayList<>();
+    private long mLastFrameTimeNanos;
+    private boolean mRecording;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRecording) return;
+            if (mLastFrameTimeNanos != 0) {
+                mFrameIntervals.add(frameTimeNanos - mLastFrameTimeNanos);
+            }
+            mLastFrameTimeNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    @Test
+    public void benchmarkFlingLongForecast() {
+        final MainActivity activity = mActivityRule.getActivity();
+        final RecyclerView recyclerView =
+                (RecyclerView) activity.findViewById(R.id.recyclerview_forecast);
+
+        /* This is what ForecastLoader does in the background */
+        long formatStart = System.nanoTime();
+        final ForecastSnapshot forecast = createLongForecast(activity);
+        long formatNanos = System.nanoTime() - formatStart;
+
+        /* Our own adapter, so that the loader of the activity doesn't replace the forecast */
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ForecastAdapter adapter = new ForecastAdapter(activity,
+                        new ForecastAdapter.ForecastAdapterOnClickHandler() {
+                            @Override
+                            public void onClick(long date) {
+                            }
+                        });
+                adapter.swapForecast(forecast);
+                recyclerView.setAdapter(adapter);
+                recyclerView.setVisibility(View.VISIBLE);
+            }
+        });
+        mInstrumentation.waitForIdleSync();
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRecording = true;
+                Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            }
+        });
+
+        for (int i = 0; i < FLING_COUNT; i++) {
+            final int direction = i % 2 == 0 ? 1 : -1;
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    recyclerView.fling(0, direction * recyclerView.getMaxFlingVelocity());
+                }
+            });
+            new PollingCheck(10000) {
+                @Override
+                protected boolean check() {
+                    return recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE;
+                }
+            }.run();
+        }
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRecording = false;
+            }
+        });
+
+        assertTrue("No frames were drawn during the flings", mFrameIntervals.size() > 0);
+
+        List<Long> intervals = new ArrayList<>(mFrameIntervals);
+        Collections.sort(intervals);
+        int jankyFrames = 0;
+        for (long interval : intervals) {
+            /* A frame that took longer than one and a half vsyncs made the next one miss its own */
+            if (interval > FRAME_NANOS * 3 / 2) jankyFrames++;
+        }
+
+        Log.i(TAG, FLING_COUNT + " flings through " + ROW_COUNT + " rows: "
+                + intervals.size() + " frames, " + jankyFrames + " janky"
+                + "\n  frame time p50 " + toMicros(percentile(intervals, 50))
+                + " us, p90 " + toMicros(percentile(intervals, 90))
+                + " us, p99 " + toMicros(percentile(intervals, 99))
+                + " us, max " + toMicros(intervals.get(intervals.size() - 1)) + " us"
+                + "\n  formatting took " + toMicros(formatNanos / ROW_COUNT)
+                + " us per row in the background, instead of on the main thread in each bind");
+    }
+
+    private static ForecastSnapshot createLongForecast(MainActivity activity) {
+        MatrixCursor cursor = new MatrixCursor(MainActivity.MAIN_FORECAST_PROJECTION, ROW_COUNT);
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        int[] weatherIds = {200, 300, 500, 600, 741, 800, 801, 804};
+        for (int i = 0; i < ROW_COUNT; i++) {
+            cursor.addRow(new Object[]{
+                    today + i * SunshineDateUtils.DAY_IN_MILLIS,
+                    15.0 + i % 10,
+                    5.0 + i % 7,
+                    weatherIds[i % weatherIds.length]});
+        }
+        ForecastSnapshot forecast = ForecastSnapshot.of(activity, cursor,
+                activity.getResources().getBoolean(R.bool.use_today_layout));
+        cursor.close();
+        return forecast;
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percentile / 100));
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
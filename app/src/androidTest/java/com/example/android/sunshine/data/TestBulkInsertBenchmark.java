@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static com.example.android.sunshine.data.TestUtilities.DATE_NORMALIZED;
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares inserting weather with SQLiteDatabase#insert, the way bulkInsert used to, against
+ * inserting it through a {@link WeatherInsertStatement} that is compiled once per transaction.
+ * Rows are written in transactions of {@link #ROWS_PER_TRANSACTION} and spread over
+ * {@link #LOCATIONS} locations, which is what a sync of many locations or a long history looks
+ * like. The results are written to logcat under the tag of this
+ * class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestBulkInsertBenchmark {
+
+    private static final String TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final String BENCHMARK_DATABASE_NAME = "bulk_insert_benchmark.db";
+
+    private static final int ROWS_PER_TRANSACTION = 1000;
+
+    private static final int LOCATIONS = 50;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        File databaseFile = mContext.getDatabasePath(BENCHMARK_DATABASE_NAME);
+        databaseFile.getParentFile().mkdirs();
+        mDatabase = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
+        new WeatherDbHelper(mContext).onCreate(mDatabase);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+    }
+
+    @Test
+    public void benchmark10kRows() {
+        runBenchmark(10000);
+    }
+
+    @Test
+    public void benchmark100kRows() {
+        runBenchmark(100000);
+    }
+
+    @LargeTest
+    @Test
+    public void benchmark1mRows() {
+        runBenchmark(1000000);
+    }
+
+    private void runBenchmark(int rowCount) {
+        ContentValues[] chunk = TestUtilities.createBulkInsertTestWeatherValues();
+        ContentValues[] transactionValues = new ContentValues[ROWS_PER_TRANSACTION];
+        for (int i = 0; i < ROWS_PER_TRANSACTION; i++) {
+            transactionValues[i] = new ContentValues(chunk[i % chunk.length]);
+        }
+
+        long insertNanos = insertRows(rowCount, transactionValues, false);
+        assertEquals(rowCount, DatabaseUtils.queryNumEntries(mDatabase,
+                WeatherContract.WeatherEntry.TABLE_NAME));
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+
+        long statementNanos = insertRows(rowCount, transactionValues, true);
+        assertEquals(rowCount, DatabaseUtils.queryNumEntries(mDatabase,
+                WeatherContract.WeatherEntry.TABLE_NAME));
+
+        Log.i(TAG, rowCount + " rows"
+                + "\n  SQLiteDatabase#insert:  " + insertNanos / 1000000 + " ms, "
+                + rowsPerSecond(rowCount, insertNanos) + " rows/sec"
+                + "\n  WeatherInsertStatement: " + statementNanos / 1000000 + " ms, "
+                + rowsPerSecond(rowCount, statementNanos) + " rows/sec");
+    }
+
+    private long insertRows(int rowCount, ContentValues[] transactionValues, boolean compiled) {
+        long start = System.nanoTime();
+
+        for (int firstRow = 0; firstRow < rowCount; firstRow += ROWS_PER_TRANSACTION) {
+            int rowsInTransaction = Math.min(ROWS_PER_TRANSACTION, rowCount - firstRow);
+
+            mDatabase.beginTransaction();
+            try {
+                WeatherInsertStatement insertStatement =
+                        compiled ? WeatherInsertStatement.compile(mDatabase) : null;
+
+                for (int i = 0; i < rowsInTransaction; i++) {
+                    ContentValues values = transactionValues[i];
+                    int row = firstRow + i;
+
+                    /*
+                     * Every row needs a location and date pair of its own, or it would replace an
+                     * earlier row
+                     */
+                    long locationId = 1 + row % LOCATIONS;
+                    values.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID, locationId);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                            DATE_NORMALIZED + (row / LOCATIONS) * DateUtils.DAY_IN_MILLIS);
+
+                    if (compiled) {
+                        insertStatement.insert(values, locationId);
+                    } else {
+                        mDatabase.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    }
+                }
+
+                if (compiled) {
+                    insertStatement.close();
+                }
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static long rowsPerSecond(int rowCount, long nanos) {
+        return rowCount * 1000000000L / Math.max(nanos, 1);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link ForecastCache} answers queries exactly like SQLite does, that it notices
+ * writes, and how much it saves. The benchmark results are written to logcat under the tag of
+ * this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastCache {
+
+    private static final String TAG = TestForecastCache.class.getSimpleName();
+
+    private static final int BENCHMARK_QUERIES = 500;
+
+    /* The columns MainActivity asks for */
+    private static final String[] FORECAST_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID,
+    };
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    private ContentValues[] mWeatherValues;
+
+    @Before
+    public void setUp() {
+        mContentResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mWeatherValues = createBulkInsertTestWeatherValues();
+        mContentResolver.bulkInsert(WeatherEntry.CONTENT_URI, mWeatherValues);
+    }
+
+    @After
+    public void tearDown() {
+        ForecastCache.setEnabled(true);
+        mContentResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testCachedQueriesMatchSQLite() {
+        long fromDate = mWeatherValues[3].getAsLong(WeatherEntry.COLUMN_DATE);
+        String selection = WeatherEntry.getSqlSelectForTodayOnwards();
+        String[] selectionArgs = {Long.toString(fromDate)};
+        Uri dateUri = WeatherEntry.buildWeatherUriWithDate(fromDate);
+
+        Cursor[] cached = {
+                query(WeatherEntry.CONTENT_URI, null, null, null),
+                query(WeatherEntry.CONTENT_URI, FORECAST_PROJECTION, selection, selectionArgs),
+                query(dateUri, null, null, null),
+        };
+
+        ForecastCache.setEnabled(false);
+
+        Cursor[] uncached = {
+                query(WeatherEntry.CONTENT_URI, null, null, null),
+                query(WeatherEntry.CONTENT_URI, FORECAST_PROJECTION, selection, selectionArgs),
+                query(dateUri, null, null, null),
+        };
+
+        for (int i = 0; i < cached.length; i++) {
+            assertSameRows("Query " + i, uncached[i], cached[i]);
+        }
+    }
+
+    @Test
+    public void testWritesInvalidateTheCache() {
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, countRows());
+
+        long deletedDate = mWeatherValues[0].getAsLong(WeatherEntry.COLUMN_DATE);
+        mContentResolver.delete(WeatherEntry.buildWeatherUriWithDate(deletedDate), null, null);
+        assertEquals("Delete didn't invalidate the cache",
+                BULK_INSERT_RECORDS_TO_INSERT - 1, countRows());
+
+        mContentResolver.bulkInsert(WeatherEntry.CONTENT_URI, mWeatherValues);
+        assertEquals("Bulk insert didn't invalidate the cache",
+                BULK_INSERT_RECORDS_TO_INSERT, countRows());
+
+        ContentValues update = new ContentValues();
+        update.put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        mContentResolver.update(WeatherEntry.buildWeatherUriWithDate(deletedDate),
+                update, null, null);
+
+        Cursor cursor = query(WeatherEntry.buildWeatherUriWithDate(deletedDate), null, null,
+                null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Update didn't invalidate the cache", 100.0,
+                cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        cursor.close();
+    }
+
+    @Test
+    public void testOnlyWritesToThePrimaryLocationInvalidateTheCache() {
+        Uri otherLocationUri = WeatherEntry.buildWeatherUriForLocation(2);
+        try {
+            countRows();
+            long misses = ForecastCache.getMissCount();
+
+            mContentResolver.bulkInsert(otherLocationUri, mWeatherValues);
+            countRows();
+            assertEquals("A write to another location invalidated the cache",
+                    misses, ForecastCache.getMissCount());
+
+            /* The primary location written through the URI of its ID is still the primary one */
+            long deletedDate = mWeatherValues[0].getAsLong(WeatherEntry.COLUMN_DATE);
+            mContentResolver.delete(WeatherEntry.buildWeatherUriForLocationWithDate(
+                    WeatherContract.LocationEntry.PRIMARY_LOCATION_ID, deletedDate), null, null);
+            assertEquals("A write to the primary location didn't invalidate the cache",
+                    BULK_INSERT_RECORDS_TO_INSERT - 1, countRows());
+            assertEquals(misses + 1, ForecastCache.getMissCount());
+        } finally {
+            mContentResolver.delete(otherLocationUri, null, null);
+        }
+    }
+
+    @Test
+    public void testHitsAndMissesAreCounted() {
+        long hits = ForecastCache.getHitCount();
+        long misses = ForecastCache.getMissCount();
+
+        countRows();
+        countRows();
+        countRows();
+
+        assertEquals(misses + 1, ForecastCache.getMissCount());
+        assertEquals(hits + 2, ForecastCache.getHitCount());
+    }
+
+    @Test
+    public void benchmarkForecastQueries() {
+        long cachedNanos = timeForecastQueries();
+
+        ForecastCache.setEnabled(false);
+        long uncachedNanos = timeForecastQueries();
+
+        Log.i(TAG, BENCHMARK_QUERIES + " forecast queries"
+                + "\n  with ForecastCache:    " + cachedNanos / 1000 + " us"
+                + "\n  without ForecastCache: " + uncachedNanos / 1000 + " us");
+    }
+
+    private long timeForecastQueries() {
+        /* Warm up, so that we don't measure opening the database or loading the snapshot */
+        countRows();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            Cursor cursor = query(WeatherEntry.CONTENT_URI, FORECAST_PROJECTION,
+                    WeatherEntry.getSqlSelectForTodayOnwards(),
+                    WeatherEntry.getSqlSelectionArgsForTodayOnwards());
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                cursor.getDouble(1);
+                cursor.getDouble(2);
+                cursor.getInt(3);
+            }
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private int countRows() {
+        Cursor cursor = query(WeatherEntry.CONTENT_URI, FORECAST_PROJECTION, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private Cursor query(Uri uri, String[] projection, String selection,
+                         String[] selectionArgs) {
+        return mContentResolver.query(uri, projection, selection, selectionArgs,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private static void assertSameRows(String error, Cursor expected, Cursor actual) {
+        try {
+            assertEquals(error + ": row count", expected.getCount(), actual.getCount());
+            assertEquals(error + ": column count",
+                    expected.getColumnCount(), actual.getColumnCount());
+
+            while (expected.moveToNext()) {
+                assertTrue(actual.moveToNext());
+                for (int column = 0; column < expected.getColumnCount(); column++) {
+                    String columnName = expected.getColumnName(column);
+                    int actualColumn = actual.getColumnIndexOrThrow(columnName);
+                    assertEquals(error + ": " + columnName,
+                            expected.getDouble(column), actual.getDouble(actualColumn));
+                }
+            }
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+}
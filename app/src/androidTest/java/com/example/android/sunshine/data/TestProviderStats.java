@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.ProviderStatsEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.sunshine.data.TestUtilities.DATE_NORMALIZED;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the statistics {@link WeatherProvider} keeps about its own operations in debug builds,
+ * and measures what keeping them costs. The benchmark results are written to logcat under the
+ * tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestProviderStats {
+
+    private static final String TAG = TestProviderStats.class.getSimpleName();
+
+    /* Not the primary location, so that ForecastCache stays out of the way */
+    private static final long LOCATION_ID = 2;
+
+    private static final int DAYS = 14;
+
+    private static final int BENCHMARK_QUERIES = 2000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    private final Uri mWeatherUri = WeatherEntry.buildWeatherUriForLocation(LOCATION_ID);
+    private final Uri mRangeUri = WeatherEntry.buildWeatherUriForLocationRange(LOCATION_ID,
+            DATE_NORMALIZED, DATE_NORMALIZED + DAYS * SunshineDateUtils.DAY_IN_MILLIS);
+
+    @Before
+    public void setUp() {
+        mContentResolver.delete(mWeatherUri, null, null);
+
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int day = 0; day < DAYS; day++) {
+            values[day] = TestUtilities.createTestWeatherContentValues();
+            values[day].put(WeatherEntry.COLUMN_DATE,
+                    DATE_NORMALIZED + day * SunshineDateUtils.DAY_IN_MILLIS);
+        }
+        mContentResolver.bulkInsert(mWeatherUri, values);
+
+        ProviderStats.setEnabled(true);
+        ProviderStats.setSlowThresholdMillis(ProviderStats.DEFAULT_SLOW_THRESHOLD_MILLIS);
+        mContentResolver.delete(ProviderStatsEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        ProviderStats.setEnabled(true);
+        ProviderStats.setSlowThresholdMillis(ProviderStats.DEFAULT_SLOW_THRESHOLD_MILLIS);
+        mContentResolver.delete(ProviderStatsEntry.CONTENT_URI, null, null);
+        mContentResolver.delete(mWeatherUri, null, null);
+    }
+
+    @Test
+    public void testOperationsAreCountedPerUri() {
+        queryAndClose(mRangeUri);
+        queryAndClose(mRangeUri);
+        queryAndClose(WeatherContract.LocationEntry.CONTENT_URI);
+        mContentResolver.delete(mWeatherUri, null, null);
+
+        Cursor stats = mContentResolver.query(ProviderStatsEntry.CONTENT_URI, null, null, null,
+                null);
+        try {
+            /* Reading the statistics isn't one of the operations */
+            assertEquals(3, stats.getCount());
+
+            assertStats(stats, ProviderStats.OPERATION_QUERY,
+                    WeatherProvider.CODE_WEATHER_FOR_LOCATION_RANGE, 2, 2 * DAYS);
+            assertStats(stats, ProviderStats.OPERATION_QUERY,
+                    WeatherProvider.CODE_LOCATION, 1, -1);
+            assertStats(stats, ProviderStats.OPERATION_DELETE,
+                    WeatherProvider.CODE_WEATHER_FOR_LOCATION, 1, DAYS);
+        } finally {
+            stats.close();
+        }
+    }
+
+    @Test
+    public void testSlowOperationsKeepSqlAndQueryPlan() {
+        ProviderStats.setSlowThresholdMillis(0);
+        queryAndClose(mRangeUri);
+
+        Cursor slow = mContentResolver.query(ProviderStatsEntry.SLOW_OPERATIONS_URI, null,
+                null, null, null);
+        try {
+            assertTrue("The query wasn't logged as slow", slow.moveToLast());
+            assertEquals(mRangeUri.toString(),
+                    slow.getString(slow.getColumnIndexOrThrow(ProviderStatsEntry.COLUMN_URI)));
+            assertEquals(DAYS,
+                    slow.getInt(slow.getColumnIndexOrThrow(ProviderStatsEntry.COLUMN_ROWS)));
+
+            String sql = slow.getString(slow.getColumnIndexOrThrow(ProviderStatsEntry.COLUMN_SQL));
+            assertNotNull(sql);
+            assertTrue("Unexpected SQL: " + sql, sql.contains(WeatherEntry.TABLE_NAME));
+
+            /* The range is read through the index on the location and the date */
+            String plan = slow.getString(
+                    slow.getColumnIndexOrThrow(ProviderStatsEntry.COLUMN_QUERY_PLAN));
+            assertNotNull(plan);
+            assertTrue("Unexpected query plan: " + plan, plan.contains("INDEX"));
+        } finally {
+            slow.close();
+        }
+    }
+
+    @Test
+    public void testSlowLogIsBounded() {
+        ProviderStats.setSlowThresholdMillis(0);
+        for (int i = 0; i < ProviderStats.SLOW_LOG_SIZE + 5; i++) {
+            queryAndClose(mRangeUri);
+        }
+
+        Cursor slow = mContentResolver.query(ProviderStatsEntry.SLOW_OPERATIONS_URI, null,
+                null, null, null);
+        try {
+            assertEquals(ProviderStats.SLOW_LOG_SIZE, slow.getCount());
+        } finally {
+            slow.close();
+        }
+    }
+
+    @Test
+    public void testNothingIsRecordedWhileDisabled() {
+        ProviderStats.setEnabled(false);
+        queryAndClose(mRangeUri);
+        ProviderStats.setEnabled(true);
+
+        Cursor stats = mContentResolver.query(ProviderStatsEntry.CONTENT_URI, null, null, null,
+                null);
+        try {
+            assertFalse("An operation was recorded while disabled", stats.moveToFirst());
+        } finally {
+            stats.close();
+        }
+    }
+
+    @Test
+    public void benchmarkOverhead() {
+        /* Warm up, so that we don't measure opening the database */
+        queryAndClose(mRangeUri);
+
+        ProviderStats.setEnabled(false);
+        long disabledNanos = timeQueries();
+        ProviderStats.setEnabled(true);
+        long enabledNanos = timeQueries();
+
+        Log.i(TAG, BENCHMARK_QUERIES + " queries of " + DAYS + " days"
+                + "\n  without statistics: " + toMicros(disabledNanos) / BENCHMARK_QUERIES
+                + " us per query"
+                + "\n  with statistics:    " + toMicros(enabledNanos) / BENCHMARK_QUERIES
+                + " us per query");
+    }
+
+    private long timeQueries() {
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            Cursor cursor = mContentResolver.query(mRangeUri, null, null, null, null);
+            while (cursor.moveToNext()) {
+                cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE));
+            }
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Checks the row of the statistics for an operation on a URI.
+     *
+     * @param rows The expected number of rows, or -1 not to check them
+     */
+    private static void assertStats(Cursor stats, String operation, int uriCode, long count,
+                                    long rows) {
+        int operationColumn = stats.getColumnIndexOrThrow(ProviderStatsEntry.COLUMN_OPERATION);
+        int uriCodeColumn = stats.getColumnIndexOrThrow(ProviderStatsEntry.COLUMN_URI_CODE);
+
+        stats.moveToPosition(-1);
+        while (stats.moveToNext()) {
+            if (!operation.equals(stats.getString(operationColumn))
+                    || uriCode != stats.getInt(uriCodeColumn)) {
+                continue;
+            }
+
+            assertEquals(count,
+                    stats.getLong(stats.getColumnIndexOrThrow(ProviderStatsEntry.COLUMN_COUNT)));
+            if (rows != -1) {
+                assertEquals(rows,
+                        stats.getLong(stats.getColumnIndexOrThrow(ProviderStatsEntry.COLUMN_ROWS)));
+            }
+            assertTrue("The percentiles aren't in order",
+                    stats.getLong(stats.getColumnIndexOrThrow(ProviderStatsEntry.COLUMN_P50_MICROS))
+                            <= stats.getLong(stats.getColumnIndexOrThrow(
+                                    ProviderStatsEntry.COLUMN_P99_MICROS)));
+            return;
+        }
+        throw new AssertionError("No statistics for " + operation + " " + uriCode);
+    }
+
+    private void queryAndClose(Uri uri) {
+        mContentResolver.query(uri, null, null, null, null).close();
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -193,7 +193,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 6;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -383,8 +383,9 @@ public class TestSunshineDatabase {
 
     /**
      * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the weather table from
-     * the database and then have the table recreated.
+     * behavior for this method, when there are no migrations between the versions, is to simply
+     * DROP (or delete) the weather table from the database and then have the table recreated.
+     * Upgrades that have migrations are tested by {@link TestWeatherMigrations}.
      */
     @Test
     public void testOnUpgradeBehavesCorrectly() {
@@ -457,8 +458,9 @@ public class TestSunshineDatabase {
         /* Here, we add the name of our only table in this particular database */
         tableNameHashSet.add(REFLECTED_TABLE_NAME);
         /* Students, here is where you would add any other table names if you had them */
-//        tableNameHashSet.add(MyAwesomeSuperCoolTableName);
-//        tableNameHashSet.add(MyOtherCoolTableNameThatContainsOtherCoolData);
+        tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.ArchiveEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.RollupEntry.TABLE_NAME);
 
         /* We think the database is open, let's verify that here */
         String databaseIsNotOpen = "The database should be open and isn't";
@@ -21,6 +21,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utils.PollingCheck;
@@ -29,12 +30,16 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DATE;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DEGREES;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_LOCATION_ID;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_PRESSURE;
@@ -120,6 +125,7 @@ class TestUtilities {
 
         ContentValues testWeatherValues = new ContentValues();
 
+        testWeatherValues.put(COLUMN_LOCATION_ID, WeatherContract.LocationEntry.PRIMARY_LOCATION_ID);
         testWeatherValues.put(COLUMN_DATE, DATE_NORMALIZED);
         testWeatherValues.put(COLUMN_DEGREES, 1.1);
         testWeatherValues.put(COLUMN_HUMIDITY, 1.2);
@@ -157,6 +163,7 @@ class TestUtilities {
 
             ContentValues weatherValues = new ContentValues();
 
+            weatherValues.put(COLUMN_LOCATION_ID, WeatherContract.LocationEntry.PRIMARY_LOCATION_ID);
             weatherValues.put(COLUMN_DATE, normalizedTestDate);
             weatherValues.put(COLUMN_DEGREES, 1.1);
             weatherValues.put(COLUMN_HUMIDITY, 1.2 + 0.01 * (float) i);
@@ -186,8 +193,11 @@ class TestUtilities {
      * correct Uri is returned.
      */
     static class TestContentObserver extends ContentObserver {
+        private static final long NOTIFICATION_SETTLE_MILLIS = 500;
+
         final HandlerThread mHT;
         boolean mContentChanged;
+        final AtomicInteger mChangeCount = new AtomicInteger();
 
         private TestContentObserver(HandlerThread ht) {
             super(new Handler(ht.getLooper()));
@@ -223,6 +233,33 @@ class TestUtilities {
         @Override
         public void onChange(boolean selfChange, Uri uri) {
             mContentChanged = true;
+            mChangeCount.incrementAndGet();
+        }
+
+        /**
+         * Returns how many times this observer was notified, once the notifications that were
+         * sent so far had time to arrive, and stops the thread they are delivered on.
+         */
+        int getChangeCountAndQuit() {
+            /*
+             * Notifications reach this process asynchronously, through the system. Give them some
+             * time to arrive, then wait for the ones that did to be delivered on our thread.
+             */
+            SystemClock.sleep(NOTIFICATION_SETTLE_MILLIS);
+            final CountDownLatch delivered = new CountDownLatch(1);
+            new Handler(mHT.getLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    delivered.countDown();
+                }
+            });
+            try {
+                delivered.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mHT.quit();
+            return mChangeCount.get();
         }
 
         /**
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SdkSuppress;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static com.example.android.sunshine.data.TestUtilities.DATE_NORMALIZED;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Runs the queries of the forecast list and of the details without a pause while syncs rewrite
+ * the forecast of {@link #LOCATIONS} locations, once with a rollback journal and once with
+ * write-ahead logging. The reader latency percentiles and the writer throughput of both are
+ * written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWalConcurrency {
+
+    private static final String TAG = TestWalConcurrency.class.getSimpleName();
+
+    private static final String STRESS_DATABASE_NAME = "wal_stress.db";
+
+    private static final long STRESS_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final int LOCATIONS = 50;
+
+    private static final String[] LIST_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+    };
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext.deleteDatabase(STRESS_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null) mHelper.close();
+        mContext.deleteDatabase(STRESS_DATABASE_NAME);
+    }
+
+    /**
+     * With write-ahead logging, a query doesn't wait for the transaction of a sync to end, and
+     * doesn't see what the transaction wrote until it commits.
+     */
+    @Test
+    @SdkSuppress(minSdkVersion = Build.VERSION_CODES.HONEYCOMB)
+    public void testReadsDoNotWaitForWriteTransaction() throws InterruptedException {
+        mHelper = new WeatherDbHelper(mContext, STRESS_DATABASE_NAME, true,
+                WeatherDbHelper.WAL_AUTOCHECKPOINT_PAGES);
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                WeatherDbHelper.beginWriteTransaction(db);
+                try {
+                    writeSync(db, 0);
+                    inTransaction.countDown();
+                    readDone.await(5, TimeUnit.SECONDS);
+                    db.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+        writer.start();
+        inTransaction.await();
+
+        long start = System.nanoTime();
+        long rowsSeen = DatabaseUtils.queryNumEntries(db,
+                WeatherContract.WeatherEntry.TABLE_NAME);
+        long readMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        readDone.countDown();
+        writer.join();
+
+        assertEquals("The query saw rows that weren't committed yet", 0, rowsSeen);
+        assertTrue("The query waited " + readMillis + " ms for the transaction", readMillis < 1000);
+        assertEquals(LOCATIONS * BULK_INSERT_RECORDS_TO_INSERT,
+                DatabaseUtils.queryNumEntries(db, WeatherContract.WeatherEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void benchmarkReadersDuringSyncs() throws InterruptedException {
+        String rollback = runStress(false);
+        mHelper.close();
+        mContext.deleteDatabase(STRESS_DATABASE_NAME);
+        String wal = runStress(true);
+
+        Log.i(TAG, "List and detail queries during syncs of " + LOCATIONS + " locations, "
+                + STRESS_MILLIS + " ms each"
+                + "\n  rollback journal: " + rollback
+                + "\n  write-ahead log:  " + wal);
+    }
+
+    /**
+     * Runs a list reader, a detail reader and a writer at the same time.
+     *
+     * @return A summary of the reader latencies and the writer throughput
+     */
+    private String runStress(boolean writeAheadLogging) throws InterruptedException {
+        mHelper = new WeatherDbHelper(mContext, STRESS_DATABASE_NAME, writeAheadLogging,
+                WeatherDbHelper.WAL_AUTOCHECKPOINT_PAGES);
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+        writeSync(db, 0);
+
+        final long deadline = System.currentTimeMillis() + STRESS_MILLIS;
+        final int[] syncs = new int[1];
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int version = 1; System.currentTimeMillis() < deadline; version++) {
+                    WeatherDbHelper.beginWriteTransaction(db);
+                    try {
+                        writeSync(db, version);
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                    syncs[0]++;
+                }
+            }
+        });
+
+        ReaderThread listReader = new ReaderThread(deadline) {
+            @Override
+            Cursor query(int iteration) {
+                return db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                        LIST_PROJECTION,
+                        WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ? AND "
+                                + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                        new String[]{
+                                Long.toString(WeatherContract.LocationEntry.PRIMARY_LOCATION_ID),
+                                Long.toString(DATE_NORMALIZED)},
+                        null,
+                        null,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            }
+        };
+
+        ReaderThread detailReader = new ReaderThread(deadline) {
+            @Override
+            Cursor query(int iteration) {
+                long date = DATE_NORMALIZED
+                        + (1 + iteration % BULK_INSERT_RECORDS_TO_INSERT)
+                        * SunshineDateUtils.DAY_IN_MILLIS;
+                return db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                        null,
+                        WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ? AND "
+                                + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                        new String[]{
+                                Long.toString(WeatherContract.LocationEntry.PRIMARY_LOCATION_ID),
+                                Long.toString(date)},
+                        null,
+                        null,
+                        null);
+            }
+        };
+
+        writer.start();
+        listReader.start();
+        detailReader.start();
+        writer.join();
+        listReader.join();
+        detailReader.join();
+
+        List<Long> latencies = new ArrayList<>(listReader.mLatencies);
+        latencies.addAll(detailReader.mLatencies);
+        Collections.sort(latencies);
+
+        assertTrue("No queries ran", latencies.size() > 0);
+        assertTrue("No syncs ran", syncs[0] > 0);
+
+        return latencies.size() + " reads, p50 " + toMicros(percentile(latencies, 50))
+                + " us, p90 " + toMicros(percentile(latencies, 90))
+                + " us, p99 " + toMicros(percentile(latencies, 99))
+                + " us, max " + toMicros(latencies.get(latencies.size() - 1)) + " us; "
+                + syncs[0] + " syncs (" + syncs[0] * 1000 / STRESS_MILLIS + "/sec)";
+    }
+
+    /**
+     * Replaces the forecast of every location, the way a sync of every location does. The high
+     * temperatures depend on the version.
+     */
+    private static void writeSync(SQLiteDatabase db, int version) {
+        ContentValues[] days = TestUtilities.createBulkInsertTestWeatherValues();
+        WeatherInsertStatement insertStatement = WeatherInsertStatement.compile(db);
+        try {
+            for (long locationId = 1; locationId <= LOCATIONS; locationId++) {
+                db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?",
+                        new String[]{Long.toString(locationId)});
+
+                for (ContentValues day : days) {
+                    day.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20 + version % 10);
+                    insertStatement.insert(day, locationId);
+                }
+            }
+        } finally {
+            insertStatement.close();
+        }
+    }
+
+    /**
+     * Runs a query over and over until the deadline, reading every row it returns, and records
+     * how long each took.
+     */
+    private abstract static class ReaderThread extends Thread {
+
+        final List<Long> mLatencies = new ArrayList<>();
+        private final long mDeadline;
+
+        ReaderThread(long deadline) {
+            mDeadline = deadline;
+        }
+
+        abstract Cursor query(int iteration);
+
+        @Override
+        public void run() {
+            for (int i = 0; System.currentTimeMillis() < mDeadline; i++) {
+                long start = System.nanoTime();
+                Cursor cursor = query(i);
+                try {
+                    /* The rows are only read once the cursor is first moved or counted */
+                    cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+                mLatencies.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percentile / 100));
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
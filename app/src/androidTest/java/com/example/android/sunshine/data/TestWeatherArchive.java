@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the weather archive: archiving replaced forecasts, compacting the archive, and making
+ * sure that a year of history doesn't slow down the query for the current forecast. The
+ * benchmark results are written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherArchive {
+
+    private static final String TAG = TestWeatherArchive.class.getSimpleName();
+
+    private static final int HISTORY_DAYS = 365;
+    private static final int HISTORY_LOCATIONS = 10;
+    private static final int VERSIONS_PER_DAY = 4;
+
+    private static final int BENCHMARK_QUERIES = 200;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = WeatherDbHelper.getInstance(mContext).getWritableDatabase();
+        mDatabase.delete(WeatherEntry.TABLE_NAME, null, null);
+        mDatabase.delete(ArchiveEntry.TABLE_NAME, null, null);
+        ForecastCache.invalidate();
+    }
+
+    @After
+    public void tearDown() {
+        setHistoryRetentionEnabled(false);
+        ForecastCache.setEnabled(true);
+        mDatabase.delete(WeatherEntry.TABLE_NAME, null, null);
+        mDatabase.delete(ArchiveEntry.TABLE_NAME, null, null);
+        ForecastCache.invalidate();
+    }
+
+    @Test
+    public void testDeletedWeatherIsArchivedWhenHistoryIsKept() {
+        setHistoryRetentionEnabled(true);
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ContentValues[] weatherValues = createBulkInsertTestWeatherValues();
+        contentResolver.bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        long deletedDate = weatherValues[0].getAsLong(WeatherEntry.COLUMN_DATE);
+        contentResolver.delete(WeatherEntry.buildWeatherUriWithDate(deletedDate), null, null);
+
+        Cursor archiveCursor = contentResolver.query(ArchiveEntry.CONTENT_URI,
+                null, null, null, null);
+        assertTrue("The deleted day wasn't archived", archiveCursor.moveToFirst());
+        assertEquals(1, archiveCursor.getCount());
+        TestUtilities.validateCurrentRecord("testDeletedWeatherIsArchivedWhenHistoryIsKept",
+                archiveCursor, weatherValues[0]);
+        archiveCursor.close();
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1,
+                DatabaseUtils.queryNumEntries(mDatabase, WeatherEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void testDeletedWeatherIsDiscardedByDefault() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherEntry.CONTENT_URI, createBulkInsertTestWeatherValues());
+        contentResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, ArchiveEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void testCompactionDownsamplesOldDays() {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        seedArchive(today, 1);
+
+        WeatherArchive.compact(mDatabase, today, Long.MAX_VALUE);
+
+        /* Recent days keep every version */
+        long recentRows = DatabaseUtils.longForQuery(mDatabase, "SELECT COUNT(*) FROM "
+                        + ArchiveEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{Long.toString(today - WeatherArchive.KEEP_ALL_VERSIONS_MILLIS)});
+        assertEquals(30 * VERSIONS_PER_DAY, recentRows);
+
+        /* Older days keep one version */
+        assertEquals("Days older than a month should only keep their last version", 0,
+                DatabaseUtils.longForQuery(mDatabase, "SELECT COUNT(*) FROM (SELECT "
+                        + WeatherEntry.COLUMN_DATE + " FROM " + ArchiveEntry.TABLE_NAME
+                        + " WHERE " + WeatherEntry.COLUMN_DATE + " < ?"
+                        + " GROUP BY " + WeatherEntry.COLUMN_DATE
+                        + " HAVING COUNT(*) > 1)",
+                        new String[]{Long.toString(today - WeatherArchive.KEEP_ALL_VERSIONS_MILLIS)}));
+
+        /* The oldest days keep one day per week */
+        assertEquals("Days older than three months should only keep one day per week", 0,
+                DatabaseUtils.longForQuery(mDatabase, "SELECT COUNT(*) FROM (SELECT "
+                        + WeatherEntry.COLUMN_DATE + " FROM " + ArchiveEntry.TABLE_NAME
+                        + " WHERE " + WeatherEntry.COLUMN_DATE + " < ?"
+                        + " GROUP BY " + WeatherEntry.COLUMN_DATE + " / " + DateUtils.WEEK_IN_MILLIS
+                        + " HAVING COUNT(*) > 1)",
+                        new String[]{Long.toString(today - WeatherArchive.KEEP_DAILY_MILLIS)}));
+    }
+
+    @Test
+    public void benchmarkTodayOnwardsQueryWithAYearOfHistory() {
+        /* This measures SQLite, so keep ForecastCache from answering the queries */
+        ForecastCache.setEnabled(false);
+
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        ContentValues[] forecast = createBulkInsertTestWeatherValues();
+        for (int i = 0; i < forecast.length; i++) {
+            forecast[i].put(WeatherEntry.COLUMN_DATE, today + i * DateUtils.DAY_IN_MILLIS);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+
+        long withoutHistoryNanos = timeTodayOnwardsQueries(forecast.length);
+
+        seedArchive(today, HISTORY_LOCATIONS);
+
+        long withHistoryNanos = timeTodayOnwardsQueries(forecast.length);
+
+        Log.i(TAG, BENCHMARK_QUERIES + " today onwards queries"
+                + "\n  without history: " + withoutHistoryNanos / 1000 + " us"
+                + "\n  with " + DatabaseUtils.queryNumEntries(mDatabase, ArchiveEntry.TABLE_NAME)
+                + " archived rows: " + withHistoryNanos / 1000 + " us");
+    }
+
+    private long timeTodayOnwardsQueries(int expectedCount) {
+        /* Warm up, so that we don't measure opening the database */
+        queryTodayOnwards().close();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            Cursor cursor = queryTodayOnwards();
+            assertEquals(expectedCount, cursor.getCount());
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private Cursor queryTodayOnwards() {
+        return mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry.getSqlSelectForTodayOnwards(),
+                WeatherEntry.getSqlSelectionArgsForTodayOnwards(),
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    /**
+     * Archives {@link #VERSIONS_PER_DAY} forecasts for every day of the last year, for the given
+     * number of locations.
+     */
+    private void seedArchive(long today, int locations) {
+        ContentValues values = TestUtilities.createTestWeatherContentValues();
+
+        mDatabase.beginTransaction();
+        try {
+            for (int location = 1; location <= locations; location++) {
+                for (int day = 1; day <= HISTORY_DAYS; day++) {
+                    long date = today - day * DateUtils.DAY_IN_MILLIS;
+                    for (int version = 0; version < VERSIONS_PER_DAY; version++) {
+                        values.put(WeatherEntry.COLUMN_LOCATION_ID, location);
+                        values.put(WeatherEntry.COLUMN_DATE, date);
+                        values.put(ArchiveEntry.COLUMN_ARCHIVED_AT,
+                                date - (VERSIONS_PER_DAY - version) * DateUtils.HOUR_IN_MILLIS);
+                        mDatabase.insert(ArchiveEntry.TABLE_NAME, null, values);
+                    }
+                }
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    private void setHistoryRetentionEnabled(boolean enabled) {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putBoolean(mContext.getString(R.string.pref_keep_history_key), enabled)
+                .commit();
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.RollupEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.sunshine.data.TestUtilities.DATE_NORMALIZED;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Creates databases with the schemas of older versions, fills them with weather and opens them
+ * with {@link WeatherDbHelper}, which migrates them to the current version. The tests check that
+ * no weather was lost, and the time each upgrade took is written to logcat under the tag of this
+ * class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherMigrations {
+
+    private static final String TAG = TestWeatherMigrations.class.getSimpleName();
+
+    private static final String MIGRATION_DATABASE_NAME = "migration_test.db";
+
+    private static final int DAYS = 365;
+
+    private static final int LOCATIONS = 50;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext.deleteDatabase(MIGRATION_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null) mHelper.close();
+        mContext.deleteDatabase(MIGRATION_DATABASE_NAME);
+    }
+
+    /**
+     * Version 3 had no locations, so a year of its weather should end up at the primary location.
+     * The weather table is copied, which is reported chunk by chunk.
+     */
+    @Test
+    public void testUpgradeFromVersion3KeepsWeather() {
+        SQLiteDatabase oldDatabase = createDatabase(3);
+        oldDatabase.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " ("
+                + WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"
+                + WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, "
+                + " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE)");
+        insertWeather(oldDatabase, 0);
+        oldDatabase.close();
+
+        long startNanos = System.nanoTime();
+        SQLiteDatabase database = openCurrentVersion();
+        long upgradeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        assertEquals(DAYS, DatabaseUtils.queryNumEntries(database, WeatherEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_LOCATION_ID + " = " + LocationEntry.PRIMARY_LOCATION_ID));
+        assertEquals(1, DatabaseUtils.queryNumEntries(database, LocationEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, ArchiveEntry.TABLE_NAME));
+        assertWeatherKept(database, LocationEntry.PRIMARY_LOCATION_ID, 0);
+        assertRollupsMatchUpdates(database);
+
+        Log.i(TAG, "Upgraded " + DAYS + " days of weather from version 3 in "
+                + upgradeMillis + " ms");
+    }
+
+    /**
+     * Upgrades a year of weather for {@link #LOCATIONS} locations from version 4.
+     */
+    @Test
+    public void testUpgradeFromVersion4KeepsEveryLocation() {
+        SQLiteDatabase oldDatabase = createDatabase(4);
+        oldDatabase.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " ("
+                + LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE)");
+        oldDatabase.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " ("
+                + WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL REFERENCES "
+                + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), "
+                + WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"
+                + WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, "
+                + " UNIQUE (" + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE)");
+
+        oldDatabase.beginTransaction();
+        try {
+            for (int location = 1; location <= LOCATIONS; location++) {
+                oldDatabase.execSQL("INSERT INTO " + LocationEntry.TABLE_NAME + " ("
+                        + LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_SETTING
+                        + ") VALUES (?, ?)",
+                        new Object[]{location, location == 1 ? null : "location-" + location});
+                insertWeather(oldDatabase, location);
+            }
+            oldDatabase.setTransactionSuccessful();
+        } finally {
+            oldDatabase.endTransaction();
+        }
+        oldDatabase.close();
+
+        long startNanos = System.nanoTime();
+        SQLiteDatabase database = openCurrentVersion();
+        long upgradeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        assertEquals(LOCATIONS, DatabaseUtils.queryNumEntries(database, LocationEntry.TABLE_NAME));
+        assertEquals(LOCATIONS * DAYS,
+                DatabaseUtils.queryNumEntries(database, WeatherEntry.TABLE_NAME));
+        for (int location = 1; location <= LOCATIONS; location++) {
+            assertWeatherKept(database, location, location);
+        }
+        assertRollupsMatchUpdates(database);
+
+        Log.i(TAG, "Upgraded " + DAYS + " days of weather for " + LOCATIONS
+                + " locations from version 4 in " + upgradeMillis + " ms");
+    }
+
+    /**
+     * Copies more rows than fit in a chunk, with gaps in their IDs, and checks the progress that
+     * is reported along the way.
+     */
+    @Test
+    public void testCopyInChunksReportsProgress() {
+        mHelper = new WeatherDbHelper(mContext, MIGRATION_DATABASE_NAME, true,
+                WeatherDbHelper.WAL_AUTOCHECKPOINT_PAGES);
+        SQLiteDatabase database = mHelper.getWritableDatabase();
+
+        int rowCount = WeatherMigrations.COPY_CHUNK_ROWS * 2 + 1;
+        database.execSQL("CREATE TABLE source (" + WeatherEntry._ID + " INTEGER PRIMARY KEY, "
+                + "value INTEGER)");
+        database.execSQL("CREATE TABLE target (" + WeatherEntry._ID + " INTEGER PRIMARY KEY, "
+                + "value INTEGER)");
+
+        database.beginTransaction();
+        try {
+            SQLiteStatement insert = database.compileStatement(
+                    "INSERT INTO source (" + WeatherEntry._ID + ", value) VALUES (?, ?)");
+            for (int i = 0; i < rowCount; i++) {
+                /* Every ID leaves a gap, like rows that were replaced */
+                insert.bindLong(1, 1 + i * 3);
+                insert.bindLong(2, i);
+                insert.executeInsert();
+            }
+            insert.close();
+
+            final List<Long> progress = new ArrayList<>();
+            long rowsCopied = WeatherMigrations.copyInChunks(database, "source", "target",
+                    WeatherEntry._ID + ", value", WeatherEntry._ID + ", value * 2", 0,
+                    new WeatherMigrations.ProgressListener() {
+                        @Override
+                        public void onProgress(int toVersion, long copied, long total) {
+                            progress.add(copied);
+                        }
+                    });
+
+            assertEquals(rowCount, rowsCopied);
+            assertEquals(rowCount, DatabaseUtils.queryNumEntries(database, "target"));
+            assertEquals("Each chunk should be full but the last one", 3, progress.size());
+            assertEquals(WeatherMigrations.COPY_CHUNK_ROWS, (long) progress.get(0));
+            assertEquals(rowCount, (long) progress.get(progress.size() - 1));
+            assertEquals(2L * (rowCount - 1), DatabaseUtils.longForQuery(database,
+                    "SELECT value FROM target WHERE " + WeatherEntry._ID + " = "
+                            + (1 + (rowCount - 1) * 3), null));
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private SQLiteDatabase createDatabase(int version) {
+        File databaseFile = mContext.getDatabasePath(MIGRATION_DATABASE_NAME);
+        databaseFile.getParentFile().mkdirs();
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
+        database.setVersion(version);
+        return database;
+    }
+
+    private SQLiteDatabase openCurrentVersion() {
+        mHelper = new WeatherDbHelper(mContext, MIGRATION_DATABASE_NAME, true,
+                WeatherDbHelper.WAL_AUTOCHECKPOINT_PAGES);
+        return mHelper.getWritableDatabase();
+    }
+
+    /**
+     * Inserts a year of weather, with a location ID unless it is 0. The high temperature of each
+     * day is its day of the year plus the location ID.
+     */
+    private static void insertWeather(SQLiteDatabase database, long locationId) {
+        String columns = WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherEntry.COLUMN_WIND_SPEED + ", " + WeatherEntry.COLUMN_DEGREES;
+        String values = "?, 800, 5, ?, 50, 1013, 3, 90";
+        if (locationId != 0) {
+            columns += ", " + WeatherEntry.COLUMN_LOCATION_ID;
+            values += ", " + locationId;
+        }
+
+        SQLiteStatement insert = database.compileStatement("INSERT INTO "
+                + WeatherEntry.TABLE_NAME + " (" + columns + ") VALUES (" + values + ")");
+        for (int day = 0; day < DAYS; day++) {
+            insert.bindLong(1, DATE_NORMALIZED + day * SunshineDateUtils.DAY_IN_MILLIS);
+            insert.bindDouble(2, day + locationId);
+            insert.executeInsert();
+        }
+        insert.close();
+    }
+
+    /**
+     * Checks the year of weather of a location, which was inserted by
+     * {@link #insertWeather(SQLiteDatabase, long)} with the given location ID.
+     */
+    private static void assertWeatherKept(SQLiteDatabase database, long locationId,
+                                          long insertedLocationId) {
+        Cursor cursor = database.query(WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP},
+                WeatherEntry.COLUMN_LOCATION_ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals("Weather of location " + locationId, DAYS, cursor.getCount());
+            for (int day = 0; cursor.moveToNext(); day++) {
+                assertEquals(DATE_NORMALIZED + day * SunshineDateUtils.DAY_IN_MILLIS,
+                        cursor.getLong(0));
+                assertEquals((double) day + insertedLocationId, cursor.getDouble(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Checks that the rollups the migration summarized in SQL are the same as the ones
+     * {@link WeatherRollups} keeps up to date, by summarizing every day again with the latter.
+     */
+    private static void assertRollupsMatchUpdates(SQLiteDatabase database) {
+        List<String> migrated = readRollups(database);
+        assertTrue("The migration didn't summarize the weather", migrated.size() > 0);
+
+        database.beginTransaction();
+        try {
+            database.delete(RollupEntry.TABLE_NAME, null, null);
+
+            Cursor cursor = database.query(WeatherEntry.TABLE_NAME,
+                    new String[]{WeatherEntry.COLUMN_LOCATION_ID, WeatherEntry.COLUMN_DATE},
+                    null, null, null, null, WeatherEntry.COLUMN_LOCATION_ID);
+            try {
+                List<Long> dates = new ArrayList<>();
+                long locationId = -1;
+                while (cursor.moveToNext()) {
+                    if (cursor.getLong(0) != locationId && !dates.isEmpty()) {
+                        WeatherRollups.update(database, locationId, dates);
+                        dates.clear();
+                    }
+                    locationId = cursor.getLong(0);
+                    dates.add(cursor.getLong(1));
+                }
+                WeatherRollups.update(database, locationId, dates);
+            } finally {
+                cursor.close();
+            }
+
+            assertEquals(migrated, readRollups(database));
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private static List<String> readRollups(SQLiteDatabase database) {
+        Cursor cursor = database.query(RollupEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_LOCATION_ID + ", " + RollupEntry.COLUMN_PERIOD + ", "
+                        + RollupEntry.COLUMN_START_DATE);
+        try {
+            List<String> rollups = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                StringBuilder rollup = new StringBuilder();
+                for (int column = 0; column < cursor.getColumnCount(); column++) {
+                    if (RollupEntry._ID.equals(cursor.getColumnName(column))) continue;
+                    rollup.append(cursor.getString(column)).append(' ');
+                }
+                rollups.add(rollup.toString());
+            }
+            return rollups;
+        } finally {
+            cursor.close();
+        }
+    }
+}
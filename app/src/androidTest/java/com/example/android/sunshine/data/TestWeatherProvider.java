@@ -16,6 +16,7 @@
 package com.example.android.sunshine.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -31,6 +32,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+
 import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
 import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
 import static junit.framework.Assert.assertEquals;
@@ -185,6 +188,9 @@ public class TestWeatherProvider {
         /* We are done with the database, close it now. */
         database.close();
 
+        /* The row was written behind the ContentProvider's back, so its cache doesn't know */
+        ForecastCache.invalidate();
+
         /*
          * Perform our ContentProvider query. We expect the cursor that is returned will contain
          * the exact same data that is in testWeatherValues and we will validate that in the next
@@ -445,5 +451,238 @@ public class TestWeatherProvider {
 
         /* Always close the database when you're through with it */
         database.close();
+
+        /* The rows were deleted behind the ContentProvider's back, so its cache doesn't know */
+        ForecastCache.invalidate();
+    }
+
+    /**
+     * This test applies a batch that updates a single day of weather, the way a sync does when
+     * only part of the forecast changed. It verifies that observers of that day are notified and
+     * that only that day was changed.
+     */
+    @Test
+    public void testApplyBatchUpdatesSingleDay() throws Exception {
+
+        /* Ensure there are records to update */
+        testBulkInsert();
+
+        ContentValues[] bulkInsertTestContentValues = createBulkInsertTestWeatherValues();
+
+        long updatedDate = bulkInsertTestContentValues[3]
+                .getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        Uri updatedDateUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(updatedDate);
+
+        ContentValues updatedValues = new ContentValues(bulkInsertTestContentValues[3]);
+        updatedValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 42);
+        bulkInsertTestContentValues[3] = updatedValues;
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        /* Only observe the day that we are updating */
+        contentResolver.registerContentObserver(updatedDateUri, false, weatherObserver);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation
+                .newUpdate(updatedDateUri)
+                .withValues(updatedValues)
+                .build());
+
+        contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        /*
+         * If this fails, it's likely that the provider didn't notify the URI of the changed day
+         * once the batch was committed.
+         */
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testApplyBatchUpdatesSingleDay. Error validating WeatherEntry " + i,
+                    cursor,
+                    bulkInsertTestContentValues[i]);
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * This test writes to the whole weather table, the way a sync does, and verifies that an
+     * observer of a single day is only notified when that day is written.
+     */
+    @Test
+    public void testWritesNotifyOnlyTheDatesTheyTouch() {
+
+        /* Ensure there are records to write to */
+        testBulkInsert();
+
+        ContentValues[] bulkInsertTestContentValues = createBulkInsertTestWeatherValues();
+        String observedDate = bulkInsertTestContentValues[3]
+                .getAsString(WeatherContract.WeatherEntry.COLUMN_DATE);
+        String otherDate = bulkInsertTestContentValues[5]
+                .getAsString(WeatherContract.WeatherEntry.COLUMN_DATE);
+        Uri observedDateUri = WeatherContract.WeatherEntry
+                .buildWeatherUriWithDate(Long.parseLong(observedDate));
+
+        String dateSelection = WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 42);
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver tableObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(observedDateUri, false, dayObserver);
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, tableObserver);
+
+        /* Write to another day, through the URI of the whole table */
+        assertEquals(1, contentResolver.update(WeatherContract.WeatherEntry.CONTENT_URI,
+                updatedValues, dateSelection, new String[]{otherDate}));
+        assertEquals(1, contentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                dateSelection, new String[]{otherDate}));
+
+        int dayChanges = dayObserver.getChangeCountAndQuit();
+        int tableChanges = tableObserver.getChangeCountAndQuit();
+        contentResolver.unregisterContentObserver(dayObserver);
+        contentResolver.unregisterContentObserver(tableObserver);
+
+        assertEquals("Writes to another day notified the observer of this day", 0, dayChanges);
+        assertEquals("Each write should notify the observer of the table once", 2, tableChanges);
+
+        /* Now write to the observed day, still through the URI of the whole table */
+        dayObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(observedDateUri, false, dayObserver);
+
+        assertEquals(1, contentResolver.update(WeatherContract.WeatherEntry.CONTENT_URI,
+                updatedValues, dateSelection, new String[]{observedDate}));
+
+        dayChanges = dayObserver.getChangeCountAndQuit();
+        contentResolver.unregisterContentObserver(dayObserver);
+
+        assertEquals("A write to this day should notify its observer once", 1, dayChanges);
+    }
+
+    /**
+     * This test changes several days at once, in a batch and in a bulk insert, and verifies that
+     * each of them notifies the observers of the table once rather than once per day, while the
+     * observer of one of the days is still notified.
+     */
+    @Test
+    public void testWritesToSeveralDatesNotifyOnce() throws Exception {
+
+        /* Ensure there are records to update */
+        testBulkInsert();
+
+        ContentValues[] bulkInsertTestContentValues = createBulkInsertTestWeatherValues();
+        Uri observedDateUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(
+                bulkInsertTestContentValues[3].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 42);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 2; i < 5; i++) {
+            long date = bulkInsertTestContentValues[i]
+                    .getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            operations.add(ContentProviderOperation
+                    .newUpdate(WeatherContract.WeatherEntry.buildWeatherUriWithDate(date))
+                    .withValues(updatedValues)
+                    .build());
+        }
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver tableObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(observedDateUri, false, dayObserver);
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, tableObserver);
+
+        contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        contentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                bulkInsertTestContentValues);
+
+        int dayChanges = dayObserver.getChangeCountAndQuit();
+        int tableChanges = tableObserver.getChangeCountAndQuit();
+        contentResolver.unregisterContentObserver(dayObserver);
+        contentResolver.unregisterContentObserver(tableObserver);
+
+        assertEquals("Each write should notify the observer of the table once", 3, tableChanges);
+        assertEquals("Each write should notify the observer of this day once", 3, dayChanges);
+    }
+
+    /**
+     * This test writes to the weather of another location and verifies that the observers of the
+     * primary location's weather aren't notified, while those of the other location are.
+     */
+    @Test
+    public void testWritesToOtherLocationsDoNotNotifyThePrimaryLocation() {
+        long otherLocationId = 2;
+        Uri otherLocationUri =
+                WeatherContract.WeatherEntry.buildWeatherUriForLocation(otherLocationId);
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        TestUtilities.TestContentObserver primaryObserver =
+                TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver otherObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, primaryObserver);
+        contentResolver.registerContentObserver(otherLocationUri, true, otherObserver);
+
+        contentResolver.bulkInsert(otherLocationUri, createBulkInsertTestWeatherValues());
+        contentResolver.delete(otherLocationUri, null, null);
+
+        int primaryChanges = primaryObserver.getChangeCountAndQuit();
+        int otherChanges = otherObserver.getChangeCountAndQuit();
+        contentResolver.unregisterContentObserver(primaryObserver);
+        contentResolver.unregisterContentObserver(otherObserver);
+
+        assertEquals("A write to another location notified the primary location", 0,
+                primaryChanges);
+        assertTrue("The other location wasn't notified", otherChanges > 0);
+    }
+
+    /**
+     * This test verifies that a change in the way the weather is displayed, such as the units,
+     * doesn't notify the observers of the weather, which would query it all over again.
+     */
+    @Test
+    public void testPresentationChangeDoesNotNotifyWeatherObservers() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        TestUtilities.TestContentObserver weatherObserver =
+                TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver presentationObserver =
+                TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, weatherObserver);
+        contentResolver.registerContentObserver(
+                WeatherContract.PRESENTATION_URI, false, presentationObserver);
+
+        contentResolver.notifyChange(WeatherContract.PRESENTATION_URI, null);
+
+        int weatherChanges = weatherObserver.getChangeCountAndQuit();
+        int presentationChanges = presentationObserver.getChangeCountAndQuit();
+        contentResolver.unregisterContentObserver(weatherObserver);
+        contentResolver.unregisterContentObserver(presentationObserver);
+
+        assertEquals(0, weatherChanges);
+        assertEquals(1, presentationChanges);
     }
-}
\ No newline at end of file
+}
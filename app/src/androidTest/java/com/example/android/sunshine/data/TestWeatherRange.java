@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.sunshine.data.TestUtilities.DATE_NORMALIZED;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the range URIs of {@link WeatherProvider} over {@link #ROW_COUNT} days of weather of one
+ * location, and compares paging through them by date with paging by offset, and bound dates with
+ * dates written into the SQL. The benchmark results are written to logcat under the tag of this
+ * class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherRange {
+
+    private static final String TAG = TestWeatherRange.class.getSimpleName();
+
+    /* Not the primary location, so that ForecastCache stays out of the way */
+    private static final long LOCATION_ID = 2;
+
+    private static final int ROW_COUNT = 100000;
+
+    private static final int PAGE_SIZE = 1000;
+
+    private static final int BENCHMARK_RANGES = 500;
+
+    private static final int BENCHMARK_RANGE_DAYS = 14;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = WeatherDbHelper.getInstance(mContext).getWritableDatabase();
+        deleteWeather();
+
+        ContentValues values = TestUtilities.createTestWeatherContentValues();
+        WeatherDbHelper.beginWriteTransaction(mDatabase);
+        WeatherInsertStatement insertStatement = WeatherInsertStatement.compile(mDatabase);
+        try {
+            for (int day = 0; day < ROW_COUNT; day++) {
+                values.put(WeatherEntry.COLUMN_DATE, dayToDate(day));
+                insertStatement.insert(values, LOCATION_ID);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            insertStatement.close();
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        deleteWeather();
+    }
+
+    @Test
+    public void testRangeIncludesStartButNotEnd() {
+        Uri rangeUri = WeatherEntry.buildWeatherUriForLocationRange(LOCATION_ID,
+                dayToDate(10), dayToDate(20));
+
+        Cursor cursor = mContentResolver.query(rangeUri, null, null, null, null);
+        try {
+            assertEquals(10, cursor.getCount());
+            int dateColumn = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_DATE);
+            for (int day = 10; cursor.moveToNext(); day++) {
+                assertEquals(dayToDate(day), cursor.getLong(dateColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testPagesCoverRangeExactlyOnce() {
+        int days = PAGE_SIZE * 5 + PAGE_SIZE / 2;
+        Uri rangeUri = WeatherEntry.buildWeatherUriForLocationRange(LOCATION_ID,
+                dayToDate(0), dayToDate(days));
+
+        int pages = 0;
+        int rows = 0;
+        long lastDate = Long.MIN_VALUE;
+        Uri pageUri = WeatherEntry.buildFirstPageUri(rangeUri, PAGE_SIZE);
+        while (pageUri != null) {
+            Cursor cursor = mContentResolver.query(pageUri,
+                    new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+            try {
+                if (cursor.getCount() == 0) break;
+                assertTrue("A page was larger than the limit", cursor.getCount() <= PAGE_SIZE);
+
+                while (cursor.moveToNext()) {
+                    long date = cursor.getLong(0);
+                    assertTrue("The pages went back in time", date > lastDate);
+                    lastDate = date;
+                    rows++;
+                }
+                pages++;
+                pageUri = WeatherEntry.buildNextPageUri(pageUri, lastDate);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        assertEquals(days, rows);
+        assertEquals(6, pages);
+        assertEquals(dayToDate(days - 1), lastDate);
+    }
+
+    @Test
+    public void benchmarkRangeScans() {
+        /* Warm up, so that we don't measure opening the database */
+        mContentResolver.query(WeatherEntry.buildWeatherUriForLocationRange(LOCATION_ID,
+                dayToDate(0), dayToDate(1)), null, null, null, null).close();
+
+        long keysetNanos = timeKeysetPages();
+        long offsetNanos = timeOffsetPages();
+        long boundNanos = timeRanges(true);
+        long literalNanos = timeRanges(false);
+
+        Log.i(TAG, "Reading " + ROW_COUNT + " days in pages of " + PAGE_SIZE
+                + "\n  continuing after the last date: " + toMillis(keysetNanos) + " ms"
+                + "\n  skipping rows with OFFSET:      " + toMillis(offsetNanos) + " ms"
+                + "\n" + BENCHMARK_RANGES + " ranges of " + BENCHMARK_RANGE_DAYS + " days"
+                + "\n  dates bound as arguments: " + toMillis(boundNanos) + " ms"
+                + "\n  dates written in the SQL: " + toMillis(literalNanos) + " ms");
+    }
+
+    /**
+     * Reads every day through the range URI of the provider, a page at a time.
+     */
+    private long timeKeysetPages() {
+        Uri rangeUri = WeatherEntry.buildWeatherUriForLocationRange(LOCATION_ID,
+                dayToDate(0), dayToDate(ROW_COUNT));
+
+        long start = System.nanoTime();
+        int rows = 0;
+        Uri pageUri = WeatherEntry.buildFirstPageUri(rangeUri, PAGE_SIZE);
+        while (true) {
+            Cursor cursor = mContentResolver.query(pageUri,
+                    new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP},
+                    null, null, null);
+            long lastDate = readRows(cursor);
+            int count = cursor.getCount();
+            cursor.close();
+
+            if (count == 0) break;
+            rows += count;
+            pageUri = WeatherEntry.buildNextPageUri(pageUri, lastDate);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(ROW_COUNT, rows);
+        return elapsed;
+    }
+
+    /**
+     * Reads every day from the database a page at a time, skipping the pages before each one.
+     */
+    private long timeOffsetPages() {
+        long start = System.nanoTime();
+        int rows = 0;
+        for (int offset = 0; ; offset += PAGE_SIZE) {
+            Cursor cursor = mDatabase.query(WeatherEntry.TABLE_NAME,
+                    new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP},
+                    WeatherEntry.COLUMN_LOCATION_ID + " = ?",
+                    new String[]{Long.toString(LOCATION_ID)},
+                    null,
+                    null,
+                    WeatherEntry.COLUMN_DATE + " ASC",
+                    offset + "," + PAGE_SIZE);
+            readRows(cursor);
+            int count = cursor.getCount();
+            cursor.close();
+
+            if (count == 0) break;
+            rows += count;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(ROW_COUNT, rows);
+        return elapsed;
+    }
+
+    /**
+     * Queries ranges that start on different days, the way a query for today onwards runs on a
+     * different day each time.
+     *
+     * @param bound Whether to bind the dates as arguments, or to write them into the SQL
+     */
+    private long timeRanges(boolean bound) {
+        Random random = new Random(0);
+        String dateColumn = WeatherEntry.COLUMN_DATE;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_RANGES; i++) {
+            int firstDay = random.nextInt(ROW_COUNT - BENCHMARK_RANGE_DAYS);
+            long startDate = dayToDate(firstDay);
+            long endDate = dayToDate(firstDay + BENCHMARK_RANGE_DAYS);
+
+            String selection;
+            String[] selectionArgs;
+            if (bound) {
+                selection = WeatherEntry.COLUMN_LOCATION_ID + " = ? AND "
+                        + dateColumn + " >= ? AND " + dateColumn + " < ?";
+                selectionArgs = new String[]{Long.toString(LOCATION_ID),
+                        Long.toString(startDate), Long.toString(endDate)};
+            } else {
+                selection = WeatherEntry.COLUMN_LOCATION_ID + " = " + LOCATION_ID + " AND "
+                        + dateColumn + " >= " + startDate + " AND " + dateColumn + " < " + endDate;
+                selectionArgs = null;
+            }
+
+            Cursor cursor = mDatabase.query(WeatherEntry.TABLE_NAME, null, selection,
+                    selectionArgs, null, null, dateColumn + " ASC");
+            readRows(cursor);
+            assertEquals(BENCHMARK_RANGE_DAYS, cursor.getCount());
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Reads every row of the cursor, whose first column is the date.
+     *
+     * @return The date of the last row
+     */
+    private static long readRows(Cursor cursor) {
+        long lastDate = Long.MIN_VALUE;
+        while (cursor.moveToNext()) {
+            lastDate = cursor.getLong(0);
+        }
+        return lastDate;
+    }
+
+    private void deleteWeather() {
+        mDatabase.delete(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_LOCATION_ID + " = ?",
+                new String[]{Long.toString(LOCATION_ID)});
+    }
+
+    private static long dayToDate(int day) {
+        return DATE_NORMALIZED + day * SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.RollupEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Calendar;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.sunshine.data.TestUtilities.DATE_NORMALIZED;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Tests that the rollups served at the stats URIs of {@link WeatherProvider} stay the same as a
+ * summary computed from every day, through inserts, replacements, updates and deletes, and
+ * compares reading them with summarizing the days on each read. The benchmark results are written
+ * to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherRollups {
+
+    private static final String TAG = TestWeatherRollups.class.getSimpleName();
+
+    /* Not the primary location, so that the weather of the other tests isn't touched */
+    private static final long LOCATION_ID = 2;
+
+    private static final int DAYS = 2 * 365;
+
+    private static final int BENCHMARK_DAYS = 10 * 365;
+
+    private static final int BENCHMARK_QUERIES = 50;
+
+    private static final int[] WEATHER_IDS = {200, 301, 500, 501, 600, 741, 800, 802};
+
+    private static final String[] DAY_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+    };
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    private final Uri mWeatherUri = WeatherEntry.buildWeatherUriForLocation(LOCATION_ID);
+    private final Uri mStatsUri = RollupEntry.buildStatsUriForLocation(LOCATION_ID);
+
+    @Before
+    public void setUp() {
+        mContentResolver.delete(mWeatherUri, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(mWeatherUri, null, null);
+    }
+
+    @Test
+    public void testRollupsMatchRecomputation() {
+        Random random = new Random(0);
+        mContentResolver.bulkInsert(mWeatherUri, createDays(0, DAYS, random));
+
+        /* A sync that replaces a few weeks with a new forecast */
+        mContentResolver.bulkInsert(mWeatherUri, createDays(100, 20, random));
+
+        /* A single day added after the others */
+        mContentResolver.insert(mWeatherUri, createDays(DAYS + 3, 1, random)[0]);
+
+        /* A day whose maximum is updated, to lower the maximum of its week and month */
+        ContentValues update = new ContentValues();
+        update.put(WeatherEntry.COLUMN_MAX_TEMP, -50);
+        mContentResolver.update(
+                WeatherEntry.buildWeatherUriForLocationWithDate(LOCATION_ID, dayToDate(200)),
+                update, null, null);
+
+        /* A single day, and a whole month and a half, that are deleted */
+        mContentResolver.delete(
+                WeatherEntry.buildWeatherUriForLocationWithDate(LOCATION_ID, dayToDate(300)),
+                null, null);
+        mContentResolver.delete(mWeatherUri,
+                WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(dayToDate(400)), Long.toString(dayToDate(445))});
+
+        Map<String, Rollup> expected = summarizeDays();
+        Map<String, Rollup> actual = readRollups();
+
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, Rollup> entry : expected.entrySet()) {
+            entry.getValue().assertSame(entry.getKey(), actual.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void benchmarkStatsQueries() {
+        mContentResolver.bulkInsert(mWeatherUri, createDays(0, BENCHMARK_DAYS, new Random(0)));
+
+        /* Warm up, so that we don't measure opening the database */
+        readRollups();
+        summarizeDays();
+
+        long rollupStart = System.nanoTime();
+        int buckets = 0;
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            buckets = readRollups().size();
+        }
+        long rollupNanos = System.nanoTime() - rollupStart;
+
+        long summarizeStart = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            summarizeDays();
+        }
+        long summarizeNanos = System.nanoTime() - summarizeStart;
+
+        Log.i(TAG, "Weekly and monthly stats of " + BENCHMARK_DAYS + " days (" + buckets
+                + " weeks and months), average of " + BENCHMARK_QUERIES + ":"
+                + "\n  reading the rollups:   " + toMicros(rollupNanos / BENCHMARK_QUERIES) + " us"
+                + "\n  summarizing every day: " + toMicros(summarizeNanos / BENCHMARK_QUERIES)
+                + " us");
+    }
+
+    /**
+     * Creates days of weather with random temperatures and a mix of weather IDs.
+     */
+    private static ContentValues[] createDays(int firstDay, int count, Random random) {
+        ContentValues[] days = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues day = TestUtilities.createTestWeatherContentValues();
+            double min = random.nextInt(400) / 10.0 - 15;
+            day.put(WeatherEntry.COLUMN_DATE, dayToDate(firstDay + i));
+            day.put(WeatherEntry.COLUMN_WEATHER_ID,
+                    WEATHER_IDS[random.nextInt(WEATHER_IDS.length)]);
+            day.put(WeatherEntry.COLUMN_MIN_TEMP, min);
+            day.put(WeatherEntry.COLUMN_MAX_TEMP, min + random.nextInt(150) / 10.0);
+            days[i] = day;
+        }
+        return days;
+    }
+
+    /**
+     * Reads the rollups of the location through the stats URI.
+     *
+     * @return The rollups by period and start date
+     */
+    private Map<String, Rollup> readRollups() {
+        Cursor cursor = mContentResolver.query(mStatsUri, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            Map<String, Rollup> rollups = new TreeMap<>();
+            while (cursor.moveToNext()) {
+                Rollup rollup = new Rollup(
+                        cursor.getLong(cursor.getColumnIndexOrThrow(RollupEntry.COLUMN_END_DATE)));
+                rollup.mDayCount =
+                        cursor.getInt(cursor.getColumnIndexOrThrow(RollupEntry.COLUMN_DAY_COUNT));
+                rollup.mMin =
+                        cursor.getDouble(cursor.getColumnIndexOrThrow(RollupEntry.COLUMN_MIN_TEMP));
+                rollup.mMax =
+                        cursor.getDouble(cursor.getColumnIndexOrThrow(RollupEntry.COLUMN_MAX_TEMP));
+                rollup.mMeanSum = rollup.mDayCount * cursor.getDouble(
+                        cursor.getColumnIndexOrThrow(RollupEntry.COLUMN_MEAN_TEMP));
+                rollup.mThunderstormDays = cursor.getInt(
+                        cursor.getColumnIndexOrThrow(RollupEntry.COLUMN_THUNDERSTORM_DAYS));
+                rollup.mDrizzleDays = cursor.getInt(
+                        cursor.getColumnIndexOrThrow(RollupEntry.COLUMN_DRIZZLE_DAYS));
+                rollup.mRainDays =
+                        cursor.getInt(cursor.getColumnIndexOrThrow(RollupEntry.COLUMN_RAIN_DAYS));
+                rollup.mSnowDays =
+                        cursor.getInt(cursor.getColumnIndexOrThrow(RollupEntry.COLUMN_SNOW_DAYS));
+
+                String period =
+                        cursor.getString(cursor.getColumnIndexOrThrow(RollupEntry.COLUMN_PERIOD));
+                long startDate =
+                        cursor.getLong(cursor.getColumnIndexOrThrow(RollupEntry.COLUMN_START_DATE));
+                rollups.put(period + " " + startDate, rollup);
+            }
+            return rollups;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Summarizes every day of weather of the location by week and by month, the slow way.
+     *
+     * @return The summaries by period and start date
+     */
+    private Map<String, Rollup> summarizeDays() {
+        Cursor cursor = mContentResolver.query(mWeatherUri, DAY_PROJECTION, null, null, null);
+        assertNotNull(cursor);
+
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        Map<String, Rollup> rollups = new TreeMap<>();
+        try {
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(0);
+                calendar.setTimeInMillis(date);
+
+                /* Calendar counts the days of the week from Sunday, and weeks start on Monday */
+                int daysSinceMonday = (calendar.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+                long weekStart = date - daysSinceMonday * SunshineDateUtils.DAY_IN_MILLIS;
+
+                calendar.set(Calendar.DAY_OF_MONTH, 1);
+                long monthStart = calendar.getTimeInMillis();
+                calendar.add(Calendar.MONTH, 1);
+                long monthEnd = calendar.getTimeInMillis();
+
+                add(rollups, RollupEntry.PERIOD_WEEK, weekStart,
+                        weekStart + 7 * SunshineDateUtils.DAY_IN_MILLIS, cursor);
+                add(rollups, RollupEntry.PERIOD_MONTH, monthStart, monthEnd, cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rollups;
+    }
+
+    private static void add(Map<String, Rollup> rollups, String period, long startDate,
+                            long endDate, Cursor day) {
+        String key = period + " " + startDate;
+        Rollup rollup = rollups.get(key);
+        if (rollup == null) {
+            rollup = new Rollup(endDate);
+            rollups.put(key, rollup);
+        }
+        rollup.add(day.getInt(1), day.getDouble(2), day.getDouble(3));
+    }
+
+    private static long dayToDate(int day) {
+        return DATE_NORMALIZED + day * SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * The summary of a week or a month, either read from a rollup or summed up day by day.
+     */
+    private static class Rollup {
+
+        final long mEndDate;
+        int mDayCount;
+        double mMin = Double.MAX_VALUE;
+        double mMax = -Double.MAX_VALUE;
+        double mMeanSum;
+        int mThunderstormDays;
+        int mDrizzleDays;
+        int mRainDays;
+        int mSnowDays;
+
+        Rollup(long endDate) {
+            mEndDate = endDate;
+        }
+
+        void add(int weatherId, double min, double max) {
+            mDayCount++;
+            mMin = Math.min(mMin, min);
+            mMax = Math.max(mMax, max);
+            mMeanSum += (min + max) / 2;
+            if (weatherId / 100 == 2) mThunderstormDays++;
+            if (weatherId / 100 == 3) mDrizzleDays++;
+            if (weatherId / 100 == 5) mRainDays++;
+            if (weatherId / 100 == 6) mSnowDays++;
+        }
+
+        void assertSame(String name, Rollup actual) {
+            assertEquals(name + ": end date", mEndDate, actual.mEndDate);
+            assertEquals(name + ": days", mDayCount, actual.mDayCount);
+            assertEquals(name + ": min", mMin, actual.mMin);
+            assertEquals(name + ": max", mMax, actual.mMax);
+            assertEquals(name + ": mean", mMeanSum / mDayCount,
+                    actual.mMeanSum / actual.mDayCount, 1e-9);
+            assertEquals(name + ": thunderstorm days",
+                    mThunderstormDays, actual.mThunderstormDays);
+            assertEquals(name + ": drizzle days", mDrizzleDays, actual.mDrizzleDays);
+            assertEquals(name + ": rain days", mRainDays, actual.mRainDays);
+            assertEquals(name + ": snow days", mSnowDays, actual.mSnowDays);
+        }
+    }
+}
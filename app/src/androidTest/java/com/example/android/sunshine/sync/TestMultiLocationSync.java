@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherDbHelper;
+import com.example.android.sunshine.utilities.HttpTransport;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.UrlConnectionTransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Syncs 50 locations against a small HTTP server on the loopback interface that answers every
+ * request with the same forecast after a simulated network latency. The throughput is written to
+ * logcat under the tag of this class, next to the time the same requests would take one after
+ * the other.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestMultiLocationSync {
+
+    private static final String TAG = TestMultiLocationSync.class.getSimpleName();
+
+    /* The preferred location plus 49 extra locations */
+    private static final int LOCATION_COUNT = 50;
+
+    private static final int DAYS_PER_LOCATION = 14;
+
+    private static final int SIMULATED_LATENCY_MILLIS = 100;
+
+    private static final int CONCURRENT_SYNC_REQUESTS = 10;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StubForecastServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StubForecastServer(createForecastJson().getBytes("UTF-8"));
+        mServer.start();
+        NetworkUtils.setTransport(new LoopbackTransport(mServer.getPort()));
+
+        List<String> extraLocations = new ArrayList<>();
+        for (int i = 1; i < LOCATION_COUNT; i++) {
+            extraLocations.add("location-" + i);
+        }
+        SunshinePreferences.setExtraWeatherLocations(mContext, extraLocations);
+        SunshinePreferences.clearResponseValidators(mContext);
+
+        deleteAllWeatherAndLocations();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NetworkUtils.setTransport(new UrlConnectionTransport());
+        SunshinePreferences.setExtraWeatherLocations(mContext, Collections.<String>emptyList());
+        SunshinePreferences.clearResponseValidators(mContext);
+        deleteAllWeatherAndLocations();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testAllLocationsAreSyncedConcurrently() {
+        long start = System.nanoTime();
+        SunshineSyncTask.syncWeather(mContext);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("Every location should be requested once",
+                LOCATION_COUNT,
+                mServer.mRequests.get());
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = dbHelper.getReadableDatabase();
+        try {
+            assertEquals("Every location should be stored",
+                    LOCATION_COUNT,
+                    DatabaseUtils.queryNumEntries(database,
+                            WeatherContract.LocationEntry.TABLE_NAME));
+
+            assertEquals("Every day of every location should be stored",
+                    LOCATION_COUNT * DAYS_PER_LOCATION,
+                    DatabaseUtils.queryNumEntries(database,
+                            WeatherContract.WeatherEntry.TABLE_NAME));
+        } finally {
+            dbHelper.close();
+        }
+
+        Log.i(TAG, LOCATION_COUNT + " locations in " + elapsedMillis + " ms ("
+                + LOCATION_COUNT * 1000L / Math.max(elapsedMillis, 1) + " locations/sec) over "
+                + mServer.mAcceptedConnections.get() + " connections"
+                + "\n  one at a time, the simulated latency alone would take "
+                + LOCATION_COUNT * SIMULATED_LATENCY_MILLIS + " ms");
+    }
+
+    @Test
+    public void testConcurrentSyncRequestsAreCoalesced() throws InterruptedException {
+        long syncsBefore = SyncCoordinator.getSyncCount();
+
+        Thread[] requesters = new Thread[CONCURRENT_SYNC_REQUESTS];
+        for (int i = 0; i < requesters.length; i++) {
+            requesters[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    SunshineSyncTask.syncWeather(mContext);
+                }
+            });
+            requesters[i].start();
+        }
+        for (Thread requester : requesters) {
+            requester.join();
+        }
+
+        /*
+         * The first request starts a sync, every request made while it runs is answered by the
+         * one sync that follows it.
+         */
+        long syncs = SyncCoordinator.getSyncCount() - syncsBefore;
+        assertTrue(CONCURRENT_SYNC_REQUESTS + " requests ran " + syncs + " syncs", syncs <= 2);
+        assertTrue("Fetched " + mServer.mRequests.get() + " forecasts",
+                mServer.mRequests.get() <= 2 * LOCATION_COUNT);
+
+        Log.i(TAG, CONCURRENT_SYNC_REQUESTS + " concurrent requests answered by " + syncs
+                + " syncs, max queue depth " + SyncCoordinator.getMaxQueueDepth()
+                + ", average wait " + SyncCoordinator.getAverageWaitMillis() + " ms");
+    }
+
+    private void deleteAllWeatherAndLocations() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        database.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        database.delete(WeatherContract.LocationEntry.TABLE_NAME,
+                WeatherContract.LocationEntry._ID + " != "
+                        + WeatherContract.LocationEntry.PRIMARY_LOCATION_ID,
+                null);
+        dbHelper.close();
+    }
+
+    private static String createForecastJson() {
+        StringBuilder json = new StringBuilder("{\"city\":{\"coord\":{\"lon\":-122.08,\"lat\":37.39}},")
+                .append("\"cod\":\"200\",\"list\":[");
+        for (int i = 0; i < DAYS_PER_LOCATION; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"pressure\":1013.25,\"humidity\":40,\"speed\":1.5,\"deg\":20,")
+                    .append("\"temp\":{\"min\":10.5,\"max\":21.5},")
+                    .append("\"weather\":[{\"id\":800,\"description\":\"sky is clear\"}]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Sends every request to the stub server, keeping its path and query.
+     */
+    private static class LoopbackTransport implements HttpTransport {
+
+        private final HttpTransport mTransport = new UrlConnectionTransport();
+        private final int mPort;
+
+        LoopbackTransport(int port) {
+            mPort = port;
+        }
+
+        @Override
+        public Response get(URL url, Map<String, String> requestHeaders) throws IOException {
+            URL loopbackUrl = new URL("http", "127.0.0.1", mPort, url.getFile());
+            return mTransport.get(loopbackUrl, requestHeaders);
+        }
+    }
+
+    /**
+     * Answers every request with the same forecast after a delay, keeping each connection open for
+     * as long as the client wants.
+     */
+    private static class StubForecastServer extends Thread {
+
+        final AtomicInteger mAcceptedConnections = new AtomicInteger();
+        final AtomicInteger mRequests = new AtomicInteger();
+
+        private final ServerSocket mServerSocket;
+        private final byte[] mBody;
+
+        StubForecastServer(byte[] body) throws IOException {
+            mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            mBody = body;
+        }
+
+        int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        void shutdown() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                try {
+                    final Socket socket = mServerSocket.accept();
+                    mAcceptedConnections.incrementAndGet();
+                    new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    }).start();
+                } catch (IOException e) {
+                    /* The server socket was closed */
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                OutputStream out = socket.getOutputStream();
+
+                String requestLine;
+                while ((requestLine = in.readLine()) != null && requestLine.length() != 0) {
+                    String header;
+                    while ((header = in.readLine()) != null && header.length() != 0) {
+                        /* Skip the request headers */
+                    }
+
+                    mRequests.incrementAndGet();
+                    Thread.sleep(SIMULATED_LATENCY_MILLIS);
+
+                    byte[] head = ("HTTP/1.1 200 OK\r\n"
+                            + "Content-Type: application/json\r\n"
+                            + "Content-Length: " + mBody.length + "\r\n"
+                            + "\r\n").getBytes("US-ASCII");
+
+                    out.write(head);
+                    out.write(mBody);
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                /* The client went away */
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
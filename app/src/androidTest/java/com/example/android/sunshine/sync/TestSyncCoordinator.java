@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utilities.HttpTransport;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.UrlConnectionTransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+
+/**
+ * Tests how {@link SyncCoordinator} answers requests. The weather server is replaced by one that
+ * fails every request right away: a failed sync still answers the requests it covers.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncCoordinator {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        SunshinePreferences.setExtraWeatherLocations(mContext, Collections.<String>emptyList());
+        NetworkUtils.setTransport(new HttpTransport() {
+            @Override
+            public Response get(URL url, Map<String, String> requestHeaders)
+                    throws IOException {
+                throw new IOException("No network in this test");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        NetworkUtils.setTransport(new UrlConnectionTransport());
+    }
+
+    @Test
+    public void testRequestFromAnEarlierProcessIsAnsweredByOneSync() throws InterruptedException {
+        /*
+         * A request queued by a process that died since can carry a number far beyond any this
+         * process handed out, as the numbers start over with every process.
+         */
+        final long unknownRequest = SyncCoordinator.newRequest() + 1000;
+        SyncCoordinator.requestSync(mContext);
+        long syncsBefore = SyncCoordinator.getSyncCount();
+
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SyncCoordinator.awaitSync(mContext, unknownRequest,
+                        SystemClock.elapsedRealtime());
+            }
+        });
+        waiter.start();
+        waiter.join(TIMEOUT_MILLIS);
+
+        boolean stillSyncing = waiter.isAlive();
+        if (stillSyncing) {
+            waiter.interrupt();
+        }
+
+        assertFalse("Waiting for an unknown request never ended", stillSyncing);
+        assertEquals(syncsBefore + 1, SyncCoordinator.getSyncCount());
+        assertEquals(0, SyncCoordinator.getQueueDepth());
+    }
+
+    @Test
+    public void testAnsweredRequestDoesNotSyncAgain() {
+        long request = SyncCoordinator.newRequest();
+        SyncCoordinator.requestSync(mContext);
+        long syncsBefore = SyncCoordinator.getSyncCount();
+
+        SyncCoordinator.awaitSync(mContext, request, SystemClock.elapsedRealtime());
+
+        assertEquals(syncsBefore, SyncCoordinator.getSyncCount());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Replays traces of how a forecast changes over time against {@link SyncIntervalPolicy} and
+ * against the fixed 3 hour interval Sunshine used before. For each trace, the number of requests
+ * and the average staleness (how long a change on the server takes to reach us) are written to
+ * logcat under the tag of this class.
+ * <p>
+ * A trace holds, for every hour, the number of days of the 14 day forecast that changed on the
+ * server during that hour.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncIntervalSimulation {
+
+    private static final String TAG = TestSyncIntervalSimulation.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+    private static final int HOURS_PER_DAY = 24;
+
+    /* Once a day the oldest day is dropped and a new one added */
+    private static final int DAILY_ROLLOVER_CHANGES = 2;
+
+    private static final long FIXED_INTERVAL_SECONDS = TimeUnit.HOURS.toSeconds(3);
+
+    @Test
+    public void testStableForecastSavesRequests() {
+        int[] trace = createQuietTrace(7);
+
+        Result fixed = replay(trace, false);
+        Result adaptive = replay(trace, true);
+        log("Stable week", fixed, adaptive);
+
+        assertTrue("A forecast that doesn't change should need fewer requests",
+                adaptive.mRequests < fixed.mRequests);
+    }
+
+    @Test
+    public void testPassingFrontIsFollowedClosely() {
+        /* Two quiet days, half a day of a front coming through, two quiet days */
+        int[] trace = createQuietTrace(4);
+        for (int hour = 2 * HOURS_PER_DAY; hour < 2 * HOURS_PER_DAY + 12; hour++) {
+            trace[hour] += 6;
+        }
+
+        Result fixed = replay(trace, false);
+        Result adaptive = replay(trace, true);
+        log("Passing front", fixed, adaptive);
+
+        assertTrue("Changes should still reach us within the longest interval",
+                adaptive.mMaxStalenessHours
+                        <= TimeUnit.SECONDS.toHours(SyncIntervalPolicy.MAX_INTERVAL_SECONDS));
+    }
+
+    @Test
+    public void testUnsettledWeek() {
+        int[] trace = createQuietTrace(7);
+        Random random = new Random(42);
+        for (int hour = 0; hour < trace.length; hour++) {
+            if (random.nextInt(5) == 0) {
+                trace[hour] += 1 + random.nextInt(8);
+            }
+        }
+
+        Result fixed = replay(trace, false);
+        Result adaptive = replay(trace, true);
+        log("Unsettled week", fixed, adaptive);
+
+        assertTrue(adaptive.mRequests > 0);
+    }
+
+    private static int[] createQuietTrace(int days) {
+        int[] trace = new int[days * HOURS_PER_DAY];
+        for (int day = 0; day < days; day++) {
+            trace[day * HOURS_PER_DAY] = DAILY_ROLLOVER_CHANGES;
+        }
+        return trace;
+    }
+
+    /**
+     * Syncs through the trace, one hour at a time. A sync at the end of an hour sees every change
+     * made since the previous sync.
+     */
+    private static Result replay(int[] trace, boolean adaptive) {
+        Result result = new Result();
+
+        long intervalSeconds = adaptive
+                ? SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS
+                : FIXED_INTERVAL_SECONDS;
+        int nextSyncHour = 0;
+
+        int pendingChanges = 0;
+        long pendingChangeHours = 0;
+        int oldestPendingHour = -1;
+
+        for (int hour = 0; hour < trace.length; hour++) {
+            if (trace[hour] > 0) {
+                pendingChanges += trace[hour];
+                pendingChangeHours -= (long) trace[hour] * hour;
+                if (oldestPendingHour == -1) oldestPendingHour = hour;
+            }
+
+            if (hour < nextSyncHour) continue;
+
+            result.mRequests++;
+            result.mChanges += pendingChanges;
+            result.mStalenessHours += pendingChangeHours + (long) pendingChanges * hour;
+            if (oldestPendingHour != -1) {
+                result.mMaxStalenessHours =
+                        Math.max(result.mMaxStalenessHours, hour - oldestPendingHour);
+            }
+
+            if (adaptive) {
+                intervalSeconds = SyncIntervalPolicy.afterSync(intervalSeconds,
+                        Math.min(pendingChanges, FORECAST_DAYS));
+            }
+            nextSyncHour = hour + (int) TimeUnit.SECONDS.toHours(intervalSeconds);
+
+            pendingChanges = 0;
+            pendingChangeHours = 0;
+            oldestPendingHour = -1;
+        }
+
+        return result;
+    }
+
+    private static void log(String trace, Result fixed, Result adaptive) {
+        Log.i(TAG, trace
+                + "\n  fixed 3 h: " + fixed
+                + "\n  adaptive:  " + adaptive
+                + "\n  requests saved: " + (fixed.mRequests - adaptive.mRequests));
+    }
+
+    private static class Result {
+
+        int mRequests;
+        long mChanges;
+        long mStalenessHours;
+        long mMaxStalenessHours;
+
+        @Override
+        public String toString() {
+            return mRequests + " requests, average staleness "
+                    + (mChanges == 0 ? 0 : (float) mStalenessHours / mChanges) + " h, max "
+                    + mMaxStalenessHours + " h";
+        }
+    }
+}
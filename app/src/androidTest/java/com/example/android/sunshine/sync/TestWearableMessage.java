@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Base64;
+import android.util.Log;
+
+import com.example.Constants;
+import com.example.WeatherIcons;
+import com.example.WeatherMessage;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+import com.google.android.gms.wearable.DataMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Compares the {@link WeatherMessage} sent to the watch with what was sent before: a DataMap with
+ * both temperatures and the icon as a Base64 encoded PNG. The sizes of both payloads and the time
+ * it takes to encode them on the phone and decode them on the watch are written to logcat under
+ * the tag of this class, along with the CPU time the icons cost per sync and the bytes a sync that
+ * changes one day of the forecast sends. Transport latency is logged by the watch when an update
+ * arrives.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWearableMessage {
+
+    private static final String TAG = TestWearableMessage.class.getSimpleName();
+
+    private static final int ROUNDS = 100;
+
+    private static final int WEATHER_ID = 501;
+    private static final double HIGH = 21.37;
+    private static final double LOW = -3.04;
+
+    private static final int DAY = 17167;
+    private static final int SEQUENCE = 42;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void testMessageRoundTrip() {
+        long now = System.currentTimeMillis();
+        WeatherMessage message = WeatherMessage.create(WEATHER_ID, HIGH, LOW, now);
+        byte[] bytes = message.toBytes();
+        assertEquals(WeatherMessage.SIZE_BYTES, bytes.length);
+
+        WeatherMessage decoded = WeatherMessage.fromBytes(bytes);
+        assertEquals(WEATHER_ID, decoded.getWeatherId());
+        assertEquals(WeatherIcons.ICON_SET_VERSION, decoded.getIconSetVersion());
+        assertEquals(now, decoded.getTimestamp());
+
+        /* Temperatures are sent in tenths of a degree */
+        assertEquals(21.4, decoded.getHighTemperature(), 0.001);
+        assertEquals(-3.0, decoded.getLowTemperature(), 0.001);
+
+        assertTrue(message.isSameWeatherAs(WeatherMessage.create(WEATHER_ID, HIGH, LOW, now + 1)));
+        assertFalse(message.isSameWeatherAs(WeatherMessage.create(800, HIGH, LOW, now)));
+    }
+
+    @Test
+    public void testDayAndSequenceRoundTrip() {
+        WeatherMessage message = WeatherMessage.create(DAY, SEQUENCE, WEATHER_ID, HIGH, LOW, 0);
+        WeatherMessage decoded = WeatherMessage.fromBytes(message.toBytes());
+        assertEquals(DAY, decoded.getDay());
+        assertEquals(SEQUENCE, decoded.getSequence());
+        assertEquals("/forecast/" + DAY, decoded.getPath());
+
+        WeatherMessage newer = WeatherMessage.create(DAY, SEQUENCE + 1, 800, HIGH, LOW, 0);
+        assertTrue(newer.supersedes(decoded));
+        assertFalse(decoded.supersedes(newer));
+        assertFalse("Another day is other weather", message.isSameWeatherAs(
+                WeatherMessage.create(DAY + 1, SEQUENCE, WEATHER_ID, HIGH, LOW, 0)));
+    }
+
+    @Test
+    public void testWeatherKeyTellsTheSameWeatherApart() {
+        WeatherMessage message = WeatherMessage.create(DAY, SEQUENCE, WEATHER_ID, HIGH, LOW, 0);
+
+        /* The sequence number and the timestamp change with every sync, the weather may not */
+        assertEquals(message.getWeatherKey(), WeatherMessage.create(DAY, SEQUENCE + 1, WEATHER_ID,
+                HIGH, LOW, 1).getWeatherKey());
+
+        assertFalse(message.getWeatherKey() == WeatherMessage.create(DAY, SEQUENCE, 800,
+                HIGH, LOW, 0).getWeatherKey());
+        assertFalse(message.getWeatherKey() == WeatherMessage.create(DAY, SEQUENCE, WEATHER_ID,
+                HIGH + 0.1, LOW, 0).getWeatherKey());
+        assertFalse("The temperatures must not be mixed up",
+                message.getWeatherKey() == WeatherMessage.create(DAY, SEQUENCE, WEATHER_ID,
+                        LOW, HIGH, 0).getWeatherKey());
+        assertFalse("Negative temperatures must not spill into the other fields",
+                message.getWeatherKey() == WeatherMessage.create(DAY, SEQUENCE, WEATHER_ID,
+                        HIGH, -LOW, 0).getWeatherKey());
+    }
+
+    @Test
+    public void testReadsFormatWithoutDay() {
+        long now = System.currentTimeMillis();
+        byte[] bytes = ByteBuffer.allocate(16)
+                .put((byte) 1)
+                .put((byte) WeatherIcons.ICON_SET_VERSION)
+                .putShort((short) WEATHER_ID)
+                .putShort((short) 214)
+                .putShort((short) -30)
+                .putLong(now)
+                .array();
+
+        WeatherMessage decoded = WeatherMessage.fromBytes(bytes);
+        assertEquals(WEATHER_ID, decoded.getWeatherId());
+        assertEquals(21.4, decoded.getHighTemperature(), 0.001);
+        assertEquals(WeatherMessage.NO_DAY, decoded.getDay());
+        assertEquals(0, decoded.getSequence());
+        assertEquals(now, decoded.getTimestamp());
+    }
+
+    @Test
+    public void testRejectsUnknownFormat() {
+        byte[] bytes = WeatherMessage.create(WEATHER_ID, HIGH, LOW, 0).toBytes();
+        bytes[0] = (byte) (WeatherMessage.FORMAT_VERSION + 1);
+        try {
+            WeatherMessage.fromBytes(bytes);
+            throw new AssertionError("A message of an unknown format was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void benchmarkPayloadSizeAndCodecTime() {
+        byte[] legacyPayload = encodeLegacy();
+        byte[] payload = encode();
+
+        long legacyStart = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            decodeLegacy(encodeLegacy());
+        }
+        long legacyNanos = System.nanoTime() - legacyStart;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            decode(encode());
+        }
+        long nanos = System.nanoTime() - start;
+
+        Log.i(TAG, "Weather update payload"
+                + "\n  Base64 PNG in a DataMap: " + legacyPayload.length + " bytes, "
+                + legacyNanos / ROUNDS / 1000 + " us to encode and decode"
+                + "\n  WeatherMessage:          " + payload.length + " bytes, "
+                + nanos / ROUNDS / 1000 + " us to encode and decode");
+
+        assertTrue(payload.length < legacyPayload.length);
+    }
+
+    @Test
+    public void benchmarkIconCpuTimePerSync() throws IOException {
+        int resourceId = SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(WEATHER_ID);
+
+        long legacyStart = Debug.threadCpuTimeNanos();
+        for (int i = 0; i < ROUNDS; i++) {
+            encodeLegacy();
+        }
+        long legacyNanos = Debug.threadCpuTimeNanos() - legacyStart;
+
+        /* The first sync after the process starts fills the cache */
+        long coldStart = Debug.threadCpuTimeNanos();
+        byte[] payload = IconPayloadCache.get(mContext, resourceId);
+        long coldNanos = Debug.threadCpuTimeNanos() - coldStart;
+
+        long cachedStart = Debug.threadCpuTimeNanos();
+        for (int i = 0; i < ROUNDS; i++) {
+            assertEquals(payload, IconPayloadCache.get(mContext, resourceId));
+        }
+        long cachedNanos = Debug.threadCpuTimeNanos() - cachedStart;
+
+        Log.i(TAG, "Icon CPU time per sync"
+                + "\n  decode, PNG compress and Base64: " + legacyNanos / ROUNDS / 1000 + " us"
+                + "\n  IconPayloadCache, cold:          " + coldNanos / 1000 + " us"
+                + "\n  IconPayloadCache, warm:          " + cachedNanos / ROUNDS / 1000 + " us");
+    }
+
+    @Test
+    public void benchmarkBytesPerSync() {
+        int fullPushBytes = 0;
+        int incrementalBytes = 0;
+        for (int day = 0; day < Constants.FORECAST_DAY_COUNT; day++) {
+            int bytes = DataMap.fromByteArray(encode()).toByteArray().length;
+            fullPushBytes += bytes;
+            /* A typical sync changes the weather of a single day */
+            if (day == 0) incrementalBytes += bytes;
+        }
+
+        Log.i(TAG, "Forecast of " + Constants.FORECAST_DAY_COUNT + " days"
+                + "\n  every day:       " + fullPushBytes + " bytes"
+                + "\n  one changed day: " + incrementalBytes + " bytes");
+
+        assertTrue(incrementalBytes < fullPushBytes);
+    }
+
+    /* What the phone used to send */
+    private byte[] encodeLegacy() {
+        int resourceId = SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(WEATHER_ID);
+        Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), resourceId);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, png);
+
+        DataMap dataMap = new DataMap();
+        dataMap.putDouble("high", HIGH);
+        dataMap.putDouble("low", LOW);
+        dataMap.putString("bitmap", Base64.encodeToString(png.toByteArray(), Base64.DEFAULT));
+        return dataMap.toByteArray();
+    }
+
+    /* What the watch used to do with it */
+    private static Bitmap decodeLegacy(byte[] payload) {
+        DataMap dataMap = DataMap.fromByteArray(payload);
+        byte[] png = Base64.decode(dataMap.getString("bitmap"), Base64.DEFAULT);
+        return BitmapFactory.decodeByteArray(png, 0, png.length);
+    }
+
+    private static byte[] encode() {
+        DataMap dataMap = new DataMap();
+        dataMap.putByteArray("message",
+                WeatherMessage.create(WEATHER_ID, HIGH, LOW, System.currentTimeMillis()).toBytes());
+        return dataMap.toByteArray();
+    }
+
+    /*
+     * The watch decodes its bundled icon once per update as well. The phone's copy of the icon
+     * stands in for it here.
+     */
+    private Bitmap decode(byte[] payload) {
+        WeatherMessage message =
+                WeatherMessage.fromBytes(DataMap.fromByteArray(payload).getByteArray("message"));
+        int resourceId = SunshineWeatherUtils
+                .getSmallArtResourceIdForWeatherCondition(message.getWeatherId());
+        return BitmapFactory.decodeResource(mContext.getResources(), resourceId);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that a forecast that fails to parse partway through leaves the stored weather exactly as
+ * it was, and that a complete one replaces it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherDiffSink {
+
+    /* Not the primary location, so that ForecastCache stays out of the way */
+    private static final long LOCATION_ID = 2;
+
+    private static final int DAYS = 14;
+
+    private static final double STORED_MAX_TEMP = -40;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    private final Uri mWeatherUri =
+            WeatherContract.WeatherEntry.buildWeatherUriForLocation(LOCATION_ID);
+
+    @Before
+    public void setUp() {
+        mContentResolver.delete(mWeatherUri, null, null);
+
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ContentValues[] storedDays = new ContentValues[DAYS];
+        for (int day = 0; day < DAYS; day++) {
+            storedDays[day] = new ContentValues();
+            storedDays[day].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    today + day * SunshineDateUtils.DAY_IN_MILLIS);
+            storedDays[day].put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+            storedDays[day].put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, -50);
+            storedDays[day].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, STORED_MAX_TEMP);
+            storedDays[day].put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 40);
+            storedDays[day].put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1013.25);
+            storedDays[day].put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 1.5);
+            storedDays[day].put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 20);
+        }
+        assertEquals(DAYS, mContentResolver.bulkInsert(mWeatherUri, storedDays));
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(mWeatherUri, null, null);
+    }
+
+    @Test
+    public void testTruncatedResponseLeavesStoredWeatherUntouched() throws Exception {
+        String json = createForecastJson();
+        String truncatedJson = json.substring(0, json.length() * 3 / 4);
+
+        WeatherDiffSink sink = new WeatherDiffSink(mContentResolver, mWeatherUri);
+        try {
+            OpenWeatherJsonUtils.parseWeatherFromStream(null,
+                    new ByteArrayInputStream(truncatedJson.getBytes("UTF-8")), sink);
+            throw new AssertionError("The truncated response was parsed");
+        } catch (IOException expected) {
+            /* The sync stops here, without calling finish */
+        }
+
+        assertStoredMaxTemps(DAYS, STORED_MAX_TEMP);
+    }
+
+    @Test
+    public void testCompleteResponseReplacesStoredWeather() throws Exception {
+        WeatherDiffSink sink = new WeatherDiffSink(mContentResolver, mWeatherUri);
+        assertTrue(OpenWeatherJsonUtils.parseWeatherFromStream(null,
+                new ByteArrayInputStream(createForecastJson().getBytes("UTF-8")), sink));
+
+        /* Even a complete response isn't written before finish */
+        assertStoredMaxTemps(DAYS, STORED_MAX_TEMP);
+
+        assertEquals(DAYS, sink.finish());
+        assertStoredMaxTemps(DAYS, 21.5);
+    }
+
+    private void assertStoredMaxTemps(int days, double maxTemp) {
+        Cursor cursor = mContentResolver.query(mWeatherUri,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        try {
+            assertEquals(days, cursor.getCount());
+            while (cursor.moveToNext()) {
+                assertEquals(maxTemp, cursor.getDouble(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String createForecastJson() {
+        StringBuilder json = new StringBuilder("{\"cod\":\"200\",\"list\":[");
+        for (int i = 0; i < DAYS; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"pressure\":1013.25,\"humidity\":40,\"speed\":1.5,\"deg\":20,")
+                    .append("\"temp\":{\"min\":10.5,\"max\":21.5},")
+                    .append("\"weather\":[{\"id\":800,\"description\":\"sky is clear\"}]}");
+        }
+        return json.append("]}").toString();
+    }
+}
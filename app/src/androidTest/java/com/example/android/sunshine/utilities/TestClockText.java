@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.ClockText;
+import com.example.TimeDrawer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the {@link ClockText} the watch face draws its time and date with, and counts the
+ * allocations of drawing frames with the {@link TimeDrawer} the watch face's onDraw uses.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestClockText {
+
+    private static final String TAG = TestClockText.class.getSimpleName();
+
+    private static final String DATE_PATTERN = "EEE, dd MMM yyyy";
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int FRAME_COUNT = 1000;
+
+    @Test
+    public void testTextMatchesCalendar() {
+        String[] timeZones = {"UTC", "America/Los_Angeles", "Asia/Kolkata", "Pacific/Chatham"};
+        for (String id : timeZones) {
+            TimeZone timeZone = TimeZone.getTimeZone(id);
+            ClockText clockText = new ClockText(DATE_PATTERN, Locale.US, timeZone);
+            Calendar calendar = Calendar.getInstance(timeZone, Locale.US);
+            SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN, Locale.US);
+            dateFormat.setTimeZone(timeZone);
+
+            /* Two years in steps of a little over 7 hours, to cross every kind of boundary */
+            long start = 1483228800000L;
+            for (long time = start; time < start + 2 * 365 * 24 * 60 * MINUTE; time += 437 * MINUTE) {
+                clockText.setTime(time);
+                calendar.setTimeInMillis(time);
+
+                assertEquals(id, String.format(Locale.US, "%02d:",
+                        calendar.get(Calendar.HOUR_OF_DAY)), clockText.getHour());
+                assertEquals(id, String.format(Locale.US, "%02d",
+                        calendar.get(Calendar.MINUTE)), clockText.getMinuteText());
+                assertEquals(id, dateFormat.format(new Date(time)).toUpperCase(Locale.getDefault()),
+                        clockText.getDate());
+            }
+        }
+    }
+
+    @Test
+    public void testSetTimeReportsChanges() {
+        ClockText clockText = new ClockText(DATE_PATTERN, Locale.US, TimeZone.getTimeZone("UTC"));
+        assertTrue(clockText.setTime(0));
+        assertFalse("The text shouldn't change within a minute", clockText.setTime(MINUTE - 1));
+        assertTrue(clockText.setTime(MINUTE));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDrawingAFrameAllocatesNothing() {
+        FrameDrawer drawer = new FrameDrawer();
+
+        /* Start on a fresh day, so that formatting the date happens before counting */
+        long start = 1483228800000L;
+        drawer.draw(start, false);
+        drawer.draw(start, true);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int frame = 0; frame < FRAME_COUNT; frame++) {
+                /* One frame a minute, alternating between interactive and ambient mode */
+                drawer.draw(start + (frame % (24 * 60)) * MINUTE, frame % 2 == 0);
+            }
+            int allocations = Debug.getThreadAllocCount();
+
+            Log.i(TAG, FRAME_COUNT + " frames allocated " + allocations + " objects");
+            assertEquals("Drawing a frame shouldn't allocate", 0, allocations);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /**
+     * Draws frames the way the watch face's onDraw does: the time is drawn by the same
+     * {@link TimeDrawer}, on black in ambient mode and on top of the static layer otherwise.
+     */
+    private static class FrameDrawer {
+
+        private final Bitmap mBitmap = Bitmap.createBitmap(320, 320, Bitmap.Config.ARGB_8888);
+        private final Canvas mCanvas = new Canvas(mBitmap);
+
+        /* Stands in for the static layer, which is only rendered when it is out of date */
+        private final Bitmap mStaticLayer =
+                Bitmap.createBitmap(320, 320, Bitmap.Config.ARGB_8888);
+
+        private final ClockText mClockText =
+                new ClockText(DATE_PATTERN, Locale.US, TimeZone.getTimeZone("UTC"));
+
+        private final TimeDrawer mTimeDrawer;
+
+        FrameDrawer() {
+            Paint hourPaint = new Paint();
+            Paint minutePaint = new Paint();
+            Paint ambientPaint = new Paint();
+            hourPaint.setTextSize(40);
+            minutePaint.setTextSize(40);
+            ambientPaint.setTextSize(40);
+            mTimeDrawer = new TimeDrawer(mClockText, hourPaint, minutePaint, ambientPaint);
+        }
+
+        void draw(long timeMillis, boolean ambient) {
+            mClockText.setTime(timeMillis);
+            float centerX = mCanvas.getWidth() / 2;
+
+            if (ambient) {
+                mCanvas.drawColor(Color.BLACK);
+                mTimeDrawer.drawAmbient(mCanvas, centerX, 140);
+            } else {
+                mCanvas.drawBitmap(mStaticLayer, 0, 0, null);
+                mTimeDrawer.drawInteractive(mCanvas, centerX, 100);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks which validators {@link NetworkUtils#openWeatherResponse} sends along. The days of a
+ * forecast are dated from the day it is parsed on, so a response that was stored yesterday must
+ * not be revalidated today.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestConditionalRequest {
+
+    private static final String ETAG = "\"forecast-1\"";
+    private static final String LAST_MODIFIED = "Sat, 01 Oct 2016 00:00:00 GMT";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private final RecordingTransport mTransport = new RecordingTransport();
+
+    private URL mUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        mUrl = new URL("http://127.0.0.1/staticweather?q=94043");
+        SunshinePreferences.clearResponseValidators(mContext);
+        NetworkUtils.setTransport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        NetworkUtils.setTransport(new UrlConnectionTransport());
+        SunshinePreferences.clearResponseValidators(mContext);
+    }
+
+    @Test
+    public void testValidatorsAreSentOnTheDayTheyWereSaved() throws IOException {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        SunshinePreferences.saveResponseValidators(mContext, mUrl.toString(), ETAG,
+                LAST_MODIFIED, today);
+
+        NetworkUtils.openWeatherResponse(mContext, mUrl, today).close();
+
+        assertEquals(ETAG, mTransport.mRequestHeaders.get("If-None-Match"));
+        assertEquals(LAST_MODIFIED, mTransport.mRequestHeaders.get("If-Modified-Since"));
+    }
+
+    @Test
+    public void testValidatorsFromYesterdayAreNotSent() throws IOException {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        SunshinePreferences.saveResponseValidators(mContext, mUrl.toString(), ETAG,
+                LAST_MODIFIED, today - SunshineDateUtils.DAY_IN_MILLIS);
+
+        /* A 304 now would keep the days dated from yesterday, so the forecast is fetched again */
+        NetworkUtils.openWeatherResponse(mContext, mUrl, today).close();
+
+        assertFalse(mTransport.mRequestHeaders.containsKey("If-None-Match"));
+        assertFalse(mTransport.mRequestHeaders.containsKey("If-Modified-Since"));
+    }
+
+    @Test
+    public void testClearedValidatorsAreNotSent() throws IOException {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        SunshinePreferences.saveResponseValidators(mContext, mUrl.toString(), ETAG,
+                LAST_MODIFIED, today);
+        SunshinePreferences.clearResponseValidators(mContext);
+
+        NetworkUtils.openWeatherResponse(mContext, mUrl, today).close();
+
+        assertTrue(mTransport.mRequestHeaders.isEmpty());
+    }
+
+    /**
+     * Remembers the headers of the last request and answers it with an empty forecast.
+     */
+    private static class RecordingTransport implements HttpTransport {
+
+        Map<String, String> mRequestHeaders;
+
+        @Override
+        public Response get(URL url, Map<String, String> requestHeaders) {
+            mRequestHeaders = new HashMap<>(requestHeaders);
+            return new Response() {
+                @Override
+                public int getResponseCode() {
+                    return HttpURLConnection.HTTP_OK;
+                }
+
+                @Override
+                public String getHeaderField(String name) {
+                    return null;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
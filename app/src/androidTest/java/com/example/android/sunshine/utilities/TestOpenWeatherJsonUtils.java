@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that the streaming forecast parser produces exactly the same rows as the org.json based
+ * parser, and compares the two for latency and allocations. The benchmark results are written to
+ * logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestOpenWeatherJsonUtils {
+
+    private static final String TAG = TestOpenWeatherJsonUtils.class.getSimpleName();
+
+    /* Number of locations simulated by the benchmark, each with its own response */
+    private static final int BENCHMARK_LOCATIONS = 50;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void testStreamingParserMatchesJsonParser() throws Exception {
+        String json = createForecastJson(14);
+
+        ContentValues[] expectedValues =
+                OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, json);
+        assertNotNull(expectedValues);
+
+        CollectingSink sink = new CollectingSink();
+        boolean validResponse =
+                OpenWeatherJsonUtils.parseWeatherFromStream(mContext, toStream(json), sink);
+
+        assertTrue("Streaming parser rejected a valid forecast", validResponse);
+        assertEquals("Streaming parser returned the wrong number of days",
+                expectedValues.length,
+                sink.mValues.size());
+
+        for (int i = 0; i < expectedValues.length; i++) {
+            assertEquals("Day " + i + " differs between the two parsers",
+                    expectedValues[i],
+                    sink.mValues.get(i));
+        }
+    }
+
+    @Test
+    public void testStreamingParserRejectsErrorCode() throws Exception {
+        String json = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+
+        CollectingSink sink = new CollectingSink();
+        boolean validResponse =
+                OpenWeatherJsonUtils.parseWeatherFromStream(mContext, toStream(json), sink);
+
+        assertFalse("Streaming parser accepted an error response", validResponse);
+    }
+
+    @Test
+    public void testStreamingParserFailsOnTruncatedResponse() throws Exception {
+        String json = createForecastJson(14);
+        String truncatedJson = json.substring(0, json.length() / 2);
+
+        CollectingSink sink = new CollectingSink();
+        try {
+            OpenWeatherJsonUtils.parseWeatherFromStream(mContext, toStream(truncatedJson), sink);
+            throw new AssertionError("Streaming parser accepted a truncated response");
+        } catch (IOException expected) {
+            /* The days before the break are handed out, which is why sinks must not write them */
+            assertTrue("No days were parsed before the break", sink.mValues.size() > 0);
+        }
+    }
+
+    @Test
+    public void benchmark14Days() throws Exception {
+        runBenchmark(14);
+    }
+
+    @Test
+    public void benchmark16Days() throws Exception {
+        runBenchmark(16);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void runBenchmark(int days) throws Exception {
+        byte[][] responses = new byte[BENCHMARK_LOCATIONS][];
+        for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+            responses[i] = createForecastJson(days).getBytes("UTF-8");
+        }
+
+        /* Warm up both code paths so that we don't measure class loading */
+        parseWithJsonObject(responses);
+        parseWithStream(responses);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            parseWithJsonObject(responses);
+            long jsonObjectNanos = System.nanoTime() - start;
+            long jsonObjectBytes = Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            parseWithStream(responses);
+            long streamNanos = System.nanoTime() - start;
+            long streamBytes = Debug.getThreadAllocSize();
+
+            Log.i(TAG, days + " days x " + BENCHMARK_LOCATIONS + " locations"
+                    + "\n  org.json:  " + jsonObjectNanos / 1000 + " us, " + jsonObjectBytes + " bytes"
+                    + "\n  streaming: " + streamNanos / 1000 + " us, " + streamBytes + " bytes");
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /* Mirrors the old sync path: read the whole body into a String, then build a JSONObject */
+    private void parseWithJsonObject(byte[][] responses) throws Exception {
+        for (byte[] response : responses) {
+            Scanner scanner = new Scanner(new ByteArrayInputStream(response));
+            scanner.useDelimiter("\\A");
+            String json = scanner.next();
+            scanner.close();
+            OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, json);
+        }
+    }
+
+    private void parseWithStream(byte[][] responses) throws IOException {
+        CountingSink sink = new CountingSink();
+        for (byte[] response : responses) {
+            OpenWeatherJsonUtils.parseWeatherFromStream(
+                    mContext, new ByteArrayInputStream(response), sink);
+        }
+    }
+
+    private static InputStream toStream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    /**
+     * Builds a response in the same shape as the one returned by the weather server.
+     */
+    private static String createForecastJson(int days) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0125,\"cnt\":").append(days)
+                .append(",\"list\":[");
+
+        for (int i = 0; i < days; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"dt\":").append(1475280000 + i * 86400)
+                    .append(",\"temp\":{\"day\":20.5,\"min\":").append(10 + i * 0.25)
+                    .append(",\"max\":").append(21 + i * 0.5)
+                    .append(",\"night\":11.1,\"eve\":18.3,\"morn\":12.2},")
+                    .append("\"pressure\":").append(1013.25 - i)
+                    .append(",\"humidity\":").append(40 + i)
+                    .append(",\"weather\":[{\"id\":").append(800 + i % 5)
+                    .append(",\"main\":\"Clear\",\"description\":\"sky is clear\",")
+                    .append("\"icon\":\"01d\"}],")
+                    .append("\"speed\":").append(1.5 + i * 0.1)
+                    .append(",\"deg\":").append(i * 20)
+                    .append(",\"clouds\":0}");
+        }
+
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static class CollectingSink implements OpenWeatherJsonUtils.WeatherValuesSink {
+        final List<ContentValues> mValues = new ArrayList<>();
+
+        @Override
+        public void onWeatherValues(ContentValues weatherValues) {
+            mValues.add(new ContentValues(weatherValues));
+        }
+    }
+
+    private static class CountingSink implements OpenWeatherJsonUtils.WeatherValuesSink {
+        int mCount;
+
+        @Override
+        public void onWeatherValues(ContentValues weatherValues) {
+            mCount++;
+        }
+    }
+}
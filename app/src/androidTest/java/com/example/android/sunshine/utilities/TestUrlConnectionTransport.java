@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Runs {@link UrlConnectionTransport} against a small HTTP server on the loopback interface that
+ * stands in for the weather server. The server counts the connections it accepts (one TCP
+ * handshake each) and the bytes it sends, which lets us verify both connection reuse and
+ * compression.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestUrlConnectionTransport {
+
+    private static final int REQUEST_COUNT = 5;
+
+    private StubWeatherServer mServer;
+    private byte[] mForecast;
+
+    @Before
+    public void setUp() throws IOException {
+        StringBuilder forecast = new StringBuilder("{\"cod\":\"200\",\"list\":[");
+        for (int i = 0; i < 14; i++) {
+            if (i > 0) forecast.append(',');
+            forecast.append("{\"pressure\":1013.25,\"humidity\":40,\"speed\":1.5,\"deg\":20,")
+                    .append("\"temp\":{\"min\":10.5,\"max\":21.5},")
+                    .append("\"weather\":[{\"id\":800,\"description\":\"sky is clear\"}]}");
+        }
+        forecast.append("]}");
+        mForecast = forecast.toString().getBytes("UTF-8");
+
+        mServer = new StubWeatherServer(gzip(mForecast));
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testResponsesAreDecompressedAndConnectionsReused() throws IOException {
+        UrlConnectionTransport transport = new UrlConnectionTransport();
+        URL url = new URL("http://127.0.0.1:" + mServer.getPort() + "/staticweather");
+
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            HttpTransport.Response response =
+                    transport.get(url, Collections.<String, String>emptyMap());
+            try {
+                assertEquals(200, response.getResponseCode());
+
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[512];
+                int read;
+                while ((read = response.getBody().read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+
+                assertEquals("Response wasn't decompressed correctly",
+                        new String(mForecast, "UTF-8"),
+                        body.toString("UTF-8"));
+            } finally {
+                response.close();
+            }
+        }
+
+        assertEquals("Every request asked for gzip",
+                REQUEST_COUNT,
+                mServer.mGzipRequests.get());
+
+        assertEquals("Connections were not kept alive between requests",
+                1,
+                mServer.mAcceptedConnections.get());
+
+        long uncompressedBytes = (long) REQUEST_COUNT * mForecast.length;
+        assertTrue("Sent " + mServer.mBytesSent.get() + " bytes for " + uncompressedBytes
+                        + " bytes of uncompressed forecasts",
+                mServer.mBytesSent.get() < uncompressedBytes);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(data);
+        gzip.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Answers every request with the same gzip encoded body, keeping each connection open for as
+     * long as the client wants.
+     */
+    private static class StubWeatherServer extends Thread {
+
+        final AtomicInteger mAcceptedConnections = new AtomicInteger();
+        final AtomicInteger mGzipRequests = new AtomicInteger();
+        final AtomicLong mBytesSent = new AtomicLong();
+
+        private final ServerSocket mServerSocket;
+        private final byte[] mGzippedBody;
+
+        StubWeatherServer(byte[] gzippedBody) throws IOException {
+            mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            mGzippedBody = gzippedBody;
+        }
+
+        int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        void shutdown() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                try {
+                    final Socket socket = mServerSocket.accept();
+                    mAcceptedConnections.incrementAndGet();
+                    new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    }).start();
+                } catch (IOException e) {
+                    /* The server socket was closed */
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                OutputStream out = socket.getOutputStream();
+
+                String requestLine;
+                while ((requestLine = in.readLine()) != null && requestLine.length() != 0) {
+                    String header;
+                    while ((header = in.readLine()) != null && header.length() != 0) {
+                        if (header.toLowerCase().startsWith("accept-encoding:")
+                                && header.contains("gzip")) {
+                            mGzipRequests.incrementAndGet();
+                        }
+                    }
+
+                    byte[] head = ("HTTP/1.1 200 OK\r\n"
+                            + "Content-Type: application/json\r\n"
+                            + "Content-Encoding: gzip\r\n"
+                            + "Content-Length: " + mGzippedBody.length + "\r\n"
+                            + "\r\n").getBytes("US-ASCII");
+
+                    out.write(head);
+                    out.write(mGzippedBody);
+                    out.flush();
+                    mBytesSent.addAndGet(head.length + mGzippedBody.length);
+                }
+            } catch (IOException e) {
+                /* The client went away */
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.ClockText;
+import com.example.StaticLayerRenderer;
+import com.example.TimeDrawer;
+import com.example.android.sunshine.R;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Draws the interactive watch face on a headless canvas with the renderers of the watch face,
+ * once with everything drawn on every frame and once with the background, date and weather
+ * composited from the layer of {@link StaticLayerRenderer}, the way the watch face does. The
+ * draw time percentiles of both are written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWatchFaceLayers {
+
+    private static final String TAG = TestWatchFaceLayers.class.getSimpleName();
+
+    private static final int SIZE = 320;
+
+    private static final int WARM_UP_FRAMES = 50;
+    private static final int FRAME_COUNT = 500;
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    public void testLayeredFrameLooksTheSame() {
+        Face face = new Face();
+        Bitmap direct = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        Bitmap layered = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+
+        face.drawDirect(new Canvas(direct), 0);
+        face.drawLayered(new Canvas(layered), 0);
+
+        assertTrue("Compositing the layer should draw the same face", direct.sameAs(layered));
+    }
+
+    @Test
+    public void benchmarkDrawTime() {
+        Face face = new Face();
+        Canvas canvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+
+        long[] direct = new long[FRAME_COUNT];
+        long[] layered = new long[FRAME_COUNT];
+        for (int frame = -WARM_UP_FRAMES; frame < FRAME_COUNT; frame++) {
+            long time = Math.max(frame, 0) * MINUTE;
+
+            long start = System.nanoTime();
+            face.drawDirect(canvas, time);
+            long directNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            face.drawLayered(canvas, time);
+            long layeredNanos = System.nanoTime() - start;
+
+            if (frame >= 0) {
+                direct[frame] = directNanos;
+                layered[frame] = layeredNanos;
+            }
+        }
+
+        Log.i(TAG, FRAME_COUNT + " frames of " + SIZE + "x" + SIZE
+                + "\n  drawn directly: " + percentiles(direct)
+                + "\n  layered:        " + percentiles(layered));
+    }
+
+    private static String percentiles(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return "p50 " + micros(sorted, 50) + " us, p90 " + micros(sorted, 90)
+                + " us, p99 " + micros(sorted, 99) + " us, max "
+                + TimeUnit.NANOSECONDS.toMicros(sorted[sorted.length - 1]) + " us";
+    }
+
+    private static long micros(long[] sorted, int percentile) {
+        return TimeUnit.NANOSECONDS.toMicros(sorted[(sorted.length - 1) * percentile / 100]);
+    }
+
+    /**
+     * The interactive face of the watch, drawn by the {@link StaticLayerRenderer} and the
+     * {@link TimeDrawer} the watch face draws it with, with a day of weather and a forecast strip.
+     */
+    private static class Face {
+
+        private final ClockText mClockText =
+                new ClockText("EEE, dd MMM yyyy", Locale.US, TimeZone.getTimeZone("UTC"));
+
+        private final StaticLayerRenderer mStaticLayer;
+        private final TimeDrawer mTimeDrawer;
+
+        Face() {
+            Paint backgroundPaint = new Paint();
+            backgroundPaint.setColor(Color.rgb(0x03, 0xa9, 0xf4));
+            mStaticLayer = new StaticLayerRenderer(backgroundPaint,
+                    createTextPaint(Color.LTGRAY, Typeface.DEFAULT, 16),
+                    createTextPaint(Color.WHITE, Typeface.DEFAULT_BOLD, 30),
+                    createTextPaint(Color.LTGRAY, Typeface.DEFAULT, 30),
+                    createTextPaint(Color.LTGRAY, Typeface.DEFAULT, 14));
+            mStaticLayer.setLayout(20, 100, 40, 30, 14);
+
+            Bitmap icon = BitmapFactory.decodeResource(
+                    InstrumentationRegistry.getTargetContext().getResources(), R.drawable.ic_clear);
+            mStaticLayer.setToday("21°", "10°", icon);
+            mStaticLayer.setForecastDayCount(StaticLayerRenderer.FORECAST_STRIP_DAYS);
+            String[] dayNames = {"MON", "TUE", "WED"};
+            for (int day = 0; day < StaticLayerRenderer.FORECAST_STRIP_DAYS; day++) {
+                mStaticLayer.setForecastDay(day, dayNames[day], "18°/9°", icon);
+            }
+
+            mTimeDrawer = new TimeDrawer(mClockText,
+                    createTextPaint(Color.WHITE, Typeface.DEFAULT_BOLD, 40),
+                    createTextPaint(Color.WHITE, Typeface.DEFAULT, 40),
+                    createTextPaint(Color.WHITE, Typeface.MONOSPACE, 40));
+        }
+
+        void drawDirect(Canvas canvas, long timeMillis) {
+            mClockText.setTime(timeMillis);
+            mStaticLayer.render(canvas, SIZE, SIZE, mClockText.getDate());
+            mTimeDrawer.drawInteractive(canvas, SIZE / 2, 100);
+        }
+
+        void drawLayered(Canvas canvas, long timeMillis) {
+            mClockText.setTime(timeMillis);
+            canvas.drawBitmap(mStaticLayer.getLayer(SIZE, SIZE, mClockText.getDate()), 0, 0, null);
+            mTimeDrawer.drawInteractive(canvas, SIZE / 2, 100);
+        }
+
+        private static Paint createTextPaint(int color, Typeface typeface, float size) {
+            Paint paint = new Paint();
+            paint.setColor(color);
+            paint.setTypeface(typeface);
+            paint.setAntiAlias(true);
+            paint.setTextSize(size);
+            return paint;
+        }
+    }
+}
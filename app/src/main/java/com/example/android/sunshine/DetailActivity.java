@@ -16,10 +16,12 @@
 package com.example.android.sunshine;
 
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.databinding.DataBindingUtil;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.ShareCompat;
 import android.support.v4.content.CursorLoader;
@@ -87,6 +89,19 @@ public class DetailActivity extends AppCompatActivity implements
     /* The URI that is used to access the chosen day's weather details */
     private Uri mUri;
 
+    /* The weather details that are shown, as last loaded by the loader */
+    private Cursor mWeatherData;
+
+    /* Shows the weather details again, when only the way they are shown changed */
+    private final ContentObserver mPresentationObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            if (mWeatherData != null && !mWeatherData.isClosed()) {
+                bindWeatherData(mWeatherData);
+            }
+        }
+    };
+
 
     /*
      * This field is used for data binding. Normally, we would have to call findViewById many
@@ -109,6 +124,15 @@ public class DetailActivity extends AppCompatActivity implements
 
         /* This connects our Activity into the loader lifecycle. */
         getSupportLoaderManager().initLoader(ID_DETAIL_LOADER, null, this);
+
+        getContentResolver().registerContentObserver(
+                WeatherContract.PRESENTATION_URI, false, mPresentationObserver);
+    }
+
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(mPresentationObserver);
+        super.onDestroy();
     }
 
     /**
@@ -217,6 +241,16 @@ public class DetailActivity extends AppCompatActivity implements
      */
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        mWeatherData = data;
+        bindWeatherData(data);
+    }
+
+    /**
+     * Binds the weather details to the views, using the units the user prefers.
+     *
+     * @param data The cursor returned by the loader
+     */
+    private void bindWeatherData(Cursor data) {
 
         /*
          * Before we bind the data to the UI that will display that data, we need to check the
@@ -382,11 +416,12 @@ public class DetailActivity extends AppCompatActivity implements
     /**
      * Called when a previously created loader is being reset, thus making its data unavailable.
      * The application should at this point remove any references it has to the Loader's data.
-     * Since we don't store any of this cursor's data, there are no references we need to remove.
+     * We only hold on to the cursor itself, to bind it again when the units change.
      *
      * @param loader The Loader that is being reset.
      */
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        mWeatherData = null;
     }
 }
\ No newline at end of file
@@ -16,8 +16,10 @@
 package com.example.android.sunshine;
 
 import android.content.Context;
-import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -25,18 +27,24 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.example.android.sunshine.utilities.SunshineDateUtils;
-import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * from a {@link ForecastSnapshot} to a {@link android.support.v7.widget.RecyclerView}.
  */
 class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
 
+    /*
+     * The forecasts are compared on this thread, so that the main thread only has to copy the
+     * new forecast and tell the RecyclerView which days changed.
+     */
+    private static final Executor sDiffExecutor = Executors.newSingleThreadExecutor();
+
     /* The context we use to utility methods, app resources and layout inflaters */
     private final Context mContext;
 
@@ -63,7 +71,13 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     private boolean mUseTodayLayout;
 
-    private Cursor mCursor;
+    /* The forecast that is displayed */
+    private ForecastSnapshot mSnapshot = ForecastSnapshot.EMPTY;
+
+    /* Incremented on each swap, so that a comparison that was overtaken by another is dropped */
+    private int mSwapCount;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
     /**
      * Creates a ForecastAdapter.
@@ -129,90 +143,40 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
+        /*
+         * The row was formatted by ForecastLoader in the background, including the icon of the
+         * today layout, so all that is left to do here is to set the views.
+         */
+        ForecastSnapshot.Row row = mSnapshot.getRow(position);
 
         /****************
          * Weather Icon *
          ****************/
-        int weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
-        int weatherImageId;
-
-        int viewType = getItemViewType(position);
-
-        switch (viewType) {
-
-            case VIEW_TYPE_TODAY:
-                weatherImageId = SunshineWeatherUtils
-                        .getLargeArtResourceIdForWeatherCondition(weatherId);
-                break;
-
-            case VIEW_TYPE_FUTURE_DAY:
-                weatherImageId = SunshineWeatherUtils
-                        .getSmallArtResourceIdForWeatherCondition(weatherId);
-                break;
-
-            default:
-                throw new IllegalArgumentException("Invalid view type, value of " + viewType);
-        }
-
-        forecastAdapterViewHolder.iconView.setImageResource(weatherImageId);
+        forecastAdapterViewHolder.iconView.setImageResource(row.iconId);
 
         /****************
          * Weather Date *
          ****************/
-         /* Read date from the cursor */
-        long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
-         /* Get human readable string using our utility method */
-        String dateString = SunshineDateUtils.getFriendlyDateString(mContext, dateInMillis, false);
-
-         /* Display friendly date string */
-        forecastAdapterViewHolder.dateView.setText(dateString);
+        forecastAdapterViewHolder.dateView.setText(row.date);
 
         /***********************
          * Weather Description *
          ***********************/
-        String description = SunshineWeatherUtils.getStringForWeatherCondition(mContext, weatherId);
-         /* Create the accessibility (a11y) String from the weather description */
-        String descriptionA11y = mContext.getString(R.string.a11y_forecast, description);
-
          /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.descriptionView.setText(description);
-        forecastAdapterViewHolder.descriptionView.setContentDescription(descriptionA11y);
+        forecastAdapterViewHolder.descriptionView.setText(row.description);
+        forecastAdapterViewHolder.descriptionView.setContentDescription(row.descriptionA11y);
 
         /**************************
          * High (max) temperature *
          **************************/
-         /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String highString = SunshineWeatherUtils.formatTemperature(mContext, highInCelsius);
-         /* Create the accessibility (a11y) String from the weather description */
-        String highA11y = mContext.getString(R.string.a11y_high_temp, highString);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.highTempView.setText(highString);
-        forecastAdapterViewHolder.highTempView.setContentDescription(highA11y);
+        forecastAdapterViewHolder.highTempView.setText(row.highTemp);
+        forecastAdapterViewHolder.highTempView.setContentDescription(row.highTempA11y);
 
         /*************************
          * Low (min) temperature *
          *************************/
-         /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String lowString = SunshineWeatherUtils.formatTemperature(mContext, lowInCelsius);
-        String lowA11y = mContext.getString(R.string.a11y_low_temp, lowString);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.lowTempView.setText(lowString);
-        forecastAdapterViewHolder.lowTempView.setContentDescription(lowA11y);
+        forecastAdapterViewHolder.lowTempView.setText(row.lowTemp);
+        forecastAdapterViewHolder.lowTempView.setContentDescription(row.lowTempA11y);
     }
 
     /**
@@ -223,8 +187,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public int getItemCount() {
-        if (null == mCursor) return 0;
-        return mCursor.getCount();
+        return mSnapshot.getCount();
     }
 
     /**
@@ -234,7 +197,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      * different layout for the "today" layout. The "today" layout is only shown in portrait mode
      * with the first item in the list.
      *
-     * @param position index within our RecyclerView and Cursor
+     * @param position index within our RecyclerView and forecast
      * @return the view type (today or future day)
      */
     @Override
@@ -247,16 +210,90 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
     }
 
     /**
-     * Swaps the cursor used by the ForecastAdapter for its weather data. This method is called by
+     * Swaps the weather data displayed by the ForecastAdapter. This method is called by
      * MainActivity after a load has finished, as well as when the Loader responsible for loading
-     * the weather data is reset. When this method is called, we assume we have a completely new
-     * set of data, so we call notifyDataSetChanged to tell the RecyclerView to update.
+     * the weather data is reset.
+     * <p>
+     * The new forecast is compared with the one that is displayed in the background, and only the
+     * days that were added, removed or changed are bound again once the comparison is done. A
+     * sync that changes a single day rebinds a single row, and keeps the others in place.
      *
-     * @param newCursor the new cursor to use as ForecastAdapter's data source
+     * @param newForecast the new forecast to use as ForecastAdapter's data source, or null
      */
-    void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
-        notifyDataSetChanged();
+    void swapForecast(ForecastSnapshot newForecast) {
+        final ForecastSnapshot oldSnapshot = mSnapshot;
+        final ForecastSnapshot newSnapshot =
+                newForecast == null ? ForecastSnapshot.EMPTY : newForecast;
+        final int swapCount = ++mSwapCount;
+
+        /* There's nothing to keep in place when either forecast is empty */
+        if (oldSnapshot.getCount() == 0 || newSnapshot.getCount() == 0) {
+            mSnapshot = newSnapshot;
+            notifyDataSetChanged();
+            return;
+        }
+
+        final boolean useTodayLayout = mUseTodayLayout;
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff =
+                        calculateDiff(oldSnapshot, newSnapshot, useTodayLayout);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        /* A newer forecast was swapped in while we compared this one */
+                        if (swapCount != mSwapCount) return;
+
+                        mSnapshot = newSnapshot;
+                        diff.dispatchUpdatesTo(ForecastAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Compares two forecasts day by day.
+     *
+     * @param oldSnapshot    The forecast that is displayed
+     * @param newSnapshot    The forecast that replaces it
+     * @param useTodayLayout Whether the first day uses its own layout, see
+     *                       {@link #getItemViewType(int)}
+     * @return The changes that turn the old forecast into the new one
+     */
+    static DiffUtil.DiffResult calculateDiff(final ForecastSnapshot oldSnapshot,
+                                             final ForecastSnapshot newSnapshot,
+                                             final boolean useTodayLayout) {
+        /* The forecast is sorted by date, so days can't move */
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldSnapshot.getCount();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newSnapshot.getCount();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldSnapshot.getDate(oldItemPosition)
+                        == newSnapshot.getDate(newItemPosition);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                /* A day that becomes today has to be bound again with the today layout */
+                if (useTodayLayout && (oldItemPosition == 0) != (newItemPosition == 0)) {
+                    return false;
+                }
+                return oldSnapshot.getRow(oldItemPosition)
+                        .hasSameContent(newSnapshot.getRow(newItemPosition));
+            }
+        }, false);
     }
 
     /**
@@ -294,8 +331,8 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            if (adapterPosition == RecyclerView.NO_POSITION) return;
+            long dateInMillis = mSnapshot.getDate(adapterPosition);
             mClickHandler.onClick(dateInMillis);
         }
     }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.data.WeatherContract;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loads the forecast like a CursorLoader would, and then formats each of its rows in the same
+ * background thread, so that {@link ForecastAdapter} doesn't have to when it binds them.
+ * <p>
+ * The forecast is loaded again when the weather changes. When only the way it is shown changes,
+ * see {@link WeatherContract#PRESENTATION_URI}, the forecast that was loaded last is formatted
+ * again without querying it.
+ */
+class ForecastLoader extends AsyncTaskLoader<ForecastSnapshot> {
+
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mSortOrder;
+
+    private final boolean mUseTodayLayout;
+
+    private final ContentObserver mWeatherObserver = new ContentObserver(new Handler()) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mRequery.set(true);
+            onContentChanged();
+        }
+    };
+
+    private final ContentObserver mPresentationObserver = new ForceLoadContentObserver();
+
+    private boolean mObserving;
+
+    /* Whether the weather changed since the last query */
+    private final AtomicBoolean mRequery = new AtomicBoolean(true);
+
+    /* The forecast that was loaded last, which is formatted again if only the units change */
+    private volatile ForecastSnapshot mLastLoaded;
+
+    /* The forecast that was delivered last */
+    private ForecastSnapshot mForecast;
+
+    /**
+     * Creates a loader for the forecast, queried with the arguments of
+     * {@link android.content.ContentResolver#query}. The projection must list the columns of
+     * {@link MainActivity#MAIN_FORECAST_PROJECTION}, in that order.
+     */
+    ForecastLoader(@NonNull Context context, Uri uri, String[] projection, String selection,
+                   String[] selectionArgs, String sortOrder) {
+        super(context);
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+        mUseTodayLayout = context.getResources().getBoolean(R.bool.use_today_layout);
+    }
+
+    @Override
+    public ForecastSnapshot loadInBackground() {
+        ForecastSnapshot lastLoaded = mLastLoaded;
+
+        ForecastSnapshot forecast;
+        if (mRequery.getAndSet(false) || lastLoaded == null) {
+            Cursor cursor = getContext().getContentResolver().query(
+                    mUri,
+                    mProjection,
+                    mSelection,
+                    mSelectionArgs,
+                    mSortOrder);
+            try {
+                forecast = ForecastSnapshot.of(getContext(), cursor, mUseTodayLayout);
+            } finally {
+                if (cursor != null) cursor.close();
+            }
+        } else {
+            forecast = lastLoaded.reformat(getContext(), mUseTodayLayout);
+        }
+
+        mLastLoaded = forecast;
+        return forecast;
+    }
+
+    @Override
+    public void deliverResult(ForecastSnapshot forecast) {
+        if (isReset()) return;
+
+        mForecast = forecast;
+
+        if (isStarted()) {
+            super.deliverResult(forecast);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            getContext().getContentResolver()
+                    .registerContentObserver(mUri, true, mWeatherObserver);
+            getContext().getContentResolver().registerContentObserver(
+                    WeatherContract.PRESENTATION_URI, false, mPresentationObserver);
+            mObserving = true;
+        }
+
+        if (mForecast != null) {
+            deliverResult(mForecast);
+        }
+        if (takeContentChanged() || mForecast == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        onStopLoading();
+
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mWeatherObserver);
+            getContext().getContentResolver().unregisterContentObserver(mPresentationObserver);
+            mObserving = false;
+        }
+
+        mForecast = null;
+        mLastLoaded = null;
+        mRequery.set(true);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+
+/**
+ * An immutable copy of the forecast that {@link ForecastAdapter} displays, read from a Cursor
+ * with the columns of {@link MainActivity#MAIN_FORECAST_PROJECTION}, along with the text and
+ * icon of each row. It is built by {@link ForecastLoader} in the background, so that binding a
+ * row only sets the views, and the adapter can compare two forecasts in the background too.
+ */
+final class ForecastSnapshot {
+
+    static final ForecastSnapshot EMPTY =
+            new ForecastSnapshot(new long[0], new double[0], new double[0], new int[0]);
+
+    private final long[] mDates;
+    private final double[] mMaxTemps;
+    private final double[] mMinTemps;
+    private final int[] mWeatherIds;
+
+    private final Row[] mRows;
+
+    /**
+     * What a row of the forecast displays, formatted.
+     */
+    static final class Row {
+        final int iconId;
+        final String date;
+        final String description;
+        final String descriptionA11y;
+        final String highTemp;
+        final String highTempA11y;
+        final String lowTemp;
+        final String lowTempA11y;
+
+        private Row(int iconId, String date, String description, String descriptionA11y,
+                    String highTemp, String highTempA11y, String lowTemp, String lowTempA11y) {
+            this.iconId = iconId;
+            this.date = date;
+            this.description = description;
+            this.descriptionA11y = descriptionA11y;
+            this.highTemp = highTemp;
+            this.highTempA11y = highTempA11y;
+            this.lowTemp = lowTemp;
+            this.lowTempA11y = lowTempA11y;
+        }
+
+        /**
+         * Returns whether this row displays the same as the other one.
+         */
+        boolean hasSameContent(Row other) {
+            return iconId == other.iconId
+                    && date.equals(other.date)
+                    && description.equals(other.description)
+                    && highTemp.equals(other.highTemp)
+                    && lowTemp.equals(other.lowTemp);
+        }
+    }
+
+    private ForecastSnapshot(long[] dates, double[] maxTemps, double[] minTemps,
+                             int[] weatherIds) {
+        mDates = dates;
+        mMaxTemps = maxTemps;
+        mMinTemps = minTemps;
+        mWeatherIds = weatherIds;
+        mRows = new Row[dates.length];
+    }
+
+    /**
+     * Copies every row of the cursor and formats it. The position of the cursor is left after
+     * its last row. This reads resources and preferences, so it shouldn't run on the main thread.
+     *
+     * @param context        Used to format the rows
+     * @param cursor         The forecast, or null for an empty snapshot
+     * @param useTodayLayout Whether the first row uses the today layout, and its large icon
+     * @return A snapshot of the forecast
+     */
+    static ForecastSnapshot of(Context context, Cursor cursor, boolean useTodayLayout) {
+        if (cursor == null || cursor.getCount() == 0) return EMPTY;
+
+        int count = cursor.getCount();
+        long[] dates = new long[count];
+        double[] maxTemps = new double[count];
+        double[] minTemps = new double[count];
+        int[] weatherIds = new int[count];
+
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            dates[i] = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            maxTemps[i] = cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
+            minTemps[i] = cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
+            weatherIds[i] = cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+        }
+
+        ForecastSnapshot snapshot = new ForecastSnapshot(dates, maxTemps, minTemps, weatherIds);
+        snapshot.formatRows(context, useTodayLayout);
+        return snapshot;
+    }
+
+    /**
+     * Formats the same forecast again, for instance because the units changed. Like
+     * {@link #of(Context, Cursor, boolean)}, this shouldn't run on the main thread.
+     *
+     * @param context        Used to format the rows
+     * @param useTodayLayout Whether the first row uses the today layout, and its large icon
+     * @return A snapshot of the same forecast, formatted again
+     */
+    ForecastSnapshot reformat(Context context, boolean useTodayLayout) {
+        if (getCount() == 0) return EMPTY;
+
+        ForecastSnapshot snapshot = new ForecastSnapshot(mDates, mMaxTemps, mMinTemps, mWeatherIds);
+        snapshot.formatRows(context, useTodayLayout);
+        return snapshot;
+    }
+
+    private void formatRows(Context context, boolean useTodayLayout) {
+        /* Read the units once, rather than for each temperature */
+        boolean isMetric = SunshinePreferences.isMetric(context);
+
+        for (int i = 0; i < mRows.length; i++) {
+            int weatherId = mWeatherIds[i];
+
+            int iconId = useTodayLayout && i == 0
+                    ? SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId)
+                    : SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId);
+
+            String date = SunshineDateUtils.getFriendlyDateString(context, mDates[i], false);
+
+            String description =
+                    SunshineWeatherUtils.getStringForWeatherCondition(context, weatherId);
+            String descriptionA11y = context.getString(R.string.a11y_forecast, description);
+
+            String highTemp =
+                    SunshineWeatherUtils.formatTemperature(context, mMaxTemps[i], isMetric);
+            String highTempA11y = context.getString(R.string.a11y_high_temp, highTemp);
+
+            String lowTemp =
+                    SunshineWeatherUtils.formatTemperature(context, mMinTemps[i], isMetric);
+            String lowTempA11y = context.getString(R.string.a11y_low_temp, lowTemp);
+
+            mRows[i] = new Row(iconId, date, description, descriptionA11y,
+                    highTemp, highTempA11y, lowTemp, lowTempA11y);
+        }
+    }
+
+    int getCount() {
+        return mDates.length;
+    }
+
+    long getDate(int position) {
+        return mDates[position];
+    }
+
+    Row getRow(int position) {
+        return mRows[position];
+    }
+}
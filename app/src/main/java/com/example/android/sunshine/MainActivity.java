@@ -16,11 +16,10 @@
 package com.example.android.sunshine;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
@@ -37,7 +36,7 @@ import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
 
 public class MainActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor>,
+        LoaderManager.LoaderCallbacks<ForecastSnapshot>,
         ForecastAdapter.ForecastAdapterOnClickHandler {
 
     private final String TAG = MainActivity.class.getSimpleName();
@@ -73,12 +72,21 @@ public class MainActivity extends AppCompatActivity implements
      */
     private static final int ID_FORECAST_LOADER = 44;
 
+    /*
+     * A sync notifies each day it changed on its own. Loading the forecast again at most this
+     * often answers all of those notifications with one or two queries.
+     */
+    private static final long FORECAST_LOADER_THROTTLE_MILLIS = 500;
+
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
     private int mPosition = RecyclerView.NO_POSITION;
 
     private ProgressBar mLoadingIndicator;
 
+    /* Whether the forecast has been shown since this Activity was created */
+    private boolean mReportedFullyDrawn;
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -192,7 +200,7 @@ public class MainActivity extends AppCompatActivity implements
      * @return A new Loader instance that is ready to start loading.
      */
     @Override
-    public Loader<Cursor> onCreateLoader(int loaderId, Bundle bundle) {
+    public Loader<ForecastSnapshot> onCreateLoader(int loaderId, Bundle bundle) {
 
 
         switch (loaderId) {
@@ -205,16 +213,21 @@ public class MainActivity extends AppCompatActivity implements
                 /*
                  * A SELECTION in SQL declares which rows you'd like to return. In our case, we
                  * want all weather data from today onwards that is stored in our weather table.
-                 * We created a handy method to do that in our WeatherEntry class.
+                 * We created a handy method to do that in our WeatherEntry class. Today's date
+                 * is bound as an argument.
                  */
                 String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+                String[] selectionArgs =
+                        WeatherContract.WeatherEntry.getSqlSelectionArgsForTodayOnwards();
 
-                return new CursorLoader(this,
+                ForecastLoader forecastLoader = new ForecastLoader(this,
                         forecastQueryUri,
                         MAIN_FORECAST_PROJECTION,
                         selection,
-                        null,
+                        selectionArgs,
                         sortOrder);
+                forecastLoader.setUpdateThrottle(FORECAST_LOADER_THROTTLE_MILLIS);
+                return forecastLoader;
 
             default:
                 throw new RuntimeException("Loader Not Implemented: " + loaderId);
@@ -233,13 +246,24 @@ public class MainActivity extends AppCompatActivity implements
      * @param data   The data generated by the Loader.
      */
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+    public void onLoadFinished(Loader<ForecastSnapshot> loader, ForecastSnapshot data) {
 
 
-        mForecastAdapter.swapCursor(data);
+        mForecastAdapter.swapForecast(data);
         if (mPosition == RecyclerView.NO_POSITION) mPosition = 0;
         mRecyclerView.smoothScrollToPosition(mPosition);
         if (data.getCount() != 0) showWeatherDataView();
+
+        /*
+         * Let the system know once the forecast is on screen, so that the time from a cold start
+         * to the first forecast is reported (as "Fully drawn" in logcat) and can be compared with
+         * and without ForecastCache.
+         */
+        if (data.getCount() != 0 && !mReportedFullyDrawn
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            reportFullyDrawn();
+            mReportedFullyDrawn = true;
+        }
     }
 
     /**
@@ -249,12 +273,12 @@ public class MainActivity extends AppCompatActivity implements
      * @param loader The Loader that is being reset.
      */
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
+    public void onLoaderReset(Loader<ForecastSnapshot> loader) {
         /*
          * Since this Loader's data is now invalid, we need to clear the Adapter that is
          * displaying the data.
          */
-        mForecastAdapter.swapCursor(null);
+        mForecastAdapter.swapForecast(null);
     }
 
     /**
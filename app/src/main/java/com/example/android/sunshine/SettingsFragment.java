@@ -98,10 +98,14 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
             SunshinePreferences.resetLocationCoordinates(activity);
+            // whatever is being fetched for the old location is of no use anymore
+            SunshineSyncUtils.startImmediateSync(activity, true);
+        } else if (key.equals(getString(R.string.pref_extra_locations_key))) {
+            // the weather of the locations that were added is fetched right away
             SunshineSyncUtils.startImmediateSync(activity);
         } else if (key.equals(getString(R.string.pref_units_key))) {
-            // units have changed. update lists of weather entries accordingly
-            activity.getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // units have changed. the weather is still the same, it only has to be shown again
+            activity.getContentResolver().notifyChange(WeatherContract.PRESENTATION_URI, null);
         }
         Preference preference = findPreference(key);
         if (null != preference) {
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A process-wide snapshot of the forecast of the primary location, held in primitive arrays
+ * indexed by day. The forecast is at most a couple of weeks of small rows, and it is read far more
+ * often than it is written: by the forecast list, the detail screen, the notification and the
+ * push to connected devices. WeatherProvider serves those reads from this snapshot instead of
+ * going to SQLite each time.
+ * <p>
+ * Every write to the weather table through WeatherProvider invalidates the snapshot, and the next
+ * read loads a new one. Each snapshot is tagged with the generation it was loaded in, so a
+ * snapshot that was being loaded while a write happened is never served. Writes that bypass
+ * WeatherProvider are not seen by the cache.
+ */
+public final class ForecastCache {
+
+    /* The columns held by a snapshot, in the order of the arrays below */
+    private static final String[] COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOCATION_ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_LOCATION_ID = 1;
+    private static final int COLUMN_DATE = 2;
+    private static final int COLUMN_WEATHER_ID = 3;
+    /* Every column from here on is a REAL */
+    private static final int FIRST_REAL_COLUMN = 4;
+
+    /* The selection used for "today onwards" queries, see WeatherEntry#getSqlSelectForTodayOnwards */
+    private static final String FROM_DATE_SELECTION = WeatherEntry.getSqlSelectForTodayOnwards();
+
+    private static final String ASCENDING_DATE_SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+    private static final AtomicReference<Snapshot> sSnapshot = new AtomicReference<>();
+
+    private static final AtomicLong sHits = new AtomicLong();
+    private static final AtomicLong sMisses = new AtomicLong();
+
+    private static volatile boolean sEnabled = true;
+
+    private ForecastCache() {
+    }
+
+    /**
+     * @return The number of queries that were answered from an existing snapshot
+     */
+    public static long getHitCount() {
+        return sHits.get();
+    }
+
+    /**
+     * @return The number of queries that had to load a new snapshot from SQLite
+     */
+    public static long getMissCount() {
+        return sMisses.get();
+    }
+
+    /**
+     * Turns the cache on or off, which is useful to measure what it saves. While it is off, every
+     * query goes to SQLite.
+     *
+     * @param enabled true to serve queries from the cache
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+        invalidate();
+    }
+
+    /**
+     * Drops the current snapshot. Called after every write to the weather table.
+     */
+    static void invalidate() {
+        sGeneration.incrementAndGet();
+        sSnapshot.set(null);
+    }
+
+    /**
+     * Answers a query for the weather of the primary location from the given date onwards, if the
+     * query is one the cache can answer.
+     *
+     * @param db            The database to load a snapshot from, if there is no current one
+     * @param projection    The columns to return, or null for all columns
+     * @param selection     The selection of the query. Only the "today onwards" selection (or
+     *                      none at all) can be answered.
+     * @param selectionArgs The arguments of the selection: the date for "today onwards", and
+     *                      none otherwise
+     * @param sortOrder     The sort order of the query, which must be ascending dates (or none)
+     * @return A cursor with the result, or null if the query has to go to SQLite
+     */
+    static Cursor queryFromDate(SQLiteDatabase db, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder) {
+        if (!sEnabled) return null;
+
+        if (sortOrder != null && !ASCENDING_DATE_SORT_ORDER.equals(sortOrder)) return null;
+
+        int selectionArgCount = selectionArgs == null ? 0 : selectionArgs.length;
+        long fromDate;
+        if (selection == null && selectionArgCount == 0) {
+            fromDate = Long.MIN_VALUE;
+        } else if (FROM_DATE_SELECTION.equals(selection) && selectionArgCount == 1) {
+            try {
+                fromDate = Long.parseLong(selectionArgs[0]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+
+        int[] columnMap = mapColumns(projection);
+        if (columnMap == null) return null;
+
+        Snapshot snapshot = getSnapshot(db);
+        int first = snapshot.firstIndexOnOrAfter(fromDate);
+        return new SnapshotCursor(snapshot, columnMap, projection, first, snapshot.mSize - first);
+    }
+
+    /**
+     * Answers a query for the weather of the primary location on a single date.
+     *
+     * @param db         The database to load a snapshot from, if there is no current one
+     * @param projection The columns to return, or null for all columns
+     * @param date       The normalized date
+     * @return A cursor with the result, or null if the query has to go to SQLite
+     */
+    static Cursor queryDate(SQLiteDatabase db, String[] projection, long date) {
+        if (!sEnabled) return null;
+
+        int[] columnMap = mapColumns(projection);
+        if (columnMap == null) return null;
+
+        Snapshot snapshot = getSnapshot(db);
+        int index = Arrays.binarySearch(snapshot.mDates, 0, snapshot.mSize, date);
+        return index >= 0
+                ? new SnapshotCursor(snapshot, columnMap, projection, index, 1)
+                : new SnapshotCursor(snapshot, columnMap, projection, 0, 0);
+    }
+
+    /**
+     * Maps each column of the projection to a column of the snapshot.
+     *
+     * @return The map, or null if the projection contains a column the snapshot doesn't hold
+     */
+    private static int[] mapColumns(String[] projection) {
+        if (projection == null) {
+            int[] columnMap = new int[COLUMNS.length];
+            for (int i = 0; i < columnMap.length; i++) {
+                columnMap[i] = i;
+            }
+            return columnMap;
+        }
+
+        int[] columnMap = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            int column = Arrays.asList(COLUMNS).indexOf(projection[i]);
+            if (column == -1) {
+                return null;
+            }
+            columnMap[i] = column;
+        }
+        return columnMap;
+    }
+
+    private static Snapshot getSnapshot(SQLiteDatabase db) {
+        /* Read the generation first, so that a write that happens while we load is noticed */
+        int generation = sGeneration.get();
+
+        Snapshot snapshot = sSnapshot.get();
+        if (snapshot != null && snapshot.mGeneration == generation) {
+            sHits.incrementAndGet();
+            return snapshot;
+        }
+
+        sMisses.incrementAndGet();
+        snapshot = Snapshot.load(db, generation);
+
+        /* If a write happened in the meantime, this snapshot is never served again */
+        sSnapshot.set(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * An immutable copy of the forecast of the primary location, sorted by date.
+     */
+    private static final class Snapshot {
+
+        final int mGeneration;
+        final int mSize;
+
+        final long[] mIds;
+        final long[] mDates;
+        final int[] mWeatherIds;
+        /* One array per REAL column, starting at FIRST_REAL_COLUMN */
+        final double[][] mReals;
+
+        private Snapshot(int generation, int size) {
+            mGeneration = generation;
+            mSize = size;
+            mIds = new long[size];
+            mDates = new long[size];
+            mWeatherIds = new int[size];
+            mReals = new double[COLUMNS.length - FIRST_REAL_COLUMN][size];
+        }
+
+        static Snapshot load(SQLiteDatabase db, int generation) {
+            Cursor cursor = db.query(
+                    WeatherEntry.TABLE_NAME,
+                    COLUMNS,
+                    WeatherEntry.COLUMN_LOCATION_ID + " = " + LocationEntry.PRIMARY_LOCATION_ID,
+                    null,
+                    null,
+                    null,
+                    ASCENDING_DATE_SORT_ORDER);
+
+            try {
+                Snapshot snapshot = new Snapshot(generation, cursor.getCount());
+                for (int row = 0; cursor.moveToNext(); row++) {
+                    snapshot.mIds[row] = cursor.getLong(COLUMN_ID);
+                    snapshot.mDates[row] = cursor.getLong(COLUMN_DATE);
+                    snapshot.mWeatherIds[row] = cursor.getInt(COLUMN_WEATHER_ID);
+                    for (int real = 0; real < snapshot.mReals.length; real++) {
+                        snapshot.mReals[real][row] = cursor.getDouble(FIRST_REAL_COLUMN + real);
+                    }
+                }
+                return snapshot;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        int firstIndexOnOrAfter(long date) {
+            int index = Arrays.binarySearch(mDates, 0, mSize, date);
+            return index >= 0 ? index : -(index + 1);
+        }
+
+        boolean isReal(int column) {
+            return column >= FIRST_REAL_COLUMN;
+        }
+
+        long getLong(int column, int row) {
+            switch (column) {
+                case COLUMN_ID:
+                    return mIds[row];
+                case COLUMN_LOCATION_ID:
+                    return LocationEntry.PRIMARY_LOCATION_ID;
+                case COLUMN_DATE:
+                    return mDates[row];
+                case COLUMN_WEATHER_ID:
+                    return mWeatherIds[row];
+                default:
+                    return (long) mReals[column - FIRST_REAL_COLUMN][row];
+            }
+        }
+
+        double getDouble(int column, int row) {
+            return isReal(column) ? mReals[column - FIRST_REAL_COLUMN][row] : getLong(column, row);
+        }
+    }
+
+    /**
+     * A read-only cursor over a range of rows of a snapshot. Values are read straight out of the
+     * snapshot's arrays, nothing is copied or boxed.
+     */
+    private static final class SnapshotCursor extends AbstractCursor {
+
+        private final Snapshot mSnapshot;
+        private final int[] mColumnMap;
+        private final String[] mColumnNames;
+        private final int mFirstRow;
+        private final int mCount;
+
+        SnapshotCursor(Snapshot snapshot, int[] columnMap, String[] projection, int firstRow,
+                       int count) {
+            mSnapshot = snapshot;
+            mColumnMap = columnMap;
+            mColumnNames = projection != null ? projection : COLUMNS;
+            mFirstRow = firstRow;
+            mCount = count;
+        }
+
+        private int row() {
+            return mFirstRow + getPosition();
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        @Override
+        public String getString(int column) {
+            int snapshotColumn = mColumnMap[column];
+            return mSnapshot.isReal(snapshotColumn)
+                    ? Double.toString(mSnapshot.getDouble(snapshotColumn, row()))
+                    : Long.toString(mSnapshot.getLong(snapshotColumn, row()));
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return mSnapshot.getLong(mColumnMap[column], row());
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return mSnapshot.getDouble(mColumnMap[column], row());
+        }
+
+        @Override
+        public int getType(int column) {
+            return mSnapshot.isReal(mColumnMap[column]) ? FIELD_TYPE_FLOAT : FIELD_TYPE_INTEGER;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            /* Every column of the weather table is NOT NULL */
+            return false;
+        }
+    }
+}
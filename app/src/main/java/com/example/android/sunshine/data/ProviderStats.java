@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.MatrixCursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.data.WeatherContract.ProviderStatsEntry;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long the queries, bulk inserts and deletes of {@link WeatherProvider} take, per
+ * operation and UriMatcher code, in histograms with one bucket per power of two microseconds.
+ * Operations slower than {@link #DEFAULT_SLOW_THRESHOLD_MILLIS} are also kept in a log of the
+ * last {@link #SLOW_LOG_SIZE}, with their SQL and its query plan.
+ * <p>
+ * Only debug builds record anything. In release builds {@link #isEnabled()} is the constant
+ * false, so the provider skips all of this, down to reading the clock. Both are read through
+ * {@link ProviderStatsEntry}.
+ */
+final class ProviderStats {
+
+    static final String OPERATION_QUERY = "query";
+    static final String OPERATION_BULK_INSERT = "bulkInsert";
+    static final String OPERATION_DELETE = "delete";
+
+    /* Bucket i holds durations below 2^i microseconds, the last one everything from 8 seconds */
+    private static final int BUCKET_COUNT = 24;
+
+    static final long DEFAULT_SLOW_THRESHOLD_MILLIS = 50;
+
+    static final int SLOW_LOG_SIZE = 32;
+
+    private static final Object sLock = new Object();
+
+    /* By operation and UriMatcher code, so that they are listed in that order */
+    private static final Map<String, OperationStats> sStats = new TreeMap<>();
+
+    private static final SlowOperation[] sSlowLog = new SlowOperation[SLOW_LOG_SIZE];
+    private static int sSlowLogCount;
+
+    /* The SQL of the operation running on this thread, see noteSql */
+    private static final ThreadLocal<String[]> sPendingSql = new ThreadLocal<>();
+
+    private static volatile boolean sEnabled = true;
+    private static volatile long sSlowThresholdNanos =
+            TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_THRESHOLD_MILLIS);
+
+    private ProviderStats() {
+    }
+
+    /**
+     * @return Whether operations are recorded, which is never the case in release builds
+     */
+    static boolean isEnabled() {
+        return BuildConfig.DEBUG && sEnabled;
+    }
+
+    /**
+     * Turns recording on or off in debug builds, which is useful to measure what it costs.
+     *
+     * @param enabled true to record operations
+     */
+    static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * @param millis Operations that take at least this long are added to the slow log
+     */
+    static void setSlowThresholdMillis(long millis) {
+        sSlowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Starts timing an operation. Only call this if {@link #isEnabled()}.
+     *
+     * @return The start time, to pass to {@link #recordQuery} or {@link #recordWrite}
+     */
+    static long start() {
+        /* SQL noted by an operation that failed before it was recorded is not this one's */
+        sPendingSql.remove();
+        return System.nanoTime();
+    }
+
+    /**
+     * Remembers the SQL the current operation runs, for the slow log. Only call this if
+     * {@link #isEnabled()}. Operations that don't note their SQL, such as bulk inserts and the
+     * queries {@link ForecastCache} answers, are logged without it.
+     *
+     * @param sql     The SQL statement
+     * @param sqlArgs The arguments bound to it
+     */
+    static void noteSql(String sql, String[] sqlArgs) {
+        String[] pendingSql = new String[1 + (sqlArgs == null ? 0 : sqlArgs.length)];
+        pendingSql[0] = sql;
+        if (sqlArgs != null) {
+            System.arraycopy(sqlArgs, 0, pendingSql, 1, sqlArgs.length);
+        }
+        sPendingSql.set(pendingSql);
+    }
+
+    /**
+     * Records a query. Counting the rows of the cursor fills its first window, which a query
+     * otherwise leaves to the first read of the cursor, so that work is part of the duration.
+     *
+     * @param db         The database, to explain the query plan of a slow query
+     * @param uriCode    The code sUriMatcher matched the URI to
+     * @param uri        The URI that was queried
+     * @param cursor     The result of the query
+     * @param startNanos The value returned by {@link #start()}
+     */
+    static void recordQuery(SQLiteDatabase db, int uriCode, Uri uri, Cursor cursor,
+                            long startNanos) {
+        int rows = cursor.getCount();
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        /* Rows that don't fit into the first window are read by filling it again */
+        int windowFills = 0;
+        if (cursor instanceof AbstractWindowedCursor) {
+            CursorWindow window = ((AbstractWindowedCursor) cursor).getWindow();
+            int windowRows = window == null ? 0 : window.getNumRows();
+            windowFills = windowRows == 0 ? 0 : (rows + windowRows - 1) / windowRows;
+        }
+
+        record(db, OPERATION_QUERY, uriCode, uri, rows, windowFills, elapsedNanos);
+    }
+
+    /**
+     * Records a bulk insert or a delete.
+     *
+     * @param db         The database, to explain the query plan of a slow operation
+     * @param operation  {@link #OPERATION_BULK_INSERT} or {@link #OPERATION_DELETE}
+     * @param uriCode    The code sUriMatcher matched the URI to
+     * @param uri        The URI that was written to
+     * @param rows       The number of rows that were inserted or deleted
+     * @param startNanos The value returned by {@link #start()}
+     */
+    static void recordWrite(SQLiteDatabase db, String operation, int uriCode, Uri uri, int rows,
+                            long startNanos) {
+        record(db, operation, uriCode, uri, rows, 0, System.nanoTime() - startNanos);
+    }
+
+    private static void record(SQLiteDatabase db, String operation, int uriCode, Uri uri,
+                               int rows, int windowFills, long elapsedNanos) {
+        String[] pendingSql = sPendingSql.get();
+        sPendingSql.remove();
+
+        long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+        String key = operation + " " + uriCode;
+
+        SlowOperation slowOperation = null;
+        if (elapsedNanos >= sSlowThresholdNanos) {
+            slowOperation = new SlowOperation(System.currentTimeMillis(), operation, uri, micros,
+                    rows, pendingSql, explain(db, pendingSql));
+        }
+
+        synchronized (sLock) {
+            OperationStats stats = sStats.get(key);
+            if (stats == null) {
+                stats = new OperationStats(operation, uriCode);
+                sStats.put(key, stats);
+            }
+            stats.add(micros, rows, windowFills);
+
+            if (slowOperation != null) {
+                sSlowLog[sSlowLogCount % SLOW_LOG_SIZE] = slowOperation;
+                sSlowLogCount++;
+            }
+        }
+    }
+
+    /**
+     * Returns the query plan of a statement, one step per line, or null if there is no statement.
+     */
+    private static String explain(SQLiteDatabase db, String[] pendingSql) {
+        if (pendingSql == null) return null;
+
+        String[] sqlArgs = Arrays.copyOfRange(pendingSql, 1, pendingSql.length);
+        try {
+            Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + pendingSql[0], sqlArgs);
+            try {
+                /* The last column of a plan is the description of each step */
+                StringBuilder steps = new StringBuilder();
+                int detailColumn = plan.getColumnCount() - 1;
+                while (plan.moveToNext()) {
+                    if (steps.length() != 0) steps.append('\n');
+                    steps.append(plan.getString(detailColumn));
+                }
+                return steps.toString();
+            } finally {
+                plan.close();
+            }
+        } catch (SQLException e) {
+            return "Can't explain: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Returns a row for each operation and UriMatcher code that was recorded, with the columns
+     * of {@link ProviderStatsEntry}.
+     */
+    static Cursor queryStats() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                ProviderStatsEntry.COLUMN_OPERATION,
+                ProviderStatsEntry.COLUMN_URI_CODE,
+                ProviderStatsEntry.COLUMN_COUNT,
+                ProviderStatsEntry.COLUMN_ROWS,
+                ProviderStatsEntry.COLUMN_WINDOW_FILLS,
+                ProviderStatsEntry.COLUMN_TOTAL_MICROS,
+                ProviderStatsEntry.COLUMN_MAX_MICROS,
+                ProviderStatsEntry.COLUMN_P50_MICROS,
+                ProviderStatsEntry.COLUMN_P90_MICROS,
+                ProviderStatsEntry.COLUMN_P99_MICROS,
+                ProviderStatsEntry.COLUMN_HISTOGRAM});
+
+        synchronized (sLock) {
+            for (OperationStats stats : sStats.values()) {
+                cursor.addRow(new Object[]{
+                        stats.mOperation,
+                        stats.mUriCode,
+                        stats.mCount,
+                        stats.mRows,
+                        stats.mWindowFills,
+                        stats.mTotalMicros,
+                        stats.mMaxMicros,
+                        stats.percentileMicros(50),
+                        stats.percentileMicros(90),
+                        stats.percentileMicros(99),
+                        stats.histogram()});
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the slow log, oldest first, with the columns of {@link ProviderStatsEntry}.
+     */
+    static Cursor querySlowOperations() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                ProviderStatsEntry.COLUMN_TIME,
+                ProviderStatsEntry.COLUMN_OPERATION,
+                ProviderStatsEntry.COLUMN_URI,
+                ProviderStatsEntry.COLUMN_DURATION_MICROS,
+                ProviderStatsEntry.COLUMN_ROWS,
+                ProviderStatsEntry.COLUMN_SQL,
+                ProviderStatsEntry.COLUMN_SQL_ARGS,
+                ProviderStatsEntry.COLUMN_QUERY_PLAN});
+
+        synchronized (sLock) {
+            int first = Math.max(0, sSlowLogCount - SLOW_LOG_SIZE);
+            for (int i = first; i < sSlowLogCount; i++) {
+                SlowOperation slowOperation = sSlowLog[i % SLOW_LOG_SIZE];
+                String[] sql = slowOperation.mSql;
+                cursor.addRow(new Object[]{
+                        slowOperation.mTime,
+                        slowOperation.mOperation,
+                        slowOperation.mUri.toString(),
+                        slowOperation.mMicros,
+                        slowOperation.mRows,
+                        sql == null ? null : sql[0],
+                        sql == null ? null
+                                : TextUtils.join(", ", Arrays.copyOfRange(sql, 1, sql.length)),
+                        slowOperation.mQueryPlan});
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Forgets everything that was recorded.
+     *
+     * @return The number of operation and UriMatcher code pairs that were forgotten
+     */
+    static int reset() {
+        synchronized (sLock) {
+            int count = sStats.size();
+            sStats.clear();
+            Arrays.fill(sSlowLog, null);
+            sSlowLogCount = 0;
+            return count;
+        }
+    }
+
+    /**
+     * The totals and the histogram of one operation on one UriMatcher code.
+     */
+    private static final class OperationStats {
+
+        final String mOperation;
+        final int mUriCode;
+        final long[] mBuckets = new long[BUCKET_COUNT];
+
+        long mCount;
+        long mRows;
+        long mWindowFills;
+        long mTotalMicros;
+        long mMaxMicros;
+
+        OperationStats(String operation, int uriCode) {
+            mOperation = operation;
+            mUriCode = uriCode;
+        }
+
+        void add(long micros, int rows, int windowFills) {
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+            mBuckets[bucket]++;
+            mCount++;
+            mRows += rows;
+            mWindowFills += windowFills;
+            mTotalMicros += micros;
+            mMaxMicros = Math.max(mMaxMicros, micros);
+        }
+
+        /**
+         * Returns the upper bound of the bucket the percentile falls into, which is no more than
+         * twice the actual value.
+         */
+        long percentileMicros(int percentile) {
+            long rank = (mCount * percentile + 99) / 100;
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT - 1; bucket++) {
+                seen += mBuckets[bucket];
+                if (seen >= rank) return 1L << bucket;
+            }
+            return mMaxMicros;
+        }
+
+        /**
+         * Returns the buckets that aren't empty, such as "<64us:12 <128us:3".
+         */
+        String histogram() {
+            StringBuilder histogram = new StringBuilder();
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                if (mBuckets[bucket] == 0) continue;
+                if (histogram.length() != 0) histogram.append(' ');
+                histogram.append(bucket < BUCKET_COUNT - 1
+                        ? "<" + (1L << bucket)
+                        : ">=" + (1L << (bucket - 1)));
+                histogram.append("us:").append(mBuckets[bucket]);
+            }
+            return histogram.toString();
+        }
+    }
+
+    /**
+     * An entry of the slow log.
+     */
+    private static final class SlowOperation {
+
+        final long mTime;
+        final String mOperation;
+        final Uri mUri;
+        final long mMicros;
+        final int mRows;
+        /* The SQL followed by its arguments, or null */
+        final String[] mSql;
+        final String mQueryPlan;
+
+        SlowOperation(long time, String operation, Uri uri, long micros, int rows, String[] sql,
+                      String queryPlan) {
+            mTime = time;
+            mOperation = operation;
+            mUri = uri;
+            mMicros = micros;
+            mRows = rows;
+            mSql = sql;
+            mQueryPlan = queryPlan;
+        }
+    }
+}
@@ -18,9 +18,14 @@ package com.example.android.sunshine.data;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
+import android.util.SparseArray;
 
 import com.example.android.sunshine.R;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
 public final class SunshinePreferences {
 
     /*
@@ -31,6 +36,54 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /*
+     * The validators (ETag and Last-Modified) of the last weather response are stored per request
+     * URL, so that the next sync can ask the server whether anything changed at all. The response
+     * has no absolute dates, its days are dated from the day it was parsed on, so that day is
+     * stored with them: the validators are only good for as long as that day lasts.
+     */
+    private static final String PREF_ETAG_PREFIX = "etag:";
+    private static final String PREF_LAST_MODIFIED_PREFIX = "last_modified:";
+    private static final String PREF_VALIDATED_DAY_PREFIX = "validated_day:";
+
+    /*
+     * The locations whose weather is synced in addition to the preferred location. They are
+     * stored as a single String, one location per line, as string sets need API 11. That is also
+     * how they are entered in the settings.
+     */
+    private static final String EXTRA_LOCATIONS_SEPARATOR = "\n";
+
+    /*
+     * The size the database may grow to before the oldest archived forecasts are dropped. There
+     * is no UI for this, it defaults to DEFAULT_HISTORY_SIZE_CAP_BYTES.
+     */
+    private static final String PREF_HISTORY_SIZE_CAP = "history_size_cap";
+    private static final long DEFAULT_HISTORY_SIZE_CAP_BYTES = 8 * 1024 * 1024;
+
+    /* Counters of syncs that downloaded a forecast vs. syncs the server told us to skip */
+    private static final String PREF_FULL_SYNC_COUNT = "full_sync_count";
+    private static final String PREF_SKIPPED_SYNC_COUNT = "skipped_sync_count";
+
+    /*
+     * The interval of the periodic sync, which adapts to how often the forecast changes, and the
+     * time of the last sync that got an answer from the server.
+     */
+    private static final String PREF_SYNC_INTERVAL_SECONDS = "sync_interval_seconds";
+    private static final String PREF_LAST_SUCCESSFUL_SYNC = "last_successful_sync";
+
+    /*
+     * What connected devices were last sent: the weather key of each day, as "day:key" pairs, the
+     * sequence number the days that changed were sent with, and the version of the icon set.
+     * Older versions of the app stored the whole messages under PREF_LEGACY_WEARABLE_FORECAST.
+     */
+    private static final String PREF_WEARABLE_DAYS = "wearable_days";
+    private static final String PREF_WEARABLE_SEQUENCE = "wearable_sequence";
+    private static final String PREF_WEARABLE_ICON_SET_VERSION = "wearable_icon_set_version";
+    private static final String PREF_LEGACY_WEARABLE_FORECAST = "last_wearable_forecast";
+
+    private static final String WEARABLE_DAYS_SEPARATOR = ",";
+    private static final String WEARABLE_DAY_KEY_SEPARATOR = ":";
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
@@ -82,6 +135,55 @@ public final class SunshinePreferences {
         return sp.getString(keyForLocation, defaultLocation);
     }
 
+    /**
+     * Returns the locations whose weather is synced in addition to the preferred location.
+     *
+     * @param context Context used to access SharedPreferences
+     * @return The location settings of the extra locations, in the order they were added
+     */
+    public static List<String> getExtraWeatherLocations(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String keyForExtraLocations = context.getString(R.string.pref_extra_locations_key);
+        String extraLocations = sp.getString(keyForExtraLocations, "");
+
+        /* Typed in by hand, so there may be blank lines, stray spaces and the same line twice */
+        LinkedHashSet<String> locations = new LinkedHashSet<>();
+        for (String location : extraLocations.split(EXTRA_LOCATIONS_SEPARATOR)) {
+            location = location.trim();
+            if (location.length() != 0) {
+                locations.add(location);
+            }
+        }
+        return new ArrayList<>(locations);
+    }
+
+    /**
+     * Sets the locations whose weather is synced in addition to the preferred location. Their
+     * weather is fetched on the next sync.
+     *
+     * @param context   Context used to access SharedPreferences
+     * @param locations The location settings of the extra locations, such as "10001,USA". They
+     *                  must not contain line breaks.
+     */
+    public static void setExtraWeatherLocations(Context context, List<String> locations) {
+        StringBuilder extraLocations = new StringBuilder();
+
+        /* Each location is only stored once */
+        for (String location : new LinkedHashSet<>(locations)) {
+            if (location.length() == 0) {
+                continue;
+            }
+            if (extraLocations.length() != 0) {
+                extraLocations.append(EXTRA_LOCATIONS_SEPARATOR);
+            }
+            extraLocations.append(location);
+        }
+
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String keyForExtraLocations = context.getString(R.string.pref_extra_locations_key);
+        sp.edit().putString(keyForExtraLocations, extraLocations.toString()).apply();
+    }
+
     /**
      * Returns true if the user has selected metric temperature display.
      *
@@ -185,6 +287,47 @@ public final class SunshinePreferences {
         return shouldDisplayNotifications;
     }
 
+    /**
+     * Returns true if the user wants to keep past forecasts. When they do, forecasts that are
+     * replaced or deleted are moved to the weather archive instead of being discarded.
+     *
+     * @param context Used to access SharedPreferences
+     * @return true if past forecasts should be kept, false otherwise
+     */
+    public static boolean isHistoryRetentionEnabled(Context context) {
+        String keepHistoryKey = context.getString(R.string.pref_keep_history_key);
+        boolean keepHistoryByDefault = context
+                .getResources()
+                .getBoolean(R.bool.keep_history_by_default);
+
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getBoolean(keepHistoryKey, keepHistoryByDefault);
+    }
+
+    /**
+     * Returns the size in bytes the database may grow to before the compaction drops the oldest
+     * archived forecasts.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The size cap of the database in bytes
+     */
+    public static long getHistorySizeCapBytes(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(PREF_HISTORY_SIZE_CAP, DEFAULT_HISTORY_SIZE_CAP_BYTES);
+    }
+
+    /**
+     * Sets the size in bytes the database may grow to before the compaction drops the oldest
+     * archived forecasts. The cap is enforced the next time the archive is compacted.
+     *
+     * @param context  Used to access SharedPreferences
+     * @param capBytes The size cap of the database in bytes
+     */
+    public static void setHistorySizeCapBytes(Context context, long capBytes) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        sp.edit().putLong(PREF_HISTORY_SIZE_CAP, capBytes).apply();
+    }
+
     /**
      * Returns the last time that a notification was shown (in UNIX time)
      *
@@ -242,4 +385,242 @@ public final class SunshinePreferences {
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the ETag of the last weather response stored for the given URL, if that response
+     * was stored today.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL the weather was requested from
+     * @param today   The normalized UTC date of today
+     * @return The ETag, or null if we don't have one for today
+     */
+    public static String getResponseETag(Context context, String url, long today) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        if (sp.getLong(PREF_VALIDATED_DAY_PREFIX + url, -1) != today) return null;
+        return sp.getString(PREF_ETAG_PREFIX + url, null);
+    }
+
+    /**
+     * Returns the Last-Modified date of the last weather response stored for the given URL, if
+     * that response was stored today.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL the weather was requested from
+     * @param today   The normalized UTC date of today
+     * @return The Last-Modified header value, or null if we don't have one for today
+     */
+    public static String getResponseLastModified(Context context, String url, long today) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        if (sp.getLong(PREF_VALIDATED_DAY_PREFIX + url, -1) != today) return null;
+        return sp.getString(PREF_LAST_MODIFIED_PREFIX + url, null);
+    }
+
+    /**
+     * Saves the validators of a weather response once its data has been stored, so that the next
+     * request for the same URL can be made conditional. Validators that the server didn't send are
+     * removed.
+     * <p>
+     * Once the day they were saved on is over, the validators are no longer sent. A "not
+     * modified" the day after would keep the days dated from the day before, and the forecast
+     * would lose a day for every day the server's response stays the same.
+     *
+     * @param context      Used to access SharedPreferences
+     * @param url          The URL the weather was requested from
+     * @param eTag         The ETag header of the response, may be null
+     * @param lastModified The Last-Modified header of the response, may be null
+     * @param day          The normalized UTC date the days of the response are dated from
+     */
+    public static void saveResponseValidators(Context context, String url, String eTag,
+                                              String lastModified, long day) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+
+        editor.putLong(PREF_VALIDATED_DAY_PREFIX + url, day);
+
+        if (eTag != null) {
+            editor.putString(PREF_ETAG_PREFIX + url, eTag);
+        } else {
+            editor.remove(PREF_ETAG_PREFIX + url);
+        }
+
+        if (lastModified != null) {
+            editor.putString(PREF_LAST_MODIFIED_PREFIX + url, lastModified);
+        } else {
+            editor.remove(PREF_LAST_MODIFIED_PREFIX + url);
+        }
+
+        editor.apply();
+    }
+
+    /**
+     * Removes the validators stored for every URL. This forces the next sync to download the
+     * forecast, which is what we want when our local data is missing.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    public static void clearResponseValidators(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+
+        for (String key : sp.getAll().keySet()) {
+            if (key.startsWith(PREF_ETAG_PREFIX)
+                    || key.startsWith(PREF_LAST_MODIFIED_PREFIX)
+                    || key.startsWith(PREF_VALIDATED_DAY_PREFIX)) {
+                editor.remove(key);
+            }
+        }
+
+        editor.apply();
+    }
+
+    /**
+     * Records the outcome of a sync. Locations are synced concurrently, so this is synchronized
+     * to make sure that no outcome is lost.
+     *
+     * @param context Used to access SharedPreferences
+     * @param skipped true if the server reported that the forecast hadn't changed, false if the
+     *                forecast was downloaded and stored
+     */
+    synchronized public static void recordSync(Context context, boolean skipped) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String key = skipped ? PREF_SKIPPED_SYNC_COUNT : PREF_FULL_SYNC_COUNT;
+        sp.edit().putLong(key, sp.getLong(key, 0) + 1).apply();
+    }
+
+    /**
+     * @param context Used to access SharedPreferences
+     * @return The number of syncs that downloaded and stored a forecast
+     */
+    public static long getFullSyncCount(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(PREF_FULL_SYNC_COUNT, 0);
+    }
+
+    /**
+     * @param context Used to access SharedPreferences
+     * @return The number of syncs that were skipped because the forecast hadn't changed
+     */
+    public static long getSkippedSyncCount(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(PREF_SKIPPED_SYNC_COUNT, 0);
+    }
+
+    /**
+     * @param context        Used to access SharedPreferences
+     * @param defaultSeconds The interval to use if none has been saved yet
+     * @return The interval of the periodic sync, in seconds
+     */
+    public static long getSyncIntervalSeconds(Context context, long defaultSeconds) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(PREF_SYNC_INTERVAL_SECONDS, defaultSeconds);
+    }
+
+    /**
+     * @param context         Used to access SharedPreferences
+     * @param intervalSeconds The interval of the periodic sync, in seconds
+     */
+    public static void setSyncIntervalSeconds(Context context, long intervalSeconds) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        sp.edit().putLong(PREF_SYNC_INTERVAL_SECONDS, intervalSeconds).apply();
+    }
+
+    /**
+     * @param context Used to access SharedPreferences
+     * @return The time of the last sync that got an answer from the server, or 0 if there was
+     * none yet
+     */
+    public static long getLastSuccessfulSyncTimeInMillis(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(PREF_LAST_SUCCESSFUL_SYNC, 0);
+    }
+
+    /**
+     * @param context  Used to access SharedPreferences
+     * @param syncTime The time of a sync that got an answer from the server
+     */
+    public static void saveLastSuccessfulSyncTime(Context context, long syncTime) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        sp.edit().putLong(PREF_LAST_SUCCESSFUL_SYNC, syncTime).apply();
+    }
+
+    /**
+     * @param context Used to access SharedPreferences
+     * @return The {@link com.example.WeatherMessage#getWeatherKey() weather key} of every day
+     * connected devices have, by day. Empty if nothing was sent yet.
+     */
+    public static SparseArray<Long> getLastWearableDays(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String days = sp.getString(PREF_WEARABLE_DAYS, "");
+
+        SparseArray<Long> weatherKeys = new SparseArray<>();
+        if (days.length() == 0) {
+            return weatherKeys;
+        }
+        /* Should anything be unreadable, every day is sent again, which does no harm */
+        for (String day : days.split(WEARABLE_DAYS_SEPARATOR)) {
+            String[] dayAndKey = day.split(WEARABLE_DAY_KEY_SEPARATOR);
+            if (dayAndKey.length != 2) {
+                return new SparseArray<>();
+            }
+            try {
+                weatherKeys.put(Integer.parseInt(dayAndKey[0]), Long.parseLong(dayAndKey[1]));
+            } catch (NumberFormatException e) {
+                return new SparseArray<>();
+            }
+        }
+        return weatherKeys;
+    }
+
+    /**
+     * @param context Used to access SharedPreferences
+     * @return The sequence number the days that changed were last sent with, 0 if none were
+     */
+    public static int getLastWearableSequence(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getInt(PREF_WEARABLE_SEQUENCE, 0);
+    }
+
+    /**
+     * @param context     Used to access SharedPreferences
+     * @param weatherKeys The weather key of every day connected devices now have, by day
+     * @param sequence    The sequence number the days that changed were sent with
+     */
+    public static void saveLastWearableDays(Context context, SparseArray<Long> weatherKeys,
+                                            int sequence) {
+        StringBuilder days = new StringBuilder();
+        for (int i = 0; i < weatherKeys.size(); i++) {
+            if (days.length() != 0) {
+                days.append(WEARABLE_DAYS_SEPARATOR);
+            }
+            days.append(weatherKeys.keyAt(i))
+                    .append(WEARABLE_DAY_KEY_SEPARATOR)
+                    .append(weatherKeys.valueAt(i));
+        }
+
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        sp.edit()
+                .putString(PREF_WEARABLE_DAYS, days.toString())
+                .putInt(PREF_WEARABLE_SEQUENCE, sequence)
+                .remove(PREF_LEGACY_WEARABLE_FORECAST)
+                .apply();
+    }
+
+    /**
+     * @param context Used to access SharedPreferences
+     * @return The version of the icon set last sent to connected devices, or -1 if none was sent
+     */
+    public static int getWearableIconSetVersion(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getInt(PREF_WEARABLE_ICON_SET_VERSION, -1);
+    }
+
+    /**
+     * @param context        Used to access SharedPreferences
+     * @param iconSetVersion The version of the icon set that was just sent to connected devices
+     */
+    public static void setWearableIconSetVersion(Context context, int iconSetVersion) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        sp.edit().putInt(PREF_WEARABLE_ICON_SET_VERSION, iconSetVersion).apply();
+    }
+}
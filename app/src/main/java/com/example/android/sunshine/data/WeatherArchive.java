@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * Moves replaced forecasts into the weather archive and keeps the archive from growing without
+ * bound.
+ * <p>
+ * The compaction downsamples the archive in two steps. Days older than
+ * {@link #KEEP_ALL_VERSIONS_MILLIS} only keep the last forecast that was made for them, and days
+ * older than {@link #KEEP_DAILY_MILLIS} only keep one day per week. If the database is still
+ * larger than the size cap after that, the oldest archived days are dropped until it fits.
+ */
+public final class WeatherArchive {
+
+    private static final String TAG = WeatherArchive.class.getSimpleName();
+
+    /* Every version of a forecast is kept for this long */
+    static final long KEEP_ALL_VERSIONS_MILLIS = 30 * DateUtils.DAY_IN_MILLIS;
+
+    /* Every day is kept for this long, after which only one day per week is kept */
+    static final long KEEP_DAILY_MILLIS = 90 * DateUtils.DAY_IN_MILLIS;
+
+    /* The number of archived rows dropped at a time while enforcing the size cap */
+    private static final int TRIM_CHUNK_ROWS = 1000;
+
+    /* Free pages are only given back to the file system once there are at least this many bytes */
+    private static final long VACUUM_THRESHOLD_BYTES = 1024 * 1024;
+
+    /* The columns copied from the weather table into the archive */
+    private static final String ARCHIVED_COLUMNS =
+            WeatherEntry.COLUMN_LOCATION_ID + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES;
+
+    private WeatherArchive() {
+    }
+
+    /**
+     * Copies the rows of the weather table that match the selection into the archive. This is
+     * called right before those rows are updated or deleted, inside the same transaction.
+     *
+     * @param db            The weather database
+     * @param selection     Selects the rows of the weather table to archive
+     * @param selectionArgs Used in conjunction with the selection statement
+     * @param archivedAt    The time at which the rows are archived
+     */
+    static void archive(SQLiteDatabase db, String selection, String[] selectionArgs,
+                        long archivedAt) {
+        String sql = "INSERT INTO " + ArchiveEntry.TABLE_NAME
+                + " (" + ARCHIVED_COLUMNS + ", " + ArchiveEntry.COLUMN_ARCHIVED_AT + ")"
+                + " SELECT " + ARCHIVED_COLUMNS + ", " + archivedAt
+                + " FROM " + WeatherEntry.TABLE_NAME
+                + " WHERE " + selection;
+
+        if (selectionArgs == null) {
+            db.execSQL(sql);
+        } else {
+            db.execSQL(sql, selectionArgs);
+        }
+    }
+
+    /**
+     * Downsamples the archive and enforces the size cap from
+     * {@link SunshinePreferences#getHistorySizeCapBytes(Context)}.
+     *
+     * @param context Used to access the database and SharedPreferences
+     */
+    public static void compact(Context context) {
+        compact(WeatherDbHelper.getInstance(context).getWritableDatabase(),
+                System.currentTimeMillis(),
+                SunshinePreferences.getHistorySizeCapBytes(context));
+    }
+
+    /**
+     * Downsamples the archive of the given database and enforces the size cap.
+     *
+     * @param db            The weather database
+     * @param now           The current time, which the age of archived days is measured from
+     * @param sizeCapBytes  The size the database may use
+     * @return The number of archived rows that were removed
+     */
+    static int compact(SQLiteDatabase db, long now, long sizeCapBytes) {
+        int rowsRemoved = 0;
+
+        WeatherDbHelper.beginWriteTransaction(db);
+        try {
+            /* Older days only keep the last forecast made for them, which has the highest ID */
+            rowsRemoved += keepOneRowPerGroup(db,
+                    now - KEEP_ALL_VERSIONS_MILLIS,
+                    WeatherEntry.COLUMN_DATE);
+
+            /* Even older days only keep one day per week */
+            rowsRemoved += keepOneRowPerGroup(db,
+                    now - KEEP_DAILY_MILLIS,
+                    WeatherEntry.COLUMN_DATE + " / " + DateUtils.WEEK_IN_MILLIS);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        /* If that isn't enough, drop the oldest days until the database fits */
+        while (getUsedBytes(db) > sizeCapBytes) {
+            int trimmedRows = db.delete(ArchiveEntry.TABLE_NAME,
+                    ArchiveEntry._ID + " IN (SELECT " + ArchiveEntry._ID
+                            + " FROM " + ArchiveEntry.TABLE_NAME
+                            + " ORDER BY " + WeatherEntry.COLUMN_DATE
+                            + " LIMIT " + TRIM_CHUNK_ROWS + ")",
+                    null);
+
+            if (trimmedRows == 0) {
+                /* The archive is empty, the rest of the database isn't ours to trim */
+                break;
+            }
+            rowsRemoved += trimmedRows;
+        }
+
+        /* Deleted rows leave free pages behind, which only VACUUM gives back */
+        long freeBytes = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        if (freeBytes >= VACUUM_THRESHOLD_BYTES) {
+            db.execSQL("VACUUM");
+
+            /* VACUUM wrote the whole database to the write-ahead log, copy it back right away */
+            WeatherDbHelper.checkpoint(db);
+        }
+
+        Log.d(TAG, "Compacted the weather archive, removed " + rowsRemoved + " rows. "
+                + getUsedBytes(db) + " of " + sizeCapBytes + " bytes in use");
+
+        return rowsRemoved;
+    }
+
+    /**
+     * Deletes the archived rows dated before the cutoff, except for the newest row of each
+     * location and group.
+     */
+    private static int keepOneRowPerGroup(SQLiteDatabase db, long cutoff, String groupExpression) {
+        String cutoffArg = Long.toString(cutoff);
+
+        return db.delete(ArchiveEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_DATE + " < ? AND " + ArchiveEntry._ID + " NOT IN ("
+                        + "SELECT MAX(" + ArchiveEntry._ID + ") FROM " + ArchiveEntry.TABLE_NAME
+                        + " WHERE " + WeatherEntry.COLUMN_DATE + " < ?"
+                        + " GROUP BY " + WeatherEntry.COLUMN_LOCATION_ID + ", " + groupExpression
+                        + ")",
+                new String[]{cutoffArg, cutoffArg});
+    }
+
+    /**
+     * Returns the number of bytes in the database file that hold data, which leaves out the pages
+     * that were freed by deletes but not yet given back by VACUUM.
+     */
+    private static long getUsedBytes(SQLiteDatabase db) {
+        long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePageCount = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        return (pageCount - freePageCount) * pageSize;
+    }
+}
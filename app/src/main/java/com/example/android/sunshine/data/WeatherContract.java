@@ -55,6 +55,60 @@ public class WeatherContract {
      * "givemeroot". At least, let's hope not. Don't be that dev, reader. Don't be that dev.
      */
     public static final String PATH_WEATHER = "weather";
+    public static final String PATH_LOCATION = "location";
+    public static final String PATH_LOCATION_WEATHER = "location_weather";
+    public static final String PATH_WEATHER_ARCHIVE = "weather_archive";
+    public static final String PATH_PRESENTATION = "presentation";
+    public static final String PATH_RANGE = "range";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_PROVIDER_STATS = "provider_stats";
+    public static final String PATH_SLOW = "slow";
+
+    /*
+     * Notified when the way the weather is displayed changes, such as the units, while the
+     * weather itself stays the same. Nothing can be queried at this URI. Its observers bind the
+     * data they already loaded again, instead of loading it again.
+     */
+    public static final Uri PRESENTATION_URI = BASE_CONTENT_URI.buildUpon()
+            .appendPath(PATH_PRESENTATION)
+            .build();
+
+    /* Inner class that defines the table contents of the location table */
+    public static final class LocationEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the location table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_LOCATION)
+                .build();
+
+        /* Used internally as the name of our location table. */
+        public static final String TABLE_NAME = "location";
+
+        /*
+         * The location setting is the query sent to the weather server for this location, such as
+         * "94043,USA". It is unique, so that every location is only stored (and fetched) once.
+         */
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        /*
+         * The primary location is the one the user picked in the settings. It always has this ID,
+         * which is why its location setting isn't stored: it follows whatever the preferences say.
+         * Every other location is added to the location table by the sync.
+         */
+        public static final long PRIMARY_LOCATION_ID = 1;
+
+        /**
+         * Builds a URI that points to a single location in the location table.
+         *
+         * @param locationId The ID of the location
+         * @return Uri of the location
+         */
+        public static Uri buildLocationUri(long locationId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(locationId))
+                    .build();
+        }
+    }
 
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
@@ -67,6 +121,12 @@ public class WeatherContract {
         /* Used internally as the name of our weather table. */
         public static final String TABLE_NAME = "weather";
 
+        /*
+         * The location this weather is for, as the ID of a row in the location table. Rows that
+         * are accessed through CONTENT_URI belong to the primary location.
+         */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
         /*
          * The date column will store the UTC date that correlates to the local date for which
          * each particular weather row represents. For example, if you live in the Eastern
@@ -124,15 +184,294 @@ public class WeatherContract {
         }
 
         /**
-         * Returns just the selection part of the weather query from a normalized today value.
-         * This is used to get a weather forecast from today's date. To make this easy to use
-         * in compound selection, we embed today's date as an argument in the query.
+         * Builds a URI for the weather of any location, such as
+         * content://com.example.android.sunshine/location_weather/2. Weather for the primary
+         * location can be accessed through this URI as well, but is usually accessed through
+         * {@link #CONTENT_URI}.
+         * <p>
+         * These URIs have a root of their own rather than living under {@link #CONTENT_URI}, so
+         * that writes to the weather of other locations don't notify the observers of the
+         * primary location's weather.
+         *
+         * @param locationId The ID of the location in the location table
+         * @return Uri to query the weather of that location
+         */
+        public static Uri buildWeatherUriForLocation(long locationId) {
+            return BASE_CONTENT_URI.buildUpon()
+                    .appendPath(PATH_LOCATION_WEATHER)
+                    .appendPath(Long.toString(locationId))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the weather of any location on a single date, such as
+         * content://com.example.android.sunshine/location_weather/2/1472214172.
+         *
+         * @param locationId The ID of the location in the location table
+         * @param date       Normalized date in milliseconds
+         * @return Uri to query the weather of that location on that date
+         */
+        public static Uri buildWeatherUriForLocationWithDate(long locationId, long date) {
+            return buildWeatherUriForLocation(locationId).buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /*
+         * Query parameters of the range URIs. A range is read a page at a time: "limit" is the
+         * number of days in a page, and "after" is the date of the last day of the previous page.
+         * Each page continues after that date rather than skipping a number of rows, so every page
+         * costs the same, however far into the range it is.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+        public static final String QUERY_PARAMETER_AFTER = "after";
+
+        /**
+         * Builds a URI for the weather of the primary location from one date up to another, such
+         * as content://com.example.android.sunshine/weather/range/1472169600000/1472774400000.
+         * The rows of a range are always sorted by ascending date.
+         *
+         * @param startDate Normalized date of the first day of the range
+         * @param endDate   Normalized date of the day after the last day of the range
+         * @return Uri to query the weather in that range
+         */
+        public static Uri buildWeatherUriForRange(long startDate, long endDate) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_RANGE)
+                    .appendPath(Long.toString(startDate))
+                    .appendPath(Long.toString(endDate))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the weather of any location from one date up to another, such as
+         * content://com.example.android.sunshine/location_weather/2/range/1472169600000/1472774400000.
+         *
+         * @param locationId The ID of the location in the location table
+         * @param startDate  Normalized date of the first day of the range
+         * @param endDate    Normalized date of the day after the last day of the range
+         * @return Uri to query the weather of that location in that range
+         */
+        public static Uri buildWeatherUriForLocationRange(long locationId, long startDate,
+                                                          long endDate) {
+            return buildWeatherUriForLocation(locationId).buildUpon()
+                    .appendPath(PATH_RANGE)
+                    .appendPath(Long.toString(startDate))
+                    .appendPath(Long.toString(endDate))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the first page of a range.
+         *
+         * @param rangeUri A URI built by {@link #buildWeatherUriForRange(long, long)} or
+         *                 {@link #buildWeatherUriForLocationRange(long, long, long)}
+         * @param limit    The number of days in each page
+         * @return Uri to query the first page of the range
+         */
+        public static Uri buildFirstPageUri(Uri rangeUri, int limit) {
+            return rangeUri.buildUpon()
+                    .clearQuery()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the page that follows the one at the given URI.
+         *
+         * @param pageUri  The URI of a page, built by {@link #buildFirstPageUri(Uri, int)} or by
+         *                 this method
+         * @param lastDate The date of the last day of that page
+         * @return Uri to query the next page of the range
+         */
+        public static Uri buildNextPageUri(Uri pageUri, long lastDate) {
+            Uri.Builder builder = pageUri.buildUpon().clearQuery();
+            String limit = pageUri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+            if (limit != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_LIMIT, limit);
+            }
+            return builder
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER, Long.toString(lastDate))
+                    .build();
+        }
+
+        /**
+         * Returns just the selection part of the weather query for today onwards. Today's date is
+         * bound as an argument, see {@link #getSqlSelectionArgsForTodayOnwards()}, so that the
+         * text of the query is the same every day and SQLite can reuse its compiled statement.
          *
          * @return The selection part of the weather query for today onwards
          */
         public static String getSqlSelectForTodayOnwards() {
+            return WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?";
+        }
+
+        /**
+         * Returns the arguments of the selection returned by
+         * {@link #getSqlSelectForTodayOnwards()}, which is today's normalized date.
+         *
+         * @return The selection arguments of the weather query for today onwards
+         */
+        public static String[] getSqlSelectionArgsForTodayOnwards() {
             long normalizedUtcNow = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
-            return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
+            return new String[]{Long.toString(normalizedUtcNow)};
+        }
+    }
+
+    /*
+     * Inner class that defines the table contents of the weather archive. When the user keeps
+     * forecast history, every forecast that is replaced or deleted from the weather table is
+     * copied here first. The archive uses the same column names as WeatherEntry, plus the time the
+     * forecast was archived. It is kept apart from the weather table so that queries for the
+     * current forecast never have to look at it.
+     */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the weather archive from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_WEATHER_ARCHIVE)
+                .build();
+
+        /* Used internally as the name of our weather archive table. */
+        public static final String TABLE_NAME = "weather_archive";
+
+        /* The time, in milliseconds since the epoch, at which the forecast was archived */
+        public static final String COLUMN_ARCHIVED_AT = "archived_at";
+    }
+
+    /*
+     * Inner class that defines the table contents of the weather rollups. Each row summarizes the
+     * weather of one location over a week or a calendar month, so that charts and summaries read
+     * one row per week or month instead of every day. WeatherProvider keeps the rollups up to
+     * date in the same transaction as every write to the weather table.
+     */
+    public static final class RollupEntry implements BaseColumns {
+
+        /*
+         * The base CONTENT_URI used to query the rollups of the primary location from the content
+         * provider, which is content://com.example.android.sunshine/weather/stats. Rows are
+         * sorted by period and start date unless a sort order is given.
+         */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_WEATHER)
+                .appendPath(PATH_STATS)
+                .build();
+
+        /* Used internally as the name of our weather rollup table. */
+        public static final String TABLE_NAME = "weather_rollup";
+
+        /*
+         * The period a row summarizes, PERIOD_WEEK or PERIOD_MONTH. Weeks start on Monday, and
+         * both weeks and months are in UTC, like the normalized dates of the weather table.
+         */
+        public static final String COLUMN_PERIOD = "period";
+        public static final String PERIOD_WEEK = "week";
+        public static final String PERIOD_MONTH = "month";
+
+        /* The normalized date of the first day of the period, and of the day after its last day */
+        public static final String COLUMN_START_DATE = "start_date";
+        public static final String COLUMN_END_DATE = "end_date";
+
+        /* The number of days in the period we have weather for */
+        public static final String COLUMN_DAY_COUNT = "day_count";
+
+        /*
+         * The lowest minimum and highest maximum temperature in °C of those days, and the mean
+         * of their average temperatures, the average of a day being halfway between its minimum
+         * and maximum.
+         */
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_MEAN_TEMP = "mean";
+
+        /* The number of those days with each kind of precipitation, by the weather ID of the day */
+        public static final String COLUMN_THUNDERSTORM_DAYS = "thunderstorm_days";
+        public static final String COLUMN_DRIZZLE_DAYS = "drizzle_days";
+        public static final String COLUMN_RAIN_DAYS = "rain_days";
+        public static final String COLUMN_SNOW_DAYS = "snow_days";
+
+        /**
+         * Builds a URI for the rollups of any location, such as
+         * content://com.example.android.sunshine/location_weather/2/stats.
+         *
+         * @param locationId The ID of the location in the location table
+         * @return Uri to query the rollups of that location
+         */
+        public static Uri buildStatsUriForLocation(long locationId) {
+            return WeatherEntry.buildWeatherUriForLocation(locationId).buildUpon()
+                    .appendPath(PATH_STATS)
+                    .build();
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * Inner class that defines the columns of the provider's own statistics: how long its
+     * queries, bulk inserts and deletes took, per operation and URI, and the slowest of them.
+     * These are recorded and matched in debug builds only. Release builds don't record anything
+     * and don't match these URIs.
+     */
+    public static final class ProviderStatsEntry {
+
+        /*
+         * One row per operation and UriMatcher code of WeatherProvider, which is
+         * content://com.example.android.sunshine/provider_stats. Deleting this URI starts over.
+         */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_PROVIDER_STATS)
+                .build();
+
+        /*
+         * The last operations that took longer than the slow threshold, oldest first, which is
+         * content://com.example.android.sunshine/provider_stats/slow.
+         */
+        public static final Uri SLOW_OPERATIONS_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_SLOW)
+                .build();
+
+        /* "query", "bulkInsert" or "delete" */
+        public static final String COLUMN_OPERATION = "operation";
+
+        /* The code of the URI in WeatherProvider, such as WeatherProvider#CODE_WEATHER */
+        public static final String COLUMN_URI_CODE = "uri_code";
+
+        /* The number of operations, and the rows they returned, inserted or deleted in total */
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_ROWS = "rows";
+
+        /* The number of times a cursor window was filled to read the rows of the queries */
+        public static final String COLUMN_WINDOW_FILLS = "window_fills";
+
+        /* The total and the longest duration of the operations, in microseconds */
+        public static final String COLUMN_TOTAL_MICROS = "total_micros";
+        public static final String COLUMN_MAX_MICROS = "max_micros";
+
+        /*
+         * Percentiles of the durations, in microseconds. The durations are counted in buckets of
+         * powers of two, so these are the upper bounds of the buckets the percentiles fall into.
+         */
+        public static final String COLUMN_P50_MICROS = "p50_micros";
+        public static final String COLUMN_P90_MICROS = "p90_micros";
+        public static final String COLUMN_P99_MICROS = "p99_micros";
+
+        /* The buckets that aren't empty, as text such as "<512us:40 <1024us:2" */
+        public static final String COLUMN_HISTOGRAM = "histogram";
+
+        /* Columns of SLOW_OPERATIONS_URI, which also has COLUMN_OPERATION and COLUMN_ROWS */
+
+        /* The time the operation finished, in milliseconds since the epoch */
+        public static final String COLUMN_TIME = "time";
+
+        /* The URI of the operation, and how long it took in microseconds */
+        public static final String COLUMN_URI = "uri";
+        public static final String COLUMN_DURATION_MICROS = "duration_micros";
+
+        /*
+         * The SQL the operation ran, its arguments separated by commas, and the steps of its
+         * query plan separated by newlines. These are null for operations that don't come down
+         * to one statement, such as bulk inserts and the queries ForecastCache answers itself.
+         */
+        public static final String COLUMN_SQL = "sql";
+        public static final String COLUMN_SQL_ARGS = "sql_args";
+        public static final String COLUMN_QUERY_PLAN = "query_plan";
+    }
+}
@@ -15,10 +15,17 @@
  */
 package com.example.android.sunshine.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.RollupEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
 /**
@@ -26,6 +33,8 @@ import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = WeatherDbHelper.class.getSimpleName();
+
     /*
      * This is the name of our database. Database names should be descriptive and end with the
      * .db extension.
@@ -42,11 +51,135 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * versions of Sunshine could cause everything to break. Although that is certainly a rare
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
+     *
+     * Version 4 added the location table and scoped every weather row to a location.
+     * Version 5 added the weather archive.
+     * Version 6 added the weather rollups.
+     *
+     * Each new version needs a migration in WeatherMigrations, which upgrades the database
+     * without losing the weather it has.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 6;
+
+    /*
+     * The database is kept in write-ahead logging mode where the platform supports it (API 11).
+     * Writes then go to a separate log, so a sync rewriting the forecast in a transaction doesn't
+     * block the list, the details and the notification from reading it: each of them reads the
+     * database as it was before the transaction, on a connection of its own. The platform sizes
+     * that pool of reader connections itself.
+     *
+     * The log is copied back into the database (checkpointed) once a transaction leaves it larger
+     * than this many pages, which is more than a sync of every location writes. After each
+     * checkpoint, the log file is truncated to JOURNAL_SIZE_LIMIT_BYTES, so that one large write,
+     * like a VACUUM, doesn't leave a large file behind.
+     */
+    static final int WAL_AUTOCHECKPOINT_PAGES = 250;
+    private static final long JOURNAL_SIZE_LIMIT_BYTES = 1024 * 1024;
+
+    private static WeatherDbHelper sInstance;
+
+    private final boolean mWriteAheadLogging;
+    private final int mAutoCheckpointPages;
 
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true, WAL_AUTOCHECKPOINT_PAGES);
+    }
+
+    /**
+     * Creates a helper for a weather database with the given journal settings, so that they can
+     * be compared with each other.
+     *
+     * @param context             Used to open or create the database
+     * @param name                The name of the database file
+     * @param writeAheadLogging   Whether to use write-ahead logging where it is supported
+     * @param autoCheckpointPages The size of the log that triggers a checkpoint, in pages
+     */
+    WeatherDbHelper(Context context, String name, boolean writeAheadLogging,
+                    int autoCheckpointPages) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+        mAutoCheckpointPages = autoCheckpointPages;
+    }
+
+    /**
+     * Returns the WeatherDbHelper shared by everything in this process that writes to the
+     * database, such as WeatherProvider and the archive compaction. Sharing one helper means
+     * sharing one connection, so their writes are serialized instead of failing with a locked
+     * database.
+     *
+     * @param context Used to create the helper the first time
+     * @return The shared WeatherDbHelper
+     */
+    public static synchronized WeatherDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherDbHelper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Turns write-ahead logging on before the database is created or upgraded. This is only
+     * called from API 16 on, see {@link #onOpen(SQLiteDatabase)} for the versions before.
+     *
+     * @param db The database.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase db) {
+        if (mWriteAheadLogging) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * Turns write-ahead logging on before API 16, and sets up its checkpoints.
+     *
+     * @param db The database.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void onOpen(SQLiteDatabase db) {
+        if (!mWriteAheadLogging || db.isReadOnly()) return;
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && !db.enableWriteAheadLogging()) {
+            return;
+        }
+
+        /* Both pragmas answer with their new value, so they have to be run as queries */
+        DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint = " + mAutoCheckpointPages,
+                null);
+        DatabaseUtils.longForQuery(db, "PRAGMA journal_size_limit = " + JOURNAL_SIZE_LIMIT_BYTES,
+                null);
+    }
+
+    /**
+     * Begins a transaction that writes to the database. Where supported, it is begun in IMMEDIATE
+     * rather than EXCLUSIVE mode, as the platform recommends with write-ahead logging. It keeps
+     * other writers out all the same, without also locking readers out until it commits when the
+     * database doesn't use the log.
+     *
+     * @param db The database to write to
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static void beginWriteTransaction(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
+    }
+
+    /**
+     * Copies as much of the write-ahead log back into the database as the readers allow, so that
+     * the log can start over. This does nothing when the database doesn't use write-ahead
+     * logging.
+     *
+     * @param db The database
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        DatabaseUtils.longForQuery(db, "PRAGMA wal_checkpoint", null);
     }
 
     /**
@@ -58,6 +191,25 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
 
+        /*
+         * Every location we have weather for. The location setting is NULL for the primary
+         * location, as that one follows the preferences. NULLs never conflict with each other in
+         * a UNIQUE column.
+         */
+        final String SQL_CREATE_LOCATION_TABLE =
+
+                "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+
+                LocationEntry._ID                     + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+
+        /* The primary location always exists, with a fixed ID */
+        sqLiteDatabase.execSQL("INSERT INTO " + LocationEntry.TABLE_NAME
+                + " (" + LocationEntry._ID + ") VALUES (" + LocationEntry.PRIMARY_LOCATION_ID + ")");
+
         /*
          * This String will contain a simple SQL statement that will create a table that will
          * cache our weather data.
@@ -73,6 +225,9 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                  */
                 WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
 
+                WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL REFERENCES "      +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), "            +
+
                 WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
 
                 WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
@@ -87,27 +242,89 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
 
                 /*
-                 * To ensure this table can only contain one weather entry per date, we declare
-                 * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                 * SQLite that if we have a weather entry for a certain date and we attempt to
-                 * insert another weather entry with that date, we replace the old weather entry.
+                 * To ensure this table can only contain one weather entry per location and date,
+                 * we declare that pair of columns to be unique. We also specify "ON CONFLICT
+                 * REPLACE". This tells SQLite that if we have a weather entry for a certain
+                 * location and date and we attempt to insert another weather entry for them, we
+                 * replace the old weather entry.
+                 *
+                 * SQLite backs this constraint with a composite index on (location_id, date),
+                 * which is also the index used by every query, as they are all scoped to a
+                 * location and usually to a range of dates.
                  */
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+                " UNIQUE (" + WeatherEntry.COLUMN_LOCATION_ID + ", " + WeatherEntry.COLUMN_DATE
+                        + ") ON CONFLICT REPLACE);";
 
         /*
          * After we've spelled out our SQLite table creation statement above, we actually execute
          * that SQL with the execSQL method of our SQLite database object.
          */
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+
+        /*
+         * The archive keeps every version of a forecast, so unlike the weather table, it doesn't
+         * have a unique constraint. Analysis (and the compaction) look rows up by location and
+         * date, so that's what we index.
+         */
+        final String SQL_CREATE_ARCHIVE_TABLE =
+
+                "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+
+                ArchiveEntry._ID                  + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                WeatherEntry.COLUMN_LOCATION_ID   + " INTEGER NOT NULL, "                 +
+                WeatherEntry.COLUMN_DATE          + " INTEGER NOT NULL, "                 +
+                WeatherEntry.COLUMN_WEATHER_ID    + " INTEGER NOT NULL, "                 +
+                WeatherEntry.COLUMN_MIN_TEMP      + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_MAX_TEMP      + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_HUMIDITY      + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_PRESSURE      + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_WIND_SPEED    + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_DEGREES       + " REAL NOT NULL, "                    +
+
+                ArchiveEntry.COLUMN_ARCHIVED_AT   + " INTEGER NOT NULL);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+
+        sqLiteDatabase.execSQL("CREATE INDEX " + ArchiveEntry.TABLE_NAME + "_location_date ON "
+                + ArchiveEntry.TABLE_NAME + " ("
+                + WeatherEntry.COLUMN_LOCATION_ID + ", " + WeatherEntry.COLUMN_DATE + ")");
+
+        /*
+         * One rollup per location, period and start date. The index of the unique constraint is
+         * what the stats of a location are read through, in the order of the periods.
+         */
+        final String SQL_CREATE_ROLLUP_TABLE =
+
+                "CREATE TABLE " + RollupEntry.TABLE_NAME + " (" +
+
+                RollupEntry._ID                       + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                WeatherEntry.COLUMN_LOCATION_ID       + " INTEGER NOT NULL, "                 +
+                RollupEntry.COLUMN_PERIOD             + " TEXT NOT NULL, "                    +
+                RollupEntry.COLUMN_START_DATE         + " INTEGER NOT NULL, "                 +
+                RollupEntry.COLUMN_END_DATE           + " INTEGER NOT NULL, "                 +
+                RollupEntry.COLUMN_DAY_COUNT          + " INTEGER NOT NULL, "                 +
+                RollupEntry.COLUMN_MIN_TEMP           + " REAL NOT NULL, "                    +
+                RollupEntry.COLUMN_MAX_TEMP           + " REAL NOT NULL, "                    +
+                RollupEntry.COLUMN_MEAN_TEMP          + " REAL NOT NULL, "                    +
+                RollupEntry.COLUMN_THUNDERSTORM_DAYS  + " INTEGER NOT NULL, "                 +
+                RollupEntry.COLUMN_DRIZZLE_DAYS       + " INTEGER NOT NULL, "                 +
+                RollupEntry.COLUMN_RAIN_DAYS          + " INTEGER NOT NULL, "                 +
+                RollupEntry.COLUMN_SNOW_DAYS          + " INTEGER NOT NULL, "                 +
+
+                " UNIQUE (" + WeatherEntry.COLUMN_LOCATION_ID + ", " + RollupEntry.COLUMN_PERIOD
+                        + ", " + RollupEntry.COLUMN_START_DATE + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_ROLLUP_TABLE);
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Migrates the database to the new version with {@link WeatherMigrations}, keeping the
+     * weather it has. Versions older than the migrations know about are discarded and created
+     * again, as the database is only a cache for online data. Note that this only fires if you
+     * change the version number for your database (in our case, DATABASE_VERSION). It does NOT
+     * depend on the version number for your application found in your app/build.gradle file.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -115,7 +332,22 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (WeatherMigrations.canMigrate(oldVersion, newVersion)) {
+            WeatherMigrations.migrate(sqLiteDatabase, oldVersion, newVersion,
+                    new WeatherMigrations.ProgressListener() {
+                        @Override
+                        public void onProgress(int toVersion, long rowsCopied, long rowCount) {
+                            Log.d(TAG, "Migrating to version " + toVersion + ": copied "
+                                    + rowsCopied + " of " + rowCount + " rows");
+                        }
+                    });
+            return;
+        }
+
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + RollupEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+/**
+ * A compiled INSERT into the weather table. SQLiteDatabase#insert builds a new SQL string and
+ * compiles it for every row it inserts. When many rows are inserted in a single transaction, this
+ * class compiles the statement once and then only binds each row's values to it, by column index.
+ */
+class WeatherInsertStatement {
+
+    /*
+     * The order of these columns is the order in which their values are bound. The location ID
+     * always comes first, as it is bound separately from the rest of the values.
+     */
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOCATION_ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String SQL_INSERT_WEATHER = buildInsertSql();
+
+    private final SQLiteStatement mStatement;
+
+    private WeatherInsertStatement(SQLiteStatement statement) {
+        mStatement = statement;
+    }
+
+    /**
+     * Compiles the INSERT. The statement should be compiled inside the transaction it is used in,
+     * and closed before that transaction ends.
+     *
+     * @param db The database to insert into
+     * @return The compiled statement
+     */
+    static WeatherInsertStatement compile(SQLiteDatabase db) {
+        return new WeatherInsertStatement(db.compileStatement(SQL_INSERT_WEATHER));
+    }
+
+    private static String buildInsertSql() {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(WeatherEntry.TABLE_NAME)
+                .append(" (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * Binds one day of weather to the statement and executes it.
+     *
+     * @param weatherValues The day of weather to insert. Its date must be normalized.
+     * @param locationId    The location the weather is for. Any location ID in weatherValues is
+     *                      ignored.
+     * @return The row ID of the inserted row
+     * @throws android.database.SQLException If the row couldn't be inserted, for example because a
+     *                                       required column was missing
+     */
+    long insert(ContentValues weatherValues, long locationId) {
+        Object date = weatherValues.get(WeatherEntry.COLUMN_DATE);
+        if (!(date instanceof Number)
+                || !SunshineDateUtils.isDateNormalized(((Number) date).longValue())) {
+            throw new IllegalArgumentException("Date must be normalized to insert");
+        }
+
+        mStatement.clearBindings();
+
+        /* SQLiteStatement bind indexes start at 1 */
+        mStatement.bindLong(1, locationId);
+
+        for (int i = 1; i < COLUMNS.length; i++) {
+            Object value = weatherValues.get(COLUMNS[i]);
+            int index = i + 1;
+
+            if (value == null) {
+                mStatement.bindNull(index);
+            } else if (value instanceof Double || value instanceof Float) {
+                mStatement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                mStatement.bindLong(index, ((Number) value).longValue());
+            } else {
+                mStatement.bindString(index, value.toString());
+            }
+        }
+
+        return mStatement.executeInsert();
+    }
+
+    void close() {
+        mStatement.close();
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.RollupEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upgrades the weather database from one version of its schema to the next, keeping the weather
+ * it already has, so that an upgrade of the app doesn't send every install back to the network
+ * at once.
+ * <p>
+ * Each migration creates the tables of the version it migrates to as they were in that version,
+ * not as {@link WeatherDbHelper#onCreate(SQLiteDatabase)} creates them today, so that later
+ * changes to the schema don't change what older migrations do. Each migration runs in a
+ * transaction of its own, nested in the one of the upgrade, so an upgrade either completes or
+ * leaves the database as it was.
+ */
+final class WeatherMigrations {
+
+    private static final String TAG = WeatherMigrations.class.getSimpleName();
+
+    /*
+     * Tables are copied this many rows per statement, so that a large copy reports its progress
+     * and doesn't need one statement to hold all of it.
+     */
+    static final int COPY_CHUNK_ROWS = 5000;
+
+    /**
+     * Receives the progress of the table copies of a migration.
+     */
+    interface ProgressListener {
+
+        /**
+         * @param toVersion  The version that is being migrated to
+         * @param rowsCopied The number of rows copied so far
+         * @param rowCount   The number of rows to copy
+         */
+        void onProgress(int toVersion, long rowsCopied, long rowCount);
+    }
+
+    /**
+     * Migrates the database from the version before {@link #toVersion} to that version.
+     */
+    private abstract static class Migration {
+
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db, ProgressListener listener);
+    }
+
+    private static final Migration[] MIGRATIONS = {
+
+            /* Version 4 added the location table and scoped every weather row to a location */
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db, ProgressListener listener) {
+                    db.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " ("
+                            + LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE)");
+                    db.execSQL("INSERT INTO " + LocationEntry.TABLE_NAME
+                            + " (" + LocationEntry._ID + ") VALUES ("
+                            + LocationEntry.PRIMARY_LOCATION_ID + ")");
+
+                    /* SQLite can't add a column to a unique constraint, so the table is rebuilt */
+                    String newTable = WeatherEntry.TABLE_NAME + "_v4";
+                    db.execSQL("CREATE TABLE " + newTable + " ("
+                            + WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL REFERENCES "
+                            + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), "
+                            + WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, "
+                            + WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"
+                            + WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, "
+                            + WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, "
+                            + WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, "
+                            + WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, "
+                            + WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "
+                            + WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, "
+                            + " UNIQUE (" + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                            + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE)");
+
+                    String weatherColumns = WeatherEntry.COLUMN_DATE + ", "
+                            + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                            + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                            + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                            + WeatherEntry.COLUMN_HUMIDITY + ", "
+                            + WeatherEntry.COLUMN_PRESSURE + ", "
+                            + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                            + WeatherEntry.COLUMN_DEGREES;
+
+                    /* All of the weather we had was for the location in the preferences */
+                    copyInChunks(db, WeatherEntry.TABLE_NAME, newTable,
+                            WeatherEntry._ID + ", " + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                                    + weatherColumns,
+                            WeatherEntry._ID + ", " + LocationEntry.PRIMARY_LOCATION_ID + ", "
+                                    + weatherColumns,
+                            toVersion, listener);
+
+                    db.execSQL("DROP TABLE " + WeatherEntry.TABLE_NAME);
+                    db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + WeatherEntry.TABLE_NAME);
+                }
+            },
+
+            /* Version 5 added the weather archive */
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db, ProgressListener listener) {
+                    db.execSQL("CREATE TABLE " + ArchiveEntry.TABLE_NAME + " ("
+                            + ArchiveEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "
+                            + WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, "
+                            + WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "
+                            + WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, "
+                            + WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, "
+                            + WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, "
+                            + WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, "
+                            + WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "
+                            + WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, "
+                            + ArchiveEntry.COLUMN_ARCHIVED_AT + " INTEGER NOT NULL)");
+
+                    db.execSQL("CREATE INDEX " + ArchiveEntry.TABLE_NAME + "_location_date ON "
+                            + ArchiveEntry.TABLE_NAME + " ("
+                            + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                            + WeatherEntry.COLUMN_DATE + ")");
+                }
+            },
+
+            /* Version 6 added the weekly and monthly rollups, summarized from the weather table */
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db, ProgressListener listener) {
+                    db.execSQL("CREATE TABLE " + RollupEntry.TABLE_NAME + " ("
+                            + RollupEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "
+                            + RollupEntry.COLUMN_PERIOD + " TEXT NOT NULL, "
+                            + RollupEntry.COLUMN_START_DATE + " INTEGER NOT NULL, "
+                            + RollupEntry.COLUMN_END_DATE + " INTEGER NOT NULL, "
+                            + RollupEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, "
+                            + RollupEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, "
+                            + RollupEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, "
+                            + RollupEntry.COLUMN_MEAN_TEMP + " REAL NOT NULL, "
+                            + RollupEntry.COLUMN_THUNDERSTORM_DAYS + " INTEGER NOT NULL, "
+                            + RollupEntry.COLUMN_DRIZZLE_DAYS + " INTEGER NOT NULL, "
+                            + RollupEntry.COLUMN_RAIN_DAYS + " INTEGER NOT NULL, "
+                            + RollupEntry.COLUMN_SNOW_DAYS + " INTEGER NOT NULL, "
+                            + " UNIQUE (" + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                            + RollupEntry.COLUMN_PERIOD + ", " + RollupEntry.COLUMN_START_DATE
+                            + ") ON CONFLICT REPLACE)");
+
+                    String date = WeatherEntry.COLUMN_DATE;
+                    String day = "(" + date + " / 86400000)";
+
+                    /* Weeks start on Monday. The first day since the epoch was a Thursday. */
+                    String weekStart = "((" + day + " - (" + day + " + 3) % 7) * 86400000)";
+                    summarize(db, RollupEntry.PERIOD_WEEK, weekStart,
+                            weekStart + " + 604800000");
+
+                    String monthStart = "(strftime('%s', " + date + " / 1000, 'unixepoch',"
+                            + " 'start of month') * 1000)";
+                    String monthEnd = "(strftime('%s', " + date + " / 1000, 'unixepoch',"
+                            + " 'start of month', '+1 month') * 1000)";
+                    summarize(db, RollupEntry.PERIOD_MONTH, monthStart, monthEnd);
+                }
+
+                /*
+                 * Summarizes the whole weather table into rollups of one period. The end date is
+                 * the same for every day of a period, so any day of the group can compute it.
+                 */
+                private void summarize(SQLiteDatabase db, String period, String startExpression,
+                                       String endExpression) {
+                    db.execSQL("INSERT INTO " + RollupEntry.TABLE_NAME + " ("
+                            + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                            + RollupEntry.COLUMN_PERIOD + ", "
+                            + RollupEntry.COLUMN_START_DATE + ", "
+                            + RollupEntry.COLUMN_END_DATE + ", "
+                            + RollupEntry.COLUMN_DAY_COUNT + ", "
+                            + RollupEntry.COLUMN_MIN_TEMP + ", "
+                            + RollupEntry.COLUMN_MAX_TEMP + ", "
+                            + RollupEntry.COLUMN_MEAN_TEMP + ", "
+                            + RollupEntry.COLUMN_THUNDERSTORM_DAYS + ", "
+                            + RollupEntry.COLUMN_DRIZZLE_DAYS + ", "
+                            + RollupEntry.COLUMN_RAIN_DAYS + ", "
+                            + RollupEntry.COLUMN_SNOW_DAYS + ")"
+                            + " SELECT " + WeatherEntry.COLUMN_LOCATION_ID + ", ?, "
+                            + startExpression + ", " + endExpression + ", COUNT(*), "
+                            + "MIN(" + WeatherEntry.COLUMN_MIN_TEMP + "), "
+                            + "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + "), "
+                            + "AVG((" + WeatherEntry.COLUMN_MIN_TEMP + " + "
+                            + WeatherEntry.COLUMN_MAX_TEMP + ") / 2.0), "
+                            + "SUM(" + WeatherEntry.COLUMN_WEATHER_ID + " BETWEEN 200 AND 299), "
+                            + "SUM(" + WeatherEntry.COLUMN_WEATHER_ID + " BETWEEN 300 AND 399), "
+                            + "SUM(" + WeatherEntry.COLUMN_WEATHER_ID + " BETWEEN 500 AND 599), "
+                            + "SUM(" + WeatherEntry.COLUMN_WEATHER_ID + " BETWEEN 600 AND 699)"
+                            + " FROM " + WeatherEntry.TABLE_NAME
+                            + " GROUP BY " + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                            + startExpression,
+                            new Object[]{period});
+                }
+            },
+    };
+
+    private WeatherMigrations() {
+    }
+
+    /**
+     * Returns whether there is a migration for every version after the old one up to the new one.
+     */
+    static boolean canMigrate(int oldVersion, int newVersion) {
+        if (oldVersion >= newVersion) return false;
+
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            if (findMigration(version) == null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Migrates the database one version at a time, in order, from the old version to the new one.
+     *
+     * @param db         The database, in a transaction, such as the one of
+     *                   {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}
+     * @param oldVersion The version of the database
+     * @param newVersion The version to migrate it to
+     * @param listener   Receives the progress of large copies
+     * @throws IllegalArgumentException if there is no migration for one of the versions, see
+     *                                  {@link #canMigrate(int, int)}
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion,
+                        ProgressListener listener) {
+        if (!canMigrate(oldVersion, newVersion)) {
+            throw new IllegalArgumentException(
+                    "Can't migrate from version " + oldVersion + " to " + newVersion);
+        }
+
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            Migration migration = findMigration(version);
+            long startNanos = System.nanoTime();
+
+            db.beginTransaction();
+            try {
+                migration.migrate(db, listener);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            Log.d(TAG, "Migrated to version " + version + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms");
+        }
+    }
+
+    private static Migration findMigration(int toVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion == toVersion) return migration;
+        }
+        return null;
+    }
+
+    /**
+     * Copies every row of one table into another, {@link #COPY_CHUNK_ROWS} rows at a time in the
+     * order of their _ID.
+     *
+     * @param db                The database
+     * @param sourceTable       The table to copy from, which has an _ID column
+     * @param targetTable       The table to copy to
+     * @param targetColumns     The columns of the target table to fill, separated by commas
+     * @param sourceExpressions The values for those columns, which may refer to the columns of
+     *                          the source table
+     * @param toVersion         The version that is being migrated to, for the listener
+     * @param listener          Receives the progress after each chunk
+     * @return The number of rows copied
+     */
+    static long copyInChunks(SQLiteDatabase db, String sourceTable, String targetTable,
+                             String targetColumns, String sourceExpressions, int toVersion,
+                             ProgressListener listener) {
+        long rowCount = DatabaseUtils.queryNumEntries(db, sourceTable);
+
+        /*
+         * Rows that were replaced left gaps in the IDs, so the end of each chunk is looked up
+         * rather than computed, which keeps the chunks full.
+         */
+        String chunkEndSql = "SELECT MAX(" + WeatherEntry._ID + ") FROM"
+                + " (SELECT " + WeatherEntry._ID + " FROM " + sourceTable
+                + " WHERE " + WeatherEntry._ID + " > ?"
+                + " ORDER BY " + WeatherEntry._ID + " LIMIT " + COPY_CHUNK_ROWS + ")";
+        String copySql = "INSERT INTO " + targetTable + " (" + targetColumns + ")"
+                + " SELECT " + sourceExpressions + " FROM " + sourceTable
+                + " WHERE " + WeatherEntry._ID + " > ? AND " + WeatherEntry._ID + " <= ?";
+
+        long rowsCopied = 0;
+        long lastId = Long.MIN_VALUE;
+        while (rowsCopied < rowCount) {
+            String lastIdArg = Long.toString(lastId);
+            long chunkEnd = DatabaseUtils.longForQuery(db, chunkEndSql, new String[]{lastIdArg});
+
+            db.execSQL(copySql, new Object[]{lastId, chunkEnd});
+            long chunkRows = DatabaseUtils.longForQuery(db, "SELECT changes()", null);
+            if (chunkRows == 0) break;
+
+            rowsCopied += chunkRows;
+            lastId = chunkEnd;
+
+            if (listener != null) {
+                listener.onProgress(toVersion, rowsCopied, rowCount);
+            }
+        }
+        return rowsCopied;
+    }
+}
@@ -17,27 +17,49 @@ package com.example.android.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.util.Log;
 
+import com.example.android.sunshine.BuildConfig;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
- * bulkInsert data, query data, and delete data.
+ * bulkInsert data, query data, and delete data. Single inserts, updates and batches of operations
+ * are supported as well, so that a sync can write just the days that changed.
+ * <p>
+ * Weather is stored per location. The weather URIs without a location, such as
+ * {@link WeatherContract.WeatherEntry#CONTENT_URI}, are scoped to the primary location, which is
+ * what the UI shows. The weather of any other location is accessed through the URIs built by
+ * {@link WeatherContract.WeatherEntry#buildWeatherUriForLocation(long)}.
  * <p>
- * Although ContentProvider implementation requires the implementation of additional methods to
- * perform single inserts, updates, and the ability to get the type of the data from a URI.
- * However, here, they are not implemented for the sake of brevity and simplicity. If you would
- * like, you may implement them on your own. However, we are not going to be teaching how to do
- * so in this course.
+ * Getting the type of the data from a URI is not implemented for the sake of brevity and
+ * simplicity.
  */
 public class WeatherProvider extends ContentProvider {
 
+    private static final String TAG = WeatherProvider.class.getSimpleName();
+
     /*
      * These constant will be used to match URIs with the data they are looking for. We will take
      * advantage of the UriMatcher class to make that matching MUCH easier than doing something
@@ -45,6 +67,20 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_FOR_LOCATION = 102;
+    public static final int CODE_WEATHER_FOR_LOCATION_WITH_DATE = 103;
+    public static final int CODE_WEATHER_RANGE = 104;
+    public static final int CODE_WEATHER_FOR_LOCATION_RANGE = 105;
+    public static final int CODE_WEATHER_STATS = 106;
+    public static final int CODE_WEATHER_FOR_LOCATION_STATS = 107;
+
+    public static final int CODE_LOCATION = 200;
+
+    public static final int CODE_WEATHER_ARCHIVE = 300;
+
+    /* Only matched in debug builds, see ProviderStats */
+    public static final int CODE_PROVIDER_STATS = 900;
+    public static final int CODE_PROVIDER_SLOW_OPERATIONS = 901;
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -54,6 +90,26 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    /*
+     * While a batch is being applied, the URIs that changed are collected here instead of being
+     * notified one operation at a time. They are notified once the whole batch has been
+     * committed.
+     */
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
+    /*
+     * The order of the rows of a range. Ranges are paged by date, so it is the only order they
+     * support. Together with the location, it is served by the index of the UNIQUE constraint on
+     * the location ID and the date, so a page is read straight out of that index.
+     */
+    private static final String RANGE_SORT_ORDER =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    /* The default order of the rollups, which is also the order of their index */
+    private static final String STATS_SORT_ORDER =
+            WeatherContract.RollupEntry.COLUMN_PERIOD + " ASC, "
+                    + WeatherContract.RollupEntry.COLUMN_START_DATE + " ASC";
+
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
      * CODE_WEATHER_WITH_DATE constants defined above.
@@ -96,6 +152,58 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /*
+         * These URIs look like content://com.example.android.sunshine/location_weather/2 and
+         * content://com.example.android.sunshine/location_weather/2/1472214172, where 2 is the ID
+         * of a row in the location table.
+         */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION_WEATHER + "/#",
+                CODE_WEATHER_FOR_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION_WEATHER + "/#/#",
+                CODE_WEATHER_FOR_LOCATION_WITH_DATE);
+
+        /*
+         * These URIs look like content://com.example.android.sunshine/weather/range/<start>/<end>
+         * and content://com.example.android.sunshine/location_weather/2/range/<start>/<end>, with
+         * optional "limit" and "after" query parameters to read the range a page at a time.
+         */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_RANGE + "/#/#",
+                CODE_WEATHER_RANGE);
+        matcher.addURI(authority,
+                WeatherContract.PATH_LOCATION_WEATHER + "/#/" + WeatherContract.PATH_RANGE + "/#/#",
+                CODE_WEATHER_FOR_LOCATION_RANGE);
+
+        /*
+         * These URIs are content://com.example.android.sunshine/weather/stats/ and
+         * content://com.example.android.sunshine/location_weather/2/stats/, the weekly and
+         * monthly rollups of the weather of a location.
+         */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_STATS,
+                CODE_WEATHER_STATS);
+        matcher.addURI(authority,
+                WeatherContract.PATH_LOCATION_WEATHER + "/#/" + WeatherContract.PATH_STATS,
+                CODE_WEATHER_FOR_LOCATION_STATS);
+
+        /* This URI is content://com.example.android.sunshine/location/ */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION, CODE_LOCATION);
+
+        /* This URI is content://com.example.android.sunshine/weather_archive/ */
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_ARCHIVE, CODE_WEATHER_ARCHIVE);
+
+        /*
+         * These URIs are content://com.example.android.sunshine/provider_stats/ and
+         * content://com.example.android.sunshine/provider_stats/slow/, which exist in debug
+         * builds only.
+         */
+        if (BuildConfig.DEBUG) {
+            matcher.addURI(authority, WeatherContract.PATH_PROVIDER_STATS, CODE_PROVIDER_STATS);
+            matcher.addURI(authority,
+                    WeatherContract.PATH_PROVIDER_STATS + "/" + WeatherContract.PATH_SLOW,
+                    CODE_PROVIDER_SLOW_OPERATIONS);
+        }
+
         return matcher;
     }
 
@@ -121,16 +229,14 @@ public class WeatherProvider extends ContentProvider {
          * lengthy operations will cause lag in your app. Since WeatherDbHelper's constructor is
          * very lightweight, we are safe to perform that initialization here.
          */
-        mOpenHelper = new WeatherDbHelper(getContext());
+        mOpenHelper = WeatherDbHelper.getInstance(getContext());
         return true;
     }
 
     /**
-     * Handles requests to insert a set of new rows. In Sunshine, we are only going to be
-     * inserting multiple rows of data at a time from a weather forecast. There is no use case
-     * for inserting a single row of data into our ContentProvider, and so we are only going to
-     * implement bulkInsert. In a normal ContentProvider's implementation, you will probably want
-     * to provide proper functionality for the insert method as well.
+     * Handles requests to insert a set of new rows. All of the rows are inserted in a single
+     * transaction, through one {@link WeatherInsertStatement} that is compiled once for the whole
+     * transaction rather than once per row.
      *
      * @param uri    The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database.
@@ -140,33 +246,65 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        if (!ProviderStats.isEnabled()) {
+            return bulkInsertUri(uri, values);
+        }
+
+        long startNanos = ProviderStats.start();
+        int rowsInserted = bulkInsertUri(uri, values);
+        ProviderStats.recordWrite(mOpenHelper.getWritableDatabase(),
+                ProviderStats.OPERATION_BULK_INSERT, sUriMatcher.match(uri), uri, rowsInserted,
+                startNanos);
+        return rowsInserted;
+    }
+
+    private int bulkInsertUri(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 
         switch (sUriMatcher.match(uri)) {
 
             case CODE_WEATHER:
-                db.beginTransaction();
+            case CODE_WEATHER_FOR_LOCATION:
+                long locationId = getLocationId(uri);
+                long startNanos = System.nanoTime();
                 int rowsInserted = 0;
-                try {
-                    for (ContentValues value : values) {
-                        long weatherDate =
-                                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-                        if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
-                            throw new IllegalArgumentException("Date must be normalized to insert");
-                        }
+                List<Long> insertedDates = new ArrayList<>(values.length);
 
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            rowsInserted++;
+                WeatherDbHelper.beginWriteTransaction(db);
+                try {
+                    /* The INSERT is compiled once and reused for every row in this transaction */
+                    WeatherInsertStatement insertStatement = WeatherInsertStatement.compile(db);
+                    try {
+                        for (ContentValues value : values) {
+                            try {
+                                insertStatement.insert(value, locationId);
+                                insertedDates.add(value.getAsLong(
+                                        WeatherContract.WeatherEntry.COLUMN_DATE));
+                                rowsInserted++;
+                            } catch (SQLiteConstraintException e) {
+                                /* Like SQLiteDatabase#insert, skip rows that can't be inserted */
+                                Log.e(TAG, "Error inserting " + value, e);
+                            }
                         }
+                    } finally {
+                        insertStatement.close();
                     }
+                    WeatherRollups.update(db, locationId, insertedDates);
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
 
+                /* Enable with: adb shell setprop log.tag.WeatherProvider DEBUG */
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    long elapsedNanos = Math.max(System.nanoTime() - startNanos, 1);
+                    Log.d(TAG, "bulkInsert: " + rowsInserted + " rows in "
+                            + elapsedNanos / 1000 + " us ("
+                            + rowsInserted * 1000000000L / elapsedNanos + " rows/sec)");
+                }
+
                 if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyDates(uri, insertedDates);
                 }
 
                 return rowsInserted;
@@ -194,8 +332,23 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
+        /* Reading or resetting the statistics isn't recorded in them */
+        int match = ProviderStats.isEnabled() ? sUriMatcher.match(uri) : UriMatcher.NO_MATCH;
+        if (match == UriMatcher.NO_MATCH || isProviderStats(match)) {
+            return queryUri(uri, projection, selection, selectionArgs, sortOrder);
+        }
 
+        long startNanos = ProviderStats.start();
+        Cursor cursor = queryUri(uri, projection, selection, selectionArgs, sortOrder);
+        ProviderStats.recordQuery(mOpenHelper.getReadableDatabase(), match, uri, cursor,
+                startNanos);
+        return cursor;
+    }
+
+    private Cursor queryUri(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
         Cursor cursor;
+        Uri notificationUri = uri;
 
         /*
          * Here's the switch statement that, given a URI, will determine what kind of request is
@@ -215,25 +368,35 @@ public class WeatherProvider extends ContentProvider {
              *
              * In this case, we want to return a cursor that contains one row of weather data for
              * a particular date.
+             *
+             * When sUriMatcher's match method is called with a URI that looks EXACTLY like this
+             *
+             *      content://com.example.android.sunshine/weather/
+             *
+             * sUriMatcher's match method will return the code that indicates to us that we need
+             * to return all of the weather in our weather table.
+             *
+             * In this case, we want to return a cursor that contains every row of weather data
+             * in our weather table.
+             *
+             * Both of them are scoped to the primary location. The URIs that contain a location ID
+             * work the same way for the location they point to.
+             *
+             * Most queries for the primary location are answered by ForecastCache. The ones it
+             * can't answer, and those for other locations, fall through to SQLite.
              */
-            case CODE_WEATHER_WITH_DATE: {
-
-                /*
-                 * In order to determine the date associated with this URI, we look at the last
-                 * path segment. In the comment above, the last path segment is 1472214172 and
-                 * represents the number of seconds since the epoch, or UTC time.
-                 */
-                String normalizedUtcDateString = uri.getLastPathSegment();
-
-                /*
-                 * The query method accepts a string array of arguments, as there may be more
-                 * than one "?" in the selection statement. Even though in our case, we only have
-                 * one "?", we have to create a string array that only contains one element
-                 * because this method signature accepts a string array.
-                 */
-                String[] selectionArguments = new String[]{normalizedUtcDateString};
-
-                cursor = mOpenHelper.getReadableDatabase().query(
+            case CODE_WEATHER:
+            case CODE_WEATHER_WITH_DATE:
+            case CODE_WEATHER_FOR_LOCATION:
+            case CODE_WEATHER_FOR_LOCATION_WITH_DATE: {
+                notificationUri = getNotificationUri(uri);
+
+                cursor = queryForecastCache(uri, projection, selection, selectionArgs, sortOrder);
+                if (cursor != null) {
+                    break;
+                }
+
+                cursor = queryTable(
                         /* Table we are going to query */
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         /*
@@ -244,44 +407,122 @@ public class WeatherProvider extends ContentProvider {
                          */
                         projection,
                         /*
-                         * The URI that matches CODE_WEATHER_WITH_DATE contains a date at the end
-                         * of it. We extract that date and use it with these next two lines to
-                         * specify the row of weather we want returned in the cursor. We use a
-                         * question mark here and then designate selectionArguments as the next
-                         * argument for performance reasons. Whatever Strings are contained
-                         * within the selectionArguments array will be inserted into the
-                         * selection statement by SQLite under the hood.
+                         * The location (and, for some URIs, the date) is taken from the URI and
+                         * bound through selection arguments, along with whatever selection the
+                         * caller passed in.
                          */
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
-                        selectionArguments,
-                        null,
-                        null,
-                        sortOrder);
+                        buildWeatherSelection(uri, selection),
+                        buildWeatherSelectionArgs(uri, selectionArgs),
+                        sortOrder,
+                        null);
 
                 break;
             }
 
             /*
-             * When sUriMatcher's match method is called with a URI that looks EXACTLY like this
+             * A range of dates, such as
              *
-             *      content://com.example.android.sunshine/weather/
+             *      content://com.example.android.sunshine/weather/range/1472169600000/1472774400000?limit=100
              *
-             * sUriMatcher's match method will return the code that indicates to us that we need
-             * to return all of the weather in our weather table.
+             * returns the days from the start date up to, but not including, the end date, in the
+             * order of their dates. With a limit, only that many days are returned, and the next
+             * page is queried with the date of the last day in the "after" parameter, see
+             * WeatherEntry#buildNextPageUri. The dates and the limit are bound, so every page of
+             * every range uses the same compiled statement.
              *
-             * In this case, we want to return a cursor that contains every row of weather data
-             * in our weather table.
+             * Writes don't notify range URIs, as they are not descendants of the weather URI they
+             * are written to. A range cursor is notified of every write to the weather of its
+             * location instead.
              */
-            case CODE_WEATHER: {
-                cursor = mOpenHelper.getReadableDatabase().query(
+            case CODE_WEATHER_RANGE:
+            case CODE_WEATHER_FOR_LOCATION_RANGE: {
+                if (sortOrder != null && !RANGE_SORT_ORDER.equals(sortOrder)) {
+                    throw new UnsupportedOperationException(
+                            "Ranges can only be sorted by " + RANGE_SORT_ORDER + ": " + uri);
+                }
+
+                String limit =
+                        uri.getQueryParameter(WeatherContract.WeatherEntry.QUERY_PARAMETER_LIMIT);
+                if (limit != null && Integer.parseInt(limit) <= 0) {
+                    throw new IllegalArgumentException("Invalid limit: " + uri);
+                }
+
+                cursor = queryTable(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
+                        buildWeatherSelection(uri, selection),
+                        buildWeatherSelectionArgs(uri, selectionArgs),
+                        RANGE_SORT_ORDER,
+                        limit);
+
+                notificationUri = getLocationWeatherUri(uri);
+                break;
+            }
+
+            /*
+             * The weekly and monthly rollups of the weather of a location, which are kept up to
+             * date by every write. A chart reads one row per week or month from here, rather than
+             * every day of the weather table. The caller's selection can pick a period, see
+             * RollupEntry#COLUMN_PERIOD. Like ranges, these cursors are notified of every write
+             * to the weather of their location.
+             */
+            case CODE_WEATHER_STATS:
+            case CODE_WEATHER_FOR_LOCATION_STATS: {
+                String statsSelection = WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+                if (selection != null && selection.length() != 0) {
+                    statsSelection += " AND (" + selection + ")";
+                }
+
+                List<String> statsSelectionArgs = new ArrayList<>();
+                statsSelectionArgs.add(Long.toString(getLocationId(uri)));
+                if (selectionArgs != null) {
+                    Collections.addAll(statsSelectionArgs, selectionArgs);
+                }
+
+                cursor = queryTable(
+                        WeatherContract.RollupEntry.TABLE_NAME,
+                        projection,
+                        statsSelection,
+                        statsSelectionArgs.toArray(new String[statsSelectionArgs.size()]),
+                        sortOrder != null ? sortOrder : STATS_SORT_ORDER,
+                        null);
+
+                notificationUri = getLocationWeatherUri(uri);
+                break;
+            }
+
+            case CODE_WEATHER_ARCHIVE: {
+                cursor = queryTable(
+                        WeatherContract.ArchiveEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        sortOrder,
+                        null);
+
+                break;
+            }
+
+            case CODE_LOCATION: {
+                cursor = queryTable(
+                        WeatherContract.LocationEntry.TABLE_NAME,
+                        projection,
                         selection,
                         selectionArgs,
-                        null,
-                        null,
-                        sortOrder);
+                        sortOrder,
+                        null);
+
+                break;
+            }
+
+            /* How long the queries, bulk inserts and deletes took, see ProviderStats */
+            case CODE_PROVIDER_STATS: {
+                cursor = ProviderStats.queryStats();
+                break;
+            }
 
+            case CODE_PROVIDER_SLOW_OPERATIONS: {
+                cursor = ProviderStats.querySlowOperations();
                 break;
             }
 
@@ -289,12 +530,13 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return cursor;
     }
 
     /**
-     * Deletes data at a given URI with optional arguments for more fine tuned deletions.
+     * Deletes data at a given URI with optional arguments for more fine tuned deletions. If the
+     * user keeps forecast history, deleted weather is archived first.
      *
      * @param uri           The full URI to query
      * @param selection     An optional restriction to apply to rows when deleting.
@@ -303,6 +545,20 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        /* Reading or resetting the statistics isn't recorded in them */
+        int match = ProviderStats.isEnabled() ? sUriMatcher.match(uri) : UriMatcher.NO_MATCH;
+        if (match == UriMatcher.NO_MATCH || isProviderStats(match)) {
+            return deleteUri(uri, selection, selectionArgs);
+        }
+
+        long startNanos = ProviderStats.start();
+        int numRowsDeleted = deleteUri(uri, selection, selectionArgs);
+        ProviderStats.recordWrite(mOpenHelper.getWritableDatabase(),
+                ProviderStats.OPERATION_DELETE, match, uri, numRowsDeleted, startNanos);
+        return numRowsDeleted;
+    }
+
+    private int deleteUri(Uri uri, String selection, String[] selectionArgs) {
 
         /* Users of the delete method will expect the number of rows deleted to be returned. */
         int numRowsDeleted;
@@ -319,22 +575,64 @@ public class WeatherProvider extends ContentProvider {
         switch (sUriMatcher.match(uri)) {
 
             case CODE_WEATHER:
-                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        selection,
-                        selectionArgs);
+            case CODE_WEATHER_WITH_DATE:
+            case CODE_WEATHER_FOR_LOCATION:
+            case CODE_WEATHER_FOR_LOCATION_WITH_DATE: {
+                final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                String weatherSelection = buildWeatherSelection(uri, selection);
+                String[] weatherSelectionArgs = buildWeatherSelectionArgs(uri, selectionArgs);
+
+                List<Long> deletedDates;
+
+                WeatherDbHelper.beginWriteTransaction(db);
+                try {
+                    deletedDates = queryDates(db, uri, weatherSelection, weatherSelectionArgs);
+
+                    /* Past forecasts are kept in the archive if the user wants their history */
+                    if (SunshinePreferences.isHistoryRetentionEnabled(getContext())) {
+                        WeatherArchive.archive(db, weatherSelection, weatherSelectionArgs,
+                                System.currentTimeMillis());
+                    }
+
+                    if (ProviderStats.isEnabled()) {
+                        ProviderStats.noteSql("DELETE FROM "
+                                + WeatherContract.WeatherEntry.TABLE_NAME
+                                + " WHERE " + weatherSelection, weatherSelectionArgs);
+                    }
+
+                    numRowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            weatherSelection,
+                            weatherSelectionArgs);
+
+                    if (numRowsDeleted != 0) {
+                        WeatherRollups.update(db, getLocationId(uri),
+                                getWrittenDates(uri, deletedDates, null));
+                    }
+
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                /* If we actually deleted any rows, notify the dates they were for */
+                if (numRowsDeleted != 0) {
+                    notifyDates(uri, deletedDates);
+                }
 
                 break;
+            }
+
+            /* Deleting the statistics starts them over */
+            case CODE_PROVIDER_STATS: {
+                numRowsDeleted = ProviderStats.reset();
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        /* If we actually deleted any rows, notify that a change has occurred to this URI */
-        if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
-
         return numRowsDeleted;
     }
 
@@ -354,25 +652,482 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and insert is an abstract method in
-     * ContentProvider. Rather than the single insert method, we are only going to implement
+     * Inserts a single day of weather. This is used by the sync when only a few days of the
+     * forecast are new, so that it doesn't have to rewrite the whole table with
      * {@link WeatherProvider#bulkInsert}.
+     * <p>
+     * Inserting into {@link WeatherContract.LocationEntry#CONTENT_URI} adds a location, unless a
+     * location with the same location setting already exists. Either way, the URI of the location
+     * is returned.
      *
      * @param uri    The URI of the insertion request. This must not be null.
      * @param values A set of column_name/value pairs to add to the database.
      *               This must not be null
-     * @return nothing in Sunshine, but normally the URI for the newly inserted item.
+     * @return The URI of the day that was inserted, or null if the insert failed
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
-        throw new RuntimeException(
-                "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER:
+            case CODE_WEATHER_FOR_LOCATION: {
+                long weatherDate = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                ContentValues weatherValues = new ContentValues(values);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID,
+                        getLocationId(uri));
+
+                long _id;
+                WeatherDbHelper.beginWriteTransaction(db);
+                try {
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+                    if (_id != -1) {
+                        WeatherRollups.update(db, getLocationId(uri),
+                                Collections.singletonList(weatherDate));
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (_id == -1) {
+                    return null;
+                }
+
+                Uri insertedUri = uri.buildUpon().appendPath(Long.toString(weatherDate)).build();
+                notifyChange(getNotificationUri(insertedUri));
+                return insertedUri;
+            }
+
+            case CODE_LOCATION: {
+                String locationSetting =
+                        values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                if (locationSetting == null) {
+                    throw new IllegalArgumentException("A location needs a location setting");
+                }
+
+                long _id;
+                WeatherDbHelper.beginWriteTransaction(db);
+                try {
+                    _id = findLocationId(db, locationSetting);
+                    if (_id == -1) {
+                        _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (_id == -1) {
+                    return null;
+                }
+
+                notifyChange(uri);
+                return WeatherContract.LocationEntry.buildLocationUri(_id);
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
+    private static long findLocationId(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
     }
 
+    /**
+     * Updates the weather of a single day, or of every row matching the selection. If the user
+     * keeps forecast history, the forecasts being replaced are archived first.
+     *
+     * @param uri           The URI to update
+     * @param values        The new column_name/value pairs
+     * @param selection     An optional restriction to apply to rows when updating
+     * @param selectionArgs Used in conjunction with the selection statement
+     * @return The number of rows updated
+     */
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        throw new RuntimeException("We are not implementing update in Sunshine");
+        int numRowsUpdated;
+
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER:
+            case CODE_WEATHER_WITH_DATE:
+            case CODE_WEATHER_FOR_LOCATION:
+            case CODE_WEATHER_FOR_LOCATION_WITH_DATE: {
+                final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                String weatherSelection = buildWeatherSelection(uri, selection);
+                String[] weatherSelectionArgs = buildWeatherSelectionArgs(uri, selectionArgs);
+
+                List<Long> updatedDates;
+
+                WeatherDbHelper.beginWriteTransaction(db);
+                try {
+                    updatedDates = queryDates(db, uri, weatherSelection, weatherSelectionArgs);
+
+                    /* The forecast that is being replaced is archived, just like in delete */
+                    if (SunshinePreferences.isHistoryRetentionEnabled(getContext())) {
+                        WeatherArchive.archive(db, weatherSelection, weatherSelectionArgs,
+                                System.currentTimeMillis());
+                    }
+
+                    numRowsUpdated = db.update(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            values,
+                            weatherSelection,
+                            weatherSelectionArgs);
+
+                    if (numRowsUpdated != 0) {
+                        WeatherRollups.update(db, getLocationId(uri),
+                                getWrittenDates(uri, updatedDates, values));
+                    }
+
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (numRowsUpdated != 0) {
+                    notifyDates(uri, updatedDates);
+                }
+
+                break;
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        return numRowsUpdated;
+    }
+
+    /**
+     * Applies all of the operations inside a single transaction, so that either all or none of
+     * them are committed. Observers are notified after the transaction has been committed, once
+     * per changed weather root rather than once per operation, see {@link #coalesce(Set)}.
+     *
+     * @param operations The operations to apply
+     * @return The results of the applied operations
+     * @throws OperationApplicationException If any of the operations failed
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Set<Uri> changedUris = new LinkedHashSet<>();
+        ContentProviderResult[] results;
+
+        mPendingNotifications.set(changedUris);
+        WeatherDbHelper.beginWriteTransaction(db);
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mPendingNotifications.remove();
+        }
+
+        /* The cache is only dropped once the batch is committed, so it never holds half of it */
+        for (Uri changedUri : changedUris) {
+            if (isPrimaryWeatherUri(changedUri)) {
+                ForecastCache.invalidate();
+                break;
+            }
+        }
+        for (Uri changedUri : coalesce(changedUris)) {
+            getContext().getContentResolver().notifyChange(changedUri, null);
+        }
+
+        return results;
+    }
+
+    /**
+     * Queries a table of the database. While {@link ProviderStats} are enabled, the SQL of the
+     * query is noted as well, so that the query plan of a slow query can be logged.
+     */
+    private Cursor queryTable(String table, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder, String limit) {
+        if (ProviderStats.isEnabled()) {
+            ProviderStats.noteSql(SQLiteQueryBuilder.buildQueryString(false, table, projection,
+                    selection, null, null, sortOrder, limit), selectionArgs);
+        }
+
+        return mOpenHelper.getReadableDatabase().query(table, projection, selection,
+                selectionArgs, null, null, sortOrder, limit);
+    }
+
+    /**
+     * Answers a weather query from {@link ForecastCache}, if it can.
+     *
+     * @return A cursor with the result, or null if the query has to go to SQLite
+     */
+    private Cursor queryForecastCache(Uri uri, String[] projection, String selection,
+                                      String[] selectionArgs, String sortOrder) {
+        switch (sUriMatcher.match(uri)) {
+            case CODE_WEATHER:
+                return ForecastCache.queryFromDate(mOpenHelper.getReadableDatabase(),
+                        projection, selection, selectionArgs, sortOrder);
+
+            case CODE_WEATHER_WITH_DATE:
+                if (selection != null) return null;
+                return ForecastCache.queryDate(mOpenHelper.getReadableDatabase(),
+                        projection, Long.parseLong(uri.getLastPathSegment()));
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the ID of the location a weather URI is scoped to. URIs that don't contain a
+     * location are scoped to the primary location.
+     */
+    private static long getLocationId(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case CODE_WEATHER_FOR_LOCATION:
+            case CODE_WEATHER_FOR_LOCATION_WITH_DATE:
+            case CODE_WEATHER_FOR_LOCATION_RANGE:
+            case CODE_WEATHER_FOR_LOCATION_STATS:
+                /* location_weather/<location id>[/<date>|/range/<start>/<end>|/stats] */
+                return Long.parseLong(uri.getPathSegments().get(1));
+
+            default:
+                return WeatherContract.LocationEntry.PRIMARY_LOCATION_ID;
+        }
+    }
+
+    /**
+     * Returns the URI the weather of the location of a weather URI is notified under, every date
+     * of which is a descendant. That is {@link WeatherContract.WeatherEntry#CONTENT_URI} for the
+     * primary location, however it was written to, and the location's own root for any other.
+     */
+    private static Uri getLocationWeatherUri(Uri uri) {
+        long locationId = getLocationId(uri);
+        if (locationId == WeatherContract.LocationEntry.PRIMARY_LOCATION_ID) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+        return WeatherContract.WeatherEntry.buildWeatherUriForLocation(locationId);
+    }
+
+    /**
+     * Returns the URI observers of a weather URI are notified under: the URI of its location's
+     * weather, followed by the date if the URI has one. The same weather is always notified under
+     * the same URI, whether it was written through the URI of the primary location or through
+     * the URI of its location ID.
+     */
+    private static Uri getNotificationUri(Uri uri) {
+        Uri locationWeatherUri = getLocationWeatherUri(uri);
+        if (!hasDate(uri)) return locationWeatherUri;
+        return locationWeatherUri.buildUpon().appendPath(uri.getLastPathSegment()).build();
+    }
+
+    /**
+     * Returns whether a notified URI is about the weather of the primary location, which is the
+     * only weather {@link ForecastCache} holds.
+     */
+    private static boolean isPrimaryWeatherUri(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return !segments.isEmpty() && WeatherContract.PATH_WEATHER.equals(segments.get(0));
+    }
+
+    private static boolean hasDate(Uri uri) {
+        int match = sUriMatcher.match(uri);
+        return match == CODE_WEATHER_WITH_DATE || match == CODE_WEATHER_FOR_LOCATION_WITH_DATE;
+    }
+
+    private static boolean isProviderStats(int match) {
+        return match == CODE_PROVIDER_STATS || match == CODE_PROVIDER_SLOW_OPERATIONS;
+    }
+
+    private static boolean isRange(Uri uri) {
+        int match = sUriMatcher.match(uri);
+        return match == CODE_WEATHER_RANGE || match == CODE_WEATHER_FOR_LOCATION_RANGE;
+    }
+
+    /**
+     * Builds the selection for a weather URI. It restricts the rows to the location of the URI
+     * and, for URIs that end with a date, to that date. Range URIs restrict them to the range,
+     * and to the dates after the previous page. The caller's selection is added on top.
+     */
+    private static String buildWeatherSelection(Uri uri, String selection) {
+        StringBuilder weatherSelection = new StringBuilder()
+                .append(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID).append(" = ?");
+
+        if (hasDate(uri)) {
+            weatherSelection.append(" AND ")
+                    .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" = ?");
+        } else if (isRange(uri)) {
+            weatherSelection.append(" AND ")
+                    .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" >= ? AND ")
+                    .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" < ?");
+
+            if (uri.getQueryParameter(WeatherContract.WeatherEntry.QUERY_PARAMETER_AFTER) != null) {
+                weatherSelection.append(" AND ")
+                        .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" > ?");
+            }
+        }
+
+        if (selection != null && selection.length() != 0) {
+            weatherSelection.append(" AND (").append(selection).append(')');
+        }
+
+        return weatherSelection.toString();
+    }
+
+    /**
+     * Builds the arguments for a selection returned by {@link #buildWeatherSelection}.
+     */
+    private static String[] buildWeatherSelectionArgs(Uri uri, String[] selectionArgs) {
+        List<String> weatherSelectionArgs = new ArrayList<>();
+        weatherSelectionArgs.add(Long.toString(getLocationId(uri)));
+
+        if (hasDate(uri)) {
+            weatherSelectionArgs.add(uri.getLastPathSegment());
+        } else if (isRange(uri)) {
+            /* .../range/<start>/<end> */
+            List<String> segments = uri.getPathSegments();
+            weatherSelectionArgs.add(segments.get(segments.size() - 2));
+            weatherSelectionArgs.add(segments.get(segments.size() - 1));
+
+            String after =
+                    uri.getQueryParameter(WeatherContract.WeatherEntry.QUERY_PARAMETER_AFTER);
+            if (after != null) {
+                /* Parsed, so that anything but a date fails here rather than comparing as text */
+                weatherSelectionArgs.add(Long.toString(Long.parseLong(after)));
+            }
+        }
+
+        if (selectionArgs != null) {
+            Collections.addAll(weatherSelectionArgs, selectionArgs);
+        }
+
+        return weatherSelectionArgs.toArray(new String[weatherSelectionArgs.size()]);
+    }
+
+    /**
+     * Returns the dates of the rows a write to a weather URI is about to touch, or null if the
+     * URI is already scoped to a single date.
+     */
+    private static List<Long> queryDates(SQLiteDatabase db, Uri uri, String weatherSelection,
+                                         String[] weatherSelectionArgs) {
+        if (hasDate(uri)) return null;
+
+        Cursor cursor = db.query(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                weatherSelection,
+                weatherSelectionArgs,
+                null,
+                null,
+                null);
+        try {
+            List<Long> dates = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                dates.add(cursor.getLong(0));
+            }
+            return dates;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the dates a delete or an update wrote to, for {@link WeatherRollups}.
+     *
+     * @param uri          The weather URI that was written to
+     * @param queriedDates The dates returned by {@link #queryDates}
+     * @param values       The values of an update, which may move rows to another date, or null
+     */
+    private static List<Long> getWrittenDates(Uri uri, List<Long> queriedDates,
+                                              ContentValues values) {
+        List<Long> dates = new ArrayList<>();
+        if (queriedDates != null) {
+            dates.addAll(queriedDates);
+        } else {
+            dates.add(Long.parseLong(uri.getLastPathSegment()));
+        }
+
+        Long newDate = values == null
+                ? null : values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (newDate != null) {
+            dates.add(newDate);
+        }
+        return dates;
+    }
+
+    /**
+     * Notifies observers of a change to the weather of the dates that were written. A write to a
+     * single date notifies the URI of that date, so that an observer of a single day, such as
+     * DetailActivity, isn't notified of writes to other days. A write to several dates notifies
+     * the weather of the location once: its observers would otherwise be notified once per date,
+     * as the date URIs are descendants of it.
+     *
+     * @param uri   The weather URI that was written to
+     * @param dates The dates that were written, or null to notify the URI itself
+     */
+    private void notifyDates(Uri uri, List<Long> dates) {
+        if (dates == null || hasDate(uri) || new HashSet<>(dates).size() != 1) {
+            notifyChange(getNotificationUri(uri));
+            return;
+        }
+
+        notifyChange(getLocationWeatherUri(uri).buildUpon()
+                .appendPath(Long.toString(dates.get(0))).build());
+    }
+
+    /**
+     * Reduces the URIs that changed during a batch to one notification per root, the weather of
+     * a location being the root of its dates. A root that only one of the URIs belongs to is
+     * notified through that URI, so that a batch that changed a single date only notifies that
+     * date. A root several of them belong to is notified itself, once, which reaches the
+     * observers of each of its dates as well.
+     */
+    private static Collection<Uri> coalesce(Set<Uri> changedUris) {
+        Map<Uri, Uri> notificationsByRoot = new LinkedHashMap<>();
+        for (Uri changedUri : changedUris) {
+            Uri root = hasDate(changedUri) ? getLocationWeatherUri(changedUri) : changedUri;
+            notificationsByRoot.put(root,
+                    notificationsByRoot.containsKey(root) ? root : changedUri);
+        }
+        return notificationsByRoot.values();
+    }
+
+    /**
+     * Notifies observers of a change to the given URI, or holds on to it until the end of the
+     * batch that is currently being applied. Every write calls this once it is committed, which
+     * makes it the place where {@link ForecastCache} is invalidated as well, when the write was to
+     * the weather of the primary location.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> pendingNotifications = mPendingNotifications.get();
+        if (pendingNotifications != null) {
+            pendingNotifications.add(uri);
+        } else {
+            if (isPrimaryWeatherUri(uri)) {
+                ForecastCache.invalidate();
+            }
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
     }
 
     /**
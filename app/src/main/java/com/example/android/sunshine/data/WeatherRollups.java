@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.data.WeatherContract.RollupEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+/**
+ * Keeps the weekly and monthly rollups of the weather table up to date.
+ * <p>
+ * After every write to the weather table, the weeks and months of the dates it wrote are
+ * summarized again from the weather of those weeks and months, in the same transaction. That
+ * reads at most a month of rows per period, through the index on the location and the date, and
+ * it stays exact when rows are replaced or deleted, which a running total couldn't do for the
+ * minimum and maximum.
+ */
+final class WeatherRollups {
+
+    private static final long WEEK_IN_MILLIS = 7 * SunshineDateUtils.DAY_IN_MILLIS;
+
+    /* The columns of a rollup, in the order of ROLLUP_AGGREGATES after the first four */
+    private static final String ROLLUP_COLUMNS =
+            WeatherEntry.COLUMN_LOCATION_ID + ", " +
+            RollupEntry.COLUMN_PERIOD + ", " +
+            RollupEntry.COLUMN_START_DATE + ", " +
+            RollupEntry.COLUMN_END_DATE + ", " +
+            RollupEntry.COLUMN_DAY_COUNT + ", " +
+            RollupEntry.COLUMN_MIN_TEMP + ", " +
+            RollupEntry.COLUMN_MAX_TEMP + ", " +
+            RollupEntry.COLUMN_MEAN_TEMP + ", " +
+            RollupEntry.COLUMN_THUNDERSTORM_DAYS + ", " +
+            RollupEntry.COLUMN_DRIZZLE_DAYS + ", " +
+            RollupEntry.COLUMN_RAIN_DAYS + ", " +
+            RollupEntry.COLUMN_SNOW_DAYS;
+
+    /*
+     * The summary of a group of days of the weather table. The kinds of precipitation are the
+     * groups of weather IDs listed at http://openweathermap.org/weather-conditions.
+     */
+    private static final String ROLLUP_AGGREGATES =
+            "COUNT(*), " +
+            "MIN(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+            "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+            "AVG((" + WeatherEntry.COLUMN_MIN_TEMP + " + " + WeatherEntry.COLUMN_MAX_TEMP
+                    + ") / 2.0), " +
+            countDays(200, 299) + ", " +
+            countDays(300, 399) + ", " +
+            countDays(500, 599) + ", " +
+            countDays(600, 699);
+
+    private static final String SQL_DELETE_ROLLUP = "DELETE FROM " + RollupEntry.TABLE_NAME
+            + " WHERE " + WeatherEntry.COLUMN_LOCATION_ID + " = ?"
+            + " AND " + RollupEntry.COLUMN_PERIOD + " = ?"
+            + " AND " + RollupEntry.COLUMN_START_DATE + " = ?";
+
+    /* A period without weather selects no group, so it gets no rollup */
+    private static final String SQL_INSERT_ROLLUP = "INSERT INTO " + RollupEntry.TABLE_NAME
+            + " (" + ROLLUP_COLUMNS + ")"
+            + " SELECT " + WeatherEntry.COLUMN_LOCATION_ID + ", ?, ?, ?, " + ROLLUP_AGGREGATES
+            + " FROM " + WeatherEntry.TABLE_NAME
+            + " WHERE " + WeatherEntry.COLUMN_LOCATION_ID + " = ?"
+            + " AND " + WeatherEntry.COLUMN_DATE + " >= ?"
+            + " AND " + WeatherEntry.COLUMN_DATE + " < ?"
+            + " GROUP BY " + WeatherEntry.COLUMN_LOCATION_ID;
+
+    private WeatherRollups() {
+    }
+
+    private static String countDays(int firstWeatherId, int lastWeatherId) {
+        return "SUM(" + WeatherEntry.COLUMN_WEATHER_ID
+                + " BETWEEN " + firstWeatherId + " AND " + lastWeatherId + ")";
+    }
+
+    /**
+     * Summarizes the weeks and months of the given dates again. This must be called inside the
+     * transaction that wrote to the weather of those dates, after the write.
+     *
+     * @param db         The weather database
+     * @param locationId The location that was written to
+     * @param dates      The normalized dates that were written, inserted, updated or deleted
+     */
+    static void update(SQLiteDatabase db, long locationId, Collection<Long> dates) {
+        Set<Long> weekStarts = new TreeSet<>();
+        Set<Long> monthStarts = new TreeSet<>();
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+        for (long date : dates) {
+            weekStarts.add(getWeekStart(date));
+            monthStarts.add(getMonthStart(calendar, date));
+        }
+
+        for (long weekStart : weekStarts) {
+            updateRollup(db, locationId, RollupEntry.PERIOD_WEEK,
+                    weekStart, weekStart + WEEK_IN_MILLIS);
+        }
+        for (long monthStart : monthStarts) {
+            updateRollup(db, locationId, RollupEntry.PERIOD_MONTH,
+                    monthStart, getMonthEnd(calendar, monthStart));
+        }
+    }
+
+    private static void updateRollup(SQLiteDatabase db, long locationId, String period,
+                                     long startDate, long endDate) {
+        db.execSQL(SQL_DELETE_ROLLUP, new Object[]{locationId, period, startDate});
+        db.execSQL(SQL_INSERT_ROLLUP, new Object[]{period, startDate, endDate,
+                locationId, startDate, endDate});
+    }
+
+    /**
+     * Returns the Monday of the week of a normalized date. The first day since the epoch was a
+     * Thursday, three days after a Monday.
+     *
+     * @param date A normalized date
+     * @return The normalized date of the Monday on or before it
+     */
+    static long getWeekStart(long date) {
+        long day = date / SunshineDateUtils.DAY_IN_MILLIS;
+        return (day - (day + 3) % 7) * SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    private static long getMonthStart(Calendar calendar, long date) {
+        calendar.setTimeInMillis(date);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static long getMonthEnd(Calendar calendar, long monthStart) {
+        calendar.setTimeInMillis(monthStart);
+        calendar.add(Calendar.MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.AsyncTask;
+
+import com.example.android.sunshine.data.WeatherArchive;
+import com.firebase.jobdispatcher.JobParameters;
+import com.firebase.jobdispatcher.JobService;
+
+/**
+ * Compacts the weather archive in the background. The job is scheduled by
+ * {@link SunshineSyncUtils} to run about once a day while the device is charging.
+ */
+public class ArchiveCompactionJobService extends JobService {
+
+    private AsyncTask<Void, Void, Void> mCompactionTask;
+
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+
+        mCompactionTask = new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... voids) {
+                WeatherArchive.compact(getApplicationContext());
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void aVoid) {
+                jobFinished(jobParameters, false);
+            }
+        };
+
+        mCompactionTask.execute();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        if (mCompactionTask != null) {
+            mCompactionTask.cancel(true);
+        }
+        /* The compaction is idempotent, so it can simply run again next time */
+        return true;
+    }
+}
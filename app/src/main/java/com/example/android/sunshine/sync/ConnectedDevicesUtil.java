@@ -2,36 +2,36 @@ package com.example.android.sunshine.sync;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
-import android.os.Bundle;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
-import android.util.Base64;
+import android.os.Debug;
 import android.util.Log;
+import android.util.SparseArray;
 
-import com.example.android.sunshine.BuildConfig;
+import com.example.WeatherIcons;
+import com.example.WeatherMessage;
+import com.example.WearableConnection;
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
-import com.example.android.sunshine.utilities.NotificationUtils;
-import com.example.android.sunshine.utilities.SunshineDateUtils;
-import com.example.android.sunshine.utilities.SunshineWeatherUtils;
-import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.ByteArrayOutputStream;
-import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-import static com.example.Constants.KEY_BITMAP;
-import static com.example.Constants.KEY_HIGH_TEMP;
-import static com.example.Constants.KEY_LOW_TEMP;
-import static com.example.Constants.PATH_WEATHER;
+import static com.example.Constants.FORECAST_DAY_COUNT;
+
+import static com.example.Constants.KEY_ICON_SET_VERSION;
+import static com.example.Constants.KEY_MESSAGE;
+import static com.example.Constants.PATH_FORECAST;
+import static com.example.Constants.PATH_WEATHER_ICONS;
 
 /**
  * Created by Carla
@@ -42,111 +42,197 @@ import static com.example.Constants.PATH_WEATHER;
 public class ConnectedDevicesUtil {
     private static final String TAG = ConnectedDevicesUtil.class.getSimpleName();
 
-    private static GoogleApiClient mGoogleApiClient;
-
+    /* The phone's copy of each icon of WeatherIcons, indexed by icon */
+    private static final int[] ICON_RESOURCES = {
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy,
+            R.drawable.ic_fog,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_storm
+    };
+
+    /*
+     * The columns of the forecast that are sent to connected devices. The indices below have to
+     * match the order of the columns in the projection.
+     */
+    private static final String[] WEARABLE_FORECAST_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MAX_TEMP = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+
+    /**
+     * Sends the forecast of the next {@link com.example.Constants#FORECAST_DAY_COUNT} days to
+     * connected devices, one {@link WeatherMessage} per day. Only the days whose weather changed
+     * since they were last sent are put again, and the days that have passed are removed. The
+     * icons themselves are only sent when the icon set changed since they were last sent, see
+     * {@link WeatherIcons}.
+     *
+     * @param context Used to query the forecast and to connect to the devices
+     */
     public static void notifyDevices(Context context) {
+        long startCpuNanos = Debug.threadCpuTimeNanos();
+        try {
+            sendWeather(context);
+        } finally {
+            Log.d(TAG, "notifyDevices took " + (Debug.threadCpuTimeNanos() - startCpuNanos) / 1000
+                    + " us of CPU time");
+        }
+    }
 
-        /* Build the URI for today's weather in order to show up to date data in notification */
-        Uri todaysWeatherUri = WeatherContract.WeatherEntry
-                .buildWeatherUriWithDate(SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+    private static void sendWeather(Context context) {
 
-        /*
-         * The MAIN_FORECAST_PROJECTION array passed in as the second parameter is defined in our WeatherContract
-         * class and is used to limit the columns returned in our cursor.
-         */
-        Cursor todayWeatherCursor = context.getContentResolver().query(
-                todaysWeatherUri,
-                NotificationUtils.WEATHER_NOTIFICATION_PROJECTION,
-                null,
-                null,
-                null);
+        Cursor forecastCursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WEARABLE_FORECAST_PROJECTION,
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                WeatherContract.WeatherEntry.getSqlSelectionArgsForTodayOnwards(),
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        if (forecastCursor == null) return;
 
         /*
-         * If todayWeatherCursor is empty, moveToFirst will return false. If our cursor is not
-         * empty, we want to show the notification.
+         * The weather keys of the days connected devices have, by day. What is left in here in
+         * the end has passed.
          */
-        if (todayWeatherCursor != null && todayWeatherCursor.moveToFirst()) {
-            initializeApiClient(context);
-            mGoogleApiClient.blockingConnect();
+        SparseArray<Long> lastSentDays = SunshinePreferences.getLastWearableDays(context);
 
-            /* Weather ID as returned by API, used to identify the icon to be used */
-            int weatherId = todayWeatherCursor.getInt(NotificationUtils.INDEX_WEATHER_ID);
-            double high = todayWeatherCursor.getDouble(NotificationUtils.INDEX_MAX_TEMP);
-            double low = todayWeatherCursor.getDouble(NotificationUtils.INDEX_MIN_TEMP);
+        /* Every day that changed in this sync gets the same, new sequence number */
+        int sequence = SunshinePreferences.getLastWearableSequence(context) + 1;
 
-            int resourceId = SunshineWeatherUtils
-                    .getSmallArtResourceIdForWeatherCondition(weatherId);
-
-            Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId);
-            String icon = Base64.encodeToString(toByteArray(bitmap), Base64.DEFAULT);
-
-            PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_WEATHER);
-            putDataMapRequest.getDataMap().putDouble(KEY_HIGH_TEMP, high);
-            putDataMapRequest.getDataMap().putDouble(KEY_LOW_TEMP, low);
-            putDataMapRequest.getDataMap().putString(KEY_BITMAP, icon);
-
-            if (BuildConfig.DEBUG) {
-                putDataMapRequest.getDataMap().putLong("Time", System.currentTimeMillis());
+        long now = System.currentTimeMillis();
+        List<WeatherMessage> forecast = new ArrayList<>(FORECAST_DAY_COUNT);
+        List<WeatherMessage> changedDays = new ArrayList<>(FORECAST_DAY_COUNT);
+        SparseArray<Long> sentDays = new SparseArray<>(FORECAST_DAY_COUNT);
+        try {
+            while (forecast.size() < FORECAST_DAY_COUNT && forecastCursor.moveToNext()) {
+                /* Dates are normalized to midnight UTC, so this is the day of the forecast */
+                int day = (int) TimeUnit.MILLISECONDS.toDays(forecastCursor.getLong(INDEX_DATE));
+
+                /* Weather ID as returned by API, used by the watch to pick the icon to be used */
+                WeatherMessage message = WeatherMessage.create(day, sequence,
+                        forecastCursor.getInt(INDEX_WEATHER_ID),
+                        forecastCursor.getDouble(INDEX_MAX_TEMP),
+                        forecastCursor.getDouble(INDEX_MIN_TEMP),
+                        now);
+
+                Long lastSentKey = lastSentDays.get(day);
+                lastSentDays.remove(day);
+                forecast.add(message);
+                sentDays.put(day, message.getWeatherKey());
+                if (lastSentKey == null || lastSentKey != message.getWeatherKey()) {
+                    changedDays.add(message);
+                }
             }
+        } finally {
+            forecastCursor.close();
+        }
 
-            PutDataRequest request = putDataMapRequest.asPutDataRequest();
-            request.setUrgent();
-
-            Log.d(TAG, "Generating DataItem: " + request);
-            if (!mGoogleApiClient.isConnected()) {
-                return;
-            }
+        if (changedDays.isEmpty() && lastSentDays.size() == 0) {
+            Log.d(TAG, "Connected devices already show this forecast");
+            return;
+        }
 
-            Wearable.DataApi.putDataItem(mGoogleApiClient, request)
-                    .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                        @Override
-                        public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
-                            if (!dataItemResult.getStatus().isSuccess()) {
-                                Log.e(TAG, "ERROR: failed to putDataItem, status code: "
-                                        + dataItemResult.getStatus().getStatusCode());
-                            }
-                            mGoogleApiClient.disconnect();
-                        }
-                    });
+        GoogleApiClient googleApiClient = WearableConnection.connect(context);
+        if (googleApiClient == null) {
+            return;
         }
-    }
 
-    private static void initializeApiClient(Context context) {
-        mGoogleApiClient = new GoogleApiClient.Builder(context)
-                .addApi(Wearable.API)
-                .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-                    @Override
-                    public void onConnected(@Nullable Bundle bundle) {
+        if (SunshinePreferences.getWearableIconSetVersion(context)
+                != WeatherIcons.ICON_SET_VERSION) {
+            sendIcons(context, googleApiClient);
+        }
 
-                    }
+        boolean sent = true;
+        int sentBytes = 0;
+        for (WeatherMessage message : changedDays) {
+            PutDataRequest request = createRequest(message);
+            /* Only today's weather is worth waking the watch for */
+            if (message == forecast.get(0)) {
+                request.setUrgent();
+            }
+            sentBytes += request.getData().length;
+
+            DataApi.DataItemResult result =
+                    Wearable.DataApi.putDataItem(googleApiClient, request).await();
+            if (!result.getStatus().isSuccess()) {
+                Log.e(TAG, "ERROR: failed to putDataItem, status code: "
+                        + result.getStatus().getStatusCode());
+                sent = false;
+            }
+        }
 
-                    @Override
-                    public void onConnectionSuspended(int i) {
+        for (int i = 0; i < lastSentDays.size(); i++) {
+            Uri uri = new Uri.Builder()
+                    .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                    .path(PATH_FORECAST + "/" + lastSentDays.keyAt(i))
+                    .build();
+            DataApi.DeleteDataItemsResult result =
+                    Wearable.DataApi.deleteDataItems(googleApiClient, uri).await();
+            if (!result.getStatus().isSuccess()) {
+                Log.e(TAG, "ERROR: failed to deleteDataItems, status code: "
+                        + result.getStatus().getStatusCode());
+                sent = false;
+            }
+        }
 
-                    }
-                })
-                .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
-                    @Override
-                    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
+        int fullPushBytes = 0;
+        for (WeatherMessage message : forecast) {
+            fullPushBytes += createRequest(message).getData().length;
+        }
+        Log.d(TAG, "Sent " + changedDays.size() + " of " + forecast.size() + " days in "
+                + sentBytes + " bytes and removed " + lastSentDays.size()
+                + " days, sending every day would have taken " + fullPushBytes + " bytes");
 
-                    }
-                })
-                .build();
+        /* If anything failed, the days that changed are sent again with the next sync */
+        if (sent) {
+            SunshinePreferences.saveLastWearableDays(context, sentDays, sequence);
+        }
     }
 
-    private static byte[] toByteArray(Bitmap bitmap) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-        byte[] byteArray = stream.toByteArray();
-        closeQuietly(stream);
-        return byteArray;
+    private static PutDataRequest createRequest(WeatherMessage message) {
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(message.getPath());
+        putDataMapRequest.getDataMap().putByteArray(KEY_MESSAGE, message.toBytes());
+        return putDataMapRequest.asPutDataRequest();
     }
 
-    private static void closeQuietly(Closeable closeable) {
+    /**
+     * Sends every icon of the current icon set as an Asset. This only happens once per icon set,
+     * as the Data Layer keeps the icons around for watches that connect later.
+     */
+    private static void sendIcons(Context context, GoogleApiClient googleApiClient) {
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_WEATHER_ICONS);
+        DataMap icons = putDataMapRequest.getDataMap();
+        icons.putInt(KEY_ICON_SET_VERSION, WeatherIcons.ICON_SET_VERSION);
+
         try {
-            closeable.close();
+            for (int icon = 0; icon < WeatherIcons.ICON_COUNT; icon++) {
+                icons.putAsset(WeatherIcons.getName(icon),
+                        Asset.createFromBytes(IconPayloadCache.get(context, ICON_RESOURCES[icon])));
+            }
         } catch (IOException e) {
-            Log.e(TAG, "IOException while closing closeable.", e);
+            Log.e(TAG, "Couldn't read the weather icons", e);
+            return;
+        }
+
+        DataApi.DataItemResult result = Wearable.DataApi
+                .putDataItem(googleApiClient, putDataMapRequest.asPutDataRequest())
+                .await();
+
+        if (result.getStatus().isSuccess()) {
+            SunshinePreferences.setWearableIconSetVersion(context, WeatherIcons.ICON_SET_VERSION);
+        } else {
+            Log.e(TAG, "ERROR: failed to put the weather icons, status code: "
+                    + result.getStatus().getStatusCode());
         }
     }
 }
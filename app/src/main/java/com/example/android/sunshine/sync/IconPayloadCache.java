@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.v4.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The PNG payloads of the weather icons sent to connected devices, keyed by the drawable of each
+ * icon in the icon table of {@link ConnectedDevicesUtil}.
+ * <p>
+ * Payloads are read from the APK the first time they are needed and kept in memory, up to
+ * {@link #MAX_MEMORY_BYTES}, from then on. The icons are only sent once per icon set version,
+ * so this mostly saves reading them again when sending them failed and the next sync retries.
+ */
+final class IconPayloadCache {
+
+    /* The whole icon set is about 10 KB at xxhdpi, so this holds every icon with room to spare */
+    private static final int MAX_MEMORY_BYTES = 64 * 1024;
+
+    private static final LruCache<Integer, byte[]> sMemoryCache =
+            new LruCache<Integer, byte[]>(MAX_MEMORY_BYTES) {
+                @Override
+                protected int sizeOf(Integer resourceId, byte[] payload) {
+                    return payload.length;
+                }
+            };
+
+    private IconPayloadCache() {
+    }
+
+    /**
+     * @param context    Used to access the resources
+     * @param resourceId The drawable of the icon
+     * @return The icon, as a PNG
+     * @throws IOException If the icon couldn't be read from the APK
+     */
+    static byte[] get(Context context, int resourceId) throws IOException {
+        byte[] payload = sMemoryCache.get(resourceId);
+        if (payload == null) {
+            payload = readFully(context.getResources().openRawResource(resourceId));
+            sMemoryCache.put(resourceId, payload);
+        }
+        return payload;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
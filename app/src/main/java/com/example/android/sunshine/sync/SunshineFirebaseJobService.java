@@ -45,8 +45,17 @@ public class SunshineFirebaseJobService extends JobService {
             @Override
             protected Void doInBackground(Void... voids) {
                 Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
+                int changeCount = SunshineSyncTask.syncWeather(context);
                 jobFinished(jobParameters, false);
+
+                /*
+                 * The next periodic sync comes sooner or later, depending on what this one found.
+                 * Only now that the job is finished can it be rescheduled: replacing a running
+                 * job would stop it. A job that was stopped has no outcome to adapt to.
+                 */
+                if (!isCancelled()) {
+                    SunshineSyncUtils.adaptSyncInterval(context, changeCount);
+                }
                 return null;
             }
 
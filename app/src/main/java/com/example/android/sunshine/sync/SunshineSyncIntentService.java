@@ -17,6 +17,7 @@ package com.example.android.sunshine.sync;
 
 import android.app.IntentService;
 import android.content.Intent;
+import android.os.SystemClock;
 
 /**
  * An {@link IntentService} subclass for handling asynchronous task requests in
@@ -24,12 +25,27 @@ import android.content.Intent;
  */
 public class SunshineSyncIntentService extends IntentService {
 
+    /*
+     * The request registered with SyncCoordinator when the sync was asked for, and when that was.
+     * Intents are handled one at a time, so by the time we get to a request a sync that started
+     * after it was made may already have answered it.
+     */
+    static final String EXTRA_SYNC_REQUEST = "sync_request";
+    static final String EXTRA_REQUESTED_AT_MILLIS = "requested_at_millis";
+
     public SunshineSyncIntentService() {
         super("SunshineSyncIntentService");
     }
 
     @Override
     protected void onHandleIntent(Intent intent) {
-        SunshineSyncTask.syncWeather(this);
+        if (intent == null || !intent.hasExtra(EXTRA_SYNC_REQUEST)) {
+            SunshineSyncTask.syncWeather(this);
+            return;
+        }
+
+        SyncCoordinator.awaitSync(this,
+                intent.getLongExtra(EXTRA_SYNC_REQUEST, 0),
+                intent.getLongExtra(EXTRA_REQUESTED_AT_MILLIS, SystemClock.elapsedRealtime()));
     }
 }
\ No newline at end of file
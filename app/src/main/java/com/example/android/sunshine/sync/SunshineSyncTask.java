@@ -15,32 +15,105 @@
  */
 package com.example.android.sunshine.sync;
 
-import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
 import android.text.format.DateUtils;
+import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncTask {
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
+    /*
+     * The extra locations are fetched concurrently, but never more than this many at a time. This
+     * matches the number of connections UrlConnectionTransport keeps alive, so every fetch can
+     * reuse a connection instead of opening a new one.
+     */
+    private static final int MAX_CONCURRENT_FETCHES = 4;
+
+    /* Idle fetch threads are let go after this long, so they don't linger between syncs */
+    private static final long FETCH_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sFetchExecutor = createFetchExecutor();
+
+    private static ThreadPoolExecutor createFetchExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                MAX_CONCURRENT_FETCHES,
+                MAX_CONCURRENT_FETCHES,
+                FETCH_THREAD_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * Performs the network request for updated weather, parses the JSON from that request, and
      * inserts the new weather information into our ContentProvider. Will notify the user that new
      * weather has been loaded if the user hasn't been notified of the weather within the last day
      * AND they haven't disabled notifications in the preferences screen.
+     * <p>
+     * The weather of the extra locations from
+     * {@link SunshinePreferences#getExtraWeatherLocations(Context)} is fetched at the same time,
+     * on a bounded pool of threads. Only changes to the preferred location are reported to the
+     * user and to connected devices.
+     * <p>
+     * The sync goes through {@link SyncCoordinator}, so if a sync is already running this waits
+     * for the sync that follows it, which is shared with every other request made in the
+     * meantime.
+     * <p>
+     * The interval of the periodic sync is not adapted here, as most syncs are started by the
+     * user. {@link SunshineFirebaseJobService} adapts it to what its own syncs return.
      *
      * @param context Used to access utility methods and the ContentResolver
+     * @return The number of days of the preferred location that changed, or -1 if the sync failed
      */
-    synchronized public static void syncWeather(Context context) {
+    public static int syncWeather(Context context) {
+        return SyncCoordinator.requestSync(context);
+    }
+
+    /**
+     * Performs the sync described in {@link #syncWeather(Context)}. Only called by
+     * {@link SyncCoordinator}, which makes sure that there is never more than one running.
+     *
+     * @param context      Used to access utility methods and the ContentResolver
+     * @param cancellation Tells us to stop, because the sync has been superseded. Nothing that
+     *                     was fetched is written from then on.
+     * @return The number of days of the preferred location that changed, or -1 if the sync failed
+     */
+    static int syncWeather(Context context, SyncCoordinator.Cancellation cancellation) {
 
         try {
+            long startNanos = System.nanoTime();
+
+            /* Start fetching the extra locations before we get busy with the preferred one */
+            List<String> extraLocations = SunshinePreferences.getExtraWeatherLocations(context);
+            List<Future<Integer>> extraFetches = new ArrayList<>(extraLocations.size());
+            for (String extraLocation : extraLocations) {
+                extraFetches.add(sFetchExecutor.submit(new LocationFetch(context, extraLocation, cancellation)));
+            }
+
             /*
              * The getUrl method will return the URL that we need to get the forecast JSON for the
              * weather. It will decide whether to create a URL based off of the latitude and
@@ -48,34 +121,45 @@ public class SunshineSyncTask {
              */
             URL weatherRequestUrl = NetworkUtils.getUrl(context);
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+            int rowsChanged = syncLocation(context,
+                    weatherRequestUrl,
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    true,
+                    cancellation);
+
+            for (int i = 0; i < extraFetches.size(); i++) {
+                if (cancellation.isCancelled()) {
+                    /* Fetches that haven't started yet are dropped, the others stop on their own */
+                    extraFetches.get(i).cancel(false);
+                    continue;
+                }
+                try {
+                    extraFetches.get(i).get();
+                } catch (CancellationException e) {
+                    /* Cancelled above */
+                } catch (ExecutionException e) {
+                    /* One location failing shouldn't keep the others from being stored */
+                    Log.e(TAG, "Failed to sync " + extraLocations.get(i), e.getCause());
+                }
+            }
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
 
-            /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
-             */
-            if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
-                ContentResolver sunshineContentResolver = context.getContentResolver();
+            if (cancellation.isCancelled()) {
+                Log.d(TAG, "Sync superseded after " + elapsedMillis + " ms");
+                return 0;
+            }
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
+            Log.d(TAG, "Synced " + (extraLocations.size() + 1) + " locations in "
+                    + elapsedMillis + " ms");
 
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
+            if (rowsChanged >= 0) {
+                SunshinePreferences.saveLastSuccessfulSyncTime(context,
+                        System.currentTimeMillis());
+            }
 
+            /* We have no reason to notify anyone if none of the days changed */
+            if (rowsChanged > 0) {
                 /*
                  * Finally, after we insert data into the ContentProvider, determine whether or not
                  * we should notify the user that the weather has been refreshed.
@@ -109,9 +193,164 @@ public class SunshineSyncTask {
 
             }
 
+            return rowsChanged;
+
         } catch (Exception e) {
             /* Server probably invalid */
             e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Fetches the weather of a single location and writes the days that changed to our
+     * ContentProvider.
+     *
+     * @param context           Used to access utility methods and the ContentResolver
+     * @param weatherRequestUrl The URL to fetch the forecast of this location from
+     * @param weatherUri        The weather URI of this location in our ContentProvider
+     * @param primary           true for the preferred location, whose coordinates are stored in
+     *                          the preferences
+     * @param cancellation      Tells us to drop the forecast instead of storing it
+     * @return The number of days that changed, 0 if the server reported that the forecast hasn't
+     * changed or the sync was cancelled, or -1 if the response was invalid
+     * @throws Exception If the forecast couldn't be fetched, parsed or stored
+     */
+    private static int syncLocation(Context context, URL weatherRequestUrl, Uri weatherUri,
+                                    boolean primary, SyncCoordinator.Cancellation cancellation)
+            throws Exception {
+
+        if (cancellation.isCancelled()) {
+            return 0;
+        }
+
+        /* The location coordinates sent back by the server are only stored for the primary one */
+        Context locationContext = primary ? context : null;
+
+        /*
+         * The request is conditional: if the forecast hasn't changed since our last sync today,
+         * the server tells us so and we have nothing to parse, store or push to the watch. On a
+         * new day the forecast is downloaded again, as its days have to be dated from today.
+         */
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        NetworkUtils.WeatherResponse weatherResponse =
+                NetworkUtils.openWeatherResponse(context, weatherRequestUrl, today);
+
+        WeatherDiffSink weatherSink;
+        boolean validResponse;
+
+        try {
+            if (weatherResponse.isNotModified()) {
+                SunshinePreferences.recordSync(context, true);
+                Log.d(TAG, "Forecast not modified, skipping sync. Skipped "
+                        + SunshinePreferences.getSkippedSyncCount(context) + " of "
+                        + (SunshinePreferences.getSkippedSyncCount(context)
+                        + SunshinePreferences.getFullSyncCount(context)) + " syncs so far");
+                return 0;
+            }
+
+            /*
+             * Parsed days are compared against the stored ones as they come in, so that only the
+             * days that actually changed are written to our ContentProvider. The sink reads the
+             * stored days as it is created, which a forecast that wasn't modified doesn't need.
+             */
+            weatherSink = new WeatherDiffSink(context.getContentResolver(), weatherUri);
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                /*
+                 * Parse the JSON straight off the network stream, so we never hold the whole
+                 * response (or a JSONObject tree built from it) in memory.
+                 */
+                validResponse = OpenWeatherJsonUtils.parseWeatherFromStream(
+                        locationContext, weatherResponse.getBody(), weatherSink);
+            } else {
+                /* JsonReader isn't available before Honeycomb, so fall back to org.json */
+                String jsonWeatherResponse =
+                        NetworkUtils.readResponseBody(weatherResponse.getBody());
+
+                ContentValues[] weatherValues = OpenWeatherJsonUtils
+                        .getWeatherContentValuesFromJson(locationContext, jsonWeatherResponse);
+
+                validResponse = weatherValues != null;
+                if (validResponse) {
+                    for (ContentValues weatherValue : weatherValues) {
+                        weatherSink.onWeatherValues(weatherValue);
+                    }
+                }
+            }
+        } finally {
+            weatherResponse.close();
+        }
+
+        /*
+         * In cases where our JSON contained an error code, the parser reports an invalid
+         * response and we don't write anything.
+         */
+        if (!validResponse) {
+            return -1;
+        }
+
+        /*
+         * This is the last chance to drop a forecast that was superseded while it was being
+         * fetched, for instance by a change of location. Its validators aren't saved either.
+         */
+        if (cancellation.isCancelled()) {
+            return 0;
+        }
+
+        int rowsChanged = weatherSink.finish();
+
+        /*
+         * Only now that the data is safely stored do we remember the validators of this
+         * response. Saving them any earlier could make us skip a forecast we never stored.
+         */
+        SunshinePreferences.saveResponseValidators(context,
+                weatherRequestUrl.toString(),
+                weatherResponse.getETag(),
+                weatherResponse.getLastModified(),
+                today);
+        SunshinePreferences.recordSync(context, false);
+
+        return rowsChanged;
+    }
+
+    /**
+     * Fetches the weather of one of the extra locations, adding the location to the location
+     * table first if this is the first time it is synced.
+     */
+    private static class LocationFetch implements Callable<Integer> {
+
+        private final Context mContext;
+        private final String mLocationSetting;
+        private final SyncCoordinator.Cancellation mCancellation;
+
+        LocationFetch(Context context, String locationSetting,
+                      SyncCoordinator.Cancellation cancellation) {
+            mContext = context;
+            mLocationSetting = locationSetting;
+            mCancellation = cancellation;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                    mLocationSetting);
+
+            Uri locationUri = mContext.getContentResolver()
+                    .insert(WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+            if (locationUri == null) {
+                throw new IllegalStateException("Couldn't store location " + mLocationSetting);
+            }
+
+            Uri weatherUri = WeatherContract.WeatherEntry
+                    .buildWeatherUriForLocation(ContentUris.parseId(locationUri));
+
+            return syncLocation(mContext,
+                    NetworkUtils.buildUrlForLocation(mLocationSetting),
+                    weatherUri,
+                    false,
+                    mCancellation);
         }
     }
-}
\ No newline at end of file
+}
@@ -19,8 +19,11 @@ import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.util.Log;
 
+import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.firebase.jobdispatcher.Constraint;
 import com.firebase.jobdispatcher.Driver;
@@ -34,18 +37,18 @@ import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncUtils {
 
-    /*
-     * Interval at which to sync with the weather. Use TimeUnit for convenience, rather than
-     * writing out a bunch of multiplication ourselves and risk making a silly mistake.
-     */
-    private static final int SYNC_INTERVAL_HOURS = 3;
-    private static final int SYNC_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(SYNC_INTERVAL_HOURS);
-    private static final int SYNC_FLEXTIME_SECONDS = SYNC_INTERVAL_SECONDS / 3;
+    private static final String TAG = SunshineSyncUtils.class.getSimpleName();
 
     private static boolean sInitialized;
 
     private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
 
+    /* The weather archive is compacted about once a day, whenever the device is charging */
+    private static final int COMPACTION_INTERVAL_SECONDS = (int) TimeUnit.DAYS.toSeconds(1);
+    private static final int COMPACTION_FLEXTIME_SECONDS = (int) TimeUnit.HOURS.toSeconds(6);
+
+    private static final String ARCHIVE_COMPACTION_TAG = "archive-compaction";
+
     /**
      * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
      * @param context Context used to create the GooglePlayDriver that powers the
@@ -56,6 +59,37 @@ public class SunshineSyncUtils {
         Driver driver = new GooglePlayDriver(context);
         FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
 
+        scheduleSyncJob(context, dispatcher);
+
+        /*
+         * Compacting the weather archive doesn't need the network, but it may rewrite the
+         * database file, so we only do it while the device is charging.
+         */
+        Job compactArchiveJob = dispatcher.newJobBuilder()
+                .setService(ArchiveCompactionJobService.class)
+                .setTag(ARCHIVE_COMPACTION_TAG)
+                .setConstraints(Constraint.DEVICE_CHARGING)
+                .setLifetime(Lifetime.FOREVER)
+                .setRecurring(true)
+                .setTrigger(Trigger.executionWindow(
+                        COMPACTION_INTERVAL_SECONDS,
+                        COMPACTION_INTERVAL_SECONDS + COMPACTION_FLEXTIME_SECONDS))
+                .setReplaceCurrent(true)
+                .build();
+
+        dispatcher.schedule(compactArchiveJob);
+    }
+
+    /**
+     * Schedules the repeating sync with the interval saved by {@link #adaptSyncInterval}, or the
+     * default one if none was saved yet. Replaces the sync job that was scheduled before.
+     */
+    private static void scheduleSyncJob(@NonNull Context context,
+                                        @NonNull FirebaseJobDispatcher dispatcher) {
+
+        long intervalSeconds = SunshinePreferences.getSyncIntervalSeconds(context,
+                SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS);
+
         /* Create the Job to periodically sync Sunshine */
         Job syncSunshineJob = dispatcher.newJobBuilder()
                 /* The Service that will be used to sync Sunshine's data */
@@ -79,15 +113,16 @@ public class SunshineSyncUtils {
                  */
                 .setRecurring(true)
                 /*
-                 * We want the weather data to be synced every 3 to 4 hours. The first argument for
-                 * Trigger's static executionWindow method is the start of the time frame when the
-                 * sync should be performed. The second argument is the latest point in time at
-                 * which the data should be synced. Please note that this end time is not
-                 * guaranteed, but is more of a guideline for FirebaseJobDispatcher to go off of.
+                 * We want the weather data to be synced every interval seconds, give or take a
+                 * third of that. The first argument for Trigger's static executionWindow method is
+                 * the start of the time frame when the sync should be performed. The second
+                 * argument is the latest point in time at which the data should be synced. Please
+                 * note that this end time is not guaranteed, but is more of a guideline for
+                 * FirebaseJobDispatcher to go off of.
                  */
                 .setTrigger(Trigger.executionWindow(
-                        SYNC_INTERVAL_SECONDS,
-                        SYNC_INTERVAL_SECONDS + SYNC_FLEXTIME_SECONDS))
+                        (int) intervalSeconds,
+                        (int) (intervalSeconds + SyncIntervalPolicy.flexSeconds(intervalSeconds))))
                 /*
                  * If a Job with the tag with provided already exists, this new job will replace
                  * the old one.
@@ -99,6 +134,40 @@ public class SunshineSyncUtils {
         /* Schedule the Job with the dispatcher */
         dispatcher.schedule(syncSunshineJob);
     }
+
+    /**
+     * Adapts the interval of the periodic sync to the outcome of a sync of the periodic job,
+     * following {@link SyncIntervalPolicy}, and reschedules the sync job if the interval changed.
+     * Syncs started by the user say nothing about how fast the forecast changes, so they don't
+     * adapt it. This must only be called once the job that ran the sync has finished, as
+     * rescheduling replaces the job.
+     *
+     * @param context     Used to access SharedPreferences and the FirebaseJobDispatcher
+     * @param changeCount The number of days the sync changed, or -1 if it failed
+     */
+    static void adaptSyncInterval(@NonNull Context context, int changeCount) {
+        long intervalSeconds = SunshinePreferences.getSyncIntervalSeconds(context,
+                SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS);
+
+        long nextIntervalSeconds;
+        if (changeCount >= 0) {
+            nextIntervalSeconds = SyncIntervalPolicy.afterSync(intervalSeconds, changeCount);
+        } else {
+            long now = System.currentTimeMillis();
+            long lastSuccess = SunshinePreferences.getLastSuccessfulSyncTimeInMillis(context);
+            nextIntervalSeconds = SyncIntervalPolicy.afterFailedSync(intervalSeconds,
+                    TimeUnit.MILLISECONDS.toSeconds(now - lastSuccess));
+        }
+
+        if (nextIntervalSeconds == intervalSeconds) return;
+
+        Log.d(TAG, "Sync interval changed from " + intervalSeconds + " s to "
+                + nextIntervalSeconds + " s after " + changeCount + " changes");
+
+        SunshinePreferences.setSyncIntervalSeconds(context, nextIntervalSeconds);
+        scheduleSyncJob(context, new FirebaseJobDispatcher(new GooglePlayDriver(context)));
+    }
+
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
      * immediate sync is required, this method will take care of making sure that sync occurs.
@@ -144,13 +213,15 @@ public class SunshineSyncUtils {
                 String[] projectionColumns = {WeatherContract.WeatherEntry._ID};
                 String selectionStatement = WeatherContract.WeatherEntry
                         .getSqlSelectForTodayOnwards();
+                String[] selectionArgs = WeatherContract.WeatherEntry
+                        .getSqlSelectionArgsForTodayOnwards();
 
                 /* Here, we perform the query to check to see if we have any weather data */
                 Cursor cursor = context.getContentResolver().query(
                         forecastQueryUri,
                         projectionColumns,
                         selectionStatement,
-                        null,
+                        selectionArgs,
                         null);
                 /*
                  * A Cursor object can be null for various different reasons. A few are
@@ -167,6 +238,11 @@ public class SunshineSyncUtils {
                  * be able to display data to the user.
                  */
                 if (null == cursor || cursor.getCount() == 0) {
+                    /*
+                     * Our data is gone, so the server must not be allowed to answer with "not
+                     * modified" based on the validators of a forecast we no longer have.
+                     */
+                    SunshinePreferences.clearResponseValidators(context);
                     startImmediateSync(context);
                 }
 
@@ -181,12 +257,34 @@ public class SunshineSyncUtils {
 
     /**
      * Helper method to perform a sync immediately using an IntentService for asynchronous
-     * execution.
+     * execution. The request is registered with {@link SyncCoordinator} right away, so that a
+     * burst of requests is answered by a single sync.
      *
      * @param context The Context used to start the IntentService for the sync.
      */
     public static void startImmediateSync(@NonNull final Context context) {
+        startImmediateSync(context, false);
+    }
+
+    /**
+     * Like {@link #startImmediateSync(Context)}, but can also cancel the sync that is currently
+     * running. Use this when whatever that sync fetches is about to be out of date anyway, for
+     * instance because the location changed.
+     *
+     * @param context              The Context used to start the IntentService for the sync.
+     * @param supersedeRunningSync true to cancel the sync that is currently running
+     */
+    public static void startImmediateSync(@NonNull final Context context,
+                                          boolean supersedeRunningSync) {
+        if (supersedeRunningSync) {
+            SyncCoordinator.supersedeRunningSync();
+        }
+
         Intent intentToSyncImmediately = new Intent(context, SunshineSyncIntentService.class);
+        intentToSyncImmediately.putExtra(SunshineSyncIntentService.EXTRA_SYNC_REQUEST,
+                SyncCoordinator.newRequest());
+        intentToSyncImmediately.putExtra(SunshineSyncIntentService.EXTRA_REQUESTED_AT_MILLIS,
+                SystemClock.elapsedRealtime());
         context.startService(intentToSyncImmediately);
     }
 }
\ No newline at end of file
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Makes sure that only one sync runs at a time, and that a burst of sync requests results in as
+ * few syncs as possible.
+ * <p>
+ * Syncs are requested by the periodic job, by {@link SunshineSyncIntentService} and by anyone
+ * calling {@link SunshineSyncTask#syncWeather(Context)}. Every request gets a number. A sync
+ * covers every request that was made before it started, so requests that pile up while a sync is
+ * running are all answered by the single sync that runs after it. Whichever waiting thread finds
+ * no sync running performs the next one, the others just wait for it.
+ * <p>
+ * When the location changes, the running sync is fetching a forecast nobody wants anymore.
+ * {@link #supersedeRunningSync()} cancels it, and the requests it was covering are answered by the
+ * next sync instead.
+ * <p>
+ * Waiting for a request returns what the sync that answered it found, so that the periodic job
+ * can adapt its interval once it is done, see {@link SunshineFirebaseJobService}.
+ */
+public final class SyncCoordinator {
+
+    private static final String TAG = SyncCoordinator.class.getSimpleName();
+
+    private static final Object sLock = new Object();
+
+    /* The number of the last request that was made */
+    private static long sLastRequest;
+    /* The number of the last request covered by a sync that completed */
+    private static long sLastCompletedRequest;
+    /* The running sync, or null if there is none */
+    private static Cancellation sRunningSync;
+    /* What the last sync that completed found, see SunshineSyncTask#syncWeather */
+    private static int sLastChangeCount;
+
+    /* Metrics, guarded by sLock */
+    private static long sRequestCount;
+    private static long sAnsweredRequestCount;
+    private static long sSyncCount;
+    private static long sCancelledSyncCount;
+    private static long sMaxQueueDepth;
+    private static long sTotalWaitMillis;
+    private static long sMaxWaitMillis;
+
+    private SyncCoordinator() {
+    }
+
+    /**
+     * Lets a running sync know that it should stop as soon as possible.
+     */
+    public static final class Cancellation {
+
+        private volatile boolean mCancelled;
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        void cancel() {
+            mCancelled = true;
+        }
+    }
+
+    /**
+     * Registers a request for a sync, without waiting for it. Used when the sync itself is
+     * performed later on another thread, as {@link SunshineSyncIntentService} does.
+     *
+     * @return The number of the request, to be passed to {@link #awaitSync}
+     */
+    public static long newRequest() {
+        synchronized (sLock) {
+            sRequestCount++;
+            sLastRequest++;
+            sMaxQueueDepth = Math.max(sMaxQueueDepth, sLastRequest - sLastCompletedRequest);
+            return sLastRequest;
+        }
+    }
+
+    /**
+     * Registers a request for a sync and waits until a sync that covers it has completed.
+     *
+     * @param context Used to perform the sync
+     * @return The number of days the sync that answered the request changed, or -1 if it failed
+     * or the wait was interrupted
+     */
+    public static int requestSync(Context context) {
+        return awaitSync(context, newRequest(), SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Waits until a sync that covers the given request has completed, performing it on the
+     * calling thread if no other sync is running.
+     *
+     * @param context           Used to perform the sync
+     * @param request           The number returned by {@link #newRequest()}. A number this
+     *                          process never handed out is treated as a new request.
+     * @param requestedAtMillis When the request was made, in
+     *                          {@link SystemClock#elapsedRealtime()} milliseconds
+     * @return The number of days the sync that answered the request changed, or -1 if it failed
+     * or the wait was interrupted
+     */
+    public static int awaitSync(Context context, long request, long requestedAtMillis) {
+        synchronized (sLock) {
+            if (request > sLastRequest) {
+                /*
+                 * The request was made by a process that has died since, such as the one that
+                 * queued the intent of SunshineSyncIntentService, and our numbers started over.
+                 * No sync of ours would ever cover it, so it is numbered again as one of ours.
+                 * Smaller numbers are fine as they are: every sync of this process started after
+                 * that process was gone.
+                 */
+                request = newRequest();
+            }
+        }
+
+        while (true) {
+            long coveredRequest;
+            Cancellation cancellation;
+
+            synchronized (sLock) {
+                while (sLastCompletedRequest < request && sRunningSync != null) {
+                    try {
+                        sLock.wait();
+                    } catch (InterruptedException e) {
+                        /* Whoever asked for this sync doesn't want to wait for it anymore */
+                        Thread.currentThread().interrupt();
+                        return -1;
+                    }
+                }
+
+                if (sLastCompletedRequest >= request) {
+                    recordWait(request, requestedAtMillis);
+                    return sLastChangeCount;
+                }
+
+                /* Nothing is running and our request isn't covered yet, so it's up to us */
+                coveredRequest = sLastRequest;
+                cancellation = new Cancellation();
+                sRunningSync = cancellation;
+            }
+
+            int changeCount = -1;
+            try {
+                changeCount = SunshineSyncTask.syncWeather(context, cancellation);
+            } finally {
+                synchronized (sLock) {
+                    sRunningSync = null;
+                    /* A sync that failed still answers its requests, only a cancelled one doesn't */
+                    if (cancellation.isCancelled()) {
+                        sCancelledSyncCount++;
+                    } else {
+                        sSyncCount++;
+                        sLastCompletedRequest = Math.max(sLastCompletedRequest, coveredRequest);
+                        sLastChangeCount = changeCount;
+                    }
+                    sLock.notifyAll();
+                }
+            }
+            /* If our sync was cancelled, go around again for the sync that superseded it */
+        }
+    }
+
+    /**
+     * Cancels the running sync, if there is one. The requests it was covering are answered by the
+     * next sync. Call this before requesting the sync that supersedes it.
+     */
+    public static void supersedeRunningSync() {
+        synchronized (sLock) {
+            if (sRunningSync != null) {
+                sRunningSync.cancel();
+                Log.d(TAG, "Cancelling the running sync, it has been superseded");
+            }
+        }
+    }
+
+    private static void recordWait(long request, long requestedAtMillis) {
+        long waitMillis = SystemClock.elapsedRealtime() - requestedAtMillis;
+        sAnsweredRequestCount++;
+        sTotalWaitMillis += waitMillis;
+        sMaxWaitMillis = Math.max(sMaxWaitMillis, waitMillis);
+
+        Log.d(TAG, "Request " + request + " answered after " + waitMillis + " ms. "
+                + sRequestCount + " requests answered by " + sSyncCount + " syncs ("
+                + sCancelledSyncCount + " cancelled), max queue depth " + sMaxQueueDepth
+                + ", average wait " + sTotalWaitMillis / sAnsweredRequestCount + " ms, max wait "
+                + sMaxWaitMillis + " ms");
+    }
+
+    /**
+     * @return The number of requests that haven't been answered by a completed sync yet
+     */
+    public static long getQueueDepth() {
+        synchronized (sLock) {
+            return sLastRequest - sLastCompletedRequest;
+        }
+    }
+
+    /**
+     * @return The largest number of requests that were waiting at the same time
+     */
+    public static long getMaxQueueDepth() {
+        synchronized (sLock) {
+            return sMaxQueueDepth;
+        }
+    }
+
+    /**
+     * @return The number of requests made so far
+     */
+    public static long getRequestCount() {
+        synchronized (sLock) {
+            return sRequestCount;
+        }
+    }
+
+    /**
+     * @return The number of syncs that ran to completion
+     */
+    public static long getSyncCount() {
+        synchronized (sLock) {
+            return sSyncCount;
+        }
+    }
+
+    /**
+     * @return The number of syncs that were cancelled by {@link #supersedeRunningSync()}
+     */
+    public static long getCancelledSyncCount() {
+        synchronized (sLock) {
+            return sCancelledSyncCount;
+        }
+    }
+
+    /**
+     * @return The average time from an answered request to the completion of the sync that
+     * answered it
+     */
+    public static long getAverageWaitMillis() {
+        synchronized (sLock) {
+            return sAnsweredRequestCount == 0 ? 0 : sTotalWaitMillis / sAnsweredRequestCount;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long to wait until the next periodic sync, based on what the last one found.
+ * <p>
+ * Forecasts don't change at a steady pace. For hours on end the server answers with the same
+ * forecast, and then a front comes in and every day changes from one sync to the next. Syncing
+ * every 3 hours either way wastes requests in the first case and shows an outdated forecast in
+ * the second. So:
+ * <ul>
+ * <li>When a sync finds nothing changed, the interval is doubled.</li>
+ * <li>When a sync finds a lot changed, the interval is halved.</li>
+ * <li>When a sync fails, the next one comes soon enough that the forecast doesn't get older
+ * than {@link #STALE_AFTER_SECONDS}.</li>
+ * </ul>
+ * The interval always stays between {@link #MIN_INTERVAL_SECONDS} and
+ * {@link #MAX_INTERVAL_SECONDS}. This class only does the math, so that it can be replayed
+ * against recorded forecasts. {@link SunshineSyncUtils} stores the interval and reschedules the
+ * job.
+ */
+public final class SyncIntervalPolicy {
+
+    static final long MIN_INTERVAL_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    static final long MAX_INTERVAL_SECONDS = TimeUnit.HOURS.toSeconds(12);
+    static final long DEFAULT_INTERVAL_SECONDS = TimeUnit.HOURS.toSeconds(3);
+
+    /* After a failed sync, we try again before the forecast we have gets older than this */
+    static final long STALE_AFTER_SECONDS = TimeUnit.HOURS.toSeconds(6);
+
+    /*
+     * A sync that changes at least this many days finds a volatile forecast. Every day the oldest
+     * day is replaced by a new one, which already accounts for two changes.
+     */
+    static final int VOLATILE_CHANGE_COUNT = 4;
+
+    private SyncIntervalPolicy() {
+    }
+
+    /**
+     * @param intervalSeconds The current interval
+     * @param changeCount     The number of days the sync inserted, updated or deleted
+     * @return The interval until the next sync
+     */
+    static long afterSync(long intervalSeconds, int changeCount) {
+        if (changeCount == 0) {
+            return clamp(intervalSeconds * 2);
+        }
+        if (changeCount >= VOLATILE_CHANGE_COUNT) {
+            return clamp(intervalSeconds / 2);
+        }
+        return clamp(intervalSeconds);
+    }
+
+    /**
+     * @param intervalSeconds         The current interval
+     * @param secondsSinceLastSuccess How long ago the last successful sync was
+     * @return The interval until the next sync
+     */
+    static long afterFailedSync(long intervalSeconds, long secondsSinceLastSuccess) {
+        return clamp(Math.min(intervalSeconds, STALE_AFTER_SECONDS - secondsSinceLastSuccess));
+    }
+
+    /**
+     * @param intervalSeconds The interval of the sync job
+     * @return How much later than the interval the sync job may run
+     */
+    static long flexSeconds(long intervalSeconds) {
+        return intervalSeconds / 3;
+    }
+
+    private static long clamp(long intervalSeconds) {
+        return Math.max(MIN_INTERVAL_SECONDS, Math.min(MAX_INTERVAL_SECONDS, intervalSeconds));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the days handed out by the forecast parser against the weather that is already stored,
+ * keyed on {@link WeatherContract.WeatherEntry#COLUMN_DATE}. Only the days that are new or that
+ * changed are written, and stored days that are no longer part of the forecast are deleted. All of
+ * this happens in one {@link ContentResolver#applyBatch} call, which the provider runs inside a
+ * single transaction and follows with a single notification: of the changed date if only one
+ * changed, of the weather of the location otherwise.
+ * <p>
+ * Nothing is written before {@link #finish()}, which is only called once the whole response has
+ * been parsed. If parsing fails partway through, the stored weather is left as it was.
+ * <p>
+ * Each sink works on the weather of a single location, identified by the weather URI it is
+ * created with.
+ */
+class WeatherDiffSink implements OpenWeatherJsonUtils.WeatherValuesSink {
+
+    /* The columns that are compared to decide whether a stored day needs to be updated */
+    private static final String[] COMPARED_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private final ContentResolver mContentResolver;
+
+    /* Either WeatherEntry.CONTENT_URI for the primary location, or the URI of another location */
+    private final Uri mWeatherUri;
+
+    /*
+     * The stored days, keyed on their date. Days are removed from this map as the parser hands
+     * them to us, so whatever is left once the response has been read is no longer forecast.
+     */
+    private final Map<Long, double[]> mStoredDays;
+
+    private final ArrayList<ContentProviderOperation> mOperations = new ArrayList<>();
+
+    private boolean mReceivedDays;
+
+    WeatherDiffSink(ContentResolver contentResolver, Uri weatherUri) {
+        mContentResolver = contentResolver;
+        mWeatherUri = weatherUri;
+        mStoredDays = loadStoredDays(contentResolver, weatherUri);
+    }
+
+    private static Map<Long, double[]> loadStoredDays(ContentResolver contentResolver,
+                                                      Uri weatherUri) {
+        String[] projection = new String[COMPARED_COLUMNS.length + 1];
+        projection[0] = WeatherContract.WeatherEntry.COLUMN_DATE;
+        System.arraycopy(COMPARED_COLUMNS, 0, projection, 1, COMPARED_COLUMNS.length);
+
+        Map<Long, double[]> storedDays = new HashMap<>();
+
+        Cursor cursor = contentResolver.query(
+                weatherUri,
+                projection,
+                null,
+                null,
+                null);
+
+        if (cursor == null) return storedDays;
+
+        try {
+            while (cursor.moveToNext()) {
+                double[] storedValues = new double[COMPARED_COLUMNS.length];
+                for (int i = 0; i < COMPARED_COLUMNS.length; i++) {
+                    storedValues[i] = cursor.getDouble(i + 1);
+                }
+                storedDays.put(cursor.getLong(0), storedValues);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return storedDays;
+    }
+
+    @Override
+    public void onWeatherValues(ContentValues weatherValues) {
+        mReceivedDays = true;
+
+        long date = weatherValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        double[] storedValues = mStoredDays.remove(date);
+
+        if (storedValues == null) {
+            /* The parser reuses its ContentValues, so the operation needs its own copy */
+            mOperations.add(ContentProviderOperation
+                    .newInsert(mWeatherUri)
+                    .withValues(new ContentValues(weatherValues))
+                    .build());
+
+        } else if (hasChanged(storedValues, weatherValues)) {
+            mOperations.add(ContentProviderOperation
+                    .newUpdate(buildDateUri(date))
+                    .withValues(new ContentValues(weatherValues))
+                    .build());
+        }
+    }
+
+    private Uri buildDateUri(long date) {
+        return mWeatherUri.buildUpon().appendPath(Long.toString(date)).build();
+    }
+
+    private static boolean hasChanged(double[] storedValues, ContentValues weatherValues) {
+        for (int i = 0; i < COMPARED_COLUMNS.length; i++) {
+            Double value = weatherValues.getAsDouble(COMPARED_COLUMNS[i]);
+            if (value == null || value != storedValues[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deletes the stored days that weren't part of the response and writes all of the collected
+     * changes to the ContentProvider. A response that didn't contain any days leaves the stored
+     * weather untouched.
+     *
+     * @return The number of days that were inserted, updated or deleted
+     */
+    int finish() throws RemoteException, OperationApplicationException {
+        if (mReceivedDays) {
+            for (long date : mStoredDays.keySet()) {
+                mOperations.add(ContentProviderOperation
+                        .newDelete(buildDateUri(date))
+                        .build());
+            }
+        }
+        mStoredDays.clear();
+
+        int changedDays = mOperations.size();
+        if (changedDays != 0) {
+            mContentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, mOperations);
+            mOperations.clear();
+        }
+
+        return changedDays;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Performs the HTTP GET requests made by {@link NetworkUtils}. The default implementation is
+ * {@link UrlConnectionTransport}, but another one can be plugged in with
+ * {@link NetworkUtils#setTransport(HttpTransport)}.
+ */
+public interface HttpTransport {
+
+    /**
+     * Performs a GET request.
+     *
+     * @param url            The URL to request
+     * @param requestHeaders Additional headers to send along with the request
+     * @return The response. The caller must close it once it is done with the body.
+     * @throws IOException Related to network and stream reading
+     */
+    Response get(URL url, Map<String, String> requestHeaders) throws IOException;
+
+    /**
+     * The response to a request made through an {@link HttpTransport}.
+     */
+    interface Response extends Closeable {
+
+        int getResponseCode();
+
+        /**
+         * @param name The name of the header
+         * @return The value of the header, or null if the response didn't include it
+         */
+        String getHeaderField(String name);
+
+        /**
+         * @return The body of the response, already decompressed. This is empty for responses
+         * that don't have a body, such as a 304.
+         */
+        InputStream getBody();
+    }
+}
@@ -21,11 +21,15 @@ import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
@@ -83,6 +87,15 @@ public final class NetworkUtils {
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
 
+    /* Headers used to make conditional requests, so unchanged forecasts aren't downloaded again */
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /* Shared by all requests, so that connections can be kept alive across syncs and locations */
+    private static volatile HttpTransport sTransport = new UrlConnectionTransport();
+
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
      * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
@@ -109,6 +122,17 @@ public final class NetworkUtils {
         }
     }
 
+    /**
+     * Builds the URL used to fetch the weather of any location, such as one of the extra locations
+     * from {@link SunshinePreferences#getExtraWeatherLocations(Context)}.
+     *
+     * @param locationSetting The location that will be queried for.
+     * @return The URL to use to query the weather server.
+     */
+    public static URL buildUrlForLocation(String locationSetting) {
+        return buildUrlWithLocationQuery(locationSetting);
+    }
+
     /**
      * Builds the URL used to talk to the weather server using latitude and longitude of a
      * location.
@@ -161,6 +185,15 @@ public final class NetworkUtils {
         }
     }
 
+    /**
+     * Replaces the transport used to talk to the weather server.
+     *
+     * @param transport The transport to use for all following requests
+     */
+    public static void setTransport(HttpTransport transport) {
+        sTransport = transport;
+    }
+
     /**
      * This method returns the entire result from the HTTP response.
      *
@@ -169,22 +202,103 @@ public final class NetworkUtils {
      * @throws IOException Related to network and stream reading
      */
     public static String getResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        HttpTransport.Response response =
+                sTransport.get(url, Collections.<String, String>emptyMap());
         try {
-            InputStream in = urlConnection.getInputStream();
-
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
-
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
-            }
-            scanner.close();
-            return response;
+            return readResponseBody(response.getBody());
         } finally {
-            urlConnection.disconnect();
+            response.close();
+        }
+    }
+
+    /**
+     * Requests the weather from the given URL, sending along the validators (ETag and
+     * Last-Modified) of the last response we stored for that URL, as long as it was stored today.
+     * If the server tells us that nothing changed since then, the returned response has no body
+     * and {@link WeatherResponse#isNotModified()} returns true.
+     *
+     * @param context Used to look up the validators stored for this URL
+     * @param url     The URL to fetch the HTTP response from.
+     * @param today   The normalized UTC date the days of the response will be dated from
+     * @return The response. The caller must close it, which hands the connection back to the
+     * keep-alive pool.
+     * @throws IOException Related to network and stream reading
+     */
+    public static WeatherResponse openWeatherResponse(Context context, URL url, long today)
+            throws IOException {
+        String urlString = url.toString();
+        Map<String, String> requestHeaders = new HashMap<>();
+
+        String eTag = SunshinePreferences.getResponseETag(context, urlString, today);
+        if (eTag != null) {
+            requestHeaders.put(HEADER_IF_NONE_MATCH, eTag);
+        }
+
+        String lastModified = SunshinePreferences.getResponseLastModified(context, urlString,
+                today);
+        if (lastModified != null) {
+            requestHeaders.put(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+
+        return new WeatherResponse(sTransport.get(url, requestHeaders));
+    }
+
+    /**
+     * Reads the remainder of the stream into a String.
+     *
+     * @param in The stream to read
+     * @return The contents of the stream, null if the stream was empty
+     */
+    public static String readResponseBody(InputStream in) {
+        Scanner scanner = new Scanner(in);
+        scanner.useDelimiter("\\A");
+
+        String response = null;
+        if (scanner.hasNext()) {
+            response = scanner.next();
+        }
+        return response;
+    }
+
+    /**
+     * The response of the weather server, along with the validators needed to make the next
+     * request conditional.
+     */
+    public static final class WeatherResponse implements Closeable {
+
+        private final HttpTransport.Response mResponse;
+        private final boolean mNotModified;
+
+        WeatherResponse(HttpTransport.Response response) {
+            mResponse = response;
+            mNotModified = response.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        /**
+         * @return true if the forecast hasn't changed since the last stored response
+         */
+        public boolean isNotModified() {
+            return mNotModified;
+        }
+
+        /**
+         * @return The body of the response, or null if {@link #isNotModified()}
+         */
+        public InputStream getBody() {
+            return mNotModified ? null : mResponse.getBody();
+        }
+
+        public String getETag() {
+            return mResponse.getHeaderField(HEADER_ETAG);
+        }
+
+        public String getLastModified() {
+            return mResponse.getHeaderField(HEADER_LAST_MODIFIED);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mResponse.close();
         }
     }
-}
\ No newline at end of file
+}
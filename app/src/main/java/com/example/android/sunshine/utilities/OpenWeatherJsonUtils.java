@@ -15,8 +15,10 @@
  */
 package com.example.android.sunshine.utilities;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
+import android.util.JsonReader;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
@@ -25,6 +27,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 
 /**
@@ -60,6 +65,25 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /**
+     * Receives the weather values for each day as they are parsed by
+     * {@link #parseWeatherFromStream(Context, InputStream, WeatherValuesSink)}.
+     * <p>
+     * The parser can still fail after it has handed out some of the days, when the stream breaks
+     * off or turns out to be malformed. A sink that stores the days must therefore hold on to
+     * them and not write anything until the whole response has been parsed, or a failed sync
+     * would leave a partial forecast behind.
+     */
+    public interface WeatherValuesSink {
+        /**
+         * Called once per day of the forecast, in order.
+         *
+         * @param weatherValues The values for a single day. The same instance is reused for every
+         *                      day, so implementations must copy it if they want to keep it.
+         */
+        void onWeatherValues(ContentValues weatherValues);
+    }
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -103,7 +127,9 @@ public final class OpenWeatherJsonUtils {
         double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
         double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
 
-        SunshinePreferences.setLocationDetails(context, cityLatitude, cityLongitude);
+        if (context != null) {
+            SunshinePreferences.setLocationDetails(context, cityLatitude, cityLongitude);
+        }
 
         ContentValues[] weatherContentValues = new ContentValues[jsonWeatherArray.length()];
 
@@ -181,4 +207,179 @@ public final class OpenWeatherJsonUtils {
 
         return weatherContentValues;
     }
-}
\ No newline at end of file
+
+    /**
+     * Streaming counterpart of {@link #getWeatherContentValuesFromJson(Context, String)}. Rather
+     * than reading the whole response into a String and building a JSONObject tree from it, this
+     * method pulls tokens straight off the stream and hands each day to the sink as soon as it has
+     * been read. Only a single day's values are held in memory at any time.
+     * <p>
+     * The error code may come after the list of days, so the sink can already have seen some days
+     * by the time an error is detected. Callers should only commit what they received once this
+     * method returns true.
+     *
+     * @param context Used to store the location coordinates sent back by the server. Pass null
+     *                when parsing the weather of a location other than the preferred one.
+     * @param in      The response body from the weather server
+     * @param sink    Receives the values for each day of the forecast
+     *
+     * @return true if the response was a valid forecast, false if the server reported an error
+     *
+     * @throws IOException If the stream could not be read or did not contain valid JSON
+     */
+    @TargetApi(11)
+    public static boolean parseWeatherFromStream(Context context, InputStream in,
+                                                 WeatherValuesSink sink) throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+
+        try {
+            /* See getWeatherContentValuesFromJson for why we ignore the dates sent by the server */
+            long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+            ContentValues weatherValues = new ContentValues();
+            int dayIndex = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    /* Is there an error? */
+                    if (reader.nextInt() != HttpURLConnection.HTTP_OK) {
+                        return false;
+                    }
+
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(context, reader);
+
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        long dateTimeMillis =
+                                normalizedUtcStartDay + SunshineDateUtils.DAY_IN_MILLIS * dayIndex;
+
+                        weatherValues.clear();
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTimeMillis);
+                        readDayForecast(reader, weatherValues);
+
+                        sink.onWeatherValues(weatherValues);
+                        dayIndex++;
+                    }
+                    reader.endArray();
+
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            return true;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the "city" object and stores its coordinates if context isn't null, skipping
+     * everything else in it.
+     */
+    @TargetApi(11)
+    private static void readCity(Context context, JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (OWM_COORD.equals(reader.nextName())) {
+                double cityLatitude = 0;
+                double cityLongitude = 0;
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (OWM_LATITUDE.equals(name)) {
+                        cityLatitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(name)) {
+                        cityLongitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                if (context != null) {
+                    SunshinePreferences.setLocationDetails(context, cityLatitude, cityLongitude);
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads a single element of the "list" array into weatherValues.
+     */
+    @TargetApi(11)
+    private static void readDayForecast(JsonReader reader, ContentValues weatherValues)
+            throws IOException {
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, reader.nextDouble());
+
+            } else if (OWM_HUMIDITY.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                        (int) reader.nextDouble());
+
+            } else if (OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                        reader.nextDouble());
+
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, reader.nextDouble());
+
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                                reader.nextDouble());
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                                reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+            } else if (OWM_WEATHER.equals(name)) {
+                /* Only the first element of the "weather" array is of interest to us */
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                                    reader.nextInt());
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+}
@@ -55,7 +55,22 @@ public final class SunshineWeatherUtils {
      * "21°"
      */
     public static String formatTemperature(Context context, double temperature) {
-        if (!SunshinePreferences.isMetric(context)) {
+        return formatTemperature(context, temperature, SunshinePreferences.isMetric(context));
+    }
+
+    /**
+     * Like {@link #formatTemperature(Context, double)}, for the given units rather than the
+     * preferred ones. Use this to format many temperatures without reading the preference each
+     * time.
+     *
+     * @param context     Android Context to access resources
+     * @param temperature Temperature in degrees Celsius (°C)
+     * @param isMetric    true to format the temperature in °C, false in °F
+     *
+     * @return Formatted temperature String in the given units
+     */
+    public static String formatTemperature(Context context, double temperature, boolean isMetric) {
+        if (!isMetric) {
             temperature = celsiusToFahrenheit(temperature);
         }
 
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An {@link HttpTransport} built on top of {@link HttpURLConnection}.
+ * <p>
+ * Responses are requested compressed and decompressed while they are being read. Connections are
+ * never disconnected explicitly. Instead, each response is read to the end and closed, which
+ * hands the connection back to the platform's keep-alive pool so that the next sync (or the next
+ * location in the same sync) can skip the TCP and TLS handshakes.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+
+    /* The number of idle connections kept alive per host */
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+
+    private static final int TIMEOUT_MILLIS = 15000;
+
+    /* Used to read the rest of a response before closing it, so that its connection can be reused */
+    private static final int DRAIN_BUFFER_SIZE = 1024;
+
+    static {
+        /*
+         * The HttpURLConnection connection pool is configured through these system properties,
+         * which have to be set before the first connection is opened.
+         */
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(MAX_IDLE_CONNECTIONS));
+    }
+
+    @Override
+    public Response get(URL url, Map<String, String> requestHeaders) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(TIMEOUT_MILLIS);
+        urlConnection.setReadTimeout(TIMEOUT_MILLIS);
+
+        /*
+         * By asking for compression ourselves, HttpURLConnection leaves the decompression up to
+         * us. We do it in UrlConnectionResponse, while the body is being read.
+         */
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING,
+                ENCODING_GZIP + ", " + ENCODING_DEFLATE);
+
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            urlConnection.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        try {
+            return new UrlConnectionResponse(urlConnection);
+        } catch (IOException e) {
+            /* The connection is in an unknown state, so don't let it go back into the pool */
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    private static final class UrlConnectionResponse implements Response {
+
+        private final HttpURLConnection mUrlConnection;
+        private final int mResponseCode;
+
+        /* The stream as it comes off the connection */
+        private final InputStream mRawBody;
+        /* The decompressed stream handed out to callers */
+        private final InputStream mBody;
+
+        UrlConnectionResponse(HttpURLConnection urlConnection) throws IOException {
+            mUrlConnection = urlConnection;
+            mResponseCode = urlConnection.getResponseCode();
+
+            InputStream rawBody = mResponseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? urlConnection.getErrorStream()
+                    : urlConnection.getInputStream();
+
+            if (rawBody == null) {
+                rawBody = new ByteArrayInputStream(new byte[0]);
+            }
+            mRawBody = rawBody;
+
+            String contentEncoding = urlConnection.getContentEncoding();
+            if (ENCODING_GZIP.equalsIgnoreCase(contentEncoding)
+                    && mResponseCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                mBody = new GZIPInputStream(mRawBody);
+            } else if (ENCODING_DEFLATE.equalsIgnoreCase(contentEncoding)
+                    && mResponseCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                mBody = new InflaterInputStream(mRawBody);
+            } else {
+                mBody = mRawBody;
+            }
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mUrlConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() {
+            return mBody;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                /*
+                 * A connection only goes back into the pool once its response has been read to
+                 * the end, so read whatever the caller left behind.
+                 */
+                byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                while (mRawBody.read(buffer) != -1) {
+                    /* Discard */
+                }
+            } finally {
+                mBody.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the backoff and the metrics of the {@link ConnectionTracker} used by
+ * {@link WearableConnection}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestConnectionTracker {
+
+    private static final long SECOND = TimeUnit.SECONDS.toMillis(1);
+
+    @Test
+    public void testBackoffDoublesAndResets() {
+        ConnectionTracker tracker = new ConnectionTracker();
+        long now = 0;
+        assertTrue(tracker.mayAttempt(now));
+
+        tracker.onFailed(SECOND, 7, now);
+        assertFalse(tracker.mayAttempt(now + 29 * SECOND));
+        assertTrue(tracker.mayAttempt(now + 30 * SECOND));
+
+        now += 30 * SECOND;
+        tracker.onFailed(SECOND, 7, now);
+        assertFalse("The second failure in a row should back off twice as long",
+                tracker.mayAttempt(now + 59 * SECOND));
+        assertTrue(tracker.mayAttempt(now + 60 * SECOND));
+
+        now += 60 * SECOND;
+        tracker.onConnected(3 * SECOND);
+        assertTrue("A successful connection should reset the backoff", tracker.mayAttempt(now));
+
+        assertEquals(3, tracker.getAttempts());
+        assertEquals(2, tracker.getFailures());
+        assertEquals(2, tracker.getSkippedAttempts());
+        assertEquals(5 * SECOND / 3, tracker.getAverageConnectMillis());
+        assertEquals(3 * SECOND, tracker.getMaxConnectMillis());
+    }
+
+    @Test
+    public void testBackoffIsBounded() {
+        ConnectionTracker tracker = new ConnectionTracker();
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            tracker.onFailed(0, 7, now);
+        }
+        assertTrue(tracker.mayAttempt(now + TimeUnit.MINUTES.toMillis(30)));
+    }
+}
@@ -0,0 +1,145 @@
+package com.example;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The text a watch face draws for a point in time, prepared so that asking for it on every frame
+ * allocates nothing.
+ * <p>
+ * The hours and minutes are looked up in tables that are built once. The date only changes once
+ * a day, so it is formatted when the day changes and reused until it does again. The local time
+ * is worked out from the offset of the time zone rather than with a Calendar, since updating a
+ * Calendar allocates.
+ */
+public final class ClockText {
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+    public static final int HOURS_PER_DAY = 24;
+    public static final int MINUTES_PER_HOUR = 60;
+
+    /* "00:" to "23:", indexed by hour of day */
+    private static final String[] HOURS = new String[HOURS_PER_DAY];
+
+    /* "00" to "59", indexed by minute */
+    private static final String[] MINUTES = new String[MINUTES_PER_HOUR];
+
+    static {
+        for (int minute = 0; minute < MINUTES_PER_HOUR; minute++) {
+            MINUTES[minute] = (minute < 10 ? "0" : "") + minute;
+        }
+        for (int hour = 0; hour < HOURS_PER_DAY; hour++) {
+            HOURS[hour] = MINUTES[hour] + ":";
+        }
+    }
+
+    private final SimpleDateFormat mDateFormat;
+
+    private TimeZone mTimeZone;
+
+    private int mHourOfDay;
+    private int mMinute;
+
+    /* The local day the date was formatted for, counted from the epoch */
+    private long mDay = Long.MIN_VALUE;
+    private String mDate;
+
+    /**
+     * @param datePattern The pattern of the date, see {@link SimpleDateFormat}
+     * @param locale      The locale to format the date in
+     * @param timeZone    The time zone to show the time in
+     */
+    public ClockText(String datePattern, Locale locale, TimeZone timeZone) {
+        mDateFormat = new SimpleDateFormat(datePattern, locale);
+        setTimeZone(timeZone);
+    }
+
+    /**
+     * @param timeZone The time zone to show the time in, from now on
+     */
+    public void setTimeZone(TimeZone timeZone) {
+        mTimeZone = timeZone;
+        mDateFormat.setTimeZone(timeZone);
+        /* The same day may have a different date elsewhere */
+        mDay = Long.MIN_VALUE;
+    }
+
+    /**
+     * @param timeMillis The time to show, in milliseconds since the epoch
+     * @return true if the text changed since the previous time, false if it is still the same
+     */
+    public boolean setTime(long timeMillis) {
+        long localMillis = timeMillis + mTimeZone.getOffset(timeMillis);
+        long day = floorDiv(localMillis, MILLIS_PER_DAY);
+        int minuteOfDay = (int) ((localMillis - day * MILLIS_PER_DAY) / MILLIS_PER_MINUTE);
+
+        int hourOfDay = minuteOfDay / MINUTES_PER_HOUR;
+        int minute = minuteOfDay % MINUTES_PER_HOUR;
+        boolean changed = day != mDay || hourOfDay != mHourOfDay || minute != mMinute;
+
+        mHourOfDay = hourOfDay;
+        mMinute = minute;
+        if (day != mDay) {
+            mDay = day;
+            mDate = mDateFormat.format(new Date(timeMillis)).toUpperCase(Locale.getDefault());
+        }
+        return changed;
+    }
+
+    public int getHourOfDay() {
+        return mHourOfDay;
+    }
+
+    public int getMinute() {
+        return mMinute;
+    }
+
+    /**
+     * @return The hour of day followed by a colon, such as "07:"
+     */
+    public String getHour() {
+        return HOURS[mHourOfDay];
+    }
+
+    /**
+     * @return The minute as two digits, such as "05"
+     */
+    public String getMinuteText() {
+        return MINUTES[mMinute];
+    }
+
+    /**
+     * @return The date, in upper case
+     */
+    public String getDate() {
+        return mDate;
+    }
+
+    /**
+     * @param hourOfDay 0 to 23
+     * @return The hour of day followed by a colon, such as "07:"
+     */
+    public static String getHour(int hourOfDay) {
+        return HOURS[hourOfDay];
+    }
+
+    /**
+     * @param minute 0 to 59
+     * @return The minute as two digits, such as "05"
+     */
+    public static String getMinuteText(int minute) {
+        return MINUTES[minute];
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0))) {
+            quotient--;
+        }
+        return quotient;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example;
+
+/**
+ * Keeps track of the attempts to connect to the Wearable API, on the phone and on the watch
+ * alike, and decides when the next attempt may be made.
+ * <p>
+ * After a failed attempt, the next one has to wait {@link #INITIAL_BACKOFF_MILLIS}, doubling with
+ * every consecutive failure up to {@link #MAX_BACKOFF_MILLIS}. That keeps a phone without a
+ * paired watch from trying to connect on every single sync. A successful attempt resets the
+ * backoff.
+ * <p>
+ * The connect latency and failures are counted as well, see {@link #toString()}. Times are
+ * passed in by the caller, so that this class doesn't depend on a clock.
+ */
+public final class ConnectionTracker {
+
+    /* How long a connection attempt may block the calling thread */
+    public static final long CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+
+    static final long INITIAL_BACKOFF_MILLIS = 30 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 30 * 60 * 1000;
+
+    private int mConsecutiveFailures;
+    private long mNextAttemptAtMillis;
+
+    private long mAttempts;
+    private long mFailures;
+    private long mSkippedAttempts;
+    private long mTotalConnectMillis;
+    private long mMaxConnectMillis;
+    private int mLastErrorCode;
+
+    /**
+     * @param nowMillis The current time
+     * @return true if a connection attempt may be made now, false if we are backing off
+     */
+    public synchronized boolean mayAttempt(long nowMillis) {
+        if (nowMillis >= mNextAttemptAtMillis) {
+            return true;
+        }
+        mSkippedAttempts++;
+        return false;
+    }
+
+    /**
+     * @param connectMillis How long the attempt took
+     */
+    public synchronized void onConnected(long connectMillis) {
+        recordAttempt(connectMillis);
+        mConsecutiveFailures = 0;
+        mNextAttemptAtMillis = 0;
+    }
+
+    /**
+     * @param connectMillis How long the attempt took
+     * @param errorCode     The error code of the ConnectionResult
+     * @param nowMillis     The current time
+     */
+    public synchronized void onFailed(long connectMillis, int errorCode, long nowMillis) {
+        recordAttempt(connectMillis);
+        mFailures++;
+        mLastErrorCode = errorCode;
+
+        mConsecutiveFailures++;
+        mNextAttemptAtMillis = nowMillis + getBackoffMillis(mConsecutiveFailures);
+    }
+
+    /**
+     * @param consecutiveFailures The number of attempts in a row that failed, at least 1
+     * @return How long to wait before the next attempt
+     */
+    static long getBackoffMillis(int consecutiveFailures) {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for (int i = 1; i < consecutiveFailures && backoff < MAX_BACKOFF_MILLIS; i++) {
+            backoff *= 2;
+        }
+        return Math.min(backoff, MAX_BACKOFF_MILLIS);
+    }
+
+    private void recordAttempt(long connectMillis) {
+        mAttempts++;
+        mTotalConnectMillis += connectMillis;
+        mMaxConnectMillis = Math.max(mMaxConnectMillis, connectMillis);
+    }
+
+    public synchronized long getAttempts() {
+        return mAttempts;
+    }
+
+    public synchronized long getFailures() {
+        return mFailures;
+    }
+
+    /**
+     * @return The number of times a connection was needed but not attempted, because we were
+     * backing off
+     */
+    public synchronized long getSkippedAttempts() {
+        return mSkippedAttempts;
+    }
+
+    public synchronized long getAverageConnectMillis() {
+        return mAttempts == 0 ? 0 : mTotalConnectMillis / mAttempts;
+    }
+
+    public synchronized long getMaxConnectMillis() {
+        return mMaxConnectMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mAttempts + " connection attempts, " + mFailures + " failed (last error "
+                + mLastErrorCode + "), " + mSkippedAttempts + " skipped while backing off, "
+                + "average connect time " + getAverageConnectMillis() + " ms, max "
+                + mMaxConnectMillis + " ms";
+    }
+}
@@ -1,8 +1,21 @@
 package com.example;
 
 public class Constants {
-    public static final String PATH_WEATHER = "/weather";
-    public static final String KEY_HIGH_TEMP = "high";
-    public static final String KEY_LOW_TEMP = "low";
-    public static final String KEY_BITMAP = "bitmap";
+    /*
+     * The forecast, as one DataItem per day at PATH_FORECAST/<day> holding a WeatherMessage, see
+     * WeatherMessage#getPath. A day is only put again when its weather changed, and removed once
+     * it has passed.
+     */
+    public static final String PATH_FORECAST = "/forecast";
+    public static final String KEY_MESSAGE = "message";
+
+    /* The number of days the phone sends, starting with today */
+    public static final int FORECAST_DAY_COUNT = 5;
+
+    /*
+     * The DataItem holding the weather icons as Assets, keyed by WeatherIcons#getName. It is only
+     * sent when the icon set of the phone changes, the watch bundles its own copy of the icons.
+     */
+    public static final String PATH_WEATHER_ICONS = "/weather-icons";
+    public static final String KEY_ICON_SET_VERSION = "icon_set_version";
 }
@@ -0,0 +1,242 @@
+package com.example;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * Renders everything of the interactive watch face except the time: the background, the date,
+ * today's weather and the forecast strip of the days after today.
+ * <p>
+ * All of it is rendered offscreen into a layer when any of it changes, so that a frame only has
+ * to copy the layer and draw the time on top, see {@link #getLayer(int, int, String)}. The layer
+ * is out of date when the weather, the layout or the size of the face changed, or when the date
+ * it shows isn't the date of the frame anymore. {@link #render(Canvas, int, int, String)} draws
+ * the same content straight onto a canvas.
+ */
+public final class StaticLayerRenderer {
+
+    /* The number of days after today the forecast strip shows, at most */
+    public static final int FORECAST_STRIP_DAYS = 3;
+
+    private final Paint mBackgroundPaint;
+    private final Paint mDatePaint;
+    private final Paint mHighTempPaint;
+    private final Paint mLowTempPaint;
+    private final Paint mForecastPaint;
+    private final Paint mBitmapPaint = new Paint();
+
+    private float mXOffset;
+    private float mYOffset;
+    private float mTimeSize;
+    private float mTemperatureSize;
+    private float mForecastSize;
+
+    private String mHighTemp = "";
+    private String mLowTemp = "";
+    /* Measured whenever the temperature or its size changes rather than on every render */
+    private float mHighTempWidth;
+    private Bitmap mIcon;
+    private final Rect mIconSrcRect = new Rect();
+    private final Rect mIconDstRect = new Rect();
+
+    /* The days after today, as drawn in the forecast strip */
+    private int mForecastDayCount;
+    private final String[] mForecastDayNames = new String[FORECAST_STRIP_DAYS];
+    private final String[] mForecastTemps = new String[FORECAST_STRIP_DAYS];
+    private final Bitmap[] mForecastIcons = new Bitmap[FORECAST_STRIP_DAYS];
+    private final Rect mForecastIconSrcRect = new Rect();
+    private final Rect mForecastIconDstRect = new Rect();
+
+    private Bitmap mLayer;
+    private Canvas mLayerCanvas;
+    private boolean mLayerValid;
+    /* The date the layer shows */
+    private String mLayerDate;
+
+    /**
+     * The paints are owned by the caller, who sets their colors, typefaces and text sizes. Call
+     * {@link #setLayout} whenever a text size changed.
+     *
+     * @param backgroundPaint The paint of the background
+     * @param datePaint       The paint of the date
+     * @param highTempPaint   The paint of today's high temperature
+     * @param lowTempPaint    The paint of today's low temperature
+     * @param forecastPaint   The paint of the forecast strip
+     */
+    public StaticLayerRenderer(Paint backgroundPaint, Paint datePaint, Paint highTempPaint,
+                               Paint lowTempPaint, Paint forecastPaint) {
+        mBackgroundPaint = backgroundPaint;
+        mDatePaint = datePaint;
+        mHighTempPaint = highTempPaint;
+        mLowTempPaint = lowTempPaint;
+        mForecastPaint = forecastPaint;
+    }
+
+    /**
+     * @param xOffset         The margin of the forecast strip on either side
+     * @param yOffset         The baseline of the time, which everything else is laid out below
+     * @param timeSize        The text size of the time
+     * @param temperatureSize The text size of today's temperatures
+     * @param forecastSize    The text size of the forecast strip
+     */
+    public void setLayout(float xOffset, float yOffset, float timeSize, float temperatureSize,
+                          float forecastSize) {
+        mXOffset = xOffset;
+        mYOffset = yOffset;
+        mTimeSize = timeSize;
+        mTemperatureSize = temperatureSize;
+        mForecastSize = forecastSize;
+        mHighTempWidth = mHighTempPaint.measureText(mHighTemp);
+        mLayerValid = false;
+    }
+
+    /**
+     * @param highTemp The high temperature of today, formatted
+     * @param lowTemp  The low temperature of today, formatted
+     * @param icon     The icon of today's weather, or null to draw none
+     */
+    public void setToday(String highTemp, String lowTemp, Bitmap icon) {
+        mHighTemp = highTemp;
+        mLowTemp = lowTemp;
+        mHighTempWidth = mHighTempPaint.measureText(highTemp);
+        mIcon = icon;
+        if (icon != null) {
+            mIconSrcRect.set(0, 0, icon.getWidth(), icon.getHeight());
+        }
+        mLayerValid = false;
+    }
+
+    /**
+     * @param dayCount The number of days after today to show, at most
+     *                 {@link #FORECAST_STRIP_DAYS}. Set each of them with
+     *                 {@link #setForecastDay}.
+     */
+    public void setForecastDayCount(int dayCount) {
+        mForecastDayCount = Math.max(0, Math.min(FORECAST_STRIP_DAYS, dayCount));
+        mLayerValid = false;
+    }
+
+    /**
+     * @param index The day, 0 being tomorrow
+     * @param name  The name of the day
+     * @param temps The high and low temperatures of the day, formatted
+     * @param icon  The icon of the day's weather, or null to draw none
+     */
+    public void setForecastDay(int index, String name, String temps, Bitmap icon) {
+        mForecastDayNames[index] = name;
+        mForecastTemps[index] = temps;
+        mForecastIcons[index] = icon;
+        mLayerValid = false;
+    }
+
+    /**
+     * Returns the layer, rendered again first if it is out of date.
+     *
+     * @param width  The width of the face
+     * @param height The height of the face
+     * @param date   The date of the frame
+     * @return The layer, to be drawn at the top left of the face
+     */
+    public Bitmap getLayer(int width, int height, String date) {
+        if (mLayer == null || mLayer.getWidth() != width || mLayer.getHeight() != height) {
+            recycle();
+            mLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mLayerCanvas = new Canvas(mLayer);
+        }
+
+        if (!mLayerValid || !date.equals(mLayerDate)) {
+            render(mLayerCanvas, width, height, date);
+            mLayerValid = true;
+            mLayerDate = date;
+        }
+        return mLayer;
+    }
+
+    /**
+     * Draws what the layer holds straight onto a canvas.
+     *
+     * @param width  The width of the face
+     * @param height The height of the face
+     * @param date   The date to draw
+     */
+    public void render(Canvas canvas, int width, int height, String date) {
+        float centerX = width / 2;
+
+        canvas.drawRect(0, 0, width, height, mBackgroundPaint);
+
+        //draw date
+        canvas.drawText(date, centerX - mDatePaint.measureText(date) / 2,
+                mYOffset + 3 * mTimeSize / 4, mDatePaint);
+
+        //draw temperature
+        float yPos = mYOffset + 2 * mTimeSize;
+
+        canvas.drawText(mHighTemp, centerX - mHighTempWidth / 2, yPos, mHighTempPaint);
+
+        float highTempSeparator = mHighTempWidth * 3 / 4;
+
+        canvas.drawText(mLowTemp, centerX + highTempSeparator, yPos, mLowTempPaint);
+
+        if (mIcon != null) {
+            float newWidth = (mTimeSize / mIcon.getHeight()) * mIcon.getWidth();
+            mIconDstRect.right = (int) (centerX - highTempSeparator);
+            mIconDstRect.top = (int) (yPos - (2 * mTimeSize / 3));
+            mIconDstRect.bottom = (int) (yPos + mTimeSize / 3);
+            mIconDstRect.left = (int) (centerX - highTempSeparator - newWidth);
+            canvas.drawBitmap(mIcon, mIconSrcRect, mIconDstRect, mBitmapPaint);
+        }
+
+        drawForecastStrip(canvas, width, yPos + mTemperatureSize);
+    }
+
+    /**
+     * Draws the days after today next to each other, each with its name above its icon and
+     * temperatures.
+     *
+     * @param top The baseline of the day names
+     */
+    private void drawForecastStrip(Canvas canvas, int width, float top) {
+        if (mForecastDayCount == 0) return;
+
+        float columnWidth = (width - 2 * mXOffset) / FORECAST_STRIP_DAYS;
+        float left = width / 2 - columnWidth * mForecastDayCount / 2;
+        float lineHeight = mForecastSize * 1.2f;
+
+        for (int i = 0; i < mForecastDayCount; i++) {
+            float columnCenterX = left + columnWidth * (i + 0.5f);
+
+            String dayName = mForecastDayNames[i];
+            canvas.drawText(dayName, columnCenterX - mForecastPaint.measureText(dayName) / 2,
+                    top, mForecastPaint);
+
+            String temps = mForecastTemps[i];
+            float tempsWidth = mForecastPaint.measureText(temps);
+            Bitmap icon = mForecastIcons[i];
+            float iconWidth = icon == null ? 0 : mForecastSize;
+            float x = columnCenterX - (iconWidth + tempsWidth) / 2;
+            float baseline = top + lineHeight;
+
+            if (icon != null) {
+                mForecastIconSrcRect.set(0, 0, icon.getWidth(), icon.getHeight());
+                mForecastIconDstRect.set((int) x, (int) (baseline - mForecastSize),
+                        (int) (x + iconWidth), (int) baseline);
+                canvas.drawBitmap(icon, mForecastIconSrcRect, mForecastIconDstRect, mBitmapPaint);
+            }
+            canvas.drawText(temps, x + iconWidth, baseline, mForecastPaint);
+        }
+    }
+
+    /**
+     * Lets go of the layer. It is created again by the next {@link #getLayer}.
+     */
+    public void recycle() {
+        if (mLayer != null) {
+            mLayer.recycle();
+            mLayer = null;
+            mLayerCanvas = null;
+        }
+        mLayerValid = false;
+    }
+}
@@ -0,0 +1,76 @@
+package com.example;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * Draws the time of a watch face on every frame, from the text of a {@link ClockText} and the
+ * widths of that text measured ahead of time, so that drawing a frame allocates nothing.
+ * <p>
+ * In interactive mode the hour ends and the minute starts at the center. In ambient mode the
+ * hour and the minute are drawn in one paint and centered together.
+ */
+public final class TimeDrawer {
+
+    private final ClockText mClockText;
+
+    private final Paint mHourPaint;
+    private final Paint mMinutePaint;
+    private final Paint mAmbientPaint;
+
+    /* Indexed like ClockText's tables */
+    private final float[] mHourWidths = new float[ClockText.HOURS_PER_DAY];
+    private final float[] mAmbientHourWidths = new float[ClockText.HOURS_PER_DAY];
+    private final float[] mAmbientMinuteWidths = new float[ClockText.MINUTES_PER_HOUR];
+
+    /**
+     * @param clockText    The text to draw, set to the time of the frame by the caller
+     * @param hourPaint    The paint of the hour in interactive mode
+     * @param minutePaint  The paint of the minute in interactive mode
+     * @param ambientPaint The paint of the time in ambient mode
+     */
+    public TimeDrawer(ClockText clockText, Paint hourPaint, Paint minutePaint,
+                      Paint ambientPaint) {
+        mClockText = clockText;
+        mHourPaint = hourPaint;
+        mMinutePaint = minutePaint;
+        mAmbientPaint = ambientPaint;
+        measureText();
+    }
+
+    /**
+     * Measures every hour and minute again. Call this whenever the text size or the typeface of
+     * one of the paints changed. This allocates, so that drawing a frame doesn't have to.
+     */
+    public void measureText() {
+        for (int hour = 0; hour < ClockText.HOURS_PER_DAY; hour++) {
+            mHourWidths[hour] = mHourPaint.measureText(ClockText.getHour(hour));
+            mAmbientHourWidths[hour] = mAmbientPaint.measureText(ClockText.getHour(hour));
+        }
+        for (int minute = 0; minute < ClockText.MINUTES_PER_HOUR; minute++) {
+            mAmbientMinuteWidths[minute] =
+                    mAmbientPaint.measureText(ClockText.getMinuteText(minute));
+        }
+    }
+
+    /**
+     * @param centerX  Where the hour ends and the minute starts
+     * @param baseline The baseline of the time
+     */
+    public void drawInteractive(Canvas canvas, float centerX, float baseline) {
+        canvas.drawText(mClockText.getHour(), centerX - mHourWidths[mClockText.getHourOfDay()],
+                baseline, mHourPaint);
+        canvas.drawText(mClockText.getMinuteText(), centerX, baseline, mMinutePaint);
+    }
+
+    /**
+     * @param centerX  The center of the time
+     * @param baseline The baseline of the time
+     */
+    public void drawAmbient(Canvas canvas, float centerX, float baseline) {
+        float hourWidth = mAmbientHourWidths[mClockText.getHourOfDay()];
+        float x = centerX - (hourWidth + mAmbientMinuteWidths[mClockText.getMinute()]) / 2;
+        canvas.drawText(mClockText.getHour(), x, baseline, mAmbientPaint);
+        canvas.drawText(mClockText.getMinuteText(), x + hourWidth, baseline, mAmbientPaint);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The one Wearable API client of a process, on the phone and on the watch alike. It is created on
+ * first use and kept connected from then on, so that neither the syncs of the app nor the
+ * listener service of the watch face pay for a new connection each time. If the connection is
+ * lost, the next caller reconnects, within {@link ConnectionTracker#CONNECT_TIMEOUT_MILLIS} and
+ * subject to the backoff of {@link ConnectionTracker}.
+ */
+public final class WearableConnection {
+
+    private static final String TAG = WearableConnection.class.getSimpleName();
+
+    private static final ConnectionTracker sTracker = new ConnectionTracker();
+
+    private static GoogleApiClient sClient;
+
+    private WearableConnection() {
+    }
+
+    /**
+     * Returns the connected client, connecting it first if needed. This blocks, so it must not be
+     * called on the main thread.
+     *
+     * @param context Used to create the client
+     * @return The connected client, or null if it couldn't connect or we are backing off
+     */
+    public static synchronized GoogleApiClient connect(Context context) {
+        if (sClient == null) {
+            sClient = new GoogleApiClient.Builder(context.getApplicationContext())
+                    .addApi(Wearable.API)
+                    .build();
+        }
+
+        if (sClient.isConnected()) {
+            return sClient;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        if (!sTracker.mayAttempt(start)) {
+            Log.d(TAG, "Not connecting, backing off. " + sTracker);
+            return null;
+        }
+
+        ConnectionResult result = sClient.blockingConnect(
+                ConnectionTracker.CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        long now = SystemClock.elapsedRealtime();
+        if (result.isSuccess()) {
+            sTracker.onConnected(now - start);
+            Log.d(TAG, "Connected in " + (now - start) + " ms. " + sTracker);
+            return sClient;
+        }
+
+        sTracker.onFailed(now - start, result.getErrorCode(), now);
+        Log.w(TAG, "Couldn't connect: " + result + ". " + sTracker);
+        return null;
+    }
+
+    /**
+     * @return The connection attempts, latencies and failures so far
+     */
+    public static ConnectionTracker getTracker() {
+        return sTracker;
+    }
+}
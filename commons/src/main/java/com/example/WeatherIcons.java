@@ -0,0 +1,86 @@
+package com.example;
+
+/**
+ * The weather icons shared by the phone and the watch. Both bundle the same set of icons, so
+ * the phone only has to tell the watch which one to show, not send the icon itself.
+ * <p>
+ * Whenever an icon is added, removed or redrawn, {@link #ICON_SET_VERSION} must be increased.
+ * A watch that bundles a different version than the phone then uses the icons the phone sends
+ * along at {@link Constants#PATH_WEATHER_ICONS} instead of its own.
+ */
+public final class WeatherIcons {
+
+    public static final int ICON_SET_VERSION = 1;
+
+    public static final int ICON_CLEAR = 0;
+    public static final int ICON_LIGHT_CLOUDS = 1;
+    public static final int ICON_CLOUDS = 2;
+    public static final int ICON_FOG = 3;
+    public static final int ICON_LIGHT_RAIN = 4;
+    public static final int ICON_RAIN = 5;
+    public static final int ICON_SNOW = 6;
+    public static final int ICON_STORM = 7;
+
+    public static final int ICON_COUNT = 8;
+
+    private static final String[] NAMES = {
+            "clear",
+            "light_clouds",
+            "clouds",
+            "fog",
+            "light_rain",
+            "rain",
+            "snow",
+            "storm"
+    };
+
+    private WeatherIcons() {
+    }
+
+    /**
+     * @param icon One of the ICON_ constants
+     * @return A name for the icon, used as the key of its Asset
+     */
+    public static String getName(int icon) {
+        return NAMES[icon];
+    }
+
+    /**
+     * Picks the icon for a weather condition, the same way the phone picks its small icons.
+     *
+     * @param weatherId The weather condition ID returned by OpenWeatherMap
+     * @return One of the ICON_ constants
+     */
+    public static int forWeatherId(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return ICON_STORM;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return ICON_LIGHT_RAIN;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return ICON_RAIN;
+        } else if (weatherId == 511) {
+            return ICON_SNOW;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return ICON_RAIN;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return ICON_SNOW;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return ICON_FOG;
+        } else if (weatherId == 771 || weatherId == 781) {
+            return ICON_STORM;
+        } else if (weatherId == 800) {
+            return ICON_CLEAR;
+        } else if (weatherId == 801) {
+            return ICON_LIGHT_CLOUDS;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return ICON_CLOUDS;
+        } else if (weatherId >= 900 && weatherId <= 906) {
+            return ICON_STORM;
+        } else if (weatherId >= 958 && weatherId <= 962) {
+            return ICON_STORM;
+        } else if (weatherId >= 951 && weatherId <= 957) {
+            return ICON_CLEAR;
+        }
+        return ICON_STORM;
+    }
+}
@@ -0,0 +1,229 @@
+package com.example;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The weather of one day that the phone sends to the watch, encoded in a few bytes instead of a
+ * DataMap with a Base64 encoded bitmap in it. Each day of the forecast is sent as a DataItem of
+ * its own, see {@link Constants#PATH_FORECAST}.
+ * <p>
+ * Layout, big endian:
+ * <pre>
+ *   byte   format version ({@link #FORMAT_VERSION})
+ *   byte   icon set version ({@link WeatherIcons#ICON_SET_VERSION} of the phone)
+ *   short  weather condition ID
+ *   short  high temperature, in tenths of a degree Celsius
+ *   short  low temperature, in tenths of a degree Celsius
+ *   int    day, in days since the epoch (format 2 and up)
+ *   int    sequence number (format 2 and up)
+ *   long   time the message was created, in milliseconds since the epoch
+ * </pre>
+ * The phone gives a day a higher sequence number whenever its weather changes, so the watch can
+ * tell an update from a message it already applied, whatever order they arrive in. Format 1
+ * messages have neither, they read as {@link #NO_DAY} with sequence number 0.
+ * <p>
+ * The watch picks the icon for the weather condition from its own resources, see
+ * {@link WeatherIcons}.
+ */
+public final class WeatherMessage {
+
+    public static final int FORMAT_VERSION = 2;
+
+    public static final int SIZE_BYTES = 1 + 1 + 2 + 2 + 2 + 4 + 4 + 8;
+
+    /* The day of a message that doesn't know which day it is for */
+    public static final int NO_DAY = -1;
+
+    private static final int FORMAT_VERSION_WITHOUT_DAY = 1;
+
+    /* Temperatures are sent in tenths of a degree */
+    private static final double TEMPERATURE_SCALE = 10;
+
+    private final int mIconSetVersion;
+    private final int mWeatherId;
+    private final short mHighTemperature;
+    private final short mLowTemperature;
+    private final int mDay;
+    private final int mSequence;
+    private final long mTimestamp;
+
+    private WeatherMessage(int iconSetVersion, int weatherId, short highTemperature,
+                           short lowTemperature, int day, int sequence, long timestamp) {
+        mIconSetVersion = iconSetVersion;
+        mWeatherId = weatherId;
+        mHighTemperature = highTemperature;
+        mLowTemperature = lowTemperature;
+        mDay = day;
+        mSequence = sequence;
+        mTimestamp = timestamp;
+    }
+
+    /**
+     * @param weatherId       The weather condition ID returned by OpenWeatherMap
+     * @param highTemperature The high temperature, in degrees Celsius
+     * @param lowTemperature  The low temperature, in degrees Celsius
+     * @param timestamp       The time the message is created, in milliseconds since the epoch
+     * @return A message for the weather of no day in particular, using the icon set of this build
+     */
+    public static WeatherMessage create(int weatherId, double highTemperature,
+                                        double lowTemperature, long timestamp) {
+        return create(NO_DAY, 0, weatherId, highTemperature, lowTemperature, timestamp);
+    }
+
+    /**
+     * @param day             The day, in days since the epoch
+     * @param sequence        Higher than the sequence number of the last message for the day, if
+     *                        the weather of the day changed since
+     * @param weatherId       The weather condition ID returned by OpenWeatherMap
+     * @param highTemperature The high temperature, in degrees Celsius
+     * @param lowTemperature  The low temperature, in degrees Celsius
+     * @param timestamp       The time the message is created, in milliseconds since the epoch
+     * @return A message for the weather of the day, using the icon set of this build
+     */
+    public static WeatherMessage create(int day, int sequence, int weatherId,
+                                        double highTemperature, double lowTemperature,
+                                        long timestamp) {
+        return new WeatherMessage(WeatherIcons.ICON_SET_VERSION, weatherId,
+                quantize(highTemperature), quantize(lowTemperature), day, sequence, timestamp);
+    }
+
+    /**
+     * @param bytes The bytes returned by {@link #toBytes()}
+     * @return The message
+     * @throws IllegalArgumentException If the bytes aren't a message this version understands
+     */
+    public static WeatherMessage fromBytes(byte[] bytes) {
+        if (bytes == null) {
+            throw new IllegalArgumentException("No message");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            int formatVersion = buffer.get();
+            if (formatVersion != FORMAT_VERSION && formatVersion != FORMAT_VERSION_WITHOUT_DAY) {
+                throw new IllegalArgumentException("Unknown message format " + formatVersion);
+            }
+            int iconSetVersion = buffer.get();
+            int weatherId = buffer.getShort();
+            short highTemperature = buffer.getShort();
+            short lowTemperature = buffer.getShort();
+            int day = NO_DAY;
+            int sequence = 0;
+            if (formatVersion != FORMAT_VERSION_WITHOUT_DAY) {
+                day = buffer.getInt();
+                sequence = buffer.getInt();
+            }
+            long timestamp = buffer.getLong();
+            return new WeatherMessage(iconSetVersion, weatherId, highTemperature,
+                    lowTemperature, day, sequence, timestamp);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Message too short: " + bytes.length + " bytes");
+        }
+    }
+
+    public byte[] toBytes() {
+        return ByteBuffer.allocate(SIZE_BYTES)
+                .put((byte) FORMAT_VERSION)
+                .put((byte) mIconSetVersion)
+                .putShort((short) mWeatherId)
+                .putShort(mHighTemperature)
+                .putShort(mLowTemperature)
+                .putInt(mDay)
+                .putInt(mSequence)
+                .putLong(mTimestamp)
+                .array();
+    }
+
+    public int getIconSetVersion() {
+        return mIconSetVersion;
+    }
+
+    public int getWeatherId() {
+        return mWeatherId;
+    }
+
+    /**
+     * @return The high temperature, in degrees Celsius
+     */
+    public double getHighTemperature() {
+        return mHighTemperature / TEMPERATURE_SCALE;
+    }
+
+    /**
+     * @return The low temperature, in degrees Celsius
+     */
+    public double getLowTemperature() {
+        return mLowTemperature / TEMPERATURE_SCALE;
+    }
+
+    /**
+     * @return The day, in days since the epoch, or {@link #NO_DAY}
+     */
+    public int getDay() {
+        return mDay;
+    }
+
+    /**
+     * @return The sequence number of the weather of the day
+     */
+    public int getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * @return The path of the DataItem the message is sent in
+     */
+    public String getPath() {
+        return Constants.PATH_FORECAST + "/" + mDay;
+    }
+
+    /**
+     * @param message A message for the same day
+     * @return true if this message is newer than the other one
+     */
+    public boolean supersedes(WeatherMessage message) {
+        return mSequence > message.mSequence;
+    }
+
+    /**
+     * @return The time the message was created, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Compares everything but the sequence number and the timestamp, so that the phone can tell
+     * whether the watch already shows this weather.
+     *
+     * @param other Another message, may be null
+     * @return true if both messages describe the same weather
+     */
+    public boolean isSameWeatherAs(WeatherMessage other) {
+        return other != null
+                && mIconSetVersion == other.mIconSetVersion
+                && mDay == other.mDay
+                && mWeatherId == other.mWeatherId
+                && mHighTemperature == other.mHighTemperature
+                && mLowTemperature == other.mLowTemperature;
+    }
+
+    /**
+     * Packs everything {@link #isSameWeatherAs(WeatherMessage)} compares but the day into a single
+     * number, so that the phone can remember what it sent without keeping the messages. Two
+     * messages for the same day have the same key exactly when they describe the same weather.
+     *
+     * @return The icon set version, the weather condition ID and both temperatures, as one number
+     */
+    public long getWeatherKey() {
+        return (long) (mIconSetVersion & 0xff) << 48
+                | (long) (mWeatherId & 0xffff) << 32
+                | (long) (mHighTemperature & 0xffff) << 16
+                | (mLowTemperature & 0xffff);
+    }
+
+    private static short quantize(double temperature) {
+        long scaled = Math.round(temperature * TEMPERATURE_SCALE);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, scaled));
+    }
+}
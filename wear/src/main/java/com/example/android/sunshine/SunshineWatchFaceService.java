@@ -22,7 +22,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -32,17 +31,22 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.content.LocalBroadcastManager;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.util.Base64;
+import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.ClockText;
+import com.example.StaticLayerRenderer;
+import com.example.TimeDrawer;
+import com.example.WeatherMessage;
 import com.example.android.R;
 
 import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
@@ -53,6 +57,8 @@ import java.util.concurrent.TimeUnit;
  */
 public class SunshineWatchFaceService extends CanvasWatchFaceService {
 
+    private static final String TAG = SunshineWatchFaceService.class.getSimpleName();
+
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
      * displayed in interactive mode.
@@ -90,19 +96,21 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
     }
 
     private class Engine extends CanvasWatchFaceService.Engine {
-        final String FORMAT_AMBIENT = "%02d:%02d";
-        final String FORMAT_HOUR = "%02d:";
-        final String FORMAT_MINUTE = "%02d";
+        final String FORMAT_DATE = "EEE, dd MMM yyyy";
         final String FORMAT_TEMPERATURE = "%d°";
+        final String FORMAT_FORECAST_TEMPERATURES = "%d°/%d°";
+        final String FORMAT_FORECAST_DAY = "EEE";
 
         final Handler mUpdateTimeHandler = new EngineHandler(this);
 
-        Paint mBitmapPaint;
         Paint mBackgroundPaint;
         Paint mTextPaintBold;
         Paint mTextPaintNormal;
         Paint mTextPaintSecondary;
         Paint mTextPaintAmbient;
+        Paint mTemperaturePaintBold;
+        Paint mTemperaturePaintSecondary;
+        Paint mForecastPaint;
 
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
@@ -112,13 +120,22 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         boolean mAmbient;
         boolean mRegisteredTimeZoneReceiver = false;
 
-        Calendar mCalendar;
-        SimpleDateFormat mSimpleDateFormat;
+        ClockText mClockText;
+        TimeDrawer mTimeDrawer;
 
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mClockText.setTimeZone(TimeZone.getDefault());
+                invalidate();
+            }
+        };
+
+        /* Registered for as long as the engine exists, as the weather may arrive at any time */
+        final BroadcastReceiver mWeatherReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                updateWeather();
                 invalidate();
             }
         };
@@ -129,14 +146,22 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         float mTimeSize;
         float mDateSize;
         float mTemperatureSize;
+        float mForecastSize;
 
-        String mLowTemp;
-        String mHighTemp;
-        Bitmap mWeatherIcon;
-        Rect mBitmapSrcRect = new Rect();
-        Rect mBitmapDstRect = new Rect();
+        /*
+         * Everything of the interactive face except the time: the background, the date and the
+         * weather, rendered offscreen when any of that changes. In ambient mode the face is the
+         * time on black, so there is nothing to render ahead of time.
+         */
+        StaticLayerRenderer mStaticLayer;
+        /* The date the weather was last read on */
+        String mWeatherDate;
 
-        PreferencesWrapper mPreferencesWrapper;
+        /*
+         * When the watch face last woke up, by becoming visible or leaving ambient mode, until the
+         * first frame after it is drawn. 0 when there is nothing to measure.
+         */
+        long mWakeStartNanos;
 
         @Override
         public void onCreate(SurfaceHolder holder) {
@@ -159,30 +184,70 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             mTextPaintSecondary = createTextPaint(R.color.textColorSecondary, Typeface.DEFAULT);
             mTextPaintAmbient = createTextPaint(R.color.textColorPrimary, Typeface.MONOSPACE);
             mTextPaintAmbient.setStyle(Paint.Style.STROKE);
+            mTemperaturePaintBold = createTextPaint(R.color.textColorPrimary, Typeface.DEFAULT_BOLD);
+            mTemperaturePaintSecondary = createTextPaint(R.color.textColorSecondary, Typeface.DEFAULT);
+            mForecastPaint = createTextPaint(R.color.textColorSecondary, Typeface.DEFAULT);
 
-            mCalendar = Calendar.getInstance();
-            mSimpleDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy", Locale.getDefault());
+            mClockText = new ClockText(FORMAT_DATE, Locale.getDefault(), TimeZone.getDefault());
+            mTimeDrawer = new TimeDrawer(mClockText, mTextPaintBold, mTextPaintNormal,
+                    mTextPaintAmbient);
 
-            mBitmapPaint = new Paint();
-            mPreferencesWrapper = new PreferencesWrapper(getApplicationContext());
+            mStaticLayer = new StaticLayerRenderer(mBackgroundPaint, mTextPaintSecondary,
+                    mTemperaturePaintBold, mTemperaturePaintSecondary, mForecastPaint);
             updateWeather();
+
+            LocalBroadcastManager.getInstance(getApplicationContext()).registerReceiver(
+                    mWeatherReceiver,
+                    new IntentFilter(WeatherListenerService.ACTION_UPDATE_RECEIVED));
         }
 
         private void updateWeather() {
-            //http://stackoverflow.com/questions/19556433/saving-byte-array-using-sharedpreferences
-            String icon = mPreferencesWrapper.getWeatherIcon();
-            if (icon != null) {
-                byte[] array = Base64.decode(icon, Base64.DEFAULT);
-                mWeatherIcon = BitmapFactory.decodeByteArray(array, 0, array.length);
-                mBitmapSrcRect.set(0, 0, mWeatherIcon.getWidth(), mWeatherIcon.getHeight());
+            long start = System.nanoTime();
+
+            WeatherStore.Forecast forecast = WeatherStore.read(getApplicationContext());
+            WeatherMessage today = forecast.getToday();
+
+            // the icon is stored decoded along with the weather, loading it is only a fallback
+            Bitmap icon = forecast.getTodayIcon();
+            if (icon == null && today != null) {
+                icon = WeatherIconLoader.load(getApplicationContext(),
+                        today.getWeatherId(), today.getIconSetVersion());
+            }
+
+            int high = today == null ? 0 : (int) Math.round(today.getHighTemperature());
+            int low = today == null ? 0 : (int) Math.round(today.getLowTemperature());
+            mStaticLayer.setToday(String.format(Locale.getDefault(), FORMAT_TEMPERATURE, high),
+                    String.format(Locale.getDefault(), FORMAT_TEMPERATURE, low), icon);
+
+            // the days after today, named in the time zone the phone numbers the days in
+            SimpleDateFormat dayFormat = new SimpleDateFormat(FORMAT_FORECAST_DAY, Locale.getDefault());
+            dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            int first = today == null ? 0 : 1;
+            int forecastDayCount = Math.max(0, Math.min(StaticLayerRenderer.FORECAST_STRIP_DAYS,
+                    forecast.getDayCount() - first));
+            mStaticLayer.setForecastDayCount(forecastDayCount);
+            for (int i = 0; i < forecastDayCount; i++) {
+                WeatherMessage day = forecast.getDay(first + i);
+                mStaticLayer.setForecastDay(i,
+                        dayFormat.format(new Date(TimeUnit.DAYS.toMillis(day.getDay())))
+                                .toUpperCase(Locale.getDefault()),
+                        String.format(Locale.getDefault(), FORMAT_FORECAST_TEMPERATURES,
+                                (int) Math.round(day.getHighTemperature()),
+                                (int) Math.round(day.getLowTemperature())),
+                        WeatherIconLoader.load(getApplicationContext(),
+                                day.getWeatherId(), day.getIconSetVersion()));
             }
-            mHighTemp = String.format(Locale.getDefault(), FORMAT_TEMPERATURE, mPreferencesWrapper.getHighTemperature());
-            mLowTemp = String.format(Locale.getDefault(), FORMAT_TEMPERATURE, mPreferencesWrapper.getLowTemperature());
+
+            Log.d(TAG, "Weather of " + forecast.getDayCount() + " days read in "
+                    + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) + " us");
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            LocalBroadcastManager.getInstance(getApplicationContext())
+                    .unregisterReceiver(mWeatherReceiver);
+            mStaticLayer.recycle();
             super.onDestroy();
         }
 
@@ -199,10 +264,11 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             super.onVisibilityChanged(visible);
 
             if (visible) {
+                mWakeStartNanos = System.nanoTime();
                 registerReceiver();
 
                 // Update time zone in case it changed while we weren't visible.
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mClockText.setTimeZone(TimeZone.getDefault());
                 invalidate();
             } else {
                 unregisterReceiver();
@@ -249,7 +315,27 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             mTemperatureSize = resources.getDimension(isRound
                     ? R.dimen.text_size_temperature_round : R.dimen.text_size_temperature);
 
+            mForecastSize = resources.getDimension(isRound
+                    ? R.dimen.text_size_forecast_round : R.dimen.text_size_forecast);
+
             mTextPaintAmbient.setTextSize(mTimeSize);
+            mTextPaintBold.setTextSize(mTimeSize);
+            mTextPaintNormal.setTextSize(mTimeSize);
+            mTextPaintSecondary.setTextSize(mDateSize);
+            mTemperaturePaintBold.setTextSize(mTemperatureSize);
+            mTemperaturePaintSecondary.setTextSize(mTemperatureSize);
+            mForecastPaint.setTextSize(mForecastSize);
+            measureText();
+        }
+
+        /**
+         * Measures the text that onDraw draws, after the text sizes changed. This allocates, so
+         * that drawing a frame doesn't have to.
+         */
+        private void measureText() {
+            mTimeDrawer.measureText();
+            mStaticLayer.setLayout(mXOffset, mYOffset, mTimeSize, mTemperatureSize,
+                    mForecastSize);
         }
 
         @Override
@@ -269,6 +355,9 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
+                if (!inAmbientMode) {
+                    mWakeStartNanos = System.nanoTime();
+                }
                 if (mLowBitAmbient) {
                     mTextPaintAmbient.setAntiAlias(!inAmbientMode);
                 }
@@ -283,62 +372,32 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-            }
-
-            long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
+            mClockText.setTime(System.currentTimeMillis());
 
             float centerX = canvas.getWidth() / 2;
-            //    canvas.drawLine(centerX - 2, 0, centerX + 2, canvas.getHeight(), mTextPaintBold);
 
             if (mAmbient) {
-                String text = String.format(Locale.getDefault(), FORMAT_AMBIENT, mCalendar.get(Calendar.HOUR_OF_DAY),
-                        mCalendar.get(Calendar.MINUTE));
-                float measuredText = mTextPaintAmbient.measureText(text);
-                float yPos = (canvas.getHeight() - mTimeSize) / 2;
-                canvas.drawText(text, centerX - measuredText / 2, yPos, mTextPaintAmbient);
+                canvas.drawColor(Color.BLACK);
+                mTimeDrawer.drawAmbient(canvas, centerX, (canvas.getHeight() - mTimeSize) / 2);
             } else {
-                //draw hour
-                String hour = String.format(Locale.getDefault(), FORMAT_HOUR, mCalendar.get(Calendar.HOUR_OF_DAY));
-                mTextPaintBold.setTextSize(mTimeSize);
-                float measuredHourText = mTextPaintBold.measureText(hour);
-                canvas.drawText(hour, centerX - measuredHourText, mYOffset, mTextPaintBold);
-
-                //draw minute
-                String minute = String.format(Locale.getDefault(), FORMAT_MINUTE, mCalendar.get(Calendar.MINUTE));
-                mTextPaintNormal.setTextSize(mTimeSize);
-                canvas.drawText(minute, centerX, mYOffset, mTextPaintNormal);
-
-                //draw date
-                String date = mSimpleDateFormat.format(mCalendar.getTime()).toUpperCase();
-                mTextPaintSecondary.setTextSize(mDateSize);
-                float measuredDateText = mTextPaintSecondary.measureText(date);
-                canvas.drawText(date, centerX - measuredDateText / 2,
-                        mYOffset + 3 * mTimeSize / 4, mTextPaintSecondary);
-
-                //draw temperature
-                float yPos = mYOffset + 2 * mTimeSize;
-
-                mTextPaintBold.setTextSize(mTemperatureSize);
-                float measuredHighTempText = mTextPaintBold.measureText(mHighTemp);
-                canvas.drawText(mHighTemp, centerX - measuredHighTempText / 2, yPos, mTextPaintBold);
-
-                float highTempSeparator = measuredHighTempText * 3 / 4;
-
-                mTextPaintSecondary.setTextSize(mTemperatureSize);
-                canvas.drawText(mLowTemp, centerX + highTempSeparator, yPos, mTextPaintSecondary);
-
-                float newWidth = (mTimeSize / mWeatherIcon.getHeight()) * mWeatherIcon.getWidth();
-                mBitmapDstRect.right = (int) (centerX - highTempSeparator);
-                mBitmapDstRect.top = (int) (yPos - (2 * mTimeSize / 3));
-                mBitmapDstRect.bottom = (int) (yPos + mTimeSize / 3);
-                mBitmapDstRect.left = (int) (centerX - highTempSeparator - newWidth);
-                canvas.drawBitmap(mWeatherIcon, mBitmapSrcRect, mBitmapDstRect, mBitmapPaint);
+                // Draw the background, the date and the weather.
+                String date = mClockText.getDate();
+                if (mWeatherDate != null && !date.equals(mWeatherDate)) {
+                    // a new day, so yesterday's tomorrow is today now
+                    updateWeather();
+                }
+                mWeatherDate = date;
+                canvas.drawBitmap(mStaticLayer.getLayer(canvas.getWidth(), canvas.getHeight(),
+                        date), 0, 0, null);
+
+                mTimeDrawer.drawInteractive(canvas, centerX, mYOffset);
+            }
+
+            if (mWakeStartNanos != 0) {
+                Log.d(TAG, "First frame drawn "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mWakeStartNanos)
+                        + " ms after waking up");
+                mWakeStartNanos = 0;
             }
         }
 
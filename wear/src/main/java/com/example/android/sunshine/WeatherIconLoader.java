@@ -0,0 +1,131 @@
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.WeatherIcons;
+import com.example.android.R;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Loads the weather icons. The watch bundles the same icons as the phone, see
+ * {@link WeatherIcons}. Only if the phone uses a different icon set are the icons it sent along
+ * used instead, once they have been stored with {@link #saveIcon}.
+ */
+public final class WeatherIconLoader {
+
+    private static final String TAG = WeatherIconLoader.class.getSimpleName();
+
+    private static final String ICON_DIRECTORY = "weather-icons";
+
+    /* The bundled copy of each icon of WeatherIcons, indexed by icon */
+    private static final int[] ICON_RESOURCES = {
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy,
+            R.drawable.ic_fog,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_storm
+    };
+
+    /*
+     * The decoded icons of one icon set, so that showing the same weather again doesn't decode
+     * anything. The forecast strip of the watch face shows several icons at once.
+     */
+    private static final LruCache<String, Bitmap> sBitmapCache =
+            new LruCache<>(WeatherIcons.ICON_COUNT);
+
+    private WeatherIconLoader() {
+    }
+
+    /**
+     * @param context        Used to access the resources and files
+     * @param weatherId      The weather condition ID returned by OpenWeatherMap
+     * @param iconSetVersion The icon set version of the phone that sent the weather
+     * @return The icon, or null if weatherId is -1
+     */
+    public static Bitmap load(Context context, int weatherId, int iconSetVersion) {
+        if (weatherId == -1) return null;
+
+        int icon = WeatherIcons.forWeatherId(weatherId);
+
+        /* The watch face asks again on every switch to and from ambient mode */
+        String key = iconSetVersion + "/" + icon;
+        Bitmap bitmap = sBitmapCache.get(key);
+        if (bitmap == null) {
+            bitmap = decode(context, icon, iconSetVersion);
+            if (bitmap != null) {
+                sBitmapCache.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    private static Bitmap decode(Context context, int icon, int iconSetVersion) {
+        if (iconSetVersion != WeatherIcons.ICON_SET_VERSION) {
+            File iconFile = getIconFile(context, iconSetVersion, icon);
+            if (iconFile.exists()) {
+                Bitmap bitmap = BitmapFactory.decodeFile(iconFile.getPath());
+                if (bitmap != null) return bitmap;
+            }
+            Log.w(TAG, "No icon " + WeatherIcons.getName(icon) + " for icon set "
+                    + iconSetVersion + ", using the bundled one");
+        }
+
+        return BitmapFactory.decodeResource(context.getResources(), ICON_RESOURCES[icon]);
+    }
+
+    /**
+     * Stores an icon sent by the phone.
+     *
+     * @param context        Used to access the files
+     * @param iconSetVersion The icon set the icon belongs to
+     * @param icon           One of the ICON_ constants of {@link WeatherIcons}
+     * @param png            The icon
+     * @throws IOException If the icon couldn't be stored
+     */
+    public static void saveIcon(Context context, int iconSetVersion, int icon, InputStream png)
+            throws IOException {
+        File iconFile = getIconFile(context, iconSetVersion, icon);
+        File directory = iconFile.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create " + directory);
+        }
+
+        /* Written next to the icon first, so that a failed write never leaves half an icon */
+        File partialFile = new File(directory, iconFile.getName() + ".partial");
+        OutputStream out = new FileOutputStream(partialFile);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = png.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!partialFile.renameTo(iconFile)) {
+            throw new IOException("Couldn't store " + iconFile);
+        }
+
+        /* The bundled icon may have been cached while this one was missing */
+        sBitmapCache.remove(iconSetVersion + "/" + icon);
+    }
+
+    private static File getIconFile(Context context, int iconSetVersion, int icon) {
+        File directory = new File(new File(context.getFilesDir(), ICON_DIRECTORY),
+                Integer.toString(iconSetVersion));
+        return new File(directory, WeatherIcons.getName(icon) + ".png");
+    }
+}
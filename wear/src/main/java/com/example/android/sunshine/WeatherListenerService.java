@@ -1,9 +1,16 @@
 package com.example.android.sunshine;
 
+import android.content.Intent;
 import android.net.Uri;
+import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
 
-import com.google.android.gms.common.ConnectionResult;
+import com.example.WeatherIcons;
+import com.example.WeatherMessage;
+import com.example.WearableConnection;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
@@ -12,51 +19,126 @@ import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
-import static com.example.Constants.KEY_BITMAP;
-import static com.example.Constants.KEY_HIGH_TEMP;
-import static com.example.Constants.KEY_LOW_TEMP;
-import static com.example.Constants.PATH_WEATHER;
+import static com.example.Constants.KEY_ICON_SET_VERSION;
+import static com.example.Constants.KEY_MESSAGE;
+import static com.example.Constants.PATH_FORECAST;
+import static com.example.Constants.PATH_WEATHER_ICONS;
 
 public class WeatherListenerService extends WearableListenerService {
 
-    public static final String ACTION_UPDATE_RECEIVED = "update_received";
-    private GoogleApiClient mGoogleApiClient;
+    private static final String TAG = WeatherListenerService.class.getSimpleName();
 
-    @Override
-    public void onCreate() {
-        super.onCreate();
-        mGoogleApiClient = new GoogleApiClient.Builder(this)
-                .addApi(Wearable.API)
-                .build();
-        mGoogleApiClient.connect();
-    }
+    /**
+     * Broadcast locally whenever the stored forecast or its icons changed, so that a running watch
+     * face reads them again rather than waiting for its next wake up.
+     */
+    public static final String ACTION_UPDATE_RECEIVED = "update_received";
 
     @Override
     public void onDataChanged(DataEventBuffer dataEvents) {
-        if (!mGoogleApiClient.isConnected() || !mGoogleApiClient.isConnecting()) {
-            ConnectionResult connectionResult = mGoogleApiClient
-                    .blockingConnect(30, TimeUnit.SECONDS);
-            if (!connectionResult.isSuccess()) {
-                return;
-            }
-        }
-        PreferencesWrapper preferencesWrapper = new PreferencesWrapper(getApplicationContext());
+        List<WeatherMessage> changedDays = new ArrayList<>();
+        List<Integer> removedDays = new ArrayList<>();
+        int receivedBytes = 0;
+
         for (DataEvent event : dataEvents) {
             DataItem dataItem = event.getDataItem();
             Uri uri = dataItem.getUri();
             String path = uri.getPath();
-            if (PATH_WEATHER.equals(path)) {
-                DataMapItem dataMapItem = DataMapItem.fromDataItem(dataItem);
-                DataMap config = dataMapItem.getDataMap();
-                double lowTemp = config.getDouble(KEY_LOW_TEMP);
-                double highTemp = config.getDouble(KEY_HIGH_TEMP);
-                String icon = config.getString(KEY_BITMAP);
-                preferencesWrapper.saveHighTemperature((int) highTemp);
-                preferencesWrapper.saveLowTemperature((int) lowTemp);
-                preferencesWrapper.saveWeatherIcon(icon);
+            if (path.startsWith(PATH_FORECAST + "/")) {
+                if (event.getType() == DataEvent.TYPE_DELETED) {
+                    try {
+                        removedDays.add(Integer.parseInt(uri.getLastPathSegment()));
+                    } catch (NumberFormatException e) {
+                        Log.e(TAG, "Ignoring removal of " + path);
+                    }
+                    continue;
+                }
+
+                DataMap config = DataMapItem.fromDataItem(dataItem).getDataMap();
+                WeatherMessage message;
+                try {
+                    message = WeatherMessage.fromBytes(config.getByteArray(KEY_MESSAGE));
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Ignoring weather update", e);
+                    continue;
+                }
+                changedDays.add(message);
+                receivedBytes += dataItem.getData().length;
+
+                /* The phone and watch clocks are kept in sync, so this is the end-to-end latency */
+                long latencyMillis = System.currentTimeMillis() - message.getTimestamp();
+                Log.d(TAG, "Weather of day " + message.getDay() + " received "
+                        + latencyMillis + " ms after it was sent");
+            } else if (PATH_WEATHER_ICONS.equals(path)) {
+                /* Only fetching the icon Assets needs a connection, the weather itself doesn't */
+                GoogleApiClient googleApiClient = WearableConnection.connect(this);
+                if (googleApiClient != null) {
+                    saveIcons(googleApiClient, DataMapItem.fromDataItem(dataItem).getDataMap());
+                }
+            }
+        }
+
+        if (changedDays.isEmpty() && removedDays.isEmpty()) return;
+
+        boolean changed = WeatherStore.update(this, changedDays, removedDays);
+        Log.d(TAG, changedDays.size() + " days in " + receivedBytes + " bytes and "
+                + removedDays.size() + " removed days received, forecast "
+                + (changed ? "updated" : "unchanged"));
+        if (changed) {
+            notifyUpdateReceived();
+        }
+    }
+
+    private void notifyUpdateReceived() {
+        LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(ACTION_UPDATE_RECEIVED));
+    }
+
+    /**
+     * Stores the icons sent by the phone, unless they are the ones we bundle anyway.
+     */
+    private void saveIcons(GoogleApiClient googleApiClient, DataMap icons) {
+        int iconSetVersion = icons.getInt(KEY_ICON_SET_VERSION);
+        if (iconSetVersion == WeatherIcons.ICON_SET_VERSION) {
+            return;
+        }
+
+        boolean saved = false;
+        for (int icon = 0; icon < WeatherIcons.ICON_COUNT; icon++) {
+            Asset asset = icons.getAsset(WeatherIcons.getName(icon));
+            if (asset == null) {
+                continue;
             }
+
+            DataApi.GetFdForAssetResult result = Wearable.DataApi
+                    .getFdForAsset(googleApiClient, asset)
+                    .await(30, TimeUnit.SECONDS);
+            InputStream png = result.getInputStream();
+            if (png == null) {
+                Log.e(TAG, "Couldn't fetch icon " + WeatherIcons.getName(icon));
+                result.release();
+                continue;
+            }
+
+            try {
+                WeatherIconLoader.saveIcon(this, iconSetVersion, icon, png);
+                saved = true;
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't store icon " + WeatherIcons.getName(icon), e);
+            } finally {
+                result.release();
+            }
+        }
+
+        /* The weather may have arrived first, with the bundled icon standing in */
+        if (saved) {
+            WeatherStore.refreshIcon(this);
+            notifyUpdateReceived();
         }
     }
 
@@ -0,0 +1,307 @@
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.example.WeatherIcons;
+import com.example.WeatherMessage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latest forecast received from the phone, stored in a small binary file next to the decoded
+ * pixels of today's icon. Reading it maps the file instead of parsing XML, and the icon can be
+ * drawn without decoding a PNG, which matters because the watch face reads it every time it
+ * wakes up.
+ * <p>
+ * Layout, big endian:
+ * <pre>
+ *   int    magic ({@link #MAGIC})
+ *   int    number of days
+ *   int    icon key, see {@link #getIconKey}, or -1 if there are no icon pixels
+ *   int    icon width
+ *   int    icon height
+ *   days   one {@link WeatherMessage} per day, in order
+ *   pixels the icon, ARGB_8888
+ * </pre>
+ * The file is replaced as a whole, by writing a new file and renaming it over the old one, so a
+ * reader never sees half a forecast.
+ */
+public final class WeatherStore {
+
+    private static final String TAG = WeatherStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "weather.bin";
+
+    /* "SWS" and a version number, which changes with the size of a WeatherMessage */
+    private static final int MAGIC = 0x53575302;
+
+    private static final int HEADER_BYTES = 5 * 4;
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static final Object sWriteLock = new Object();
+
+    private WeatherStore() {
+    }
+
+    /**
+     * A forecast read from the store, starting with today.
+     */
+    public static final class Forecast {
+
+        private final List<WeatherMessage> mDays;
+        private final int mIconKey;
+        private final Bitmap mIcon;
+
+        Forecast(List<WeatherMessage> days, int iconKey, Bitmap icon) {
+            mDays = days;
+            mIconKey = iconKey;
+            mIcon = icon;
+        }
+
+        public int getDayCount() {
+            return mDays.size();
+        }
+
+        /**
+         * @param index 0 for today, or the first day after it the forecast has, 1 for the day
+         *              after that and so on
+         */
+        public WeatherMessage getDay(int index) {
+            return mDays.get(index);
+        }
+
+        /**
+         * @return Today's weather, or null if there is no weather for today
+         */
+        public WeatherMessage getToday() {
+            if (mDays.isEmpty()) return null;
+            WeatherMessage first = mDays.get(0);
+            return first.getDay() == getLocalDay(System.currentTimeMillis()) ? first : null;
+        }
+
+        /**
+         * @return Today's icon, or null if it wasn't stored along with the forecast
+         */
+        public Bitmap getTodayIcon() {
+            WeatherMessage today = getToday();
+            return today != null && mIconKey == getIconKey(today) ? mIcon : null;
+        }
+    }
+
+    /**
+     * @param message The weather of a day
+     * @return A key for the icon of the day, which differs between icon sets
+     */
+    static int getIconKey(WeatherMessage message) {
+        return (message.getIconSetVersion() << 8) | WeatherIcons.forWeatherId(message.getWeatherId());
+    }
+
+    /**
+     * @param timeMillis A time, in milliseconds since the epoch
+     * @return The local day of the time, in days since the epoch, as the phone numbers the days of
+     * the forecast
+     */
+    static int getLocalDay(long timeMillis) {
+        return (int) TimeUnit.MILLISECONDS.toDays(
+                timeMillis + TimeZone.getDefault().getOffset(timeMillis));
+    }
+
+    /**
+     * Reads the forecast, from today on. Never fails: a missing or damaged store reads as an empty
+     * forecast.
+     *
+     * @param context Used to find the file
+     * @return The forecast
+     */
+    public static Forecast read(Context context) {
+        File file = getFile(context);
+        if (!file.exists()) {
+            return new Forecast(Collections.<WeatherMessage>emptyList(), -1, null);
+        }
+
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                MappedByteBuffer buffer =
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return parse(buffer);
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Couldn't read " + file, e);
+            return new Forecast(Collections.<WeatherMessage>emptyList(), -1, null);
+        }
+    }
+
+    private static Forecast parse(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a weather store");
+        }
+        int dayCount = buffer.getInt();
+        int iconKey = buffer.getInt();
+        int iconWidth = buffer.getInt();
+        int iconHeight = buffer.getInt();
+
+        /* The days that have passed are still stored until the next update */
+        int today = getLocalDay(System.currentTimeMillis());
+        List<WeatherMessage> days = new ArrayList<>(dayCount);
+        byte[] bytes = new byte[WeatherMessage.SIZE_BYTES];
+        for (int day = 0; day < dayCount; day++) {
+            buffer.get(bytes);
+            WeatherMessage message = WeatherMessage.fromBytes(bytes);
+            if (message.getDay() >= today) {
+                days.add(message);
+            }
+        }
+
+        Bitmap icon = null;
+        if (iconKey != -1) {
+            icon = Bitmap.createBitmap(iconWidth, iconHeight, Bitmap.Config.ARGB_8888);
+            icon.copyPixelsFromBuffer(buffer.slice());
+        }
+
+        return new Forecast(days, iconKey, icon);
+    }
+
+    /**
+     * Applies the days the phone sent or removed. A day is only replaced by a message with a
+     * higher sequence number, so a message that arrives late doesn't undo a newer one. The days
+     * that have passed are dropped, and today's icon is stored with the forecast.
+     *
+     * @param context     Used to find the file and to load the icon
+     * @param changedDays The days that were sent
+     * @param removedDays The days that were removed, in days since the epoch
+     * @return true if the forecast changed
+     */
+    public static boolean update(Context context, List<WeatherMessage> changedDays,
+                                 List<Integer> removedDays) {
+        synchronized (sWriteLock) {
+            Forecast forecast = read(context);
+            List<WeatherMessage> days = new ArrayList<>(forecast.getDayCount());
+            for (int index = 0; index < forecast.getDayCount(); index++) {
+                days.add(forecast.getDay(index));
+            }
+            boolean changed = false;
+
+            for (WeatherMessage message : changedDays) {
+                int index = indexOfDay(days, message.getDay());
+                if (index < 0) {
+                    days.add(-index - 1, message);
+                    changed = true;
+                } else if (message.supersedes(days.get(index))) {
+                    days.set(index, message);
+                    changed = true;
+                }
+            }
+            for (int day : removedDays) {
+                int index = indexOfDay(days, day);
+                if (index >= 0) {
+                    days.remove(index);
+                    changed = true;
+                }
+            }
+
+            if (changed) {
+                write(context, days);
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * @return The index of the day in the days, or -(insertion point) - 1 if it isn't there
+     */
+    private static int indexOfDay(List<WeatherMessage> days, int day) {
+        for (int index = 0; index < days.size(); index++) {
+            int other = days.get(index).getDay();
+            if (other == day) return index;
+            if (other > day) return -index - 1;
+        }
+        return -days.size() - 1;
+    }
+
+    /**
+     * Stores today's icon again, for when the icons it is loaded from have changed.
+     *
+     * @param context Used to find the file and to load the icon
+     */
+    public static void refreshIcon(Context context) {
+        synchronized (sWriteLock) {
+            Forecast forecast = read(context);
+            if (forecast.getDayCount() == 0) return;
+
+            List<WeatherMessage> days = new ArrayList<>(forecast.getDayCount());
+            for (int day = 0; day < forecast.getDayCount(); day++) {
+                days.add(forecast.getDay(day));
+            }
+            write(context, days);
+        }
+    }
+
+    private static void write(Context context, List<WeatherMessage> days) {
+        Bitmap icon = null;
+        int iconKey = -1;
+        if (!days.isEmpty() && days.get(0).getDay() == getLocalDay(System.currentTimeMillis())) {
+            WeatherMessage today = days.get(0);
+            icon = WeatherIconLoader.load(context, today.getWeatherId(), today.getIconSetVersion());
+            if (icon != null && icon.getConfig() != Bitmap.Config.ARGB_8888) {
+                icon = icon.copy(Bitmap.Config.ARGB_8888, false);
+            }
+            if (icon != null) {
+                iconKey = getIconKey(today);
+            }
+        }
+
+        int pixelBytes = icon == null ? 0 : icon.getWidth() * icon.getHeight() * BYTES_PER_PIXEL;
+        ByteBuffer buffer = ByteBuffer.allocate(
+                HEADER_BYTES + days.size() * WeatherMessage.SIZE_BYTES + pixelBytes);
+        buffer.putInt(MAGIC)
+                .putInt(days.size())
+                .putInt(iconKey)
+                .putInt(icon == null ? 0 : icon.getWidth())
+                .putInt(icon == null ? 0 : icon.getHeight());
+        for (WeatherMessage day : days) {
+            buffer.put(day.toBytes());
+        }
+        if (icon != null) {
+            icon.copyPixelsToBuffer(buffer);
+        }
+
+        File file = getFile(context);
+        File partialFile = new File(file.getParentFile(), FILE_NAME + ".partial");
+        try {
+            FileOutputStream out = new FileOutputStream(partialFile);
+            try {
+                out.write(buffer.array());
+            } finally {
+                out.close();
+            }
+            if (!partialFile.renameTo(file)) {
+                throw new IOException("Couldn't rename " + partialFile);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't write " + file, e);
+            partialFile.delete();
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+}